@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH result files written with {@code -rf csv}, usually a stored baseline and a fresh run, and reports
+ * every score that got worse by more than a threshold and by more than the error of either measurement.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.digitalpetri.modbus.benchmarks.BaselineComparison baseline.csv
+ * current.csv [thresholdPercent]}
+ * <p>
+ * Only primary scores and the {@code gc} profiler's {@code gc.alloc.rate.norm} (bytes per operation) are compared;
+ * other secondary results, such as allocation rates per second and GC counts, follow from the score or are too noisy
+ * to gate on.
+ * <p>
+ * Exits with status 1 if any score regressed, so it can gate a build.
+ */
+public class BaselineComparison {
+
+    private static final double DefaultThresholdPercent = 10.0;
+
+    private static final String AllocationNorm = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: BaselineComparison <baseline.csv> <current.csv> [thresholdPercent]");
+            System.exit(2);
+        }
+
+        Map<String, Result> baseline = read(args[0]);
+        Map<String, Result> current = read(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DefaultThresholdPercent;
+
+        int regressions = 0;
+
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result before = baseline.get(entry.getKey());
+            Result after = entry.getValue();
+
+            if (before == null) {
+                System.out.printf("NEW         %s: %.3f %s%n", entry.getKey(), after.score, after.unit);
+                continue;
+            }
+
+            double change = before.score == 0.0 ? 0.0 : (after.score - before.score) / before.score * 100.0;
+            double worse = after.isHigherBetter() ? -change : change;
+            boolean significant = Math.abs(after.score - before.score) > Math.max(before.error, after.error);
+
+            String status;
+            if (worse > threshold && significant) {
+                status = "REGRESSION";
+                regressions++;
+            } else if (-worse > threshold && significant) {
+                status = "IMPROVED";
+            } else {
+                status = "ok";
+            }
+
+            System.out.printf("%-11s %s: %.3f -> %.3f %s (%+.1f%%)%n",
+                status, entry.getKey(), before.score, after.score, after.unit, change);
+        }
+
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.printf("MISSING     %s%n", key);
+            }
+        }
+
+        System.out.printf("%d regression(s) over %.1f%%%n", regressions, threshold);
+
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    /**
+     * @return the results in {@code file}, keyed by benchmark name and parameter values.
+     */
+    private static Map<String, Result> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        Map<String, Result> results = new LinkedHashMap<>();
+
+        if (lines.isEmpty()) return results;
+
+        List<String> header = parseLine(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int error = header.indexOf("Score Error (99.9%)");
+        int unit = header.indexOf("Unit");
+
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty()) continue;
+
+            List<String> fields = parseLine(line);
+
+            String name = fields.get(benchmark);
+            if (name.contains(":") && !name.endsWith(":" + AllocationNorm)) continue;
+
+            StringBuilder key = new StringBuilder(name);
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && !fields.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+                }
+            }
+
+            results.put(key.toString(), new Result(
+                fields.get(mode),
+                parseDouble(fields.get(score)),
+                parseDouble(fields.get(error)),
+                fields.get(unit)));
+        }
+
+        return results;
+    }
+
+    private static List<String> parseLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+
+        return fields;
+    }
+
+    private static double parseDouble(String s) {
+        return s.isEmpty() || "NaN".equals(s) ? 0.0 : Double.parseDouble(s);
+    }
+
+    private static class Result {
+
+        private final String mode;
+        private final double score;
+        private final double error;
+        private final String unit;
+
+        private Result(String mode, double score, double error, String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        /**
+         * Throughput scores are better when higher; times and allocation rates per operation are better when lower.
+         */
+        private boolean isHigherBetter() {
+            return "thrpt".equals(mode) && !unit.endsWith("/op");
+        }
+
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+/**
+ * The allocator and buffer type combinations benchmarks run against.
+ */
+final class Buffers {
+
+    private Buffers() {}
+
+    /**
+     * @param allocator {@code pooled} or {@code unpooled}.
+     * @param buffer    {@code heap} or {@code direct}; the allocator's default buffer type.
+     */
+    static ByteBufAllocator allocator(String allocator, String buffer) {
+        boolean direct = isDirect(buffer);
+
+        switch (allocator) {
+            case "pooled":
+                return new PooledByteBufAllocator(direct);
+            case "unpooled":
+                return new UnpooledByteBufAllocator(direct);
+            default:
+                throw new IllegalArgumentException("allocator: " + allocator);
+        }
+    }
+
+    static ByteBuf buffer(ByteBufAllocator allocator, String buffer, int initialCapacity) {
+        return isDirect(buffer) ? allocator.directBuffer(initialCapacity) : allocator.heapBuffer(initialCapacity);
+    }
+
+    private static boolean isDirect(String buffer) {
+        switch (buffer) {
+            case "heap":
+                return false;
+            case "direct":
+                return true;
+            default:
+                throw new IllegalArgumentException("buffer: " + buffer);
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.benchmarks;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.codec.Modbus;
+import com.digitalpetri.modbus.master.ModbusTcpMaster;
+import com.digitalpetri.modbus.master.ModbusTcpMasterConfig;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.simulator.FaultInjectionProxy;
+import com.digitalpetri.modbus.simulator.LatencyDistribution;
+import com.digitalpetri.modbus.simulator.ModbusSimulator;
+import com.digitalpetri.modbus.simulator.ModbusSimulatorConfig;
+import com.digitalpetri.modbus.simulator.NetworkFaults;
+import com.digitalpetri.modbus.simulator.SimulatedDevice;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Measures a master's throughput under each kind of network fault, and how long it takes to recover once the fault
+ * clears, by running it against a simulated device through a {@link FaultInjectionProxy}.
+ * <p>
+ * Each scenario runs the master closed-loop, with a fixed number of requests outstanding, for a period with the fault
+ * applied and then a period without it. Recovery time is measured from the end of the fault, or from the reset for
+ * the reset scenario, to the first successful response to a request sent after it.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.digitalpetri.modbus.benchmarks.FaultRecoveryBenchmark [--option=value ...]}
+ * <ul>
+ * <li>{@code --port} - the port the simulated device listens on; default 50502.</li>
+ * <li>{@code --concurrency} - requests kept outstanding; default 16.</li>
+ * <li>{@code --fault}, {@code --recovery} - seconds with and after the fault; default 5 and 5.</li>
+ * <li>{@code --timeout} - request timeout in seconds; default 1.</li>
+ * </ul>
+ */
+public class FaultRecoveryBenchmark {
+
+    private final AtomicLong responses = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong recoveredNanos = new AtomicLong();
+
+    private final ModbusTcpMaster master;
+    private final int concurrency;
+
+    private volatile boolean running;
+    private volatile long faultEndNanos;
+
+    private FaultRecoveryBenchmark(ModbusTcpMaster master, int concurrency) {
+        this.master = master;
+        this.concurrency = concurrency;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadGenerator.parseOptions(args);
+
+        int port = Integer.parseInt(options.getOrDefault("port", "50502"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        Duration faultDuration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("fault", "5")));
+        Duration recoveryDuration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("recovery", "5")));
+        Duration timeout = Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "1")));
+
+        ModbusSimulator simulator = new ModbusSimulator(
+            new ModbusSimulatorConfig.Builder().setFirstPort(port).build()).start().get();
+
+        SimulatedDevice device = simulator.getDevices().get(0);
+        FaultInjectionProxy proxy =
+            new FaultInjectionProxy(device.getAddress(), device.getPort()).bind("localhost", 0).get();
+
+        Map<String, NetworkFaults> scenarios = new LinkedHashMap<>();
+        scenarios.put("none", NetworkFaults.none());
+        scenarios.put("latency-10ms", new NetworkFaults.Builder()
+            .setLatency(LatencyDistribution.fixed(Duration.ofMillis(10))).build());
+        scenarios.put("jitter-0-50ms", new NetworkFaults.Builder()
+            .setLatency(LatencyDistribution.uniform(Duration.ZERO, Duration.ofMillis(50))).build());
+        scenarios.put("bandwidth-10KB/s", new NetworkFaults.Builder().setBandwidth(10 * 1024).build());
+        scenarios.put("split-1B", new NetworkFaults.Builder().setMaxSegmentSize(1).build());
+        scenarios.put("coalesce-5ms", new NetworkFaults.Builder().setCoalesceDelay(Duration.ofMillis(5)).build());
+        scenarios.put("black-hole", new NetworkFaults.Builder().setBlackHole(true).build());
+        scenarios.put("reset", null);
+
+        System.out.printf("%-18s %12s %10s %10s %14s%n", "fault", "responses/s", "errors", "timeouts", "recovery(ms)");
+
+        for (Map.Entry<String, NetworkFaults> scenario : scenarios.entrySet()) {
+            ModbusTcpMaster master = new ModbusTcpMaster(new ModbusTcpMasterConfig.Builder("localhost")
+                .setPort(proxy.getPort())
+                .setTimeout(timeout)
+                .build());
+
+            FaultRecoveryBenchmark benchmark = new FaultRecoveryBenchmark(master, concurrency);
+
+            benchmark.run(proxy, scenario.getKey(), scenario.getValue(), faultDuration, recoveryDuration);
+
+            master.disconnect().get();
+            proxy.setFaults(NetworkFaults.none());
+        }
+
+        proxy.shutdown();
+        simulator.shutdown();
+        Modbus.releaseSharedResources();
+    }
+
+    /**
+     * @param faults the faults to apply, or {@code null} to reset every connection instead.
+     */
+    private void run(FaultInjectionProxy proxy,
+                     String name,
+                     NetworkFaults faults,
+                     Duration faultDuration,
+                     Duration recoveryDuration) throws InterruptedException {
+
+        master.connect().join();
+
+        running = true;
+        for (int i = 0; i < concurrency; i++) {
+            sendNext();
+        }
+
+        // Let the connection settle before the fault starts.
+        Thread.sleep(500);
+        responses.set(0);
+        errors.set(0);
+        timeouts.set(0);
+
+        long faultStartNanos = System.nanoTime();
+
+        if (faults != null) {
+            proxy.setFaults(faults);
+            Thread.sleep(faultDuration.toMillis());
+            faultEndNanos = System.nanoTime();
+            proxy.setFaults(NetworkFaults.none());
+        } else {
+            proxy.resetConnections();
+            faultEndNanos = System.nanoTime();
+            Thread.sleep(faultDuration.toMillis());
+        }
+
+        double faultSeconds = (System.nanoTime() - faultStartNanos) / 1e9;
+        long faultResponses = responses.get();
+
+        Thread.sleep(recoveryDuration.toMillis());
+        running = false;
+
+        long recovered = recoveredNanos.get();
+
+        System.out.printf("%-18s %12.0f %10d %10d %14s%n",
+            name,
+            faultResponses / faultSeconds,
+            errors.get(),
+            timeouts.get(),
+            recovered != 0 ? String.format("%.1f", (recovered - faultEndNanos) / 1e6) : "never");
+    }
+
+    private void sendNext() {
+        if (!running) return;
+
+        long sentNanos = System.nanoTime();
+
+        master.sendRequest(new ReadHoldingRegistersRequest(0, 10), 1).whenComplete((response, ex) -> {
+            if (response != null) {
+                ReferenceCountUtil.release(response);
+                responses.incrementAndGet();
+
+                long end = faultEndNanos;
+                if (end != 0 && sentNanos - end >= 0) {
+                    recoveredNanos.compareAndSet(0, System.nanoTime());
+                }
+            } else {
+                Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+
+                if (cause instanceof ModbusTimeoutException) {
+                    timeouts.incrementAndGet();
+                } else {
+                    errors.incrementAndGet();
+
+                    // Don't spin while the connection can't be made.
+                    master.getConfig().getWheelTimer().newTimeout(t -> sendNext(), 1, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            }
+
+            sendNext();
+        });
+    }
+
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.benchmarks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.codec.Modbus;
+import com.digitalpetri.modbus.master.ModbusTcpMaster;
+import com.digitalpetri.modbus.master.ModbusTcpMasterConfig;
+import io.netty.util.ReferenceCountUtil;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Open-loop load generator: drives {@link ModbusTcpMaster}s at a fixed request rate and reports latency percentiles
+ * and achieved throughput, optionally sweeping the rate to find where the slave saturates.
+ * <p>
+ * Requests are sent on schedule however slowly responses arrive, and each latency is measured from the request's
+ * intended send time, not from when it was actually sent. A stall in the slave or the generator therefore shows up in
+ * the latency of every request that should have gone out during it, rather than silently lowering the offered load
+ * (coordinated omission).
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.digitalpetri.modbus.benchmarks.LoadGenerator [--option=value ...]}
+ * <ul>
+ * <li>{@code --host}, {@code --port} - the slave; default {@code localhost:502}.</li>
+ * <li>{@code --masters} - number of masters, and so connections; default 4.</li>
+ * <li>{@code --units} - requests cycle through unit ids 1 to {@code units}; default 1.</li>
+ * <li>{@code --rate} - requests per second, or {@code start:end:step} to sweep; default 1000.</li>
+ * <li>{@code --mix} - weighted function codes, e.g. {@code ReadHoldingRegisters=80,WriteSingleRegister=20}; default
+ * {@code ReadHoldingRegisters=1}.</li>
+ * <li>{@code --warmup}, {@code --duration} - seconds per rate before and during measurement; default 2 and 10.</li>
+ * <li>{@code --timeout} - request timeout in seconds; default 5.</li>
+ * </ul>
+ */
+public class LoadGenerator {
+
+    /**
+     * A rate step is saturated once its p99 exceeds the first step's by this factor.
+     */
+    private static final double SaturationLatencyFactor = 10.0;
+
+    private final List<ModbusTcpMaster> masters;
+    private final int units;
+    private final FunctionMix mix;
+
+    public LoadGenerator(List<ModbusTcpMaster> masters, int units, FunctionMix mix) {
+        this.masters = masters;
+        this.units = units;
+        this.mix = mix;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "502"));
+        int masterCount = Integer.parseInt(options.getOrDefault("masters", "4"));
+        int units = Integer.parseInt(options.getOrDefault("units", "1"));
+        double[] rates = parseRates(options.getOrDefault("rate", "1000"));
+        FunctionMix mix = FunctionMix.parse(options.getOrDefault("mix", "ReadHoldingRegisters=1"));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "2")));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "10")));
+        Duration timeout = Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "5")));
+
+        List<ModbusTcpMaster> masters = new ArrayList<>();
+        for (int i = 0; i < masterCount; i++) {
+            ModbusTcpMasterConfig config = new ModbusTcpMasterConfig.Builder(host)
+                .setPort(port)
+                .setTimeout(timeout)
+                .build();
+
+            masters.add(new ModbusTcpMaster(config).connect().get());
+        }
+
+        LoadGenerator generator = new LoadGenerator(masters, units, mix);
+
+        System.out.printf("%10s %10s %8s %8s %10s %10s %10s %10s%n",
+            "target/s", "achieved/s", "errors", "timeouts", "p50(ms)", "p99(ms)", "p99.9(ms)", "max(ms)");
+
+        StepResult first = null;
+        StepResult lastGood = null;
+        StepResult knee = null;
+
+        for (double rate : rates) {
+            StepResult result = generator.run(rate, warmup, duration, timeout);
+            result.print();
+
+            if (first == null) first = result;
+
+            if (knee == null) {
+                if (result.isSaturated(first)) {
+                    knee = result;
+                } else {
+                    lastGood = result;
+                }
+            }
+        }
+
+        if (rates.length > 1) {
+            if (knee != null) {
+                System.out.printf("saturated at %.0f req/s; last rate sustained: %s%n", knee.targetRate,
+                    lastGood != null ? String.format("%.0f req/s", lastGood.targetRate) : "none");
+            } else {
+                System.out.println("no saturation up to the highest rate");
+            }
+        }
+
+        for (ModbusTcpMaster master : masters) {
+            master.disconnect().get();
+        }
+        Modbus.releaseSharedResources();
+    }
+
+    /**
+     * Offer {@code rate} requests per second for {@code warmup} and then {@code duration}, measuring only requests
+     * scheduled during {@code duration}.
+     */
+    public StepResult run(double rate, Duration warmup, Duration duration, Duration timeout)
+        throws InterruptedException {
+
+        Recorder recorder = new Recorder(3);
+        AtomicLong outstanding = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicLong timeouts = new AtomicLong();
+        AtomicLong lastCompletion = new AtomicLong();
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long startTime = System.nanoTime();
+        long measureStartTime = startTime + warmup.toNanos();
+        long endTime = measureStartTime + duration.toNanos();
+
+        for (long i = 0; ; i++) {
+            long intendedTime = startTime + i * intervalNanos;
+            if (intendedTime - endTime >= 0) break;
+
+            long now;
+            while ((now = System.nanoTime()) - intendedTime < 0) {
+                LockSupport.parkNanos(intendedTime - now);
+            }
+
+            boolean measured = intendedTime - measureStartTime >= 0;
+            if (measured) outstanding.incrementAndGet();
+
+            ModbusTcpMaster master = masters.get((int) (i % masters.size()));
+            int unitId = 1 + (int) (i % units);
+
+            CompletableFuture<?> future = master.sendRequest(Pdus.request(mix.next()), unitId);
+
+            future.whenComplete((response, ex) -> {
+                long completionTime = System.nanoTime();
+                ReferenceCountUtil.release(response);
+
+                if (!measured) return;
+
+                if (ex == null) {
+                    recorder.recordValue(completionTime - intendedTime);
+                    lastCompletion.accumulateAndGet(completionTime, Math::max);
+                } else if (unwrap(ex) instanceof ModbusTimeoutException) {
+                    timeouts.incrementAndGet();
+                } else {
+                    errors.incrementAndGet();
+                }
+
+                outstanding.decrementAndGet();
+            });
+        }
+
+        long drainDeadline = System.nanoTime() + timeout.toNanos() + TimeUnit.SECONDS.toNanos(1);
+        while (outstanding.get() > 0 && System.nanoTime() - drainDeadline < 0) {
+            Thread.sleep(10);
+        }
+
+        Histogram histogram = recorder.getIntervalHistogram();
+        long elapsed = Math.max(lastCompletion.get() - measureStartTime, duration.toNanos());
+        double achievedRate = histogram.getTotalCount() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+
+        return new StepResult(rate, achievedRate, errors.get(), timeouts.get(), histogram);
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("expected --option=value: " + arg);
+            }
+
+            int i = arg.indexOf('=');
+            options.put(arg.substring(2, i), arg.substring(i + 1));
+        }
+
+        return options;
+    }
+
+    /**
+     * @return the single rate in {@code s}, or every rate from {@code start} to {@code end} in {@code step}s for
+     * {@code start:end:step}.
+     */
+    private static double[] parseRates(String s) {
+        String[] parts = s.split(":");
+
+        if (parts.length == 1) {
+            return new double[]{Double.parseDouble(parts[0])};
+        }
+
+        double start = Double.parseDouble(parts[0]);
+        double end = Double.parseDouble(parts[1]);
+        double step = Double.parseDouble(parts[2]);
+
+        int count = (int) Math.floor((end - start) / step) + 1;
+        double[] rates = new double[count];
+        for (int i = 0; i < count; i++) {
+            rates[i] = start + i * step;
+        }
+        return rates;
+    }
+
+    /**
+     * A weighted choice of function codes.
+     */
+    public static class FunctionMix {
+
+        private final FunctionCode[] functionCodes;
+        private final int[] cumulativeWeights;
+
+        private FunctionMix(FunctionCode[] functionCodes, int[] cumulativeWeights) {
+            this.functionCodes = functionCodes;
+            this.cumulativeWeights = cumulativeWeights;
+        }
+
+        /**
+         * @param s comma-separated {@code FunctionCode=weight} pairs.
+         */
+        public static FunctionMix parse(String s) {
+            String[] entries = s.split(",");
+
+            FunctionCode[] functionCodes = new FunctionCode[entries.length];
+            int[] cumulativeWeights = new int[entries.length];
+
+            int total = 0;
+            for (int i = 0; i < entries.length; i++) {
+                String[] pair = entries[i].trim().split("=");
+
+                functionCodes[i] = FunctionCode.valueOf(pair[0]);
+                total += pair.length > 1 ? Integer.parseInt(pair[1]) : 1;
+                cumulativeWeights[i] = total;
+            }
+
+            return new FunctionMix(functionCodes, cumulativeWeights);
+        }
+
+        FunctionCode next() {
+            int n = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+
+            for (int i = 0; i < cumulativeWeights.length; i++) {
+                if (n < cumulativeWeights[i]) return functionCodes[i];
+            }
+            return functionCodes[functionCodes.length - 1];
+        }
+
+    }
+
+    public static class StepResult {
+
+        private final double targetRate;
+        private final double achievedRate;
+        private final long errors;
+        private final long timeouts;
+        private final Histogram histogram;
+
+        private StepResult(double targetRate, double achievedRate, long errors, long timeouts, Histogram histogram) {
+            this.targetRate = targetRate;
+            this.achievedRate = achievedRate;
+            this.errors = errors;
+            this.timeouts = timeouts;
+            this.histogram = histogram;
+        }
+
+        public double getTargetRate() {
+            return targetRate;
+        }
+
+        public double getAchievedRate() {
+            return achievedRate;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getTimeouts() {
+            return timeouts;
+        }
+
+        /**
+         * @return latencies in nanoseconds, from intended send time to response.
+         */
+        public Histogram getHistogram() {
+            return histogram;
+        }
+
+        /**
+         * @return {@code true} if this step fell short of its target rate, failed requests, or had a p99 far above
+         * that of {@code first}, the lowest rate.
+         */
+        boolean isSaturated(StepResult first) {
+            long p99 = histogram.getValueAtPercentile(99.0);
+            long firstP99 = first.histogram.getValueAtPercentile(99.0);
+
+            return achievedRate < targetRate * 0.95
+                || errors + timeouts > 0
+                || (this != first && p99 > firstP99 * SaturationLatencyFactor);
+        }
+
+        private void print() {
+            System.out.printf("%10.0f %10.0f %8d %8d %10.3f %10.3f %10.3f %10.3f%n",
+                targetRate,
+                achievedRate,
+                errors,
+                timeouts,
+                millis(histogram.getValueAtPercentile(50.0)),
+                millis(histogram.getValueAtPercentile(99.0)),
+                millis(histogram.getValueAtPercentile(99.9)),
+                millis(histogram.getMaxValue()));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+
+    }
+
+}
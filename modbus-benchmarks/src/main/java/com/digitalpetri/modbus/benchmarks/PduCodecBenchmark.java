@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.ModbusPdu;
+import com.digitalpetri.modbus.codec.ModbusRequestDecoder;
+import com.digitalpetri.modbus.codec.ModbusRequestEncoder;
+import com.digitalpetri.modbus.codec.ModbusResponseDecoder;
+import com.digitalpetri.modbus.codec.ModbusResponseEncoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PDU encoders and decoders in isolation, without MBAP framing or a pipeline.
+ * <p>
+ * Encode benchmarks include allocating the output buffer from the {@code allocator}; decode benchmarks read an
+ * encoded PDU held in a {@code buffer} of the given type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PduCodecBenchmark {
+
+    @Param({
+        "ReadCoils",
+        "ReadDiscreteInputs",
+        "ReadHoldingRegisters",
+        "ReadInputRegisters",
+        "WriteSingleCoil",
+        "WriteSingleRegister",
+        "WriteMultipleCoils",
+        "WriteMultipleRegisters",
+        "MaskWriteRegister"
+    })
+    public String functionCode;
+
+    @Param({"pooled", "unpooled"})
+    public String allocator;
+
+    @Param({"heap", "direct"})
+    public String buffer;
+
+    private final ModbusRequestEncoder requestEncoder = new ModbusRequestEncoder();
+    private final ModbusRequestDecoder requestDecoder = new ModbusRequestDecoder();
+    private final ModbusResponseEncoder responseEncoder = new ModbusResponseEncoder();
+    private final ModbusResponseDecoder responseDecoder = new ModbusResponseDecoder();
+
+    private FunctionCode code;
+    private ByteBufAllocator alloc;
+    private ByteBuf encodedRequest;
+    private ByteBuf encodedResponse;
+
+    @Setup
+    public void setup() {
+        code = FunctionCode.valueOf(functionCode);
+        alloc = Buffers.allocator(allocator, buffer);
+
+        encodedRequest = requestEncoder.encode(Pdus.request(code), Buffers.buffer(alloc, buffer, 256));
+        encodedResponse = responseEncoder.encode(Pdus.response(code), Buffers.buffer(alloc, buffer, 256));
+    }
+
+    @TearDown
+    public void tearDown() {
+        encodedRequest.release();
+        encodedResponse.release();
+    }
+
+    @Benchmark
+    public int encodeRequest() {
+        ByteBuf out = requestEncoder.encode(Pdus.request(code), Buffers.buffer(alloc, buffer, 256));
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+    @Benchmark
+    public int encodeResponse() {
+        ByteBuf out = responseEncoder.encode(Pdus.response(code), Buffers.buffer(alloc, buffer, 256));
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+    @Benchmark
+    public ModbusPdu decodeRequest() {
+        encodedRequest.readerIndex(0);
+        ModbusPdu request = requestDecoder.decode(encodedRequest);
+        ReferenceCountUtil.release(request);
+        return request;
+    }
+
+    @Benchmark
+    public ModbusPdu decodeResponse() {
+        encodedResponse.readerIndex(0);
+        ModbusPdu response = responseDecoder.decode(encodedResponse);
+        ReferenceCountUtil.release(response);
+        return response;
+    }
+
+}
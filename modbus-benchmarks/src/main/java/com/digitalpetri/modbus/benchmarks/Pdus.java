@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.benchmarks;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.requests.MaskWriteRegisterRequest;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.requests.ReadCoilsRequest;
+import com.digitalpetri.modbus.requests.ReadDiscreteInputsRequest;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.ReadInputRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleCoilsRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleCoilRequest;
+import com.digitalpetri.modbus.requests.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.responses.MaskWriteRegisterResponse;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+import com.digitalpetri.modbus.responses.ReadCoilsResponse;
+import com.digitalpetri.modbus.responses.ReadDiscreteInputsResponse;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.responses.ReadInputRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteMultipleCoilsResponse;
+import com.digitalpetri.modbus.responses.WriteMultipleRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteSingleCoilResponse;
+import com.digitalpetri.modbus.responses.WriteSingleRegisterResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * A representative request and response for each supported function code: 10 registers or 80 coils where the function
+ * carries data.
+ * <p>
+ * Data buffers are unreleasable and shared, so creating a PDU only allocates the PDU itself and encoders releasing it
+ * doesn't invalidate the next one.
+ */
+final class Pdus {
+
+    /**
+     * The function codes the codec supports, as {@code @Param} values.
+     */
+    static final String[] FunctionCodes = {
+        "ReadCoils",
+        "ReadDiscreteInputs",
+        "ReadHoldingRegisters",
+        "ReadInputRegisters",
+        "WriteSingleCoil",
+        "WriteSingleRegister",
+        "WriteMultipleCoils",
+        "WriteMultipleRegisters",
+        "MaskWriteRegister"
+    };
+
+    private static final ByteBuf Coils = Unpooled.unreleasableBuffer(Unpooled.buffer(10).writeZero(10));
+    private static final ByteBuf Registers = Unpooled.unreleasableBuffer(Unpooled.buffer(20).writeZero(20));
+
+    private Pdus() {}
+
+    static ModbusRequest request(FunctionCode functionCode) {
+        switch (functionCode) {
+            case ReadCoils:
+                return new ReadCoilsRequest(0, 80);
+            case ReadDiscreteInputs:
+                return new ReadDiscreteInputsRequest(0, 80);
+            case ReadHoldingRegisters:
+                return new ReadHoldingRegistersRequest(0, 10);
+            case ReadInputRegisters:
+                return new ReadInputRegistersRequest(0, 10);
+            case WriteSingleCoil:
+                return new WriteSingleCoilRequest(0, true);
+            case WriteSingleRegister:
+                return new WriteSingleRegisterRequest(0, 0x1234);
+            case WriteMultipleCoils:
+                return new WriteMultipleCoilsRequest(0, 80, Coils.duplicate());
+            case WriteMultipleRegisters:
+                return new WriteMultipleRegistersRequest(0, 10, Registers.duplicate());
+            case MaskWriteRegister:
+                return new MaskWriteRegisterRequest(0, 0xF0F0, 0x0F0F);
+            default:
+                throw new IllegalArgumentException("unsupported: " + functionCode);
+        }
+    }
+
+    static ModbusResponse response(FunctionCode functionCode) {
+        switch (functionCode) {
+            case ReadCoils:
+                return new ReadCoilsResponse(Coils.duplicate());
+            case ReadDiscreteInputs:
+                return new ReadDiscreteInputsResponse(Coils.duplicate());
+            case ReadHoldingRegisters:
+                return new ReadHoldingRegistersResponse(Registers.duplicate());
+            case ReadInputRegisters:
+                return new ReadInputRegistersResponse(Registers.duplicate());
+            case WriteSingleCoil:
+                return new WriteSingleCoilResponse(0, 0xFF00);
+            case WriteSingleRegister:
+                return new WriteSingleRegisterResponse(0, 0x1234);
+            case WriteMultipleCoils:
+                return new WriteMultipleCoilsResponse(0, 80);
+            case WriteMultipleRegisters:
+                return new WriteMultipleRegistersResponse(0, 10);
+            case MaskWriteRegister:
+                return new MaskWriteRegisterResponse(0, 0xF0F0, 0x0F0F);
+            default:
+                throw new IllegalArgumentException("unsupported: " + functionCode);
+        }
+    }
+
+}
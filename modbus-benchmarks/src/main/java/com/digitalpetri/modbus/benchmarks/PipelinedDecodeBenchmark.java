@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.codec.ModbusRequestEncoder;
+import com.digitalpetri.modbus.codec.ModbusResponseDecoder;
+import com.digitalpetri.modbus.codec.ModbusResponseEncoder;
+import com.digitalpetri.modbus.codec.ModbusTcpCodec;
+import com.digitalpetri.modbus.codec.ModbusTcpPayload;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding a read that delivers {@code frames} pipelined responses at once, as a master sees when many requests are in
+ * flight on one connection. The responses cycle through every supported function code.
+ * <p>
+ * Scores are per read; divide by {@code frames} for the cost per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelinedDecodeBenchmark {
+
+    @Param({"1", "16", "128"})
+    public int frames;
+
+    @Param({"pooled", "unpooled"})
+    public String allocator;
+
+    @Param({"heap", "direct"})
+    public String buffer;
+
+    private EmbeddedChannel channel;
+    private ByteBuf input;
+
+    @Setup
+    public void setup() {
+        ByteBufAllocator alloc = Buffers.allocator(allocator, buffer);
+
+        EmbeddedChannel encoder = new EmbeddedChannel(
+            new ModbusTcpCodec(new ModbusResponseEncoder(), new ModbusResponseDecoder()));
+
+        ByteBuf frames = Buffers.buffer(alloc, buffer, 256);
+        for (int i = 0; i < this.frames; i++) {
+            FunctionCode code = FunctionCode.valueOf(Pdus.FunctionCodes[i % Pdus.FunctionCodes.length]);
+            encoder.writeOutbound(new ModbusTcpPayload((short) i, (short) 1, Pdus.response(code)));
+
+            ByteBuf frame = (ByteBuf) encoder.readOutbound();
+            frames.writeBytes(frame);
+            frame.release();
+        }
+        encoder.finish();
+
+        input = Unpooled.unreleasableBuffer(frames);
+
+        channel = new EmbeddedChannel(new ModbusTcpCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+        channel.config().setAllocator(alloc);
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finish();
+    }
+
+    @Benchmark
+    public int decode() {
+        channel.writeInbound(input.duplicate());
+
+        int decoded = 0;
+        Object payload;
+        while ((payload = channel.readInbound()) != null) {
+            ReferenceCountUtil.release(((ModbusTcpPayload) payload).getModbusPdu());
+            decoded++;
+        }
+        return decoded;
+    }
+
+}
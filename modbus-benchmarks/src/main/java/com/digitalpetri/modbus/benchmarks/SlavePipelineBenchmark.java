@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.modbus.codec.ModbusRequestDecoder;
+import com.digitalpetri.modbus.codec.ModbusRequestEncoder;
+import com.digitalpetri.modbus.codec.ModbusResponseEncoder;
+import com.digitalpetri.modbus.codec.ModbusTcpCodec;
+import com.digitalpetri.modbus.codec.ModbusTcpPayload;
+import com.digitalpetri.modbus.codec.SampledFrameTraceHandler;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.logging.LogLevel;
+import io.netty.handler.logging.LoggingHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-request cost of a slave child pipeline: an encoded ReadHoldingRegisters request goes in, the encoded response
+ * comes out.
+ * <ul>
+ * <li>{@code none} - the default pipeline: codec and request handler only.</li>
+ * <li>{@code logging} - a {@link LoggingHandler} at TRACE ahead of the codec, as the slave used to install. With
+ * TRACE disabled this is the cost of the extra handler hop and level check on every event.</li>
+ * <li>{@code sampled} - a {@link SampledFrameTraceHandler} logging 1 in 1000 frames after the codec.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlavePipelineBenchmark {
+
+    @Param({"none", "logging", "sampled"})
+    public String tracing;
+
+    private EmbeddedChannel channel;
+    private ByteBuf request;
+
+    @Setup
+    public void setup() {
+        EmbeddedChannel encoder = new EmbeddedChannel(
+            new ModbusTcpCodec(new ModbusRequestEncoder(), new ModbusRequestDecoder()));
+        encoder.writeOutbound(new ModbusTcpPayload((short) 1, (short) 1, new ReadHoldingRegistersRequest(0, 10)));
+        ByteBuf encoded = (ByteBuf) encoder.readOutbound();
+        request = Unpooled.unreleasableBuffer(Unpooled.copiedBuffer(encoded));
+        encoded.release();
+
+        List<ChannelHandler> handlers = new ArrayList<>();
+        if ("logging".equals(tracing)) {
+            handlers.add(new LoggingHandler(LogLevel.TRACE));
+        }
+        handlers.add(new ModbusTcpCodec(new ModbusResponseEncoder(), new ModbusRequestDecoder()));
+        if ("sampled".equals(tracing)) {
+            handlers.add(new SampledFrameTraceHandler(1000));
+        }
+        handlers.add(new Responder());
+
+        channel = new EmbeddedChannel(handlers.toArray(new ChannelHandler[handlers.size()]));
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finish();
+    }
+
+    @Benchmark
+    public int request() {
+        channel.writeInbound(request.duplicate());
+
+        ByteBuf response = (ByteBuf) channel.readOutbound();
+        int length = response.readableBytes();
+        response.release();
+        return length;
+    }
+
+    /**
+     * Stands in for the slave's request handler: answers every request with the same 10 registers.
+     */
+    private static class Responder extends SimpleChannelInboundHandler<ModbusTcpPayload> {
+
+        private final ByteBuf registers = Unpooled.unreleasableBuffer(Unpooled.buffer(20).writeZero(20));
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ModbusTcpPayload payload) throws Exception {
+            ReadHoldingRegistersResponse response = new ReadHoldingRegistersResponse(registers.duplicate());
+
+            ctx.writeAndFlush(new ModbusTcpPayload(payload.getTransactionId(), payload.getUnitId(), response));
+        }
+
+    }
+
+}
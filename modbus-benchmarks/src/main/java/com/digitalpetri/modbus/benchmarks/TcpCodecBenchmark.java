@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.ModbusPdu;
+import com.digitalpetri.modbus.codec.ModbusRequestDecoder;
+import com.digitalpetri.modbus.codec.ModbusRequestEncoder;
+import com.digitalpetri.modbus.codec.ModbusResponseDecoder;
+import com.digitalpetri.modbus.codec.ModbusResponseEncoder;
+import com.digitalpetri.modbus.codec.ModbusTcpCodec;
+import com.digitalpetri.modbus.codec.ModbusTcpPayload;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ModbusTcpCodec} in a pipeline, as configured by the master (request encoder, response decoder) and by the
+ * slave (response encoder, request decoder).
+ * <p>
+ * Both channels allocate from {@code allocator}. Inbound frames are held in a {@code buffer} of the given type; the
+ * type of encoded frames is chosen by the codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TcpCodecBenchmark {
+
+    @Param({
+        "ReadCoils",
+        "ReadDiscreteInputs",
+        "ReadHoldingRegisters",
+        "ReadInputRegisters",
+        "WriteSingleCoil",
+        "WriteSingleRegister",
+        "WriteMultipleCoils",
+        "WriteMultipleRegisters",
+        "MaskWriteRegister"
+    })
+    public String functionCode;
+
+    @Param({"pooled", "unpooled"})
+    public String allocator;
+
+    @Param({"heap", "direct"})
+    public String buffer;
+
+    private FunctionCode code;
+
+    private EmbeddedChannel masterChannel;
+    private EmbeddedChannel slaveChannel;
+
+    private ByteBuf requestFrame;
+    private ByteBuf responseFrame;
+
+    @Setup
+    public void setup() {
+        code = FunctionCode.valueOf(functionCode);
+        ByteBufAllocator alloc = Buffers.allocator(allocator, buffer);
+
+        masterChannel = new EmbeddedChannel(new ModbusTcpCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+        masterChannel.config().setAllocator(alloc);
+
+        slaveChannel = new EmbeddedChannel(new ModbusTcpCodec(new ModbusResponseEncoder(), new ModbusRequestDecoder()));
+        slaveChannel.config().setAllocator(alloc);
+
+        requestFrame = frame(masterChannel, Pdus.request(code), alloc);
+        responseFrame = frame(slaveChannel, Pdus.response(code), alloc);
+    }
+
+    @TearDown
+    public void tearDown() {
+        masterChannel.finish();
+        slaveChannel.finish();
+    }
+
+    @Benchmark
+    public int masterEncodeRequest() {
+        masterChannel.writeOutbound(new ModbusTcpPayload((short) 1, (short) 1, Pdus.request(code)));
+
+        ByteBuf out = (ByteBuf) masterChannel.readOutbound();
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+    @Benchmark
+    public ModbusPdu masterDecodeResponse() {
+        masterChannel.writeInbound(responseFrame.duplicate());
+
+        ModbusPdu response = ((ModbusTcpPayload) masterChannel.readInbound()).getModbusPdu();
+        ReferenceCountUtil.release(response);
+        return response;
+    }
+
+    @Benchmark
+    public ModbusPdu slaveDecodeRequest() {
+        slaveChannel.writeInbound(requestFrame.duplicate());
+
+        ModbusPdu request = ((ModbusTcpPayload) slaveChannel.readInbound()).getModbusPdu();
+        ReferenceCountUtil.release(request);
+        return request;
+    }
+
+    @Benchmark
+    public int slaveEncodeResponse() {
+        slaveChannel.writeOutbound(new ModbusTcpPayload((short) 1, (short) 1, Pdus.response(code)));
+
+        ByteBuf out = (ByteBuf) slaveChannel.readOutbound();
+        int length = out.readableBytes();
+        out.release();
+        return length;
+    }
+
+    /**
+     * @return {@code pdu} encoded by {@code channel}, copied into an unreleasable buffer of the benchmark's type.
+     */
+    private ByteBuf frame(EmbeddedChannel channel, ModbusPdu pdu, ByteBufAllocator alloc) {
+        channel.writeOutbound(new ModbusTcpPayload((short) 1, (short) 1, pdu));
+
+        ByteBuf encoded = (ByteBuf) channel.readOutbound();
+        ByteBuf frame = Buffers.buffer(alloc, buffer, encoded.readableBytes()).writeBytes(encoded);
+        encoded.release();
+
+        return Unpooled.unreleasableBuffer(frame);
+    }
+
+}
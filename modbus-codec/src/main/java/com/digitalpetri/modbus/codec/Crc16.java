@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Table-driven CRC-16/MODBUS (polynomial 0xA001 reflected, initial value 0xFFFF).
+ */
+public final class Crc16 {
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    private Crc16() {}
+
+    /**
+     * Calculate the CRC of {@code length} bytes of {@code buffer} starting at {@code index}. The reader and writer
+     * index of {@code buffer} are not modified.
+     * <p>
+     * Array-backed buffers are walked directly; other buffers are read 8 bytes at a time so the per-byte work stays
+     * in this method instead of going through a {@link ByteBuf} accessor for every byte.
+     *
+     * @param buffer the buffer to read from.
+     * @param index  the index of the first byte.
+     * @param length the number of bytes to include.
+     * @return the CRC, low byte first when written on the wire.
+     */
+    public static int calculate(ByteBuf buffer, int index, int length) {
+        int crc = 0xFFFF;
+
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset() + index;
+
+            for (int i = offset; i < offset + length; i++) {
+                crc = (crc >>> 8) ^ TABLE[(crc ^ array[i]) & 0xFF];
+            }
+        } else {
+            int end = index + length;
+            int i = index;
+
+            for (; i + 8 <= end; i += 8) {
+                long word = buffer.getLong(i);
+
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    crc = (crc >>> 8) ^ TABLE[(crc ^ (int) (word >>> shift)) & 0xFF];
+                }
+            }
+
+            for (; i < end; i++) {
+                crc = (crc >>> 8) ^ TABLE[(crc ^ buffer.getByte(i)) & 0xFF];
+            }
+        }
+
+        return crc;
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec;
+
+/**
+ * What {@link ModbusTcpCodec} does when it receives a frame that fails validation.
+ */
+public enum InvalidFrameAction {
+
+    /**
+     * Discard the frame and keep decoding. If the length field itself is invalid the frame boundary is unknown, so
+     * everything received so far is discarded.
+     */
+    DropFrame,
+
+    /**
+     * Discard everything received and close the connection.
+     */
+    CloseConnection
+
+}
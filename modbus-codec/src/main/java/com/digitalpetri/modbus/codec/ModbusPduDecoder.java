@@ -22,6 +22,28 @@ import io.netty.handler.codec.DecoderException;
 
 public interface ModbusPduDecoder {
 
+    /**
+     * Returned by {@link #getPduLength(ByteBuf, int)} when more bytes are needed before the length is known.
+     */
+    int LENGTH_INCOMPLETE = -1;
+
+    /**
+     * Returned by {@link #getPduLength(ByteBuf, int)} when the length can't be derived from the function code.
+     */
+    int LENGTH_UNKNOWN = -2;
+
     ModbusPdu decode(ByteBuf buffer) throws DecoderException;
 
+    /**
+     * Determine the length of the PDU starting at {@code index} from the function code length rules, without
+     * modifying the reader or writer index of {@code buffer}.
+     *
+     * @param buffer the buffer containing the (possibly partial) PDU.
+     * @param index  the index of the function code byte.
+     * @return the PDU length in bytes, {@link #LENGTH_INCOMPLETE}, or {@link #LENGTH_UNKNOWN}.
+     */
+    default int getPduLength(ByteBuf buffer, int index) {
+        return LENGTH_UNKNOWN;
+    }
+
 }
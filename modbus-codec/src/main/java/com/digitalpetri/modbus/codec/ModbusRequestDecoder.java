@@ -44,6 +44,54 @@ public class ModbusRequestDecoder implements ModbusPduDecoder {
         return decodeResponse(functionCode, buffer);
     }
 
+    @Override
+    public int getPduLength(ByteBuf buffer, int index) {
+        if (buffer.writerIndex() <= index) return LENGTH_INCOMPLETE;
+
+        switch (buffer.getUnsignedByte(index)) {
+            case 0x01:
+            case 0x02:
+            case 0x03:
+            case 0x04:
+            case 0x05:
+            case 0x06:
+            case 0x08:
+                return 5;
+
+            case 0x07:
+            case 0x0B:
+            case 0x0C:
+            case 0x11:
+                return 1;
+
+            case 0x0F:
+            case 0x10:
+                return withByteCount(buffer, index + 5, 6);
+
+            case 0x14:
+            case 0x15:
+                return withByteCount(buffer, index + 1, 2);
+
+            case 0x16:
+                return 7;
+
+            case 0x17:
+                return withByteCount(buffer, index + 9, 10);
+
+            case 0x18:
+                return 3;
+
+            default:
+                return LENGTH_UNKNOWN;
+        }
+    }
+
+    private static int withByteCount(ByteBuf buffer, int byteCountIndex, int fixedLength) {
+        if (buffer.writerIndex() <= byteCountIndex) return LENGTH_INCOMPLETE;
+
+        return fixedLength + buffer.getUnsignedByte(byteCountIndex);
+    }
+
     private ModbusPdu decodeResponse(FunctionCode functionCode, ByteBuf buffer) throws DecoderException {
         switch (functionCode) {
             case ReadCoils:
@@ -108,7 +156,8 @@ public class ModbusRequestDecoder implements ModbusPduDecoder {
 
     private WriteSingleCoilRequest decodeWriteSingleCoil(ByteBuf buffer) {
         int address = buffer.readUnsignedShort();
-        boolean value = buffer.readUnsignedShort() == 0xFF00;
+        // Kept as received, so a slave can reject values other than 0xFF00 and 0x0000.
+        int value = buffer.readUnsignedShort();
 
         return new WriteSingleCoilRequest(address, value);
     }
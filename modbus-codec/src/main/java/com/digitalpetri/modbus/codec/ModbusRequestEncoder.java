@@ -34,6 +34,10 @@ public class ModbusRequestEncoder implements ModbusPduEncoder {
 
     @Override
     public ByteBuf encode(ModbusPdu modbusPdu, ByteBuf buffer) throws EncoderException {
+        if (modbusPdu instanceof RequestTemplate) {
+            return ((RequestTemplate) modbusPdu).writePdu(buffer);
+        }
+
         try {
             switch (modbusPdu.getFunctionCode()) {
                 case ReadCoils:
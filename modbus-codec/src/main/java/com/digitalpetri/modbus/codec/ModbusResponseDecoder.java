@@ -54,6 +54,50 @@ public class ModbusResponseDecoder implements ModbusPduDecoder {
         }
     }
 
+    @Override
+    public int getPduLength(ByteBuf buffer, int index) {
+        if (buffer.writerIndex() <= index) return LENGTH_INCOMPLETE;
+
+        int code = buffer.getUnsignedByte(index);
+
+        if (FunctionCode.isExceptionCode(code)) return 2;
+
+        switch (code) {
+            case 0x01:
+            case 0x02:
+            case 0x03:
+            case 0x04:
+            case 0x0C:
+            case 0x11:
+            case 0x14:
+            case 0x15:
+            case 0x17:
+                if (buffer.writerIndex() <= index + 1) return LENGTH_INCOMPLETE;
+                return 2 + buffer.getUnsignedByte(index + 1);
+
+            case 0x05:
+            case 0x06:
+            case 0x08:
+            case 0x0B:
+            case 0x0F:
+            case 0x10:
+                return 5;
+
+            case 0x07:
+                return 2;
+
+            case 0x16:
+                return 7;
+
+            case 0x18:
+                if (buffer.writerIndex() <= index + 2) return LENGTH_INCOMPLETE;
+                return 3 + buffer.getUnsignedShort(index + 1);
+
+            default:
+                return LENGTH_UNKNOWN;
+        }
+    }
+
     private ModbusPdu decodeException(FunctionCode functionCode, ByteBuf buffer) throws DecoderException {
         int code = buffer.readUnsignedByte();
 
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec;
+
+import java.util.List;
+
+import com.digitalpetri.modbus.ModbusPdu;
+import com.digitalpetri.modbus.codec.jfr.CodecErrorEvent;
+import com.digitalpetri.modbus.codec.jfr.Jfr;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.DecoderException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Codec for Modbus RTU frames tunneled over a stream, e.g. by a serial device server.
+ * <p>
+ * Frame boundaries are found using the function code length rules of the {@link ModbusPduDecoder} rather than
+ * inter-character timing, so the decoder must know whether it is decoding requests or responses.
+ * <p>
+ * RTU frames carry no transaction id. Decoded payloads are assigned the transaction id of the last payload encoded
+ * on this channel, which is only meaningful when at most one request is outstanding at a time.
+ */
+public class ModbusRtuCodec extends ByteToMessageCodec<ModbusTcpPayload> {
+
+    /** Unit id, function code, and CRC. */
+    private static final int MinFrameLength = 4;
+
+    /** Maximum size of a serial line ADU. */
+    private static final int MaxFrameLength = 256;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private short transactionId = 0;
+
+    private final ModbusPduEncoder encoder;
+    private final ModbusPduDecoder decoder;
+
+    public ModbusRtuCodec(ModbusPduEncoder encoder, ModbusPduDecoder decoder) {
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ModbusTcpPayload payload, ByteBuf buffer) throws Exception {
+        transactionId = payload.getTransactionId();
+
+        int startIndex = buffer.writerIndex();
+        buffer.writeByte(payload.getUnitId());
+        encoder.encode(payload.getModbusPdu(), buffer);
+
+        int crc = Crc16.calculate(buffer, startIndex, buffer.writerIndex() - startIndex);
+        buffer.writeByte(crc & 0xFF);
+        buffer.writeByte((crc >>> 8) & 0xFF);
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf buffer, List<Object> out) throws Exception {
+        while (buffer.readableBytes() >= MinFrameLength) {
+            int startIndex = buffer.readerIndex();
+            int pduLength = decoder.getPduLength(buffer, startIndex + 1);
+
+            if (pduLength == ModbusPduDecoder.LENGTH_INCOMPLETE) {
+                return;
+            }
+
+            int frameLength = pduLength + 3;
+
+            if (pduLength == ModbusPduDecoder.LENGTH_UNKNOWN || frameLength > MaxFrameLength) {
+                // Framing is lost; there is no way to find the start of the next frame.
+                int functionCode = buffer.getUnsignedByte(startIndex + 1);
+                buffer.skipBytes(buffer.readableBytes());
+
+                if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                    CodecErrorEvent.record(getClass(), ctx.channel().remoteAddress(),
+                        "functionCode=" + functionCode + ", frame length unknown", "buffer discarded");
+                }
+
+                throw new DecoderException("unable to determine frame length, functionCode=" + functionCode);
+            }
+
+            if (buffer.readableBytes() < frameLength) {
+                return;
+            }
+
+            int crcIndex = startIndex + frameLength - 2;
+            int expected = Crc16.calculate(buffer, startIndex, frameLength - 2);
+            int actual = buffer.getUnsignedByte(crcIndex) | (buffer.getUnsignedByte(crcIndex + 1) << 8);
+
+            if (expected != actual) {
+                logger.debug("Discarding frame with invalid CRC: expected={}, actual={}", expected, actual);
+
+                if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                    CodecErrorEvent.record(getClass(), ctx.channel().remoteAddress(),
+                        "crc expected=" + expected + ", actual=" + actual, "frame dropped");
+                }
+
+                buffer.skipBytes(frameLength);
+                continue;
+            }
+
+            try {
+                short unitId = buffer.getUnsignedByte(startIndex);
+                ModbusPdu modbusPdu = decoder.decode(buffer.slice(startIndex + 1, pduLength));
+
+                out.add(new ModbusTcpPayload(transactionId, unitId, modbusPdu));
+            } catch (Throwable t) {
+                if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                    CodecErrorEvent.record(getClass(), ctx.channel().remoteAddress(), "decode: " + t, "exception");
+                }
+                throw new Exception("error decoding pdu", t);
+            } finally {
+                buffer.readerIndex(startIndex + frameLength);
+            }
+        }
+    }
+
+}
@@ -20,55 +20,113 @@ import java.util.List;
 
 import com.digitalpetri.modbus.ModbusPdu;
 import com.digitalpetri.modbus.UnsupportedPdu;
+import com.digitalpetri.modbus.codec.jfr.CodecErrorEvent;
+import com.digitalpetri.modbus.codec.jfr.Jfr;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Codec for MBAP framed Modbus/TCP.
+ * <p>
+ * Each MBAP header is validated as soon as it arrives: the protocol id must be 0 and the length must be within
+ * {@value #MinLength}..{@value #MaxLength}, so a peer can't make the cumulation buffer grow beyond the size of one
+ * legal frame. Once the frame is complete its length is checked against the function code length rules of the
+ * {@link ModbusPduDecoder}. Frames that fail validation are handled according to the {@link InvalidFrameAction}.
+ */
 public class ModbusTcpCodec extends ByteToMessageCodec<ModbusTcpPayload> {
 
     private static final int HeaderLength = MbapHeader.LENGTH;
     private static final int HeaderSize = 6;
+    private static final int ProtocolIdFieldIndex = 2;
     private static final int LengthFieldIndex = 4;
 
+    /** Unit id and function code. */
+    static final int MinLength = 2;
+
+    /** Unit id and the largest PDU allowed on a serial line. */
+    static final int MaxLength = 254;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private int bytesToDiscard = 0;
+
     private final ModbusPduEncoder encoder;
     private final ModbusPduDecoder decoder;
+    private final InvalidFrameAction invalidFrameAction;
+    private final Runnable invalidFrameListener;
 
     public ModbusTcpCodec(ModbusPduEncoder encoder, ModbusPduDecoder decoder) {
+        this(encoder, decoder, InvalidFrameAction.CloseConnection, () -> {});
+    }
+
+    /**
+     * @param encoder              the {@link ModbusPduEncoder}.
+     * @param decoder              the {@link ModbusPduDecoder}.
+     * @param invalidFrameAction   what to do when a frame fails validation.
+     * @param invalidFrameListener invoked once for each frame that fails validation, e.g. to count it.
+     */
+    public ModbusTcpCodec(ModbusPduEncoder encoder,
+                          ModbusPduDecoder decoder,
+                          InvalidFrameAction invalidFrameAction,
+                          Runnable invalidFrameListener) {
+
         this.encoder = encoder;
         this.decoder = decoder;
+        this.invalidFrameAction = invalidFrameAction;
+        this.invalidFrameListener = invalidFrameListener;
     }
 
     @Override
     protected void encode(ChannelHandlerContext ctx, ModbusTcpPayload payload, ByteBuf buffer) throws Exception {
-        int headerStartIndex = buffer.writerIndex();
-        buffer.writeZero(MbapHeader.LENGTH);
-
-        int pduStartIndex = buffer.writerIndex();
-        encoder.encode(payload.getModbusPdu(), buffer);
-        int pduLength = buffer.writerIndex() - pduStartIndex;
-
-        MbapHeader header = new MbapHeader(
-                payload.getTransactionId(),
-                pduLength + 1,
-                payload.getUnitId()
-        );
-
-        int currentWriterIndex = buffer.writerIndex();
-        buffer.writerIndex(headerStartIndex);
-        MbapHeader.encode(header, buffer);
-        buffer.writerIndex(currentWriterIndex);
+        try {
+            encodePayload(encoder, payload, buffer);
+        } catch (Throwable t) {
+            if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                CodecErrorEvent.record(getClass(), ctx.channel().remoteAddress(), "encode: " + t, "write failed");
+            }
+            throw t;
+        }
     }
 
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf buffer, List<Object> out) throws Exception {
-        int startIndex = buffer.readerIndex();
+        if (bytesToDiscard > 0) {
+            int discarded = Math.min(bytesToDiscard, buffer.readableBytes());
+            buffer.skipBytes(discarded);
+            bytesToDiscard -= discarded;
+        }
 
-        while (buffer.readableBytes() >= HeaderLength &&
-                buffer.readableBytes() >= getLength(buffer, startIndex) + HeaderSize) {
+        while (buffer.readableBytes() >= HeaderLength) {
+            int startIndex = buffer.readerIndex();
+            int protocolId = buffer.getUnsignedShort(startIndex + ProtocolIdFieldIndex);
+            int length = getLength(buffer, startIndex);
+
+            if (length < MinLength || length > MaxLength) {
+                invalidFrame(ctx, buffer, -1, -1, "length", length);
+                return;
+            }
+
+            if (protocolId != MbapHeader.PROTOCOL_ID) {
+                invalidFrame(ctx, buffer, length + HeaderSize, -1, "protocolId", protocolId);
+                continue;
+            }
+
+            if (buffer.readableBytes() < length + HeaderSize) {
+                return;
+            }
+
+            int functionCode = buffer.getUnsignedByte(startIndex + HeaderLength);
+            int pduLength = decoder.getPduLength(buffer, startIndex + HeaderLength);
+
+            if (pduLength != ModbusPduDecoder.LENGTH_UNKNOWN && pduLength != length - 1 &&
+                !isVariableLength(functionCode)) {
+
+                invalidFrame(ctx, buffer, length + HeaderSize, functionCode, "length", length);
+                continue;
+            }
 
             try {
                 MbapHeader mbapHeader = MbapHeader.decode(buffer);
@@ -76,17 +134,99 @@ public class ModbusTcpCodec extends ByteToMessageCodec<ModbusTcpPayload> {
 
                 if (modbusPdu instanceof UnsupportedPdu) {
                     // Advance past any bytes we should have read but didn't...
-                    int endIndex = startIndex + getLength(buffer, startIndex) + 6;
+                    int endIndex = startIndex + length + HeaderSize;
                     buffer.readerIndex(endIndex);
                 }
 
                 out.add(new ModbusTcpPayload(mbapHeader.getTransactionId(), mbapHeader.getUnitId(), modbusPdu));
             } catch (Throwable t) {
+                if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                    CodecErrorEvent.record(getClass(), ctx.channel().remoteAddress(), "decode: " + t, "exception");
+                }
                 throw new Exception("error decoding header/pdu", t);
             }
+        }
+    }
+
+    /**
+     * @param frameLength  the length of the invalid frame, or -1 if the frame boundary is unknown.
+     * @param functionCode the function code of the invalid frame, or -1 if it wasn't read.
+     * @param field        the name of the header field that failed validation.
+     * @param value        the value of {@code field}.
+     */
+    private void invalidFrame(ChannelHandlerContext ctx,
+                              ByteBuf buffer,
+                              int frameLength,
+                              int functionCode,
+                              String field,
+                              int value) {
+
+        invalidFrameListener.run();
+
+        // Only build the reason when something will use it; invalid frames can arrive as fast as valid ones.
+        String reason = logger.isDebugEnabled() || (Jfr.Available && CodecErrorEvent.shouldRecord()) ?
+            (functionCode >= 0 ? "functionCode=" + functionCode + ", " : "") + field + "=" + value : null;
+
+        if (invalidFrameAction == InvalidFrameAction.DropFrame && frameLength >= 0) {
+            logger.debug("Dropping invalid frame from {}: {}", ctx.channel().remoteAddress(), reason);
+            if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                CodecErrorEvent.record(getClass(), ctx.channel().remoteAddress(), reason, "frame dropped");
+            }
+
+            int discarded = Math.min(frameLength, buffer.readableBytes());
+            buffer.skipBytes(discarded);
+            bytesToDiscard = frameLength - discarded;
+        } else {
+            buffer.skipBytes(buffer.readableBytes());
+
+            if (invalidFrameAction == InvalidFrameAction.CloseConnection) {
+                logger.debug("Closing connection to {} after invalid frame: {}", ctx.channel().remoteAddress(), reason);
+                if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                    CodecErrorEvent.record(getClass(), ctx.channel().remoteAddress(), reason, "connection closed");
+                }
+
+                ctx.close();
+            } else {
+                logger.debug("Discarding buffered bytes from {} after invalid frame: {}",
+                    ctx.channel().remoteAddress(), reason);
+                if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                    CodecErrorEvent.record(getClass(), ctx.channel().remoteAddress(), reason, "buffer discarded");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if PDUs with {@code functionCode} can have a length other than the one
+     * {@link ModbusPduDecoder#getPduLength(ByteBuf, int)} reports for them, which is only their most common length.
+     */
+    private static boolean isVariableLength(int functionCode) {
+        // Diagnostics: the data following the sub-function depends on the sub-function.
+        return functionCode == 0x08;
+    }
 
-            startIndex = buffer.readerIndex();
+    /**
+     * Encode {@code payload} as an MBAP header followed by its PDU.
+     */
+    static void encodePayload(ModbusPduEncoder encoder, ModbusTcpPayload payload, ByteBuf buffer) {
+        ModbusPdu modbusPdu = payload.getModbusPdu();
+
+        if (modbusPdu instanceof RequestTemplate) {
+            ((RequestTemplate) modbusPdu).writeFrame(payload.getTransactionId(), payload.getUnitId(), buffer);
+            return;
         }
+
+        int headerStartIndex = buffer.writerIndex();
+        buffer.writeShort(payload.getTransactionId());
+        buffer.writeShort(MbapHeader.PROTOCOL_ID);
+        buffer.writeShort(0);
+        buffer.writeByte(payload.getUnitId());
+
+        encoder.encode(modbusPdu, buffer);
+
+        // Length counts the unit id and the PDU.
+        int length = buffer.writerIndex() - headerStartIndex - HeaderSize;
+        buffer.setShort(headerStartIndex + LengthFieldIndex, length);
     }
 
     private int getLength(ByteBuf in, int startIndex) {
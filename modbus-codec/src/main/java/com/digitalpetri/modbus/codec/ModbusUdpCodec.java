@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import com.digitalpetri.modbus.ModbusPdu;
+import com.digitalpetri.modbus.codec.jfr.CodecErrorEvent;
+import com.digitalpetri.modbus.codec.jfr.Jfr;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultAddressedEnvelope;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.codec.MessageToMessageCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Codec for Modbus/UDP, where every datagram carries exactly one MBAP header and PDU.
+ * <p>
+ * Decoded payloads are delivered as an {@link AddressedEnvelope} carrying the sender's address, and outbound payloads
+ * must be written the same way so they can be sent to their recipient.
+ */
+public class ModbusUdpCodec
+    extends MessageToMessageCodec<DatagramPacket, AddressedEnvelope<ModbusTcpPayload, InetSocketAddress>> {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final ModbusPduEncoder encoder;
+    private final ModbusPduDecoder decoder;
+
+    public ModbusUdpCodec(ModbusPduEncoder encoder, ModbusPduDecoder decoder) {
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return super.acceptOutboundMessage(msg) &&
+            ((AddressedEnvelope<?, ?>) msg).content() instanceof ModbusTcpPayload;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx,
+                          AddressedEnvelope<ModbusTcpPayload, InetSocketAddress> envelope,
+                          List<Object> out) throws Exception {
+
+        ByteBuf buffer = ctx.alloc().buffer();
+
+        try {
+            ModbusTcpCodec.encodePayload(encoder, envelope.content(), buffer);
+        } catch (Throwable t) {
+            buffer.release();
+            throw t;
+        }
+
+        out.add(new DatagramPacket(buffer, envelope.recipient()));
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, DatagramPacket packet, List<Object> out) throws Exception {
+        ByteBuf buffer = packet.content();
+
+        if (buffer.readableBytes() < MbapHeader.LENGTH + 1) {
+            logger.debug("Discarding short datagram from {}: {} bytes", packet.sender(), buffer.readableBytes());
+            if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                CodecErrorEvent.record(getClass(), packet.sender(), "length=" + buffer.readableBytes(), "datagram dropped");
+            }
+            return;
+        }
+
+        MbapHeader header = MbapHeader.decode(buffer);
+        int pduLength = header.getLength() - 1;
+
+        if (header.getProtocolId() != MbapHeader.PROTOCOL_ID) {
+            logger.debug("Discarding datagram from {} with invalid protocol id: {}", packet.sender(), header.getProtocolId());
+            if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                CodecErrorEvent.record(getClass(), packet.sender(), "protocolId=" + header.getProtocolId(), "datagram dropped");
+            }
+            return;
+        }
+
+        if (pduLength < 1 || pduLength > buffer.readableBytes()) {
+            logger.debug("Discarding datagram from {} with invalid length: {}", packet.sender(), header.getLength());
+            if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                CodecErrorEvent.record(getClass(), packet.sender(), "length=" + header.getLength(), "datagram dropped");
+            }
+            return;
+        }
+
+        try {
+            ModbusPdu modbusPdu = decoder.decode(buffer.slice(buffer.readerIndex(), pduLength));
+            ModbusTcpPayload payload = new ModbusTcpPayload(header.getTransactionId(), header.getUnitId(), modbusPdu);
+
+            out.add(new DefaultAddressedEnvelope<>(payload, packet.recipient(), packet.sender()));
+        } catch (Throwable t) {
+            if (Jfr.Available && CodecErrorEvent.shouldRecord()) {
+                CodecErrorEvent.record(getClass(), packet.sender(), "decode: " + t, "exception");
+            }
+            throw new Exception("error decoding header/pdu", t);
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * A request encoded once into an immutable MBAP frame, for requests that are sent over and over, e.g. by a polling
+ * cycle.
+ * <p>
+ * A template can be passed anywhere a {@link ModbusRequest} is accepted and shared between threads and masters.
+ * Encoding it copies the frame and patches the transaction id and unit id instead of encoding the request again.
+ */
+public class RequestTemplate implements ModbusRequest {
+
+    private final FunctionCode functionCode;
+    private final ByteBuf frame;
+
+    private RequestTemplate(FunctionCode functionCode, ByteBuf frame) {
+        this.functionCode = functionCode;
+        this.frame = frame;
+    }
+
+    @Override
+    public FunctionCode getFunctionCode() {
+        return functionCode;
+    }
+
+    /**
+     * @return a read-only view of the encoded PDU.
+     */
+    public ByteBuf getPdu() {
+        return Unpooled.unmodifiableBuffer(frame.slice(MbapHeader.LENGTH, frame.readableBytes() - MbapHeader.LENGTH));
+    }
+
+    /**
+     * Write the encoded PDU to {@code buffer}.
+     *
+     * @return {@code buffer}.
+     */
+    public ByteBuf writePdu(ByteBuf buffer) {
+        return buffer.writeBytes(frame, MbapHeader.LENGTH, frame.readableBytes() - MbapHeader.LENGTH);
+    }
+
+    /**
+     * Write the encoded MBAP frame to {@code buffer} with {@code transactionId} and {@code unitId} patched in.
+     *
+     * @return {@code buffer}.
+     */
+    public ByteBuf writeFrame(short transactionId, short unitId, ByteBuf buffer) {
+        int startIndex = buffer.writerIndex();
+
+        buffer.writeBytes(frame, 0, frame.readableBytes());
+        buffer.setShort(startIndex, transactionId);
+        buffer.setByte(startIndex + MbapHeader.LENGTH - 1, unitId);
+
+        return buffer;
+    }
+
+    /**
+     * Create a template using a {@link ModbusRequestEncoder}.
+     *
+     * @param request the request to encode. Requests holding a {@link ByteBuf} are released after encoding.
+     * @return a {@link RequestTemplate} for {@code request}.
+     */
+    public static RequestTemplate of(ModbusRequest request) {
+        return of(request, new ModbusRequestEncoder());
+    }
+
+    /**
+     * Create a template using {@code encoder}.
+     *
+     * @param request the request to encode. Requests holding a {@link ByteBuf} are released after encoding.
+     * @param encoder the {@link ModbusPduEncoder} to encode {@code request} with.
+     * @return a {@link RequestTemplate} for {@code request}.
+     */
+    public static RequestTemplate of(ModbusRequest request, ModbusPduEncoder encoder) {
+        FunctionCode functionCode = request.getFunctionCode();
+
+        ByteBuf encoded = Unpooled.buffer();
+        ModbusTcpCodec.encodePayload(encoder, new ModbusTcpPayload((short) 0, (short) 0, request), encoded);
+
+        ByteBuf frame = Unpooled.directBuffer(encoded.readableBytes()).writeBytes(encoded);
+
+        return new RequestTemplate(functionCode, Unpooled.unreleasableBuffer(frame));
+    }
+
+}
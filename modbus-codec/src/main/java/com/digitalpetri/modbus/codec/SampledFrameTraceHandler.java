@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec;
+
+import com.digitalpetri.modbus.ModbusPdu;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Logs 1 in every {@code sampleInterval} frames read from or written to a channel.
+ * <p>
+ * Unlike Netty's {@code LoggingHandler}, frames that aren't sampled cost a single counter decrement;
+ * formatting and the logger level check only happen for sampled frames. Placed after a {@link ModbusTcpCodec} it
+ * records {@link ModbusTcpPayload}s, placed before one it records the raw bytes.
+ * <p>
+ * Not {@link io.netty.channel.ChannelHandler.Sharable}; each channel needs its own instance.
+ */
+public class SampledFrameTraceHandler extends ChannelDuplexHandler {
+
+    private final Logger logger;
+    private final int sampleInterval;
+
+    private int inboundCountdown;
+    private int outboundCountdown;
+
+    /**
+     * @param sampleInterval log 1 in every {@code sampleInterval} frames in each direction.
+     */
+    public SampledFrameTraceHandler(int sampleInterval) {
+        this(LoggerFactory.getLogger(SampledFrameTraceHandler.class), sampleInterval);
+    }
+
+    /**
+     * @param logger         the {@link Logger} sampled frames are logged to, at INFO.
+     * @param sampleInterval log 1 in every {@code sampleInterval} frames in each direction.
+     */
+    public SampledFrameTraceHandler(Logger logger, int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("sampleInterval must be >= 1: " + sampleInterval);
+        }
+
+        this.logger = logger;
+        this.sampleInterval = sampleInterval;
+
+        this.inboundCountdown = sampleInterval;
+        this.outboundCountdown = sampleInterval;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (--inboundCountdown == 0) {
+            inboundCountdown = sampleInterval;
+            trace(ctx, "read", msg);
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (--outboundCountdown == 0) {
+            outboundCountdown = sampleInterval;
+            trace(ctx, "write", msg);
+        }
+
+        ctx.write(msg, promise);
+    }
+
+    private void trace(ChannelHandlerContext ctx, String direction, Object msg) {
+        if (!logger.isInfoEnabled()) return;
+
+        if (msg instanceof ModbusTcpPayload) {
+            ModbusTcpPayload payload = (ModbusTcpPayload) msg;
+            ModbusPdu pdu = payload.getModbusPdu();
+
+            logger.info("{} {} transactionId={} unitId={} functionCode={} pdu={}",
+                ctx.channel(), direction, payload.getTransactionId() & 0xFFFF, payload.getUnitId(),
+                pdu.getFunctionCode(), pdu.getClass().getSimpleName());
+        } else if (msg instanceof ByteBuf) {
+            logger.info("{} {} {}", ctx.channel(), direction, ByteBufUtil.hexDump((ByteBuf) msg));
+        } else {
+            logger.info("{} {} {}", ctx.channel(), direction, msg);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static com.digitalpetri.modbus.codec.capture.CaptureWriter.EndIndex;
+import static com.digitalpetri.modbus.codec.capture.CaptureWriter.HeaderLength;
+import static com.digitalpetri.modbus.codec.capture.CaptureWriter.OldestIndex;
+import static com.digitalpetri.modbus.codec.capture.CaptureWriter.RecordHeaderLength;
+import static com.digitalpetri.modbus.codec.capture.CaptureWriter.RecordLengthIndex;
+import static com.digitalpetri.modbus.codec.capture.CaptureWriter.StartTimeIndex;
+import static com.digitalpetri.modbus.codec.capture.CaptureWriter.WrapEndIndex;
+
+/**
+ * Reads the frames of a capture file written by {@link CaptureWriter}, oldest first.
+ */
+public class CaptureReader implements Closeable {
+
+    private final FileChannel fileChannel;
+    private final ByteBuf buffer;
+    private final long startTimeMillis;
+
+    private final int end;
+    private final int wrapEnd;
+
+    private int position;
+    private boolean wrapped;
+
+    private CaptureReader(FileChannel fileChannel, ByteBuf buffer) throws IOException {
+        this.fileChannel = fileChannel;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HeaderLength || buffer.getInt(0) != CaptureWriter.Magic) {
+            throw new IOException("not a capture file");
+        }
+        if (buffer.getShort(4) != CaptureWriter.Version) {
+            throw new IOException("unsupported capture version: " + buffer.getShort(4));
+        }
+
+        startTimeMillis = buffer.getLong(StartTimeIndex);
+        position = buffer.getInt(OldestIndex);
+        end = buffer.getInt(EndIndex);
+        wrapEnd = buffer.getInt(WrapEndIndex);
+    }
+
+    /**
+     * Open a capture file for reading.
+     *
+     * @param path the capture file.
+     * @return a {@link CaptureReader} positioned at the oldest frame.
+     * @throws IOException if the file can't be read or isn't a capture.
+     */
+    public static CaptureReader open(Path path) throws IOException {
+        FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            ByteBuf buffer = Unpooled.wrappedBuffer(fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
+
+            return new CaptureReader(fileChannel, buffer);
+        } catch (IOException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return when the capture started, in milliseconds since the epoch.
+     */
+    public long getStartTimeMillis() {
+        return startTimeMillis;
+    }
+
+    /**
+     * @return the next frame, or {@code null} if there are no more.
+     */
+    public CapturedFrame next() {
+        if (wrapEnd != 0 && !wrapped && position >= wrapEnd) {
+            position = HeaderLength;
+            wrapped = true;
+        }
+
+        int limit = wrapEnd != 0 && !wrapped ? wrapEnd : end;
+        if (position + RecordHeaderLength > limit) return null;
+
+        long timestampNanos = buffer.getLong(position);
+        int streamId = buffer.getUnsignedShort(position + 8);
+        FrameDirection direction = FrameDirection.values()[buffer.getByte(position + 10)];
+        int length = buffer.getUnsignedShort(position + RecordLengthIndex);
+
+        ByteBuf frame = buffer.slice(position + RecordHeaderLength, length);
+        position += RecordHeaderLength + length;
+
+        return new CapturedFrame(timestampNanos, streamId, direction, frame);
+    }
+
+    /**
+     * @return all the remaining frames.
+     */
+    public List<CapturedFrame> readAll() {
+        List<CapturedFrame> frames = new ArrayList<>();
+
+        CapturedFrame frame;
+        while ((frame = next()) != null) {
+            frames.add(frame);
+        }
+
+        return frames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+
+}
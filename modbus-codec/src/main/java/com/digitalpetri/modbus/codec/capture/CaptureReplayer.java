@@ -0,0 +1,137 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.capture;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.digitalpetri.modbus.ModbusPdu;
+import com.digitalpetri.modbus.codec.MbapHeader;
+import com.digitalpetri.modbus.codec.ModbusRequestDecoder;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelPipeline;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Replays a capture into a target: a pipeline, a master, or a remote slave via {@link TcpReplayTarget}.
+ * <p>
+ * To reproduce a slave's traffic against a test build, replay the requests it received into a slave:
+ * <pre>{@code
+ * try (CaptureReader reader = CaptureReader.open(path);
+ *      TcpReplayTarget target = new TcpReplayTarget("localhost", 502, FrameDirection.Inbound)) {
+ *     CaptureReplayer.replay(reader, ReplaySpeed.Original, target);
+ * }
+ * }</pre>
+ * To reissue the requests a master sent through another master:
+ * <pre>{@code
+ * CaptureReplayer.replay(reader, ReplaySpeed.Original, CaptureReplayer.requests(FrameDirection.Outbound,
+ *     (unitId, request) -> master.sendRequest(request, unitId)));
+ * }</pre>
+ */
+public class CaptureReplayer {
+
+    private CaptureReplayer() {}
+
+    /**
+     * Hand every remaining frame in {@code reader} to {@code target}, on the calling thread.
+     *
+     * @param reader the capture.
+     * @param speed  {@link ReplaySpeed#Original} to keep the captured timing, {@link ReplaySpeed#Maximum} to go as fast
+     *               as {@code target} allows.
+     * @param target receives each frame; frames must not be released and are only valid until the reader is closed.
+     * @return the number of frames replayed.
+     * @throws InterruptedException if interrupted while waiting for the next frame's time.
+     */
+    public static long replay(CaptureReader reader,
+                              ReplaySpeed speed,
+                              Consumer<CapturedFrame> target) throws InterruptedException {
+
+        long count = 0L;
+        long startNanos = System.nanoTime();
+        long firstTimestamp = 0L;
+
+        CapturedFrame frame;
+        while ((frame = reader.next()) != null) {
+            if (speed == ReplaySpeed.Original) {
+                if (count == 0) firstTimestamp = frame.getTimestampNanos();
+
+                long due = startNanos + (frame.getTimestampNanos() - firstTimestamp);
+
+                long now;
+                while ((now = System.nanoTime()) - due < 0) {
+                    LockSupport.parkNanos(due - now);
+
+                    if (Thread.interrupted()) throw new InterruptedException();
+                }
+            }
+
+            target.accept(frame);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return a target that feeds each frame traveling in {@code direction} into {@code pipeline} as though it was
+     * read from the socket, e.g. into a {@link com.digitalpetri.modbus.codec.ModbusTcpCodec} on an
+     * {@code EmbeddedChannel}.
+     */
+    public static Consumer<CapturedFrame> toPipeline(ChannelPipeline pipeline, FrameDirection direction) {
+        return frame -> {
+            if (frame.getDirection() == direction) {
+                pipeline.fireChannelRead(Unpooled.copiedBuffer(frame.getFrame()));
+            }
+        };
+    }
+
+    /**
+     * @return a target that decodes each request frame traveling in {@code direction} and hands it to
+     * {@code consumer} with its unit id. Frames that aren't supported requests are skipped.
+     */
+    public static Consumer<CapturedFrame> requests(FrameDirection direction,
+                                                   BiConsumer<Integer, ModbusRequest> consumer) {
+
+        ModbusRequestDecoder decoder = new ModbusRequestDecoder();
+
+        return frame -> {
+            if (frame.getDirection() != direction || frame.getFrame().readableBytes() <= MbapHeader.LENGTH) return;
+
+            // Decoded requests may keep a slice of the buffer, so it must outlive the reader.
+            ByteBuf buffer = Unpooled.copiedBuffer(frame.getFrame());
+
+            try {
+                MbapHeader header = MbapHeader.decode(buffer);
+                ModbusPdu pdu = decoder.decode(buffer);
+
+                if (pdu instanceof ModbusRequest) {
+                    consumer.accept((int) header.getUnitId(), (ModbusRequest) pdu);
+                } else {
+                    ReferenceCountUtil.release(pdu);
+                }
+            } catch (RuntimeException e) {
+                // Not a well-formed request; skip it.
+            } finally {
+                buffer.release();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Appends timestamped frames to a memory-mapped capture file of fixed size.
+ * <p>
+ * Recording a frame is a copy into the mapped file under a lock that is only contended when several channels share a
+ * writer; there's no allocation and no system call, and the file never grows beyond its capacity. Once the file is
+ * full, new frames are dropped and counted, or in ring mode they overwrite the oldest frames so the capture always
+ * holds the most recent traffic.
+ * <p>
+ * The file layout:
+ * <pre>
+ * header (32 bytes): int magic, short version, short flags, long start time (epoch millis),
+ *                    int oldest record, int end of newest record, int end of records before the last wrap, int unused
+ * record:            long timestamp (nanos since start), short stream id, byte direction, short length, frame bytes
+ * </pre>
+ * All values are big-endian. The header is kept current after every frame, so a copy of the file taken at any time
+ * can be read with {@link CaptureReader}.
+ */
+public class CaptureWriter implements Closeable {
+
+    static final int Magic = 0x4D424350; // "MBCP"
+    static final short Version = 1;
+    static final short RingFlag = 0x1;
+
+    static final int HeaderLength = 32;
+    static final int StartTimeIndex = 8;
+    static final int OldestIndex = 16;
+    static final int EndIndex = 20;
+    static final int WrapEndIndex = 24;
+
+    static final int RecordHeaderLength = 13;
+    static final int RecordLengthIndex = 11;
+
+    private final AtomicInteger nextStreamId = new AtomicInteger(0);
+
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mapped;
+    private final ByteBuf buffer;
+    private final int capacity;
+    private final boolean ring;
+    private final long startNanos;
+
+    private int oldest = HeaderLength;
+    private int end = HeaderLength;
+    private int wrapEnd = 0;
+
+    private long writtenFrames;
+    private long droppedFrames;
+    private boolean closed;
+
+    private CaptureWriter(FileChannel fileChannel, MappedByteBuffer mapped, int capacity, boolean ring) {
+        this.fileChannel = fileChannel;
+        this.mapped = mapped;
+        this.buffer = Unpooled.wrappedBuffer(mapped);
+        this.capacity = capacity;
+        this.ring = ring;
+        this.startNanos = System.nanoTime();
+
+        buffer.setInt(0, Magic);
+        buffer.setShort(4, Version);
+        buffer.setShort(6, ring ? RingFlag : 0);
+        buffer.setLong(StartTimeIndex, System.currentTimeMillis());
+        updateHeader();
+    }
+
+    /**
+     * Create a capture file, replacing any existing file at {@code path}.
+     *
+     * @param path     the capture file.
+     * @param capacity the size of the file in bytes, header included.
+     * @param ring     {@code true} to overwrite the oldest frames once the file is full, {@code false} to drop new ones.
+     * @return a {@link CaptureWriter} for the new file.
+     * @throws IOException if the file can't be created or mapped.
+     */
+    public static CaptureWriter create(Path path, int capacity, boolean ring) throws IOException {
+        if (capacity < HeaderLength + RecordHeaderLength) {
+            throw new IllegalArgumentException("capacity too small: " + capacity);
+        }
+
+        FileChannel fileChannel = FileChannel.open(path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+
+        try {
+            MappedByteBuffer mapped = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+            return new CaptureWriter(fileChannel, mapped, capacity, ring);
+        } catch (IOException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return an id for a new stream of frames, e.g. one connection, unique within this capture.
+     */
+    public int nextStreamId() {
+        return nextStreamId.getAndIncrement() & 0xFFFF;
+    }
+
+    /**
+     * Record {@code length} bytes of {@code frame} starting at {@code index}, without changing its indices.
+     *
+     * @return {@code true} if the frame was recorded, {@code false} if it was dropped because the file is full.
+     */
+    public synchronized boolean write(int streamId, FrameDirection direction, ByteBuf frame, int index, int length) {
+        int size = RecordHeaderLength + length;
+
+        if (closed || size > capacity - HeaderLength) {
+            droppedFrames++;
+            return false;
+        }
+
+        if (end + size > capacity) {
+            if (!ring) {
+                droppedFrames++;
+                return false;
+            }
+
+            // Any records still left past the end are older than everything else; they're dropped too.
+            oldest = HeaderLength;
+            wrapEnd = end;
+            end = HeaderLength;
+        }
+
+        if (wrapEnd != 0) {
+            // Older records follow the newest; drop those this record overwrites.
+            while (oldest < end + size && oldest < wrapEnd) {
+                oldest += RecordHeaderLength + buffer.getUnsignedShort(oldest + RecordLengthIndex);
+            }
+
+            if (oldest >= wrapEnd) {
+                oldest = HeaderLength;
+                wrapEnd = 0;
+            }
+        }
+
+        buffer.setLong(end, System.nanoTime() - startNanos);
+        buffer.setShort(end + 8, streamId);
+        buffer.setByte(end + 10, direction.ordinal());
+        buffer.setShort(end + RecordLengthIndex, length);
+        buffer.setBytes(end + RecordHeaderLength, frame, index, length);
+        end += size;
+
+        updateHeader();
+        writtenFrames++;
+
+        return true;
+    }
+
+    /**
+     * @return the number of frames recorded, including any since overwritten in ring mode.
+     */
+    public synchronized long getWrittenFrames() {
+        return writtenFrames;
+    }
+
+    /**
+     * @return the number of frames dropped because the file was full, the frame larger than the file, or the writer
+     * closed.
+     */
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Flush the capture to disk and close the file.
+     * <p>
+     * The mapping itself is released when it's garbage collected.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        mapped.force();
+        fileChannel.close();
+    }
+
+    private void updateHeader() {
+        buffer.setInt(OldestIndex, oldest);
+        buffer.setInt(EndIndex, end);
+        buffer.setInt(WrapEndIndex, wrapEnd);
+    }
+
+}
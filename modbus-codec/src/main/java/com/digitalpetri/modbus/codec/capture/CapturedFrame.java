@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.capture;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A frame read back from a capture file by {@link CaptureReader}.
+ */
+public class CapturedFrame {
+
+    private final long timestampNanos;
+    private final int streamId;
+    private final FrameDirection direction;
+    private final ByteBuf frame;
+
+    CapturedFrame(long timestampNanos, int streamId, FrameDirection direction, ByteBuf frame) {
+        this.timestampNanos = timestampNanos;
+        this.streamId = streamId;
+        this.direction = direction;
+        this.frame = frame;
+    }
+
+    /**
+     * @return when the frame was captured, in nanoseconds since the capture started.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    /**
+     * @return the stream, usually one connection, the frame was captured on.
+     */
+    public int getStreamId() {
+        return streamId;
+    }
+
+    public FrameDirection getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return the raw frame, MBAP header included. A view into the read-only capture file that must not be released,
+     * and is only valid until the {@link CaptureReader} is closed.
+     */
+    public ByteBuf getFrame() {
+        return frame;
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Records the raw MBAP frames read from and written to a channel with a {@link CaptureWriter}.
+ * <p>
+ * Must be placed before the {@link com.digitalpetri.modbus.codec.ModbusTcpCodec}, closest to the socket, e.g. with
+ * {@code pipeline.addFirst(new FrameCaptureHandler(writer))}. Bytes are split into frames by their MBAP length field,
+ * however they were segmented on the wire; only a frame spanning two reads is copied before it's recorded. Bytes that
+ * can't be framed because of an invalid length field are recorded as they are, in a single record.
+ * <p>
+ * Not {@link io.netty.channel.ChannelHandler.Sharable}; each channel needs its own instance, and gets its own stream
+ * id in the capture. Any number of channels may share a {@link CaptureWriter}.
+ */
+public class FrameCaptureHandler extends ChannelDuplexHandler {
+
+    /**
+     * The MBAP header up to and including the length field.
+     */
+    private static final int LengthPrefix = 6;
+    private static final int LengthFieldIndex = 4;
+    private static final int MinLength = 2;
+    private static final int MaxLength = 254;
+    private static final int MaxFrameLength = LengthPrefix + MaxLength;
+
+    private final Framer inbound = new Framer(FrameDirection.Inbound);
+    private final Framer outbound = new Framer(FrameDirection.Outbound);
+
+    private final CaptureWriter writer;
+    private final int streamId;
+
+    public FrameCaptureHandler(CaptureWriter writer) {
+        this.writer = writer;
+        this.streamId = writer.nextStreamId();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            inbound.capture((ByteBuf) msg);
+        }
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            outbound.capture((ByteBuf) msg);
+        }
+
+        ctx.write(msg, promise);
+    }
+
+    /**
+     * Splits one direction's bytes into frames.
+     */
+    private class Framer {
+
+        private final FrameDirection direction;
+
+        /**
+         * The start of a frame that hasn't been completely received yet; allocated the first time it's needed.
+         */
+        private ByteBuf partial;
+
+        private Framer(FrameDirection direction) {
+            this.direction = direction;
+        }
+
+        void capture(ByteBuf buffer) {
+            int index = buffer.readerIndex();
+            int end = buffer.writerIndex();
+
+            if (partial != null && partial.isReadable()) {
+                index = completePartial(buffer, index, end);
+                if (index < 0) return;
+            }
+
+            while (end - index >= LengthPrefix) {
+                int frameLength = frameLength(buffer, index);
+
+                if (frameLength < 0) {
+                    record(buffer, index, Math.min(end - index, MaxFrameLength));
+                    return;
+                }
+                if (end - index < frameLength) break;
+
+                record(buffer, index, frameLength);
+                index += frameLength;
+            }
+
+            if (index < end) {
+                if (partial == null) partial = Unpooled.buffer(MaxFrameLength, MaxFrameLength);
+                partial.writeBytes(buffer, index, end - index);
+            }
+        }
+
+        /**
+         * Add bytes from {@code buffer} to the partial frame, and record it if that completes it.
+         *
+         * @return the index of the first byte of {@code buffer} after the partial frame, or -1 if it took them all.
+         */
+        private int completePartial(ByteBuf buffer, int index, int end) {
+            if (partial.readableBytes() < LengthPrefix) {
+                int n = Math.min(LengthPrefix - partial.readableBytes(), end - index);
+                partial.writeBytes(buffer, index, n);
+                index += n;
+
+                if (partial.readableBytes() < LengthPrefix) return -1;
+            }
+
+            int frameLength = frameLength(partial, partial.readerIndex());
+
+            if (frameLength < 0) {
+                int n = Math.min(end - index, partial.writableBytes());
+                partial.writeBytes(buffer, index, n);
+                record(partial, partial.readerIndex(), partial.readableBytes());
+                partial.clear();
+                return -1;
+            }
+
+            int n = Math.min(frameLength - partial.readableBytes(), end - index);
+            partial.writeBytes(buffer, index, n);
+            index += n;
+
+            if (partial.readableBytes() < frameLength) return -1;
+
+            record(partial, partial.readerIndex(), frameLength);
+            partial.clear();
+
+            return index;
+        }
+
+        /**
+         * @return the length of the frame starting at {@code index}, or -1 if its length field is invalid.
+         */
+        private int frameLength(ByteBuf buffer, int index) {
+            int length = buffer.getUnsignedShort(index + LengthFieldIndex);
+            int frameLength = LengthPrefix + length;
+
+            return length < MinLength || frameLength > MaxFrameLength ? -1 : frameLength;
+        }
+
+        private void record(ByteBuf buffer, int index, int length) {
+            writer.write(streamId, direction, buffer, index, length);
+        }
+
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.capture;
+
+/**
+ * The direction a captured frame traveled, relative to the channel it was captured on.
+ */
+public enum FrameDirection {
+
+    /**
+     * Read from the channel: requests on a slave, responses on a master.
+     */
+    Inbound,
+
+    /**
+     * Written to the channel: responses on a slave, requests on a master.
+     */
+    Outbound
+
+}
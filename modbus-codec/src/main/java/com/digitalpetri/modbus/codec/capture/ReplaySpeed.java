@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.capture;
+
+/**
+ * How fast {@link CaptureReplayer} replays a capture.
+ */
+public enum ReplaySpeed {
+
+    /**
+     * Keep the captured gaps between frames, to reproduce the original traffic's timing.
+     */
+    Original,
+
+    /**
+     * Replay every frame as fast as the target takes them, e.g. to measure decode throughput.
+     */
+    Maximum
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.capture;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.digitalpetri.modbus.codec.Modbus;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Replays the raw frames traveling in one direction to a remote host, over one connection per captured stream, so
+ * each captured connection's bytes arrive in the same order on their own connection.
+ * <p>
+ * Anything the remote host sends back is discarded. Connections are made the first time a stream's frame is replayed
+ * and closed by {@link #close()}.
+ */
+public class TcpReplayTarget implements Consumer<CapturedFrame>, Closeable {
+
+    private final Map<Integer, Channel> channels = new ConcurrentHashMap<>();
+
+    private final Bootstrap bootstrap;
+    private final String host;
+    private final int port;
+    private final FrameDirection direction;
+
+    /**
+     * Replay to {@code host:port} using {@link Modbus#sharedEventLoop()}.
+     */
+    public TcpReplayTarget(String host, int port, FrameDirection direction) {
+        this(host, port, direction, Modbus.sharedEventLoop());
+    }
+
+    /**
+     * @param host      the host to connect to.
+     * @param port      the port to connect to.
+     * @param direction the direction of the frames to replay; the others are skipped.
+     * @param eventLoop the {@link EventLoopGroup} the connections are made on.
+     */
+    public TcpReplayTarget(String host, int port, FrameDirection direction, EventLoopGroup eventLoop) {
+        this.host = host;
+        this.port = port;
+        this.direction = direction;
+
+        bootstrap = new Bootstrap()
+            .group(eventLoop)
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.TCP_NODELAY, true)
+            .handler(new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+                    ReferenceCountUtil.release(msg);
+                }
+            });
+    }
+
+    /**
+     * Write {@code frame} to its stream's connection, connecting first if needed.
+     * <p>
+     * Waits for the write to complete whenever the connection isn't writable, so a fast replay can't queue up more
+     * than the connection's write buffer.
+     *
+     * @throws IllegalStateException if the connection can't be made or has been closed by the remote host.
+     */
+    @Override
+    public void accept(CapturedFrame frame) {
+        if (frame.getDirection() != direction) return;
+
+        Channel channel = channels.computeIfAbsent(frame.getStreamId(), id -> connect());
+
+        if (!channel.isActive()) {
+            throw new IllegalStateException("connection for stream " + frame.getStreamId() + " closed");
+        }
+
+        ChannelFuture future = channel.writeAndFlush(Unpooled.copiedBuffer(frame.getFrame()));
+
+        if (!channel.isWritable()) {
+            future.awaitUninterruptibly();
+        }
+    }
+
+    /**
+     * Close every connection and wait for them to close.
+     */
+    @Override
+    public void close() {
+        channels.values().forEach(c -> c.close().awaitUninterruptibly());
+        channels.clear();
+    }
+
+    private Channel connect() {
+        ChannelFuture future = bootstrap.connect(host, port).awaitUninterruptibly();
+
+        if (!future.isSuccess()) {
+            throw new IllegalStateException("connect to " + host + ":" + port + " failed", future.cause());
+        }
+
+        return future.channel();
+    }
+
+}
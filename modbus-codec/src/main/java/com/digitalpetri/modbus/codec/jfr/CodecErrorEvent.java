@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.jfr;
+
+import java.net.SocketAddress;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A frame that couldn't be encoded or decoded, or failed validation.
+ * <p>
+ * Only use after checking {@link Jfr#Available}.
+ */
+@Name("com.digitalpetri.modbus.CodecError")
+@Label("Modbus Codec Error")
+@Category("Modbus")
+@Description("A frame that couldn't be encoded or decoded, or failed validation")
+@StackTrace(false)
+public class CodecErrorEvent extends jdk.jfr.Event {
+
+    @Label("Codec")
+    public String codec;
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Error")
+    @Description("What went wrong, e.g. the invalid field and its value")
+    public String error;
+
+    @Label("Action")
+    @Description("What was done about it, e.g. the frame was dropped or the connection closed")
+    public String action;
+
+    /**
+     * Asked only whether the event is enabled, which doesn't depend on the instance, so a disabled event costs no
+     * allocation.
+     */
+    private static final CodecErrorEvent Probe = new CodecErrorEvent();
+
+    /**
+     * @return {@code true} if a codec error would be recorded; check it before building the error string.
+     */
+    public static boolean shouldRecord() {
+        return Probe.isEnabled();
+    }
+
+    /**
+     * Record a codec error, if the event is enabled.
+     */
+    public static void record(Class<?> codec, SocketAddress remoteAddress, String error, String action) {
+        if (!Probe.isEnabled()) return;
+
+        CodecErrorEvent event = new CodecErrorEvent();
+
+        if (event.shouldCommit()) {
+            event.codec = codec.getSimpleName();
+            event.remoteAddress = String.valueOf(remoteAddress);
+            event.error = error;
+            event.action = action;
+            event.commit();
+        }
+    }
+
+}
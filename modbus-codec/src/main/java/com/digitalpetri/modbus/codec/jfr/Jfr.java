@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.codec.jfr;
+
+/**
+ * Whether JDK Flight Recorder events can be recorded in this JVM.
+ * <p>
+ * The event classes extend {@code jdk.jfr.Event}, which Java 8 runtimes before 8u262 don't have. Every place that
+ * records an event checks {@link #Available} first, so those classes are never loaded where they can't be. Where they
+ * can, an event that isn't enabled in the running recordings, or with no recording running, costs little more than
+ * the check.
+ */
+public final class Jfr {
+
+    public static final boolean Available = isAvailable();
+
+    private Jfr() {}
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Jfr.class.getClassLoader());
+            return true;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+}
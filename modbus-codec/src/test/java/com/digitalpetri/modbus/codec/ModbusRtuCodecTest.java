@@ -0,0 +1,97 @@
+package com.digitalpetri.modbus.codec;
+
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteSingleRegisterResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class ModbusRtuCodecTest {
+
+    @Test
+    public void testCrcMatchesReferenceFrame() {
+        byte[] frame = new byte[]{0x01, 0x03, 0x00, 0x00, 0x00, 0x0A};
+
+        assertEquals(Crc16.calculate(Unpooled.wrappedBuffer(frame), 0, frame.length), 0xCDC5);
+
+        ByteBuf heap = Unpooled.buffer().writeBytes(frame).writeBytes(frame).writeBytes(frame);
+        ByteBuf direct = Unpooled.directBuffer().writeBytes(heap, 0, heap.readableBytes());
+
+        for (int length = 0; length <= heap.readableBytes(); length++) {
+            assertEquals(Crc16.calculate(direct, 0, length), Crc16.calculate(heap, 0, length));
+        }
+    }
+
+    @Test
+    public void testEncodeRequest() {
+        EmbeddedChannel channel = new EmbeddedChannel(
+            new ModbusRtuCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+
+        channel.writeOutbound(new ModbusTcpPayload((short) 1, (short) 1, new ReadHoldingRegistersRequest(0, 10)));
+
+        ByteBuf encoded = (ByteBuf) channel.readOutbound();
+        assertEquals(ByteBufUtil.hexDump(encoded), "01030000000ac5cd");
+        encoded.release();
+    }
+
+    @Test
+    public void testDecodeFragmentedResponses() {
+        EmbeddedChannel channel = new EmbeddedChannel(
+            new ModbusRtuCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+
+        channel.writeOutbound(new ModbusTcpPayload((short) 42, (short) 1, new ReadHoldingRegistersRequest(0, 1)));
+        ((ByteBuf) channel.readOutbound()).release();
+
+        ByteBuf frames = Unpooled.buffer();
+        writeFrame(frames, 0x01, 0x03, 0x02, 0x12, 0x34);
+        writeFrame(frames, 0x01, 0x06, 0x00, 0x01, 0x00, 0x03);
+
+        channel.writeInbound(frames.readSlice(4).retain());
+        assertNull(channel.readInbound());
+        channel.writeInbound(frames.readSlice(frames.readableBytes()).retain());
+        frames.release();
+
+        ModbusTcpPayload first = (ModbusTcpPayload) channel.readInbound();
+        assertEquals(first.getTransactionId(), 42);
+        assertEquals(first.getUnitId(), 1);
+        ReadHoldingRegistersResponse response = (ReadHoldingRegistersResponse) first.getModbusPdu();
+        assertEquals(response.getRegisters().readUnsignedShort(), 0x1234);
+        response.release();
+
+        ModbusTcpPayload second = (ModbusTcpPayload) channel.readInbound();
+        assertEquals(((WriteSingleRegisterResponse) second.getModbusPdu()).getValue(), 3);
+    }
+
+    @Test
+    public void testFrameWithInvalidCrcIsDiscarded() {
+        EmbeddedChannel channel = new EmbeddedChannel(
+            new ModbusRtuCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+
+        ByteBuf frames = Unpooled.buffer();
+        writeFrame(frames, 0x01, 0x06, 0x00, 0x01, 0x00, 0x03);
+        frames.setByte(frames.writerIndex() - 1, frames.getByte(frames.writerIndex() - 1) ^ 0xFF);
+        writeFrame(frames, 0x01, 0x06, 0x00, 0x02, 0x00, 0x04);
+
+        channel.writeInbound(frames);
+
+        ModbusTcpPayload payload = (ModbusTcpPayload) channel.readInbound();
+        assertEquals(((WriteSingleRegisterResponse) payload.getModbusPdu()).getAddress(), 2);
+        assertNull(channel.readInbound());
+    }
+
+    private static void writeFrame(ByteBuf buffer, int... bytes) {
+        int startIndex = buffer.writerIndex();
+        for (int b : bytes) buffer.writeByte(b);
+
+        int crc = Crc16.calculate(buffer, startIndex, bytes.length);
+        buffer.writeByte(crc & 0xFF);
+        buffer.writeByte(crc >>> 8);
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.digitalpetri.modbus.codec;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.ReadInputRegistersRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ModbusTcpCodecTest {
+
+    @Test
+    public void testRequestTemplateEncodesLikeRequest() {
+        RequestTemplate template = RequestTemplate.of(new ReadHoldingRegistersRequest(100, 10));
+        assertEquals(template.getFunctionCode(), FunctionCode.ReadHoldingRegisters);
+
+        EmbeddedChannel channel = new EmbeddedChannel(
+            new ModbusTcpCodec(new ModbusRequestEncoder(), new ModbusRequestDecoder()));
+
+        for (int txId = 0; txId < 3; txId++) {
+            channel.writeOutbound(new ModbusTcpPayload((short) txId, (short) 7, new ReadHoldingRegistersRequest(100, 10)));
+            channel.writeOutbound(new ModbusTcpPayload((short) txId, (short) 7, template));
+
+            ByteBuf expected = (ByteBuf) channel.readOutbound();
+            ByteBuf actual = (ByteBuf) channel.readOutbound();
+            assertEquals(actual, expected);
+
+            channel.writeInbound(actual);
+            ModbusTcpPayload decoded = (ModbusTcpPayload) channel.readInbound();
+            assertEquals(decoded.getTransactionId(), txId);
+            assertEquals(decoded.getUnitId(), 7);
+            assertEquals(((ReadHoldingRegistersRequest) decoded.getModbusPdu()).getAddress(), 100);
+
+            expected.release();
+        }
+    }
+
+    @Test
+    public void testRequestTemplateWithRtuCodec() {
+        RequestTemplate template = RequestTemplate.of(new ReadInputRegistersRequest(0, 1));
+
+        EmbeddedChannel channel = new EmbeddedChannel(
+            new ModbusRtuCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+
+        channel.writeOutbound(new ModbusTcpPayload((short) 0, (short) 1, new ReadInputRegistersRequest(0, 1)));
+        channel.writeOutbound(new ModbusTcpPayload((short) 0, (short) 1, template));
+
+        ByteBuf expected = (ByteBuf) channel.readOutbound();
+        ByteBuf actual = (ByteBuf) channel.readOutbound();
+        assertEquals(actual, expected);
+
+        expected.release();
+        actual.release();
+    }
+
+    @Test
+    public void testInvalidProtocolIdIsDropped() {
+        AtomicInteger invalid = new AtomicInteger();
+        EmbeddedChannel channel = newDecoderChannel(InvalidFrameAction.DropFrame, invalid);
+
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeBytes(frame(1, 0x1234, 6, 1, 0x03, 0, 0, 0, 1));
+        buffer.writeBytes(frame(2, 0, 6, 1, 0x03, 0, 0, 0, 1));
+        channel.writeInbound(buffer);
+
+        ModbusTcpPayload decoded = (ModbusTcpPayload) channel.readInbound();
+        assertEquals(decoded.getTransactionId(), 2);
+        assertNull(channel.readInbound());
+        assertEquals(invalid.get(), 1);
+        assertTrue(channel.isOpen());
+    }
+
+    @Test
+    public void testOversizedLengthClosesConnection() {
+        AtomicInteger invalid = new AtomicInteger();
+        EmbeddedChannel channel = newDecoderChannel(InvalidFrameAction.CloseConnection, invalid);
+
+        // Only the header arrives; the decoder must not wait for 64k of body.
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{0, 1, 0, 0, (byte) 0xFF, (byte) 0xFF, 1}));
+
+        assertNull(channel.readInbound());
+        assertEquals(invalid.get(), 1);
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testOversizedLengthDiscardsBuffer() {
+        AtomicInteger invalid = new AtomicInteger();
+        EmbeddedChannel channel = newDecoderChannel(InvalidFrameAction.DropFrame, invalid);
+
+        channel.writeInbound(Unpooled.wrappedBuffer(new byte[]{0, 1, 0, 0, 0, (byte) (ModbusTcpCodec.MaxLength + 1), 1}));
+        assertNull(channel.readInbound());
+        assertEquals(invalid.get(), 1);
+        assertTrue(channel.isOpen());
+
+        channel.writeInbound(Unpooled.wrappedBuffer(frame(3, 0, 6, 1, 0x03, 0, 0, 0, 1)));
+        assertEquals(((ModbusTcpPayload) channel.readInbound()).getTransactionId(), 3);
+    }
+
+    @Test
+    public void testLengthNotMatchingFunctionCodeIsDropped() {
+        AtomicInteger invalid = new AtomicInteger();
+        EmbeddedChannel channel = newDecoderChannel(InvalidFrameAction.DropFrame, invalid);
+
+        // A ReadHoldingRegisters request is always 5 PDU bytes; this one claims 7.
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeBytes(frame(1, 0, 8, 1, 0x03, 0, 0, 0, 1, 0, 0));
+        buffer.writeBytes(frame(2, 0, 6, 1, 0x03, 0, 0, 0, 1));
+        channel.writeInbound(buffer);
+
+        assertEquals(((ModbusTcpPayload) channel.readInbound()).getTransactionId(), 2);
+        assertNull(channel.readInbound());
+        assertEquals(invalid.get(), 1);
+    }
+
+    @Test
+    public void testVariableLengthDiagnosticsIsNotDropped() {
+        AtomicInteger invalid = new AtomicInteger();
+        EmbeddedChannel channel = newDecoderChannel(InvalidFrameAction.DropFrame, invalid);
+
+        // Return Query Data echoes any number of data bytes, not just the usual two.
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeBytes(frame(1, 0, 8, 1, 0x08, 0, 0, 0x12, 0x34, 0x56, 0x78));
+        buffer.writeBytes(frame(2, 0, 6, 1, 0x03, 0, 0, 0, 1));
+        channel.writeInbound(buffer);
+
+        ModbusTcpPayload diagnostics = (ModbusTcpPayload) channel.readInbound();
+        assertEquals(diagnostics.getTransactionId(), 1);
+        assertEquals(diagnostics.getModbusPdu().getFunctionCode(), FunctionCode.Diagnostics);
+
+        assertEquals(((ModbusTcpPayload) channel.readInbound()).getTransactionId(), 2);
+        assertEquals(invalid.get(), 0);
+    }
+
+    @Test
+    public void testDroppedFrameSpanningReads() {
+        AtomicInteger invalid = new AtomicInteger();
+        EmbeddedChannel channel = newDecoderChannel(InvalidFrameAction.DropFrame, invalid);
+
+        byte[] bad = frame(1, 7, 6, 1, 0x03, 0, 0, 0, 1);
+        byte[] good = frame(2, 0, 6, 1, 0x03, 0, 0, 0, 1);
+
+        channel.writeInbound(Unpooled.wrappedBuffer(bad, 0, 8));
+        channel.writeInbound(Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(bad, 8, bad.length - 8),
+            Unpooled.wrappedBuffer(good)));
+
+        assertEquals(((ModbusTcpPayload) channel.readInbound()).getTransactionId(), 2);
+        assertEquals(invalid.get(), 1);
+    }
+
+    private static EmbeddedChannel newDecoderChannel(InvalidFrameAction action, AtomicInteger invalid) {
+        return new EmbeddedChannel(new ModbusTcpCodec(
+            new ModbusResponseEncoder(),
+            new ModbusRequestDecoder(),
+            action,
+            invalid::incrementAndGet));
+    }
+
+    private static byte[] frame(int txId, int protocolId, int length, int... body) {
+        byte[] bytes = new byte[6 + body.length];
+        bytes[0] = (byte) (txId >> 8);
+        bytes[1] = (byte) txId;
+        bytes[2] = (byte) (protocolId >> 8);
+        bytes[3] = (byte) protocolId;
+        bytes[4] = (byte) (length >> 8);
+        bytes[5] = (byte) length;
+        for (int i = 0; i < body.length; i++) {
+            bytes[6 + i] = (byte) body[i];
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.digitalpetri.modbus.codec;
+
+import java.net.InetSocketAddress;
+
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.DefaultAddressedEnvelope;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ModbusUdpCodecTest {
+
+    private static final InetSocketAddress Local = new InetSocketAddress("127.0.0.1", 502);
+    private static final InetSocketAddress Remote = new InetSocketAddress("127.0.0.1", 50000);
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRoundTrip() {
+        EmbeddedChannel channel = newChannel();
+
+        ModbusTcpPayload payload = new ModbusTcpPayload((short) 7, (short) 3, new ReadHoldingRegistersRequest(100, 10));
+        channel.writeOutbound(new DefaultAddressedEnvelope<>(payload, Remote));
+
+        DatagramPacket packet = (DatagramPacket) channel.readOutbound();
+        assertEquals(packet.recipient(), Remote);
+        assertEquals(packet.content().readableBytes(), MbapHeader.LENGTH + 5);
+
+        channel.writeInbound(new DatagramPacket(packet.content(), Local, Remote));
+
+        AddressedEnvelope<ModbusTcpPayload, InetSocketAddress> envelope =
+            (AddressedEnvelope<ModbusTcpPayload, InetSocketAddress>) channel.readInbound();
+
+        assertEquals(envelope.sender(), Remote);
+        assertEquals(envelope.recipient(), Local);
+        assertEquals(envelope.content().getTransactionId(), 7);
+        assertEquals(envelope.content().getUnitId(), 3);
+
+        ReadHoldingRegistersRequest request = (ReadHoldingRegistersRequest) envelope.content().getModbusPdu();
+        assertEquals(request.getAddress(), 100);
+        assertEquals(request.getQuantity(), 10);
+    }
+
+    @Test
+    public void testInvalidDatagramsAreDropped() {
+        EmbeddedChannel channel = newChannel();
+
+        // Too short for a header and function code.
+        channel.writeInbound(datagram(0, 1, 0, 0));
+        // Invalid protocol id.
+        channel.writeInbound(datagram(0, 1, 0x12, 0x34, 0, 6, 1, 0x03, 0, 0, 0, 1));
+        // Length longer than the datagram.
+        channel.writeInbound(datagram(0, 1, 0, 0, 0, 9, 1, 0x03, 0, 0, 0, 1));
+
+        assertNull(channel.readInbound());
+        assertTrue(channel.isOpen());
+
+        channel.writeInbound(datagram(0, 2, 0, 0, 0, 6, 1, 0x03, 0, 0, 0, 1));
+        assertTrue(channel.readInbound() instanceof AddressedEnvelope);
+    }
+
+    private static EmbeddedChannel newChannel() {
+        return new EmbeddedChannel(new ModbusUdpCodec(new ModbusRequestEncoder(), new ModbusRequestDecoder()));
+    }
+
+    private static DatagramPacket datagram(int... bytes) {
+        ByteBuf buffer = Unpooled.buffer(bytes.length);
+        for (int b : bytes) buffer.writeByte(b);
+        return new DatagramPacket(buffer, Local, Remote);
+    }
+
+}
@@ -0,0 +1,281 @@
+package com.digitalpetri.modbus.codec.capture;
+
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpetri.modbus.codec.ModbusRequestDecoder;
+import com.digitalpetri.modbus.codec.ModbusRequestEncoder;
+import com.digitalpetri.modbus.codec.ModbusResponseDecoder;
+import com.digitalpetri.modbus.codec.ModbusResponseEncoder;
+import com.digitalpetri.modbus.codec.ModbusTcpCodec;
+import com.digitalpetri.modbus.codec.ModbusTcpPayload;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class FrameCaptureTest {
+
+    private static final int FrameLength = 12;
+    private static final int RecordLength = CaptureWriter.RecordHeaderLength + FrameLength;
+
+    private Path path;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        path = Files.createTempFile("capture", ".mbcp");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void testCapturesFramesAcrossReads() throws Exception {
+        CaptureWriter writer = CaptureWriter.create(path, 4096, false);
+
+        EmbeddedChannel channel = new EmbeddedChannel(
+            new FrameCaptureHandler(writer),
+            new ModbusTcpCodec(new ModbusResponseEncoder(), new ModbusRequestDecoder()));
+
+        ByteBuf wire = Unpooled.wrappedBuffer(requestFrame(0, 1), requestFrame(1, 2), requestFrame(2, 3));
+
+        // Split in the first header, then the second frame's tail coalesced with the whole third frame.
+        channel.writeInbound(wire.copy(0, 3));
+        channel.writeInbound(wire.copy(3, 12));
+        channel.writeInbound(wire.copy(15, 21));
+
+        for (int txId = 0; txId < 3; txId++) {
+            ModbusTcpPayload payload = (ModbusTcpPayload) channel.readInbound();
+            assertEquals(payload.getTransactionId(), txId);
+        }
+
+        ByteBuf registers = Unpooled.buffer().writeShort(42);
+        channel.writeOutbound(new ModbusTcpPayload((short) 0, (short) 1, new ReadHoldingRegistersResponse(registers)));
+        ByteBuf response = (ByteBuf) channel.readOutbound();
+        ByteBuf expectedResponse = response.copy();
+        response.release();
+
+        writer.close();
+        assertEquals(writer.getWrittenFrames(), 4);
+
+        try (CaptureReader reader = CaptureReader.open(path)) {
+            List<CapturedFrame> frames = reader.readAll();
+            assertEquals(frames.size(), 4);
+
+            for (int i = 0; i < 3; i++) {
+                CapturedFrame frame = frames.get(i);
+                assertEquals(frame.getDirection(), FrameDirection.Inbound);
+                assertEquals(frame.getFrame(), wire.slice(i * FrameLength, FrameLength));
+                assertEquals(frame.getStreamId(), frames.get(0).getStreamId());
+            }
+
+            CapturedFrame last = frames.get(3);
+            assertEquals(last.getDirection(), FrameDirection.Outbound);
+            assertEquals(last.getFrame(), expectedResponse);
+            assertTrue(last.getTimestampNanos() >= frames.get(2).getTimestampNanos());
+        }
+    }
+
+    @Test
+    public void testRingKeepsMostRecentFrames() throws Exception {
+        CaptureWriter writer = CaptureWriter.create(path, CaptureWriter.HeaderLength + 10 * RecordLength + 7, true);
+
+        for (int txId = 0; txId < 100; txId++) {
+            ByteBuf frame = requestFrame(txId, 1);
+            assertTrue(writer.write(0, FrameDirection.Inbound, frame, 0, FrameLength));
+            frame.release();
+        }
+        writer.close();
+
+        assertEquals(writer.getWrittenFrames(), 100);
+        assertEquals(writer.getDroppedFrames(), 0);
+
+        try (CaptureReader reader = CaptureReader.open(path)) {
+            List<CapturedFrame> frames = reader.readAll();
+            assertTrue(frames.size() >= 9, "frames: " + frames.size());
+
+            int txId = 100 - frames.size();
+            for (CapturedFrame frame : frames) {
+                assertEquals(frame.getFrame().getUnsignedShort(0), txId++);
+            }
+        }
+    }
+
+    @Test
+    public void testDropsFramesWhenFull() throws Exception {
+        CaptureWriter writer = CaptureWriter.create(path, CaptureWriter.HeaderLength + 10 * RecordLength + 7, false);
+
+        for (int txId = 0; txId < 100; txId++) {
+            ByteBuf frame = requestFrame(txId, 1);
+            writer.write(0, FrameDirection.Inbound, frame, 0, FrameLength);
+            frame.release();
+        }
+        writer.close();
+
+        assertEquals(writer.getWrittenFrames(), 10);
+        assertEquals(writer.getDroppedFrames(), 90);
+
+        try (CaptureReader reader = CaptureReader.open(path)) {
+            List<CapturedFrame> frames = reader.readAll();
+            assertEquals(frames.size(), 10);
+            assertEquals(frames.get(9).getFrame().getUnsignedShort(0), 9);
+        }
+    }
+
+    @Test
+    public void testReplayIntoCodec() throws Exception {
+        CaptureWriter writer = CaptureWriter.create(path, 64 * 1024, false);
+        int streamId = writer.nextStreamId();
+
+        for (int txId = 0; txId < 50; txId++) {
+            ByteBuf frame = requestFrame(txId, 1);
+            writer.write(streamId, FrameDirection.Inbound, frame, 0, FrameLength);
+            writer.write(streamId, FrameDirection.Outbound, frame, 0, 3);
+            frame.release();
+        }
+        writer.close();
+
+        EmbeddedChannel channel = new EmbeddedChannel(
+            new ModbusTcpCodec(new ModbusResponseEncoder(), new ModbusRequestDecoder()));
+
+        try (CaptureReader reader = CaptureReader.open(path)) {
+            long replayed = CaptureReplayer.replay(reader, ReplaySpeed.Maximum,
+                CaptureReplayer.toPipeline(channel.pipeline(), FrameDirection.Inbound));
+
+            assertEquals(replayed, 100);
+        }
+
+        for (int txId = 0; txId < 50; txId++) {
+            ModbusTcpPayload payload = (ModbusTcpPayload) channel.readInbound();
+            assertEquals(payload.getTransactionId(), txId);
+        }
+        assertNull(channel.readInbound());
+    }
+
+    @Test
+    public void testReplayKeepsOriginalTiming() throws Exception {
+        CaptureWriter writer = CaptureWriter.create(path, 4096, false);
+
+        ByteBuf frame = requestFrame(0, 1);
+        writer.write(0, FrameDirection.Inbound, frame, 0, FrameLength);
+        Thread.sleep(200);
+        writer.write(0, FrameDirection.Inbound, frame, 0, FrameLength);
+        frame.release();
+        writer.close();
+
+        List<Long> replayedAt = new ArrayList<>();
+
+        try (CaptureReader reader = CaptureReader.open(path)) {
+            CaptureReplayer.replay(reader, ReplaySpeed.Original, f -> replayedAt.add(System.nanoTime()));
+        }
+
+        assertEquals(replayedAt.size(), 2);
+        long gapMillis = TimeUnit.NANOSECONDS.toMillis(replayedAt.get(1) - replayedAt.get(0));
+        assertTrue(gapMillis >= 190, "gap: " + gapMillis + "ms");
+    }
+
+    @Test
+    public void testReplayRequests() throws Exception {
+        CaptureWriter writer = CaptureWriter.create(path, 4096, false);
+
+        for (int txId = 0; txId < 3; txId++) {
+            ByteBuf frame = requestFrame(txId, txId + 1);
+            writer.write(0, FrameDirection.Outbound, frame, 0, FrameLength);
+            writer.write(0, FrameDirection.Inbound, frame, 0, FrameLength);
+            frame.release();
+        }
+        writer.close();
+
+        List<Integer> unitIds = new ArrayList<>();
+        List<ModbusRequest> requests = new ArrayList<>();
+
+        try (CaptureReader reader = CaptureReader.open(path)) {
+            CaptureReplayer.replay(reader, ReplaySpeed.Maximum,
+                CaptureReplayer.requests(FrameDirection.Outbound, (unitId, request) -> {
+                    unitIds.add(unitId);
+                    requests.add(request);
+                }));
+        }
+
+        assertEquals(unitIds.size(), 3);
+        for (int i = 0; i < 3; i++) {
+            assertEquals((int) unitIds.get(i), i + 1);
+            assertEquals(((ReadHoldingRegistersRequest) requests.get(i)).getAddress(), 100);
+        }
+    }
+
+    @Test
+    public void testReplayOverTcp() throws Exception {
+        CaptureWriter writer = CaptureWriter.create(path, 4096, false);
+
+        ByteBuf expected = Unpooled.buffer();
+        for (int txId = 0; txId < 3; txId++) {
+            ByteBuf frame = requestFrame(txId, 1);
+            writer.write(0, FrameDirection.Inbound, frame, 0, FrameLength);
+            expected.writeBytes(frame);
+            frame.release();
+        }
+        writer.close();
+
+        EventLoopGroup eventLoop = new NioEventLoopGroup(1);
+
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            CompletableFuture<byte[]> received = CompletableFuture.supplyAsync(() -> {
+                try (Socket socket = serverSocket.accept(); InputStream in = socket.getInputStream()) {
+                    byte[] bytes = new byte[3 * FrameLength];
+                    int n = 0;
+                    while (n < bytes.length) {
+                        int r = in.read(bytes, n, bytes.length - n);
+                        if (r < 0) break;
+                        n += r;
+                    }
+                    return bytes;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            try (CaptureReader reader = CaptureReader.open(path);
+                 TcpReplayTarget target = new TcpReplayTarget(
+                     "localhost", serverSocket.getLocalPort(), FrameDirection.Inbound, eventLoop)) {
+
+                CaptureReplayer.replay(reader, ReplaySpeed.Maximum, target);
+
+                assertEquals(Unpooled.wrappedBuffer(received.get(5, TimeUnit.SECONDS)), expected);
+            }
+        } finally {
+            eventLoop.shutdownGracefully().await(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static ByteBuf requestFrame(int txId, int unitId) {
+        EmbeddedChannel channel = new EmbeddedChannel(
+            new ModbusTcpCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+
+        channel.writeOutbound(new ModbusTcpPayload(
+            (short) txId, (short) unitId, new ReadHoldingRegistersRequest(100, 10)));
+
+        return (ByteBuf) channel.readOutbound();
+    }
+
+}
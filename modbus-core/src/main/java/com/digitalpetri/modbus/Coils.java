@@ -0,0 +1,279 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Packs and unpacks coil and discrete input status 64 bits at a time.
+ * <p>
+ * Modbus packs bits LSB-first: the first coil is the least significant bit of the first byte. Reading 8 bytes as a
+ * little-endian long therefore yields 64 coils in order, so coil {@code i} maps to bit {@code i % 64} of word
+ * {@code i / 64} in the {@code long[]} images used here, the same layout as {@link BitSet#toLongArray()}.
+ * <p>
+ * Methods that read from a {@link ByteBuf} start at its reader index and do not modify it.
+ */
+public final class Coils {
+
+    private Coils() {}
+
+    /**
+     * @param quantity the number of coils.
+     * @return the number of bytes needed to hold {@code quantity} packed coils.
+     */
+    public static int byteCount(int quantity) {
+        return (quantity + 7) >>> 3;
+    }
+
+    /**
+     * @param quantity the number of coils.
+     * @return the number of words needed to hold {@code quantity} coils.
+     */
+    public static int wordCount(int quantity) {
+        return (quantity + 63) >>> 6;
+    }
+
+    /**
+     * Unpack {@code quantity} coils into a new word image.
+     *
+     * @param packed   the packed coil status, e.g. {@code ReadCoilsResponse.getCoilStatus()}.
+     * @param quantity the number of coils to unpack.
+     * @return a new word image holding the coils.
+     */
+    public static long[] unpack(ByteBuf packed, int quantity) {
+        long[] words = new long[wordCount(quantity)];
+        unpack(packed, quantity, words, 0);
+        return words;
+    }
+
+    /**
+     * Unpack {@code quantity} coils into {@code words}, starting at bit {@code offset}. Bits outside the written range
+     * are left unchanged.
+     *
+     * @param packed   the packed coil status.
+     * @param quantity the number of coils to unpack.
+     * @param words    the word image to write to.
+     * @param offset   the index of the bit in {@code words} the first coil is written to.
+     */
+    public static void unpack(ByteBuf packed, int quantity, long[] words, int offset) {
+        int index = packed.readerIndex();
+
+        for (int bit = 0; bit < quantity; bit += 64) {
+            int count = Math.min(64, quantity - bit);
+
+            setBits(words, offset + bit, readWord(packed, index + (bit >>> 3), byteCount(count)), count);
+        }
+    }
+
+    /**
+     * Unpack {@code quantity} coils into a new {@link BitSet}.
+     */
+    public static BitSet toBitSet(ByteBuf packed, int quantity) {
+        return BitSet.valueOf(unpack(packed, quantity));
+    }
+
+    /**
+     * Unpack {@code quantity} coils into a new {@code boolean[]}.
+     */
+    public static boolean[] toBooleans(ByteBuf packed, int quantity) {
+        boolean[] values = new boolean[quantity];
+        int index = packed.readerIndex();
+
+        for (int bit = 0; bit < quantity; bit += 64) {
+            int count = Math.min(64, quantity - bit);
+            long word = readWord(packed, index + (bit >>> 3), byteCount(count));
+
+            for (int i = 0; i < count; i++) {
+                values[bit + i] = ((word >>> i) & 1L) != 0;
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Pack {@code quantity} coils from {@code words}, starting at bit 0, into {@code buffer}.
+     *
+     * @return {@code buffer}.
+     */
+    public static ByteBuf pack(long[] words, int quantity, ByteBuf buffer) {
+        return pack(words, 0, quantity, buffer);
+    }
+
+    /**
+     * Pack {@code quantity} coils from {@code words}, starting at bit {@code offset}, into {@code buffer}. Unused bits
+     * in the final byte are zero.
+     *
+     * @return {@code buffer}.
+     */
+    public static ByteBuf pack(long[] words, int offset, int quantity, ByteBuf buffer) {
+        buffer.ensureWritable(byteCount(quantity));
+
+        for (int bit = 0; bit < quantity; bit += 64) {
+            int count = Math.min(64, quantity - bit);
+
+            writeWord(buffer, getBits(words, offset + bit, count), byteCount(count));
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Pack the first {@code quantity} bits of {@code bits} into {@code buffer}.
+     *
+     * @return {@code buffer}.
+     */
+    public static ByteBuf pack(BitSet bits, int quantity, ByteBuf buffer) {
+        long[] words = Arrays.copyOf(bits.toLongArray(), wordCount(quantity));
+
+        return pack(words, 0, quantity, buffer);
+    }
+
+    /**
+     * Pack all of {@code values} into {@code buffer}.
+     *
+     * @return {@code buffer}.
+     */
+    public static ByteBuf pack(boolean[] values, ByteBuf buffer) {
+        buffer.ensureWritable(byteCount(values.length));
+
+        for (int bit = 0; bit < values.length; bit += 64) {
+            int count = Math.min(64, values.length - bit);
+            long word = 0L;
+
+            for (int i = 0; i < count; i++) {
+                if (values[bit + i]) word |= 1L << i;
+            }
+
+            writeWord(buffer, word, byteCount(count));
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Compute the mask of coils that differ between two images of the same size.
+     *
+     * @param previous the previous image.
+     * @param current  the current image.
+     * @param changed  the array to store the mask in; may be {@code previous} or {@code current}.
+     * @return {@code changed}, where a set bit marks a coil whose value changed.
+     */
+    public static long[] changed(long[] previous, long[] current, long[] changed) {
+        int length = Math.min(previous.length, current.length);
+
+        for (int i = 0; i < length; i++) {
+            changed[i] = previous[i] ^ current[i];
+        }
+
+        return changed;
+    }
+
+    /**
+     * Find the next set bit at or after {@code fromIndex}, mirroring {@link BitSet#nextSetBit(int)}.
+     * <p>
+     * Iterate without allocating using
+     * {@code for (int i = nextSetBit(words, 0); i >= 0; i = nextSetBit(words, i + 1)) { ... }}.
+     *
+     * @return the index of the next set bit, or -1 if there is none.
+     */
+    public static int nextSetBit(long[] words, int fromIndex) {
+        int w = fromIndex >>> 6;
+        if (w >= words.length) return -1;
+
+        long word = words[w] & (-1L << fromIndex);
+
+        while (true) {
+            if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == words.length) return -1;
+            word = words[w];
+        }
+    }
+
+    /**
+     * Invoke {@code consumer} with the index of every set bit in {@code words}, in ascending order.
+     */
+    public static void forEachSetBit(long[] words, IntConsumer consumer) {
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+
+            while (word != 0) {
+                consumer.accept((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * Read {@code count} (1 to 64) bits of {@code words} starting at bit {@code index}.
+     */
+    public static long getBits(long[] words, int index, int count) {
+        int w = index >>> 6;
+        int shift = index & 63;
+
+        long value = words[w] >>> shift;
+        if (shift + count > 64) {
+            value |= words[w + 1] << (64 - shift);
+        }
+
+        return count == 64 ? value : value & ((1L << count) - 1);
+    }
+
+    /**
+     * Write the low {@code count} (1 to 64) bits of {@code value} to {@code words} starting at bit {@code index}.
+     */
+    public static void setBits(long[] words, int index, long value, int count) {
+        int w = index >>> 6;
+        int shift = index & 63;
+
+        long mask = count == 64 ? -1L : (1L << count) - 1;
+        value &= mask;
+
+        words[w] = (words[w] & ~(mask << shift)) | (value << shift);
+
+        if (shift + count > 64) {
+            words[w + 1] = (words[w + 1] & ~(mask >>> (64 - shift))) | (value >>> (64 - shift));
+        }
+    }
+
+    private static long readWord(ByteBuf buffer, int index, int length) {
+        if (length == 8) {
+            return Long.reverseBytes(buffer.getLong(index));
+        }
+
+        long word = 0L;
+        for (int i = 0; i < length; i++) {
+            word |= (buffer.getByte(index + i) & 0xFFL) << (i << 3);
+        }
+        return word;
+    }
+
+    private static void writeWord(ByteBuf buffer, long word, int length) {
+        if (length == 8) {
+            buffer.writeLong(Long.reverseBytes(word));
+        } else {
+            for (int i = 0; i < length; i++) {
+                buffer.writeByte((int) (word >>> (i << 3)));
+            }
+        }
+    }
+
+}
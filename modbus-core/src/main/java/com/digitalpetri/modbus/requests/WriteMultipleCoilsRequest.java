@@ -18,6 +18,7 @@ package com.digitalpetri.modbus.requests;
 
 import java.nio.ByteBuffer;
 
+import com.digitalpetri.modbus.Coils;
 import com.digitalpetri.modbus.FunctionCode;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
@@ -44,6 +45,14 @@ public class WriteMultipleCoilsRequest extends ByteBufModbusRequest {
         this(address, quantity, Unpooled.wrappedBuffer(values));
     }
 
+    /**
+     * @param address 0x0000 to 0xFFFF (0 to 65535)
+     * @param values  1 to 2000 coil values; the quantity is the length of the array
+     */
+    public WriteMultipleCoilsRequest(int address, boolean[] values) {
+        this(address, values.length, Coils.pack(values, Unpooled.buffer(Coils.byteCount(values.length))));
+    }
+
     /**
      * @param address  0x0000 to 0xFFFF (0 to 65535)
      * @param quantity 0x0001 to 0x07B0 (1 to 2000)
@@ -75,6 +84,10 @@ public class WriteMultipleCoilsRequest extends ByteBufModbusRequest {
         return quantity;
     }
 
+    /**
+     * @return the {@link ByteBuf} containing the requested coil values, 8 coils per byte.
+     * @see Coils
+     */
     public ByteBuf getValues() {
         return super.content();
     }
@@ -45,6 +45,17 @@ public class WriteSingleCoilRequest extends SimpleModbusRequest {
         this.value = value ? 0xFF00 : 0x0000;
     }
 
+    /**
+     * @param address 0x0000 to 0xFFFF (0 to 65535)
+     * @param value   the Coil Value field as received; 0xFF00 or 0x0000, unless the request is illegal.
+     */
+    public WriteSingleCoilRequest(int address, int value) {
+        super(FunctionCode.WriteSingleCoil);
+
+        this.address = address;
+        this.value = value;
+    }
+
     public int getAddress() {
         return address;
     }
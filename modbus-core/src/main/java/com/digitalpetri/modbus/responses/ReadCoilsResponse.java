@@ -34,6 +34,7 @@ public class ReadCoilsResponse extends ByteBufModbusResponse {
      * padded with zeros (toward the high order end of the byte).
      *
      * @return the {@link ByteBuf} containing coil status, 8 coils per byte.
+     * @see com.digitalpetri.modbus.Coils
      */
     public ByteBuf getCoilStatus() {
         return super.content();
@@ -34,6 +34,7 @@ public class ReadDiscreteInputsResponse extends ByteBufModbusResponse {
      * padded with zeros (toward the high order end of the byte).
      *
      * @return the {@link ByteBuf} containing input status, 8 inputs per byte.
+     * @see com.digitalpetri.modbus.Coils
      */
     public ByteBuf getInputStatus() {
         return super.content();
@@ -0,0 +1,92 @@
+package com.digitalpetri.modbus;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class CoilsTest {
+
+    @DataProvider
+    private Object[][] getQuantity() {
+        return new Object[][]{{1}, {7}, {8}, {9}, {63}, {64}, {65}, {127}, {128}, {2000}};
+    }
+
+    @Test
+    public void testModbusBitOrder() {
+        // Coils 0, 2, 3 and 8 set.
+        ByteBuf packed = Unpooled.wrappedBuffer(new byte[]{0x0D, 0x01});
+
+        assertEquals(Coils.unpack(packed, 9), new long[]{0x10DL});
+        assertEquals(Coils.toBooleans(packed, 9),
+            new boolean[]{true, false, true, true, false, false, false, false, true});
+        assertEquals(packed.readerIndex(), 0);
+    }
+
+    @Test(dataProvider = "getQuantity")
+    public void testRoundTrip(int quantity) {
+        boolean[] values = randomValues(quantity);
+
+        ByteBuf packed = Coils.pack(values, Unpooled.buffer());
+        assertEquals(packed.readableBytes(), Coils.byteCount(quantity));
+        assertEquals(packed, bytewisePack(values));
+
+        assertEquals(Coils.toBooleans(packed, quantity), values);
+        assertEquals(Coils.pack(Coils.unpack(packed, quantity), quantity, Unpooled.buffer()), packed);
+
+        BitSet bits = Coils.toBitSet(packed, quantity);
+        assertEquals(Coils.pack(bits, quantity, Unpooled.buffer()), packed);
+    }
+
+    @Test(dataProvider = "getQuantity")
+    public void testUnalignedOffset(int quantity) {
+        boolean[] values = randomValues(quantity);
+        ByteBuf packed = Coils.pack(values, Unpooled.buffer());
+
+        long[] words = new long[Coils.wordCount(quantity + 37)];
+        words[0] = -1L;
+        Coils.unpack(packed, quantity, words, 37);
+
+        assertEquals(Coils.getBits(words, 0, 37), (1L << 37) - 1);
+        assertEquals(Coils.pack(words, 37, quantity, Unpooled.buffer()), packed);
+    }
+
+    @Test
+    public void testChangedAndSetBitIteration() {
+        long[] previous = new long[]{0b1010L, 0L};
+        long[] current = new long[]{0b0110L, 1L << 63};
+
+        long[] changed = Coils.changed(previous, current, new long[2]);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = Coils.nextSetBit(changed, 0); i >= 0; i = Coils.nextSetBit(changed, i + 1)) {
+            sb.append(i).append(' ');
+        }
+        assertEquals(sb.toString(), "2 3 127 ");
+
+        StringBuilder sb2 = new StringBuilder();
+        Coils.forEachSetBit(changed, i -> sb2.append(i).append(' '));
+        assertEquals(sb2.toString(), sb.toString());
+    }
+
+    private static boolean[] randomValues(int quantity) {
+        Random random = new Random(quantity);
+        boolean[] values = new boolean[quantity];
+        for (int i = 0; i < quantity; i++) values[i] = random.nextBoolean();
+        return values;
+    }
+
+    private static ByteBuf bytewisePack(boolean[] values) {
+        byte[] bytes = new byte[(values.length + 7) / 8];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i]) bytes[i / 8] |= 1 << (i % 8);
+        }
+        return Unpooled.wrappedBuffer(bytes);
+    }
+
+}
@@ -24,6 +24,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import com.digitalpetri.modbus.codec.Modbus;
+import com.digitalpetri.modbus.codec.RequestTemplate;
 import com.digitalpetri.modbus.master.ModbusTcpMaster;
 import com.digitalpetri.modbus.master.ModbusTcpMasterConfig;
 import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
@@ -40,6 +41,8 @@ public class MasterExample {
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
+    private final RequestTemplate request = RequestTemplate.of(new ReadHoldingRegistersRequest(0, 10));
+
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
     private final List<ModbusTcpMaster> masters = new CopyOnWriteArrayList<>();
@@ -94,7 +97,7 @@ public class MasterExample {
         if (!started) return;
 
         CompletableFuture<ReadHoldingRegistersResponse> future =
-                master.sendRequest(new ReadHoldingRegistersRequest(0, 10), 0);
+                master.sendRequest(request, 0);
 
         future.whenCompleteAsync((response, ex) -> {
             if (response != null) {
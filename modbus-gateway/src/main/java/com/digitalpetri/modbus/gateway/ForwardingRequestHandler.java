@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.gateway;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import com.codahale.metrics.Counter;
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.ModbusResponseException;
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.requests.MaskWriteRegisterRequest;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.requests.ReadCoilsRequest;
+import com.digitalpetri.modbus.requests.ReadDiscreteInputsRequest;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.ReadInputRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleCoilsRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleCoilRequest;
+import com.digitalpetri.modbus.requests.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.responses.ByteBufModbusResponse;
+import com.digitalpetri.modbus.responses.MaskWriteRegisterResponse;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+import com.digitalpetri.modbus.responses.ReadCoilsResponse;
+import com.digitalpetri.modbus.responses.ReadDiscreteInputsResponse;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.responses.ReadInputRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteMultipleCoilsResponse;
+import com.digitalpetri.modbus.responses.WriteMultipleRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteSingleCoilResponse;
+import com.digitalpetri.modbus.responses.WriteSingleRegisterResponse;
+import com.digitalpetri.modbus.slave.ServiceRequestHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+
+/**
+ * Forwards requests to a {@link MasterPool} and relays the responses back to the client.
+ * <p>
+ * The client's transaction id stays with the {@link ServiceRequest} while the master assigns its own upstream, so
+ * transaction ids are rewritten in both directions without any bookkeeping here.
+ */
+class ForwardingRequestHandler implements ServiceRequestHandler {
+
+    private final MasterPool pool;
+    private final ReadCache cache;
+    private final Counter upstreamFailureCounter;
+
+    /**
+     * @param pool                   the {@link MasterPool} to forward to.
+     * @param cache                  the {@link ReadCache} for reads, or null to forward every read.
+     * @param upstreamFailureCounter counts requests that failed upstream without an exception response.
+     */
+    ForwardingRequestHandler(MasterPool pool, ReadCache cache, Counter upstreamFailureCounter) {
+        this.pool = pool;
+        this.cache = cache;
+        this.upstreamFailureCounter = upstreamFailureCounter;
+    }
+
+    @Override
+    public void onReadHoldingRegisters(ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+        ReadHoldingRegistersRequest request = service.getRequest();
+
+        read(service, request.getAddress(), request.getQuantity(), ReadHoldingRegistersResponse::new);
+    }
+
+    @Override
+    public void onReadInputRegisters(ServiceRequest<ReadInputRegistersRequest, ReadInputRegistersResponse> service) {
+        ReadInputRegistersRequest request = service.getRequest();
+
+        read(service, request.getAddress(), request.getQuantity(), ReadInputRegistersResponse::new);
+    }
+
+    @Override
+    public void onReadCoils(ServiceRequest<ReadCoilsRequest, ReadCoilsResponse> service) {
+        ReadCoilsRequest request = service.getRequest();
+
+        read(service, request.getAddress(), request.getQuantity(), ReadCoilsResponse::new);
+    }
+
+    @Override
+    public void onReadDiscreteInputs(ServiceRequest<ReadDiscreteInputsRequest, ReadDiscreteInputsResponse> service) {
+        ReadDiscreteInputsRequest request = service.getRequest();
+
+        read(service, request.getAddress(), request.getQuantity(), ReadDiscreteInputsResponse::new);
+    }
+
+    @Override
+    public void onWriteSingleCoil(ServiceRequest<WriteSingleCoilRequest, WriteSingleCoilResponse> service) {
+        write(service);
+    }
+
+    @Override
+    public void onWriteSingleRegister(ServiceRequest<WriteSingleRegisterRequest, WriteSingleRegisterResponse> service) {
+        write(service);
+    }
+
+    @Override
+    public void onWriteMultipleCoils(ServiceRequest<WriteMultipleCoilsRequest, WriteMultipleCoilsResponse> service) {
+        write(service);
+    }
+
+    @Override
+    public void onWriteMultipleRegisters(ServiceRequest<WriteMultipleRegistersRequest, WriteMultipleRegistersResponse> service) {
+        write(service);
+    }
+
+    @Override
+    public void onMaskWriteRegister(ServiceRequest<MaskWriteRegisterRequest, MaskWriteRegisterResponse> service) {
+        write(service);
+    }
+
+    private <Request extends ModbusRequest, Response extends ModbusResponse> void read(
+            ServiceRequest<Request, Response> service,
+            int address,
+            int quantity,
+            Function<ByteBuf, Response> responseFactory) {
+
+        if (cache == null) {
+            forward(service);
+            return;
+        }
+
+        Request request = service.getRequest();
+        int unitId = service.getUnitId() & 0xFF;
+        long key = ReadCache.key(unitId, request.getFunctionCode(), address, quantity);
+
+        CompletableFuture<byte[]> data = cache.get(key, () ->
+                pool.<ByteBufModbusResponse>sendRequest(request, unitId).thenApply(ForwardingRequestHandler::copy));
+
+        data.whenComplete((bytes, ex) -> {
+            if (bytes != null) {
+                service.sendResponse(responseFactory.apply(Unpooled.wrappedBuffer(bytes)));
+            } else {
+                sendFailure(service, ex);
+            }
+        });
+    }
+
+    private <Request extends ModbusRequest, Response extends ModbusResponse> void write(
+            ServiceRequest<Request, Response> service) {
+
+        if (cache != null) {
+            cache.invalidate(service.getUnitId() & 0xFF);
+        }
+
+        forward(service);
+    }
+
+    private <Request extends ModbusRequest, Response extends ModbusResponse> void forward(
+            ServiceRequest<Request, Response> service) {
+
+        Request request = service.getRequest();
+
+        pool.<Response>sendRequest(request, service.getUnitId() & 0xFF).whenComplete((response, ex) -> {
+            if (response != null) {
+                service.sendResponse(response);
+            } else {
+                releaseUnsent(request);
+                sendFailure(service, ex);
+            }
+        });
+    }
+
+    private void sendFailure(ServiceRequest<?, ?> service, Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+
+        if (cause instanceof ModbusResponseException) {
+            service.sendException(((ModbusResponseException) cause).getResponse().getExceptionCode());
+        } else if (cause instanceof ModbusTimeoutException) {
+            upstreamFailureCounter.inc();
+            service.sendException(ExceptionCode.GatewayTargetDeviceFailedToResponse);
+        } else {
+            upstreamFailureCounter.inc();
+            service.sendException(ExceptionCode.GatewayPathUnavailable);
+        }
+    }
+
+    /**
+     * @return a copy of the response data, which outlives the response; the response is released.
+     */
+    private static byte[] copy(ByteBufModbusResponse response) {
+        try {
+            ByteBuf content = response.content();
+            byte[] bytes = new byte[content.readableBytes()];
+            content.getBytes(content.readerIndex(), bytes);
+            return bytes;
+        } finally {
+            ReferenceCountUtil.release(response);
+        }
+    }
+
+    /**
+     * The encoder releases a request once it's written; a request that failed before reaching the upstream channel
+     * still holds its buffer.
+     */
+    private static void releaseUnsent(ModbusRequest request) {
+        if (request instanceof ReferenceCounted && ((ReferenceCounted) request).refCnt() > 0) {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.gateway;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.digitalpetri.modbus.master.ModbusTcpMaster;
+import com.digitalpetri.modbus.master.ModbusTcpMasterConfig;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+
+/**
+ * A fixed set of {@link ModbusTcpMaster}s connected to the same upstream device. Each request goes to the master with
+ * the fewest requests in flight, so a few upstream connections can carry the requests of any number of clients.
+ */
+public class MasterPool {
+
+    private final List<ModbusTcpMaster> masters;
+    private final AtomicIntegerArray inFlight;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param config the config every master in the pool is created with.
+     * @param size   the number of masters, and so upstream connections.
+     */
+    public MasterPool(ModbusTcpMasterConfig config, int size) {
+        this(createMasters(config, size));
+    }
+
+    public MasterPool(List<ModbusTcpMaster> masters) {
+        if (masters.isEmpty()) {
+            throw new IllegalArgumentException("masters must not be empty");
+        }
+
+        this.masters = Collections.unmodifiableList(new ArrayList<>(masters));
+        this.inFlight = new AtomicIntegerArray(masters.size());
+    }
+
+    public List<ModbusTcpMaster> getMasters() {
+        return masters;
+    }
+
+    public CompletableFuture<MasterPool> connect() {
+        CompletableFuture<?>[] futures = masters.stream()
+                .map(ModbusTcpMaster::connect)
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(futures).thenApply(v -> this);
+    }
+
+    public CompletableFuture<MasterPool> disconnect() {
+        CompletableFuture<?>[] futures = masters.stream()
+                .map(ModbusTcpMaster::disconnect)
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(futures).thenApply(v -> this);
+    }
+
+    /**
+     * Send {@code request} on the least busy master.
+     *
+     * @see ModbusTcpMaster#sendRequest(ModbusRequest, int)
+     */
+    public <T extends ModbusResponse> CompletableFuture<T> sendRequest(ModbusRequest request, int unitId) {
+        int index = select();
+
+        inFlight.incrementAndGet(index);
+
+        CompletableFuture<T> future = masters.get(index).sendRequest(request, unitId);
+        future.whenComplete((r, ex) -> inFlight.decrementAndGet(index));
+
+        return future;
+    }
+
+    /**
+     * @return the index of the master with the fewest requests in flight, starting the search at a rotating offset so
+     * ties are spread across the pool.
+     */
+    private int select() {
+        int size = masters.size();
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+
+        int selected = start;
+        int selectedInFlight = inFlight.get(start);
+
+        for (int i = 1; i < size && selectedInFlight > 0; i++) {
+            int index = (start + i) % size;
+            int n = inFlight.get(index);
+
+            if (n < selectedInFlight) {
+                selected = index;
+                selectedInFlight = n;
+            }
+        }
+
+        return selected;
+    }
+
+    private static List<ModbusTcpMaster> createMasters(ModbusTcpMasterConfig config, int size) {
+        List<ModbusTcpMaster> masters = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            masters.add(new ModbusTcpMaster(config));
+        }
+        return masters;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.gateway;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+
+/**
+ * A Modbus TCP gateway: clients connect to a {@link ModbusTcpSlave} and their requests are forwarded, by unit id, to
+ * {@link MasterPool}s connected to the upstream devices.
+ * <p>
+ * Requests to a unit id without a route are handled as configured by
+ * {@link ModbusTcpSlaveConfig#isRespondToUnmappedUnits()}. The gateway does not own its {@link MasterPool}s; connect
+ * and disconnect them independently of {@link #bind(String, int)} and {@link #shutdown()}.
+ */
+public class ModbusTcpGateway {
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    private final Counter cacheHitCounter = new Counter();
+    private final Counter cacheMissCounter = new Counter();
+    private final Counter upstreamFailureCounter = new Counter();
+
+    /**
+     * One handler, and so one {@link ReadCache}, per pool, shared by every unit routed to it.
+     */
+    private final Map<MasterPool, ForwardingRequestHandler> handlers = new ConcurrentHashMap<>();
+
+    private final ModbusTcpSlave slave;
+    private final ModbusTcpGatewayConfig config;
+
+    public ModbusTcpGateway(ModbusTcpGatewayConfig config) {
+        this.config = config;
+
+        slave = new ModbusTcpSlave(config.getSlaveConfig());
+        slave.setRequestHandler(null);
+
+        metrics.put(metricName("cache-hit-counter"), cacheHitCounter);
+        metrics.put(metricName("cache-miss-counter"), cacheMissCounter);
+        metrics.put(metricName("upstream-failure-counter"), upstreamFailureCounter);
+    }
+
+    public ModbusTcpGatewayConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return the {@link ModbusTcpSlave} clients connect to, e.g. for its {@link ModbusTcpSlave#getMetricSet()}.
+     */
+    public ModbusTcpSlave getSlave() {
+        return slave;
+    }
+
+    public CompletableFuture<ModbusTcpGateway> bind(String host, int port) {
+        return slave.bind(host, port).thenApply(s -> this);
+    }
+
+    public void shutdown() {
+        slave.shutdown();
+    }
+
+    /**
+     * Forward requests for {@code unitId} to {@code pool}. The unit id is forwarded unchanged.
+     *
+     * @param unitId the unit id, 0 to 255.
+     * @param pool   the {@link MasterPool} to forward to, or null to remove the route.
+     */
+    public void setRoute(int unitId, MasterPool pool) {
+        slave.setRequestHandler(unitId, pool != null ? handler(pool) : null);
+    }
+
+    /**
+     * Forward requests for every unit id without a route of its own to {@code pool}.
+     *
+     * @param pool the {@link MasterPool} to forward to, or null to remove the default route.
+     */
+    public void setDefaultRoute(MasterPool pool) {
+        slave.setRequestHandler(pool != null ? handler(pool) : null);
+    }
+
+    public MetricSet getMetricSet() {
+        return () -> metrics;
+    }
+
+    /**
+     * @return a {@link Counter} of reads answered from the cache, or joined to an identical read in flight.
+     */
+    public Counter getCacheHitCounter() {
+        return cacheHitCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of reads the cache forwarded upstream.
+     */
+    public Counter getCacheMissCounter() {
+        return cacheMissCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of requests that timed out or couldn't be sent upstream.
+     */
+    public Counter getUpstreamFailureCounter() {
+        return upstreamFailureCounter;
+    }
+
+    private ForwardingRequestHandler handler(MasterPool pool) {
+        return handlers.computeIfAbsent(pool, p -> {
+            long ttlNanos = config.getReadCacheTtl().toNanos();
+
+            ReadCache cache = ttlNanos > 0 ? new ReadCache(ttlNanos, cacheHitCounter, cacheMissCounter) : null;
+
+            return new ForwardingRequestHandler(p, cache, upstreamFailureCounter);
+        });
+    }
+
+    private String metricName(String name) {
+        String instanceId = config.getSlaveConfig().getInstanceId().orElse(null);
+        return MetricRegistry.name(ModbusTcpGateway.class, instanceId, name);
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.gateway;
+
+import java.time.Duration;
+
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+
+public class ModbusTcpGatewayConfig {
+
+    private final ModbusTcpSlaveConfig slaveConfig;
+    private final Duration readCacheTtl;
+
+    public ModbusTcpGatewayConfig(ModbusTcpSlaveConfig slaveConfig, Duration readCacheTtl) {
+        this.slaveConfig = slaveConfig;
+        this.readCacheTtl = readCacheTtl;
+    }
+
+    /**
+     * @return the {@link ModbusTcpSlaveConfig} for the slave clients connect to.
+     */
+    public ModbusTcpSlaveConfig getSlaveConfig() {
+        return slaveConfig;
+    }
+
+    /**
+     * @return how long a read response is reused for identical reads to the same unit, or {@link Duration#ZERO} if
+     * reads are not cached. Identical reads arriving while one is in flight upstream always share its response when
+     * caching is enabled.
+     */
+    public Duration getReadCacheTtl() {
+        return readCacheTtl;
+    }
+
+    public static class Builder {
+
+        private ModbusTcpSlaveConfig slaveConfig;
+        private Duration readCacheTtl = Duration.ZERO;
+
+        public Builder setSlaveConfig(ModbusTcpSlaveConfig slaveConfig) {
+            this.slaveConfig = slaveConfig;
+            return this;
+        }
+
+        public Builder setReadCacheTtl(Duration readCacheTtl) {
+            this.readCacheTtl = readCacheTtl;
+            return this;
+        }
+
+        public ModbusTcpGatewayConfig build() {
+            return new ModbusTcpGatewayConfig(
+                    slaveConfig != null ? slaveConfig : new ModbusTcpSlaveConfig.Builder().build(),
+                    readCacheTtl);
+        }
+
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.gateway;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.codahale.metrics.Counter;
+import com.digitalpetri.modbus.FunctionCode;
+
+/**
+ * Response data of recent reads, keyed by unit id, function code, address and quantity.
+ * <p>
+ * An entry is created when a read misses and is shared by every identical read until it expires, including reads that
+ * arrive while the upstream request is still in flight. Failed reads are not cached.
+ */
+class ReadCache {
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private final long ttlNanos;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    private volatile long lastPurgeTime = System.nanoTime();
+
+    ReadCache(long ttlNanos, Counter hitCounter, Counter missCounter) {
+        this.ttlNanos = ttlNanos;
+        this.hitCounter = hitCounter;
+        this.missCounter = missCounter;
+    }
+
+    static long key(int unitId, FunctionCode functionCode, int address, int quantity) {
+        return ((long) unitId << 40) | ((long) functionCode.getCode() << 32) | ((long) address << 16) | quantity;
+    }
+
+    /**
+     * @param key    the key from {@link #key(int, FunctionCode, int, int)}.
+     * @param loader reads the data upstream; only called on a miss.
+     * @return the response data for {@code key}.
+     */
+    CompletableFuture<byte[]> get(long key, Supplier<CompletableFuture<byte[]>> loader) {
+        long now = System.nanoTime();
+
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.isExpired(now)) {
+            hitCounter.inc();
+            return entry.future;
+        }
+
+        Entry created = new Entry();
+        Entry current = entries.compute(key, (k, e) -> e != null && !e.isExpired(now) ? e : created);
+
+        if (current != created) {
+            hitCounter.inc();
+            return current.future;
+        }
+
+        missCounter.inc();
+        purgeExpired(now);
+
+        loader.get().whenComplete((data, ex) -> {
+            if (data != null) {
+                created.expirationTime = System.nanoTime() + ttlNanos;
+                created.loaded = true;
+                created.future.complete(data);
+            } else {
+                entries.remove(key, created);
+                created.future.completeExceptionally(ex);
+            }
+        });
+
+        return created.future;
+    }
+
+    /**
+     * Discard every entry for {@code unitId}, e.g. after a write to it.
+     */
+    void invalidate(int unitId) {
+        entries.keySet().removeIf(key -> (key >>> 40) == unitId);
+    }
+
+    /**
+     * Remove expired entries, at most once per TTL, so keys that are never read again don't accumulate.
+     */
+    private void purgeExpired(long now) {
+        if (now - lastPurgeTime < ttlNanos) return;
+        lastPurgeTime = now;
+
+        entries.values().removeIf(e -> e.isExpired(now));
+    }
+
+    private static class Entry {
+
+        private final CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+        private volatile long expirationTime;
+        private volatile boolean loaded;
+
+        private boolean isExpired(long now) {
+            return loaded && now - expirationTime >= 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.gateway;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.ModbusResponseException;
+import com.digitalpetri.modbus.master.ModbusTcpMaster;
+import com.digitalpetri.modbus.master.ModbusTcpMasterConfig;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ModbusTcpGatewayTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(50390);
+
+    private final List<ModbusTcpSlave> upstreams = new ArrayList<>();
+    private final List<Integer> upstreamPorts = new ArrayList<>();
+    private final List<MasterPool> pools = new ArrayList<>();
+
+    private int gatewayPort;
+    private ModbusTcpGateway gateway;
+    private ModbusTcpMaster client;
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (client != null) client.disconnect().get();
+        if (gateway != null) gateway.shutdown();
+        for (MasterPool pool : pools) pool.disconnect().get();
+        upstreams.forEach(ModbusTcpSlave::shutdown);
+        upstreams.clear();
+        upstreamPorts.clear();
+        pools.clear();
+    }
+
+    @Test
+    public void testRoutesByUnitId() throws Exception {
+        HeapProcessImage image1 = new HeapProcessImage(0, 0, 10, 0);
+        HeapProcessImage image2 = new HeapProcessImage(0, 0, 10, 0);
+        image1.setHoldingRegister(0, 111);
+        image2.setHoldingRegister(0, 222);
+
+        gateway = bindGateway(Duration.ZERO);
+        gateway.setRoute(1, pool(bindUpstream(image1), 2));
+        gateway.setRoute(2, pool(bindUpstream(image2), 2));
+        client = connectClient();
+
+        List<CompletableFuture<ReadHoldingRegistersResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(client.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1 + i % 2));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(readRegister(futures.get(i)), i % 2 == 0 ? 111 : 222);
+        }
+    }
+
+    @Test
+    public void testReadCacheCollapsesIdenticalReads() throws Exception {
+        HeapProcessImage image = new HeapProcessImage(0, 0, 10, 0);
+        image.setHoldingRegister(0, 7);
+
+        ModbusTcpSlave upstream = bindUpstream(image);
+
+        gateway = bindGateway(Duration.ofMinutes(1));
+        gateway.setDefaultRoute(pool(upstream, 1));
+        client = connectClient();
+
+        List<CompletableFuture<ReadHoldingRegistersResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(client.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1));
+        }
+        for (CompletableFuture<ReadHoldingRegistersResponse> future : futures) {
+            assertEquals(readRegister(future), 7);
+        }
+
+        assertEquals(upstream.getRequestCounter(FunctionCode.ReadHoldingRegisters).getCount(), 1);
+        assertEquals(gateway.getCacheMissCounter().getCount(), 1);
+        assertEquals(gateway.getCacheHitCounter().getCount(), 19);
+
+        // A write to the unit invalidates its cached reads.
+        client.sendRequest(new WriteSingleRegisterRequest(0, 8), 1).get();
+        assertEquals(readRegister(client.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1)), 8);
+        assertEquals(upstream.getRequestCounter(FunctionCode.ReadHoldingRegisters).getCount(), 2);
+    }
+
+    @Test
+    public void testExceptionResponsesAreRelayed() throws Exception {
+        gateway = bindGateway(Duration.ofMinutes(1));
+        gateway.setDefaultRoute(pool(bindUpstream(new HeapProcessImage(0, 0, 10, 0)), 1));
+        client = connectClient();
+
+        assertExceptionCode(client.sendRequest(new ReadHoldingRegistersRequest(20, 1), 1),
+            ExceptionCode.IllegalDataAddress);
+    }
+
+    @Test
+    public void testUnreachableUpstream() throws Exception {
+        ModbusTcpMasterConfig config = new ModbusTcpMasterConfig.Builder("localhost")
+            .setPort(NextPort.getAndIncrement())
+            .build();
+
+        MasterPool pool = new MasterPool(config, 1);
+        pools.add(pool);
+
+        gateway = bindGateway(Duration.ZERO);
+        gateway.setDefaultRoute(pool);
+        client = connectClient();
+
+        assertExceptionCode(client.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1),
+            ExceptionCode.GatewayPathUnavailable);
+        assertEquals(gateway.getUpstreamFailureCounter().getCount(), 1);
+    }
+
+    private ModbusTcpGateway bindGateway(Duration readCacheTtl) throws Exception {
+        ModbusTcpGatewayConfig config = new ModbusTcpGatewayConfig.Builder()
+            .setSlaveConfig(new ModbusTcpSlaveConfig.Builder().build())
+            .setReadCacheTtl(readCacheTtl)
+            .build();
+
+        gatewayPort = NextPort.getAndIncrement();
+
+        return new ModbusTcpGateway(config).bind("localhost", gatewayPort).get();
+    }
+
+    private ModbusTcpSlave bindUpstream(HeapProcessImage image) throws Exception {
+        int port = NextPort.getAndIncrement();
+
+        ModbusTcpSlave upstream = new ModbusTcpSlave(new ModbusTcpSlaveConfig.Builder().build());
+        upstream.setRequestHandler(new ProcessImageRequestHandler(image));
+        upstream.bind("localhost", port).get();
+        upstreams.add(upstream);
+        upstreamPorts.add(port);
+
+        return upstream;
+    }
+
+    private MasterPool pool(ModbusTcpSlave upstream, int size) throws Exception {
+        int port = upstreamPorts.get(upstreams.indexOf(upstream));
+
+        MasterPool pool = new MasterPool(new ModbusTcpMasterConfig.Builder("localhost").setPort(port).build(), size);
+        pools.add(pool);
+
+        return pool.connect().get();
+    }
+
+    private ModbusTcpMaster connectClient() throws Exception {
+        return new ModbusTcpMaster(new ModbusTcpMasterConfig.Builder("localhost").setPort(gatewayPort).build())
+            .connect()
+            .get();
+    }
+
+    private static int readRegister(CompletableFuture<ReadHoldingRegistersResponse> future) throws Exception {
+        ReadHoldingRegistersResponse response = future.get();
+        try {
+            return response.getRegisters().getUnsignedShort(0);
+        } finally {
+            ReferenceCountUtil.release(response);
+        }
+    }
+
+    private static void assertExceptionCode(CompletableFuture<?> future, ExceptionCode expected) throws Exception {
+        try {
+            future.get();
+            fail("expected an exception response");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusResponseException, String.valueOf(e.getCause()));
+            assertEquals(((ModbusResponseException) e.getCause()).getResponse().getExceptionCode(), expected);
+        }
+    }
+
+}
@@ -20,14 +20,21 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 
+import com.digitalpetri.modbus.codec.jfr.Jfr;
+import com.digitalpetri.modbus.master.jfr.ConnectEvent;
+import com.digitalpetri.modbus.master.jfr.DisconnectEvent;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.AttributeKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class ChannelManager {
 
+    private static final AttributeKey<Boolean> DisconnectRequested =
+        AttributeKey.valueOf(ChannelManager.class.getName() + ".disconnectRequested");
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final AtomicReference<State> state = new AtomicReference<>(new Idle());
@@ -59,14 +66,27 @@ class ChannelManager {
         } else if (currentState instanceof Connecting) {
             return ((Connecting) currentState).future;
         } else if (currentState instanceof Connected) {
-            return ((Connected) currentState).future;
+            CompletableFuture<Channel> future = ((Connected) currentState).future;
+
+            // The channel may have closed before channelInactive() got the chance to transition to Idle.
+            Channel channel = future.getNow(null);
+            if (channel != null && !channel.isActive()) {
+                state.compareAndSet(currentState, new Idle());
+                return getChannel();
+            }
+
+            return future;
         } else {
             throw new IllegalStateException(currentState.getClass().getSimpleName());
         }
     }
 
     private CompletableFuture<Channel> connect(CompletableFuture<Channel> future) {
-        CompletableFuture<Channel> bootstrap = ModbusTcpMaster.bootstrap(master, master.getConfig());
+        ModbusTcpMasterConfig config = master.getConfig();
+
+        ConnectEvent event = Jfr.Available ? ConnectEvent.begin(config.getAddress(), config.getPort()) : null;
+
+        CompletableFuture<Channel> bootstrap = ModbusTcpMaster.bootstrap(master, config);
 
         bootstrap.whenComplete((ch, ex) -> {
             if (ch != null) {
@@ -74,12 +94,23 @@ class ChannelManager {
                     "Channel bootstrap succeeded: localAddress={}, remoteAddress={}",
                     ch.localAddress(), ch.remoteAddress());
 
+                if (event != null) event.succeeded(ch.localAddress());
+
                 ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
                     @Override
                     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+                        Channel channel = ctx.channel();
+
+                        if (Jfr.Available && channel.attr(DisconnectRequested).get() == null) {
+                            DisconnectEvent.record(channel.remoteAddress(), channel.localAddress(), "Closed");
+                        }
+
                         State currentState = state.get();
 
-                        if (currentState instanceof Connected) {
+                        // Only if still connected to this channel; getChannel() may have moved on already.
+                        if (currentState instanceof Connected &&
+                            ((Connected) currentState).future.getNow(null) == ctx.channel()) {
+
                             if (state.compareAndSet(currentState, new Idle())) {
                                 logger.debug("channelInactive(), transitioned to Idle");
                             }
@@ -93,6 +124,8 @@ class ChannelManager {
             } else {
                 logger.debug("Channel bootstrap failed: {}", ex.getMessage(), ex);
 
+                if (event != null) event.failed(ex);
+
                 future.completeExceptionally(ex);
             }
         });
@@ -117,6 +150,12 @@ class ChannelManager {
                     }
                 });
 
+                ch.attr(DisconnectRequested).set(true);
+
+                if (Jfr.Available && ch.isActive()) {
+                    DisconnectEvent.record(ch.remoteAddress(), ch.localAddress(), "Requested");
+                }
+
                 ch.close();
             } else {
                 future.complete(null);
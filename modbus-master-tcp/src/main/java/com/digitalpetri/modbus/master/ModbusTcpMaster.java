@@ -16,15 +16,18 @@
 
 package com.digitalpetri.modbus.master;
 
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricSet;
@@ -32,10 +35,15 @@ import com.codahale.metrics.Timer;
 import com.digitalpetri.modbus.ModbusPdu;
 import com.digitalpetri.modbus.ModbusResponseException;
 import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.codec.InvalidFrameAction;
 import com.digitalpetri.modbus.codec.ModbusRequestEncoder;
 import com.digitalpetri.modbus.codec.ModbusResponseDecoder;
+import com.digitalpetri.modbus.codec.ModbusRtuCodec;
 import com.digitalpetri.modbus.codec.ModbusTcpCodec;
 import com.digitalpetri.modbus.codec.ModbusTcpPayload;
+import com.digitalpetri.modbus.codec.capture.FrameCaptureHandler;
+import com.digitalpetri.modbus.codec.jfr.Jfr;
+import com.digitalpetri.modbus.master.jfr.MasterRequestEvent;
 import com.digitalpetri.modbus.requests.ModbusRequest;
 import com.digitalpetri.modbus.responses.ExceptionResponse;
 import com.digitalpetri.modbus.responses.ModbusResponse;
@@ -50,6 +58,7 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import io.netty.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,9 +76,19 @@ public class ModbusTcpMaster {
     private final Counter responseCounter = new Counter();
     private final Counter lateResponseCounter = new Counter();
     private final Counter timeoutCounter = new Counter();
+    private final Counter cancelledCounter = new Counter();
+    private final Counter invalidFrameCounter = new Counter();
     private final Timer responseTimer = new Timer();
 
+    /**
+     * The estimators for the master and for each unit id, when the timeout is adaptive.
+     */
+    private final RoundTripTimeEstimator roundTripTimeEstimator;
+    private final AtomicReferenceArray<RoundTripTimeEstimator> unitRoundTripTimeEstimators =
+        new AtomicReferenceArray<>(256);
+
     private final ChannelManager channelManager;
+    private final RequestQueue requestQueue;
 
     private final ModbusTcpMasterConfig config;
 
@@ -77,12 +96,23 @@ public class ModbusTcpMaster {
         this.config = config;
 
         channelManager = new ChannelManager(this);
+        // RTU frames have no transaction id, so only one request can be outstanding, whatever the config says.
+        int maxInFlight = config.isRtuFraming() ? 1 : config.getMaxInFlight();
+        requestQueue = maxInFlight > 0 ? new RequestQueue(maxInFlight, config.getStarvationLimit()) : null;
 
         metrics.put(metricName("request-counter"), requestCounter);
         metrics.put(metricName("response-counter"), responseCounter);
         metrics.put(metricName("late-response-counter"), lateResponseCounter);
         metrics.put(metricName("timeout-counter"), timeoutCounter);
+        metrics.put(metricName("cancelled-counter"), cancelledCounter);
+        metrics.put(metricName("invalid-frame-counter"), invalidFrameCounter);
         metrics.put(metricName("response-timer"), responseTimer);
+
+        if (config.isAdaptiveTimeout()) {
+            roundTripTimeEstimator = newRoundTripTimeEstimator("");
+        } else {
+            roundTripTimeEstimator = null;
+        }
     }
 
     public ModbusTcpMasterConfig getConfig() {
@@ -105,28 +135,117 @@ public class ModbusTcpMaster {
     }
 
     public <T extends ModbusResponse> CompletableFuture<T> sendRequest(ModbusRequest request, int unitId) {
-        CompletableFuture<T> future = new CompletableFuture<>();
+        return sendRequest(request, unitId, RequestPriority.Normal);
+    }
+
+    /**
+     * Send {@code request} to {@code unitId}, waiting in the lane for {@code priority} while the in-flight window is
+     * full. Priorities have no effect without a {@link ModbusTcpMasterConfig#getMaxInFlight() max in-flight} limit.
+     * <p>
+     * Cancelling the returned future withdraws the request: if it's still waiting it's dropped without being sent, and
+     * if it has been sent its response is released as soon as it's read. With RTU framing a request that has been sent
+     * keeps its place in the window until its response arrives or it times out, since the next request's response
+     * can't be told apart from this one's.
+     */
+    public <T extends ModbusResponse> CompletableFuture<T> sendRequest(ModbusRequest request,
+                                                                    int unitId,
+                                                                    RequestPriority priority) {
+
+        RequestFuture<T> future = new RequestFuture<>(request, priority);
+
+        MasterRequestEvent event = Jfr.Available ? MasterRequestEvent.begin(request, unitId) : null;
+        if (event != null) future.whenComplete(event::complete);
+
+        if (requestQueue != null) {
+            Runnable dispatch = () -> {
+                future.dispatch = null;
+
+                sendRequest(request, unitId, future, event);
+            };
+
+            future.dispatch = dispatch;
+            requestQueue.submit(dispatch, priority);
+        } else {
+            sendRequest(request, unitId, future, event);
+        }
+
+        return future;
+    }
+
+    /**
+     * @param event the event to mark written, or {@code null} if it isn't being recorded.
+     */
+    private <T extends ModbusResponse> void sendRequest(ModbusRequest request,
+                                                        int unitId,
+                                                        RequestFuture<T> future,
+                                                        MasterRequestEvent event) {
+
+        if (future.isCancelled()) {
+            releaseUnsent(request);
+            releaseInFlight();
+            return;
+        }
 
         channelManager.getChannel().whenComplete((ch, ex) -> {
-            if (ch != null) {
+            if (future.isCancelled()) {
+                releaseUnsent(request);
+                releaseInFlight();
+            } else if (ch != null) {
                 short txId = (short) transactionId.incrementAndGet();
 
+                RoundTripTimeEstimator estimator = getUnitRoundTripTimeEstimator(unitId);
+                long timeoutNanos = getTimeoutNanos(estimator);
+
                 Timeout timeout = config.getWheelTimer().newTimeout(t -> {
                     if (t.isCancelled()) return;
 
                     PendingRequest<? extends ModbusResponse> timedOut = pendingRequests.remove(txId);
                     if (timedOut != null) {
-                        timedOut.promise.completeExceptionally(new ModbusTimeoutException(config.getTimeout()));
+                        if (estimator != null) {
+                            estimator.onTimeout();
+                            roundTripTimeEstimator.onTimeout();
+                        }
+
+                        ModbusTimeoutException cause =
+                            new ModbusTimeoutException(TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+
                         timeoutCounter.inc();
+
+                        if (config.isRtuFraming()) {
+                            // RTU frames carry no transaction id, so a late reply would be taken for the next
+                            // request's. That request goes out on a new connection instead.
+                            ch.close().addListener(f -> timedOut.promise.completeExceptionally(cause));
+                        } else {
+                            timedOut.promise.completeExceptionally(cause);
+                        }
                     }
-                }, config.getTimeout().getSeconds(), TimeUnit.SECONDS);
+                }, timeoutNanos, TimeUnit.NANOSECONDS);
 
                 Timer.Context context = responseTimer.time();
 
-                pendingRequests.put(txId, new PendingRequest<>(future, timeout, context));
+                if (event != null) event.written(txId, ch.remoteAddress());
+
+                PendingRequest<T> pending = new PendingRequest<>(future, timeout, context, estimator);
+                pendingRequests.put(txId, pending);
+
+                future.transactionId = txId;
+                future.pending = pending;
+
+                if (future.isCancelled()) {
+                    // Cancelled before onCancelled() could see it pending; it's not too late to not send it.
+                    if (pendingRequests.remove(txId, pending)) timeout.cancel();
+                    releaseUnsent(request);
+                    releaseInFlight();
+                    return;
+                }
+
+                // Held until the request is done with on the wire, not just by its caller.
+                if (requestQueue != null) pending.promise.whenComplete((r, t) -> requestQueue.release());
 
                 ch.writeAndFlush(new ModbusTcpPayload(txId, (short) unitId, request)).addListener(f -> {
                     if (!f.isSuccess()) {
+                        releaseUnsent(request);
+
                         PendingRequest<?> p = pendingRequests.remove(txId);
                         if (p != null) {
                             p.promise.completeExceptionally(f.cause());
@@ -137,24 +256,55 @@ public class ModbusTcpMaster {
 
                 requestCounter.inc();
             } else {
+                // Never written, so the encoder won't get the chance to release it.
+                ReferenceCountUtil.release(request);
+                releaseInFlight();
+
                 future.completeExceptionally(ex);
             }
         });
+    }
 
-        return future;
+    /**
+     * Give up the in-flight slot of a request that was dispatched but never made it onto the wire.
+     */
+    private void releaseInFlight() {
+        if (requestQueue != null) requestQueue.release();
+    }
+
+    /**
+     * Release a request whose write failed, unless the encoder already did.
+     * <p>
+     * The encoder releases every request it encodes, but a request written to a channel that has closed never
+     * reaches it.
+     */
+    private static void releaseUnsent(ModbusRequest request) {
+        if (request instanceof ReferenceCounted && ((ReferenceCounted) request).refCnt() > 0) {
+            ReferenceCountUtil.release(request);
+        }
     }
 
     private void onChannelRead(ChannelHandlerContext ctx, ModbusTcpPayload payload) throws Exception {
         ModbusPdu modbusPdu = payload.getModbusPdu();
 
         if (modbusPdu instanceof ModbusResponse) {
-            config.getExecutor().submit(() -> handleResponse(payload.getTransactionId(), payload.getUnitId(), (ModbusResponse) modbusPdu));
+            Short transactionId = payload.getTransactionId();
+
+            // Timed out or cancelled; not worth a trip through the executor.
+            if (!pendingRequests.containsKey(transactionId)) {
+                onLateResponse(transactionId, (ModbusResponse) modbusPdu);
+                return;
+            }
+
+            long receivedNanos = System.nanoTime();
+
+            config.getExecutor().submit(() -> handleResponse(transactionId, (ModbusResponse) modbusPdu, receivedNanos));
         } else {
             logger.error("Unexpected ModbusPdu: {}", modbusPdu);
         }
     }
 
-    private void handleResponse(short transactionId, short unitId, ModbusResponse response) {
+    private void handleResponse(Short transactionId, ModbusResponse response, long receivedNanos) {
         PendingRequest<?> pending = pendingRequests.remove(transactionId);
 
         if (pending != null) {
@@ -163,24 +313,55 @@ public class ModbusTcpMaster {
             pending.context.stop();
             pending.timeout.cancel();
 
+            if (pending.estimator != null) {
+                long rttNanos = receivedNanos - pending.sentNanos;
+                pending.estimator.onResponse(rttNanos);
+                roundTripTimeEstimator.onResponse(rttNanos);
+            }
+
             if (response instanceof ExceptionResponse) {
                 pending.promise.completeExceptionally(new ModbusResponseException((ExceptionResponse) response));
             } else {
                 pending.promise.complete(response);
             }
         } else {
-            lateResponseCounter.inc();
-            ReferenceCountUtil.release(response);
+            onLateResponse(transactionId, response);
+        }
+    }
+
+    private void onLateResponse(Short transactionId, ModbusResponse response) {
+        lateResponseCounter.inc();
+        ReferenceCountUtil.release(response);
+
+        logger.debug("Received response for unknown transactionId: {}", transactionId);
+    }
 
-            logger.debug("Received response for unknown transactionId: {}", transactionId);
+    /**
+     * Withdraw the request behind a cancelled future, wherever it has got to.
+     */
+    private void onCancelled(RequestFuture<?> future) {
+        cancelledCounter.inc();
+
+        Runnable dispatch = future.dispatch;
+        if (dispatch != null && requestQueue.remove(dispatch, future.priority)) {
+            // Never dispatched, so never sent.
+            releaseUnsent(future.request);
+            return;
+        }
+
+        PendingRequest<?> pending = future.pending;
+        if (pending != null && !config.isRtuFraming() && pendingRequests.remove(future.transactionId, pending)) {
+            pending.timeout.cancel();
+            pending.promise.cancel(false);
         }
     }
 
     private void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        failPendingRequests(cause);
-
+        // Closed first, so a request sent from a failed request's callback doesn't get this channel again.
         ctx.close();
 
+        failPendingRequests(cause);
+
         onExceptionCaught(ctx, cause);
     }
 
@@ -198,15 +379,97 @@ public class ModbusTcpMaster {
     }
 
     private void failPendingRequests(Throwable cause) {
-        List<PendingRequest<?>> pending = new ArrayList<>(pendingRequests.values());
-        pending.forEach(p -> p.promise.completeExceptionally(cause));
-        pendingRequests.clear();
+        // Removed one at a time; clearing the map would also drop requests added meanwhile, without failing them.
+        for (Short txId : new ArrayList<>(pendingRequests.keySet())) {
+            PendingRequest<?> p = pendingRequests.remove(txId);
+
+            if (p != null) {
+                p.timeout.cancel();
+                p.promise.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * @return the round-trip time estimate across every unit id, if the timeout is adaptive.
+     */
+    public Optional<RoundTripTimeEstimator> getRoundTripTimeEstimator() {
+        return Optional.ofNullable(roundTripTimeEstimator);
+    }
+
+    /**
+     * @return the round-trip time estimate for {@code unitId}, if the timeout is adaptive and a request has been sent
+     * to it.
+     */
+    public Optional<RoundTripTimeEstimator> getRoundTripTimeEstimator(int unitId) {
+        return Optional.ofNullable(unitRoundTripTimeEstimators.get(unitId & 0xFF));
+    }
+
+    /**
+     * @return the estimator for {@code unitId}, created on first use, or {@code null} if the timeout isn't adaptive.
+     */
+    private RoundTripTimeEstimator getUnitRoundTripTimeEstimator(int unitId) {
+        if (roundTripTimeEstimator == null) return null;
+
+        int index = unitId & 0xFF;
+        RoundTripTimeEstimator estimator = unitRoundTripTimeEstimators.get(index);
+
+        if (estimator == null) {
+            synchronized (unitRoundTripTimeEstimators) {
+                estimator = unitRoundTripTimeEstimators.get(index);
+
+                if (estimator == null) {
+                    estimator = newRoundTripTimeEstimator(".unit-" + index);
+                    unitRoundTripTimeEstimators.set(index, estimator);
+                }
+            }
+        }
+
+        return estimator;
+    }
+
+    /**
+     * A unit's own estimate is used once it has one; until then, the estimate across every unit.
+     */
+    private long getTimeoutNanos(RoundTripTimeEstimator unitEstimator) {
+        if (unitEstimator == null) {
+            return config.getTimeout().toNanos();
+        } else if (unitEstimator.hasSamples()) {
+            return unitEstimator.getTimeoutNanos();
+        } else {
+            return roundTripTimeEstimator.getTimeoutNanos();
+        }
+    }
+
+    private RoundTripTimeEstimator newRoundTripTimeEstimator(String metricSuffix) {
+        RoundTripTimeEstimator estimator = new RoundTripTimeEstimator(
+            config.getMinTimeout(), config.getMaxTimeout(), config.getTimeout());
+
+        metrics.put(metricName("smoothed-rtt" + metricSuffix),
+            (Gauge<Double>) () -> millis(estimator.getSmoothedRtt()));
+        metrics.put(metricName("rtt-variance" + metricSuffix),
+            (Gauge<Double>) () -> millis(estimator.getRttVariance()));
+        metrics.put(metricName("adaptive-timeout" + metricSuffix),
+            (Gauge<Double>) () -> millis(estimator.getTimeout()));
+
+        return estimator;
+    }
+
+    private static double millis(Duration duration) {
+        return duration.toNanos() / 1e6;
     }
 
     public MetricSet getMetricSet() {
         return () -> metrics;
     }
 
+    /**
+     * @return the number of requests waiting for a slot in the in-flight window in the lane for {@code priority}.
+     */
+    public int getQueuedRequestCount(RequestPriority priority) {
+        return requestQueue != null ? requestQueue.getQueuedCount(priority) : 0;
+    }
+
     public Counter getRequestCounter() {
         return requestCounter;
     }
@@ -223,6 +486,14 @@ public class ModbusTcpMaster {
         return timeoutCounter;
     }
 
+    public Counter getCancelledCounter() {
+        return cancelledCounter;
+    }
+
+    public Counter getInvalidFrameCounter() {
+        return invalidFrameCounter;
+    }
+
     public Timer getResponseTimer() {
         return responseTimer;
     }
@@ -237,8 +508,6 @@ public class ModbusTcpMaster {
 
         Bootstrap bootstrap = new Bootstrap();
 
-        config.getBootstrapConsumer().accept(bootstrap);
-
         bootstrap.group(config.getEventLoop())
             .channel(NioSocketChannel.class)
             .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.getTimeout().toMillis())
@@ -246,11 +515,25 @@ public class ModbusTcpMaster {
             .handler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 protected void initChannel(SocketChannel ch) throws Exception {
-                    ch.pipeline().addLast(new ModbusTcpCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+                    if (config.isRtuFraming()) {
+                        ch.pipeline().addLast(new ModbusRtuCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+                    } else {
+                        config.getCaptureWriter().ifPresent(w -> ch.pipeline().addLast(new FrameCaptureHandler(w)));
+
+                        ch.pipeline().addLast(new ModbusTcpCodec(
+                            new ModbusRequestEncoder(),
+                            new ModbusResponseDecoder(),
+                            InvalidFrameAction.CloseConnection,
+                            master.invalidFrameCounter::inc));
+                    }
                     ch.pipeline().addLast(new ModbusTcpMasterHandler(master));
                 }
-            })
-            .connect(config.getAddress(), config.getPort())
+            });
+
+        // Applied last, so the consumer can override any of the options above, e.g. the allocator.
+        config.getBootstrapConsumer().accept(bootstrap);
+
+        bootstrap.connect(config.getAddress(), config.getPort())
             .addListener((ChannelFuture f) -> {
                 if (f.isSuccess()) {
                     future.complete(f.channel());
@@ -282,22 +565,65 @@ public class ModbusTcpMaster {
 
     }
 
+    /**
+     * The future returned by {@code sendRequest()}, which withdraws its request when cancelled.
+     */
+    private class RequestFuture<T> extends CompletableFuture<T> {
+
+        private final ModbusRequest request;
+        private final RequestPriority priority;
+
+        /**
+         * Set while the request waits in a {@link RequestQueue} lane.
+         */
+        private volatile Runnable dispatch;
+
+        /**
+         * Set once the request is pending; {@link #pending} is written last.
+         */
+        private volatile short transactionId;
+        private volatile PendingRequest<?> pending;
+
+        private RequestFuture(ModbusRequest request, RequestPriority priority) {
+            this.request = request;
+            this.priority = priority;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+            if (cancelled) onCancelled(this);
+
+            return cancelled;
+        }
+
+    }
+
     private static class PendingRequest<T> {
 
         private final CompletableFuture<ModbusResponse> promise = new CompletableFuture<>();
 
         private final Timeout timeout;
         private final Timer.Context context;
+        private final RoundTripTimeEstimator estimator;
+        private final long sentNanos = System.nanoTime();
 
         @SuppressWarnings("unchecked")
-        private PendingRequest(CompletableFuture<T> future, Timeout timeout, Timer.Context context) {
+        private PendingRequest(CompletableFuture<T> future,
+                               Timeout timeout,
+                               Timer.Context context,
+                               RoundTripTimeEstimator estimator) {
+
             this.timeout = timeout;
             this.context = context;
+            this.estimator = estimator;
 
             promise.whenComplete((r, ex) -> {
                 if (r != null) {
                     try {
-                        future.complete((T) r);
+                        // Already cancelled, or failed, with no one left to release it.
+                        if (!future.complete((T) r)) ReferenceCountUtil.release(r);
                     } catch (ClassCastException e) {
                         future.completeExceptionally(e);
                     }
@@ -22,6 +22,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
 
 import com.digitalpetri.modbus.codec.Modbus;
+import com.digitalpetri.modbus.codec.capture.CaptureWriter;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.EventLoopGroup;
 import io.netty.util.HashedWheelTimer;
@@ -37,7 +38,18 @@ public class ModbusTcpMasterConfig {
     private final EventLoopGroup eventLoop;
     private final HashedWheelTimer wheelTimer;
     private final Consumer<Bootstrap> bootstrapConsumer;
+    private final boolean rtuFraming;
+    private final Optional<CaptureWriter> captureWriter;
+    private final boolean adaptiveTimeout;
+    private final Duration minTimeout;
+    private final Duration maxTimeout;
+    private final int maxInFlight;
+    private final int starvationLimit;
 
+    /**
+     * Create a config with the {@link Builder}'s defaults for every option this constructor has no parameter for.
+     * Prefer the {@link Builder}, which is where new options are added.
+     */
     public ModbusTcpMasterConfig(String address,
                                  int port,
                                  Duration timeout,
@@ -47,6 +59,27 @@ public class ModbusTcpMasterConfig {
                                  EventLoopGroup eventLoop,
                                  HashedWheelTimer wheelTimer,
                                  Consumer<Bootstrap> bootstrapConsumer) {
+
+        this(address, port, timeout, autoConnect, instanceId, executor, eventLoop, wheelTimer, bootstrapConsumer,
+            false, Optional.empty(), false, Duration.ofMillis(100), timeout, 0, 8);
+    }
+
+    public ModbusTcpMasterConfig(String address,
+                                 int port,
+                                 Duration timeout,
+                                 @Deprecated boolean autoConnect,
+                                 Optional<String> instanceId,
+                                 ExecutorService executor,
+                                 EventLoopGroup eventLoop,
+                                 HashedWheelTimer wheelTimer,
+                                 Consumer<Bootstrap> bootstrapConsumer,
+                                 boolean rtuFraming,
+                                 Optional<CaptureWriter> captureWriter,
+                                 boolean adaptiveTimeout,
+                                 Duration minTimeout,
+                                 Duration maxTimeout,
+                                 int maxInFlight,
+                                 int starvationLimit) {
         this.address = address;
         this.port = port;
         this.timeout = timeout;
@@ -56,6 +89,13 @@ public class ModbusTcpMasterConfig {
         this.eventLoop = eventLoop;
         this.wheelTimer = wheelTimer;
         this.bootstrapConsumer = bootstrapConsumer;
+        this.rtuFraming = rtuFraming;
+        this.captureWriter = captureWriter;
+        this.adaptiveTimeout = adaptiveTimeout;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        this.maxInFlight = maxInFlight;
+        this.starvationLimit = starvationLimit;
     }
 
     public String getAddress() {
@@ -95,6 +135,61 @@ public class ModbusTcpMasterConfig {
         return bootstrapConsumer;
     }
 
+    /**
+     * @return {@code true} if RTU frames are tunneled over the TCP connection instead of MBAP frames. Only one request
+     * is outstanding at a time in this mode, since RTU frames have no transaction id.
+     */
+    public boolean isRtuFraming() {
+        return rtuFraming;
+    }
+
+    /**
+     * @return the {@link CaptureWriter} that records every frame sent and received, each connection as its own stream,
+     * if capturing is enabled. Frames aren't captured with RTU framing.
+     */
+    public Optional<CaptureWriter> getCaptureWriter() {
+        return captureWriter;
+    }
+
+    /**
+     * @return {@code true} if each request's timeout is derived from the round-trip times observed for its unit id,
+     * see {@link RoundTripTimeEstimator}, instead of always being {@link #getTimeout()}.
+     */
+    public boolean isAdaptiveTimeout() {
+        return adaptiveTimeout;
+    }
+
+    /**
+     * @return the shortest adaptive timeout.
+     */
+    public Duration getMinTimeout() {
+        return minTimeout;
+    }
+
+    /**
+     * @return the longest adaptive timeout, including backoff after timeouts.
+     */
+    public Duration getMaxTimeout() {
+        return maxTimeout;
+    }
+
+    /**
+     * @return the most requests outstanding at once, or 0 for no limit. Further requests wait in a lane for their
+     * {@link RequestPriority}; without a limit they're sent immediately and their priority has no effect. Ignored
+     * with RTU framing, which allows 1.
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return how many times a waiting request may be overtaken by higher priority requests before it's dispatched
+     * ahead of them.
+     */
+    public int getStarvationLimit() {
+        return starvationLimit;
+    }
+
     public static class Builder {
 
         private final String address;
@@ -107,6 +202,13 @@ public class ModbusTcpMasterConfig {
         private EventLoopGroup eventLoop;
         private HashedWheelTimer wheelTimer;
         private Consumer<Bootstrap> bootstrapConsumer = (b) -> {};
+        private boolean rtuFraming = false;
+        private Optional<CaptureWriter> captureWriter = Optional.empty();
+        private boolean adaptiveTimeout = false;
+        private Duration minTimeout = Duration.ofMillis(100);
+        private Duration maxTimeout;
+        private int maxInFlight = 0;
+        private int starvationLimit = 8;
 
         public Builder(String address) {
             this.address = address;
@@ -153,6 +255,64 @@ public class ModbusTcpMasterConfig {
             return this;
         }
 
+        public Builder setRtuFraming(boolean rtuFraming) {
+            this.rtuFraming = rtuFraming;
+            return this;
+        }
+
+        /**
+         * @param captureWriter record every frame sent and received with this writer. Ignored with RTU framing.
+         */
+        public Builder setCaptureWriter(CaptureWriter captureWriter) {
+            this.captureWriter = Optional.of(captureWriter);
+            return this;
+        }
+
+        /**
+         * @param adaptiveTimeout derive each request's timeout from observed round-trip times, between the min and max
+         *                        timeouts. The timeout set with {@link #setTimeout(Duration)} is used until the first
+         *                        response. Defaults to {@code false}.
+         */
+        public Builder setAdaptiveTimeout(boolean adaptiveTimeout) {
+            this.adaptiveTimeout = adaptiveTimeout;
+            return this;
+        }
+
+        /**
+         * @param minTimeout the shortest adaptive timeout. Defaults to 100ms.
+         */
+        public Builder setMinTimeout(Duration minTimeout) {
+            this.minTimeout = minTimeout;
+            return this;
+        }
+
+        /**
+         * @param maxTimeout the longest adaptive timeout. Defaults to the timeout set with
+         *                   {@link #setTimeout(Duration)}.
+         */
+        public Builder setMaxTimeout(Duration maxTimeout) {
+            this.maxTimeout = maxTimeout;
+            return this;
+        }
+
+        /**
+         * @param maxInFlight the most requests outstanding at once, or 0 (the default) for no limit. Request
+         *                    priorities only take effect with a limit. Ignored with RTU framing, which allows 1.
+         */
+        public Builder setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * @param starvationLimit how many times a waiting request may be overtaken by higher priority requests before
+         *                        it's dispatched ahead of them. Defaults to 8.
+         */
+        public Builder setStarvationLimit(int starvationLimit) {
+            this.starvationLimit = starvationLimit;
+            return this;
+        }
+
         public ModbusTcpMasterConfig build() {
             return new ModbusTcpMasterConfig(
                     address,
@@ -163,7 +323,14 @@ public class ModbusTcpMasterConfig {
                     executor != null ? executor : Modbus.sharedExecutor(),
                     eventLoop != null ? eventLoop : Modbus.sharedEventLoop(),
                     wheelTimer != null ? wheelTimer : Modbus.sharedWheelTimer(),
-                    bootstrapConsumer);
+                    bootstrapConsumer,
+                    rtuFraming,
+                    captureWriter,
+                    adaptiveTimeout,
+                    minTimeout,
+                    maxTimeout != null ? maxTimeout : timeout,
+                    maxInFlight,
+                    starvationLimit);
         }
 
     }
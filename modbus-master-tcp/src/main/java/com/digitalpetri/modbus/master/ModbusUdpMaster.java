@@ -0,0 +1,430 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import com.digitalpetri.modbus.ModbusPdu;
+import com.digitalpetri.modbus.ModbusResponseException;
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.codec.ModbusRequestEncoder;
+import com.digitalpetri.modbus.codec.ModbusResponseDecoder;
+import com.digitalpetri.modbus.codec.ModbusTcpPayload;
+import com.digitalpetri.modbus.codec.ModbusUdpCodec;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.responses.ExceptionResponse;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultAddressedEnvelope;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Modbus/UDP master that talks to any number of slaves through a single datagram socket.
+ * <p>
+ * Transaction ids are unique across all remote endpoints, so a response is matched by transaction id and then checked
+ * against the address the request was sent to. Read requests that time out are retransmitted with the same
+ * transaction id up to {@link ModbusUdpMasterConfig#getRetries()} times.
+ */
+public class ModbusUdpMaster {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Map<Short, PendingRequest<? extends ModbusResponse>> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicInteger transactionId = new AtomicInteger(0);
+
+    private final AtomicReference<CompletableFuture<Channel>> channel = new AtomicReference<>();
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    private final Counter requestCounter = new Counter();
+    private final Counter responseCounter = new Counter();
+    private final Counter lateResponseCounter = new Counter();
+    private final Counter timeoutCounter = new Counter();
+    private final Counter retransmitCounter = new Counter();
+    private final Timer responseTimer = new Timer();
+
+    private final ModbusUdpMasterConfig config;
+
+    public ModbusUdpMaster(ModbusUdpMasterConfig config) {
+        this.config = config;
+
+        metrics.put(metricName("request-counter"), requestCounter);
+        metrics.put(metricName("response-counter"), responseCounter);
+        metrics.put(metricName("late-response-counter"), lateResponseCounter);
+        metrics.put(metricName("timeout-counter"), timeoutCounter);
+        metrics.put(metricName("retransmit-counter"), retransmitCounter);
+        metrics.put(metricName("response-timer"), responseTimer);
+    }
+
+    public ModbusUdpMasterConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Bind the local datagram socket. Sending a request binds it as well if necessary.
+     */
+    public CompletableFuture<ModbusUdpMaster> connect() {
+        return getChannel().thenApply(ch -> this);
+    }
+
+    public CompletableFuture<ModbusUdpMaster> disconnect() {
+        CompletableFuture<Channel> current = channel.getAndSet(null);
+
+        if (current == null) {
+            return CompletableFuture.completedFuture(this);
+        }
+
+        CompletableFuture<ModbusUdpMaster> future = new CompletableFuture<>();
+
+        current.whenComplete((ch, ex) -> {
+            if (ch != null) {
+                ch.close().addListener(f -> future.complete(this));
+            } else {
+                future.complete(this);
+            }
+        });
+
+        return future;
+    }
+
+    public <T extends ModbusResponse> CompletableFuture<T> sendRequest(ModbusRequest request,
+                                                                       int unitId,
+                                                                       InetSocketAddress remoteAddress) {
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        getChannel().whenComplete((ch, ex) -> {
+            if (ch != null) {
+                short txId = (short) transactionId.incrementAndGet();
+
+                PendingRequest<T> pending = new PendingRequest<>(
+                    future, request, (short) unitId, remoteAddress, config.getRetries(), responseTimer.time());
+
+                pendingRequests.put(txId, pending);
+
+                pending.timeout = newTimeout(txId, pending);
+
+                // Counters are updated before the future can complete, so its callers see them up to date.
+                requestCounter.inc();
+
+                write(ch, txId, pending);
+            } else {
+                future.completeExceptionally(ex);
+            }
+        });
+
+        return future;
+    }
+
+    private CompletableFuture<Channel> getChannel() {
+        CompletableFuture<Channel> current = channel.get();
+
+        if (current == null) {
+            CompletableFuture<Channel> next = new CompletableFuture<>();
+
+            if (channel.compareAndSet(null, next)) {
+                bootstrap(this, config).whenComplete((ch, ex) -> {
+                    if (ch != null) {
+                        next.complete(ch);
+                    } else {
+                        channel.compareAndSet(next, null);
+                        next.completeExceptionally(ex);
+                    }
+                });
+
+                return next;
+            } else {
+                return getChannel();
+            }
+        } else {
+            return current;
+        }
+    }
+
+    private void write(Channel ch, short txId, PendingRequest<?> pending) {
+        ModbusTcpPayload payload = new ModbusTcpPayload(txId, pending.unitId, pending.request);
+
+        ch.writeAndFlush(new DefaultAddressedEnvelope<>(payload, pending.remoteAddress)).addListener(f -> {
+            if (!f.isSuccess()) {
+                releaseUnsent(pending.request);
+
+                if (pendingRequests.remove(txId, pending)) {
+                    pending.promise.completeExceptionally(f.cause());
+                    pending.timeout.cancel();
+                }
+            }
+        });
+    }
+
+    /**
+     * Release a request whose write failed, unless the encoder already did.
+     * <p>
+     * The encoder releases every request it encodes, but a write that fails before reaching it, e.g. because the
+     * channel has closed, leaves the request unreleased.
+     */
+    private static void releaseUnsent(ModbusRequest request) {
+        if (request instanceof ReferenceCounted && ((ReferenceCounted) request).refCnt() > 0) {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    private Timeout newTimeout(short txId, PendingRequest<?> pending) {
+        return config.getWheelTimer().newTimeout(t -> {
+            if (t.isCancelled() || pendingRequests.get(txId) != pending) return;
+
+            CompletableFuture<Channel> current = channel.get();
+            Channel ch = current != null ? current.getNow(null) : null;
+
+            if (pending.retriesRemaining > 0 && isIdempotent(pending.request) && ch != null) {
+                pending.retriesRemaining--;
+                pending.timeout = newTimeout(txId, pending);
+
+                retransmitCounter.inc();
+
+                write(ch, txId, pending);
+            } else if (pendingRequests.remove(txId, pending)) {
+                timeoutCounter.inc();
+                pending.promise.completeExceptionally(new ModbusTimeoutException(config.getTimeout()));
+            }
+        }, config.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void onChannelRead(AddressedEnvelope<ModbusTcpPayload, InetSocketAddress> envelope) {
+        ModbusTcpPayload payload = envelope.content();
+        ModbusPdu modbusPdu = payload.getModbusPdu();
+
+        if (modbusPdu instanceof ModbusResponse) {
+            InetSocketAddress sender = envelope.sender();
+
+            config.getExecutor().submit(
+                () -> handleResponse(payload.getTransactionId(), sender, (ModbusResponse) modbusPdu));
+        } else {
+            logger.error("Unexpected ModbusPdu: {}", modbusPdu);
+        }
+    }
+
+    private void handleResponse(short transactionId, InetSocketAddress sender, ModbusResponse response) {
+        PendingRequest<?> pending = pendingRequests.get(transactionId);
+
+        if (pending != null && pending.remoteAddress.equals(sender) && pendingRequests.remove(transactionId, pending)) {
+            responseCounter.inc();
+
+            pending.context.stop();
+            pending.timeout.cancel();
+
+            if (response instanceof ExceptionResponse) {
+                pending.promise.completeExceptionally(new ModbusResponseException((ExceptionResponse) response));
+            } else {
+                pending.promise.complete(response);
+            }
+        } else {
+            lateResponseCounter.inc();
+            ReferenceCountUtil.release(response);
+
+            logger.debug("Received response for unknown transactionId: {}, sender: {}", transactionId, sender);
+        }
+    }
+
+    private void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        logger.debug("Exception caught: {}", cause.getMessage(), cause);
+    }
+
+    private void onChannelInactive() {
+        List<PendingRequest<?>> pending = new ArrayList<>(pendingRequests.values());
+        pendingRequests.clear();
+
+        pending.forEach(p -> {
+            p.timeout.cancel();
+            p.promise.completeExceptionally(new Exception("channel closed"));
+        });
+    }
+
+    public MetricSet getMetricSet() {
+        return () -> metrics;
+    }
+
+    public Counter getRequestCounter() {
+        return requestCounter;
+    }
+
+    public Counter getResponseCounter() {
+        return responseCounter;
+    }
+
+    public Counter getLateResponseCounter() {
+        return lateResponseCounter;
+    }
+
+    public Counter getTimeoutCounter() {
+        return timeoutCounter;
+    }
+
+    public Counter getRetransmitCounter() {
+        return retransmitCounter;
+    }
+
+    public Timer getResponseTimer() {
+        return responseTimer;
+    }
+
+    private String metricName(String name) {
+        String instanceId = config.getInstanceId().orElse(null);
+        return MetricRegistry.name(ModbusUdpMaster.class, instanceId, name);
+    }
+
+    private static boolean isIdempotent(ModbusRequest request) {
+        switch (request.getFunctionCode()) {
+            case ReadCoils:
+            case ReadDiscreteInputs:
+            case ReadHoldingRegisters:
+            case ReadInputRegisters:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    public static CompletableFuture<Channel> bootstrap(ModbusUdpMaster master, ModbusUdpMasterConfig config) {
+        CompletableFuture<Channel> future = new CompletableFuture<>();
+
+        Bootstrap bootstrap = new Bootstrap();
+
+        bootstrap.group(config.getEventLoop())
+            .channel(NioDatagramChannel.class)
+            .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+            .handler(new ChannelInitializer<DatagramChannel>() {
+                @Override
+                protected void initChannel(DatagramChannel ch) throws Exception {
+                    ch.pipeline().addLast(new ModbusUdpCodec(new ModbusRequestEncoder(), new ModbusResponseDecoder()));
+                    ch.pipeline().addLast(new ModbusUdpMasterHandler(master));
+                }
+            });
+
+        // Applied last, so the consumer can override any of the options above, e.g. the allocator.
+        config.getBootstrapConsumer().accept(bootstrap);
+
+        bootstrap.bind(config.getLocalAddress(), config.getLocalPort())
+            .addListener((ChannelFuture f) -> {
+                if (f.isSuccess()) {
+                    future.complete(f.channel());
+                } else {
+                    future.completeExceptionally(f.cause());
+                }
+            });
+
+        return future;
+    }
+
+    private static class ModbusUdpMasterHandler
+        extends SimpleChannelInboundHandler<AddressedEnvelope<ModbusTcpPayload, InetSocketAddress>> {
+
+        private final ModbusUdpMaster master;
+
+        private ModbusUdpMasterHandler(ModbusUdpMaster master) {
+            this.master = master;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx,
+                                    AddressedEnvelope<ModbusTcpPayload, InetSocketAddress> msg) throws Exception {
+            master.onChannelRead(msg);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            master.onChannelInactive();
+
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            master.exceptionCaught(ctx, cause);
+        }
+
+    }
+
+    private static class PendingRequest<T> {
+
+        private final CompletableFuture<ModbusResponse> promise = new CompletableFuture<>();
+
+        private final ModbusRequest request;
+        private final short unitId;
+        private final InetSocketAddress remoteAddress;
+        private final Timer.Context context;
+
+        private volatile Timeout timeout;
+        private volatile int retriesRemaining;
+
+        @SuppressWarnings("unchecked")
+        private PendingRequest(CompletableFuture<T> future,
+                               ModbusRequest request,
+                               short unitId,
+                               InetSocketAddress remoteAddress,
+                               int retries,
+                               Timer.Context context) {
+
+            this.request = request;
+            this.unitId = unitId;
+            this.remoteAddress = remoteAddress;
+            this.retriesRemaining = retries;
+            this.context = context;
+
+            promise.whenComplete((r, ex) -> {
+                if (r != null) {
+                    try {
+                        future.complete((T) r);
+                    } catch (ClassCastException e) {
+                        future.completeExceptionally(e);
+                    }
+                } else {
+                    future.completeExceptionally(ex);
+                }
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+
+import com.digitalpetri.modbus.codec.Modbus;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.HashedWheelTimer;
+
+public class ModbusUdpMasterConfig {
+
+    private final String localAddress;
+    private final int localPort;
+    private final Duration timeout;
+    private final int retries;
+    private final Optional<String> instanceId;
+    private final ExecutorService executor;
+    private final EventLoopGroup eventLoop;
+    private final HashedWheelTimer wheelTimer;
+    private final Consumer<Bootstrap> bootstrapConsumer;
+
+    public ModbusUdpMasterConfig(String localAddress,
+                                 int localPort,
+                                 Duration timeout,
+                                 int retries,
+                                 Optional<String> instanceId,
+                                 ExecutorService executor,
+                                 EventLoopGroup eventLoop,
+                                 HashedWheelTimer wheelTimer,
+                                 Consumer<Bootstrap> bootstrapConsumer) {
+        this.localAddress = localAddress;
+        this.localPort = localPort;
+        this.timeout = timeout;
+        this.retries = retries;
+        this.instanceId = instanceId;
+        this.executor = executor;
+        this.eventLoop = eventLoop;
+        this.wheelTimer = wheelTimer;
+        this.bootstrapConsumer = bootstrapConsumer;
+    }
+
+    /**
+     * @return the local address the datagram socket is bound to.
+     */
+    public String getLocalAddress() {
+        return localAddress;
+    }
+
+    /**
+     * @return the local port the datagram socket is bound to, or 0 for an ephemeral port.
+     */
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * @return how long to wait for a response before a request is retransmitted or fails.
+     */
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return the number of times a read request is retransmitted after timing out. Write requests are never
+     * retransmitted.
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    public Optional<String> getInstanceId() {
+        return instanceId;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public EventLoopGroup getEventLoop() {
+        return eventLoop;
+    }
+
+    public HashedWheelTimer getWheelTimer() {
+        return wheelTimer;
+    }
+
+    public Consumer<Bootstrap> getBootstrapConsumer() {
+        return bootstrapConsumer;
+    }
+
+    public static class Builder {
+
+        private String localAddress = "0.0.0.0";
+        private int localPort = 0;
+        private Duration timeout = Duration.ofSeconds(5);
+        private int retries = 2;
+        private Optional<String> instanceId = Optional.empty();
+        private ExecutorService executor;
+        private EventLoopGroup eventLoop;
+        private HashedWheelTimer wheelTimer;
+        private Consumer<Bootstrap> bootstrapConsumer = (b) -> {};
+
+        public Builder setLocalAddress(String localAddress) {
+            this.localAddress = localAddress;
+            return this;
+        }
+
+        public Builder setLocalPort(int localPort) {
+            this.localPort = localPort;
+            return this;
+        }
+
+        public Builder setTimeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public Builder setRetries(int retries) {
+            this.retries = retries;
+            return this;
+        }
+
+        public Builder setInstanceId(String instanceId) {
+            this.instanceId = Optional.of(instanceId);
+            return this;
+        }
+
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder setEventLoop(EventLoopGroup eventLoop) {
+            this.eventLoop = eventLoop;
+            return this;
+        }
+
+        public Builder setWheelTimer(HashedWheelTimer wheelTimer) {
+            this.wheelTimer = wheelTimer;
+            return this;
+        }
+
+        public Builder setBootstrapConsumer(Consumer<Bootstrap> consumer) {
+            this.bootstrapConsumer = consumer;
+            return this;
+        }
+
+        public ModbusUdpMasterConfig build() {
+            return new ModbusUdpMasterConfig(
+                    localAddress,
+                    localPort,
+                    timeout,
+                    retries,
+                    instanceId,
+                    executor != null ? executor : Modbus.sharedExecutor(),
+                    eventLoop != null ? eventLoop : Modbus.sharedEventLoop(),
+                    wheelTimer != null ? wheelTimer : Modbus.sharedWheelTimer(),
+                    bootstrapConsumer);
+        }
+
+    }
+}
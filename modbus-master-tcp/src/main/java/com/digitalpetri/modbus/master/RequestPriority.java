@@ -0,0 +1,43 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+/**
+ * The lane a request waits in for a slot in a {@link ModbusTcpMaster}'s in-flight window.
+ * <p>
+ * A waiting request is always dispatched before any waiting request of lower priority, except that a lower priority
+ * request is let through after {@link ModbusTcpMasterConfig#getStarvationLimit()} higher priority requests have
+ * overtaken it, so cyclic polling keeps making progress under a steady stream of writes.
+ */
+public enum RequestPriority {
+
+    /**
+     * For requests that must not wait behind polling, e.g. an operator's setpoint write.
+     */
+    High,
+
+    /**
+     * The priority of requests sent without one.
+     */
+    Normal,
+
+    /**
+     * For background polling that can tolerate waiting.
+     */
+    Low
+
+}
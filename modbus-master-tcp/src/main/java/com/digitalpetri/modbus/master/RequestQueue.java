@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds requests back until there is room for them in the in-flight window, in one lane per {@link RequestPriority}.
+ * <p>
+ * Each dispatched request occupies a slot until {@link #release()} is called. When a slot frees up, the request at the
+ * head of the highest priority non-empty lane is dispatched, unless a lower priority lane has already been overtaken
+ * {@code starvationLimit} times, in which case the head of that lane goes first.
+ */
+class RequestQueue {
+
+    private static final RequestPriority[] Priorities = RequestPriority.values();
+
+    private final ArrayDeque<Runnable>[] lanes;
+    private final int[] overtaken = new int[Priorities.length];
+
+    private final AtomicInteger inFlight = new AtomicInteger(0);
+
+    private final int maxInFlight;
+    private final int starvationLimit;
+
+    @SuppressWarnings("unchecked")
+    RequestQueue(int maxInFlight, int starvationLimit) {
+        this.maxInFlight = maxInFlight;
+        this.starvationLimit = starvationLimit;
+
+        lanes = new ArrayDeque[Priorities.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Queue {@code dispatch} in the lane for {@code priority}, to be run once a slot is available, which may be
+     * immediately on the calling thread.
+     */
+    void submit(Runnable dispatch, RequestPriority priority) {
+        synchronized (lanes) {
+            lanes[priority.ordinal()].add(dispatch);
+        }
+        drain();
+    }
+
+    /**
+     * Remove {@code dispatch} from the lane for {@code priority}, if it's still waiting there.
+     *
+     * @return {@code true} if it was removed and will never be run.
+     */
+    boolean remove(Runnable dispatch, RequestPriority priority) {
+        synchronized (lanes) {
+            return lanes[priority.ordinal()].remove(dispatch);
+        }
+    }
+
+    /**
+     * Release the slot held by a previously dispatched request.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    /**
+     * @return the number of requests waiting in the lane for {@code priority}.
+     */
+    int getQueuedCount(RequestPriority priority) {
+        synchronized (lanes) {
+            return lanes[priority.ordinal()].size();
+        }
+    }
+
+    private void drain() {
+        while (!isEmpty()) {
+            int current = inFlight.get();
+            if (current >= maxInFlight) return;
+
+            if (inFlight.compareAndSet(current, current + 1)) {
+                Runnable next = poll();
+
+                if (next != null) {
+                    next.run();
+                } else {
+                    inFlight.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private Runnable poll() {
+        synchronized (lanes) {
+            // Lowest priority first, so the most starved lane is the one let through.
+            for (int i = lanes.length - 1; i > 0; i--) {
+                if (overtaken[i] >= starvationLimit && !lanes[i].isEmpty()) {
+                    overtaken[i] = 0;
+                    return lanes[i].poll();
+                }
+            }
+
+            for (int i = 0; i < lanes.length; i++) {
+                Runnable next = lanes[i].poll();
+
+                if (next != null) {
+                    overtaken[i] = 0;
+
+                    for (int j = i + 1; j < lanes.length; j++) {
+                        if (!lanes[j].isEmpty()) overtaken[j]++;
+                    }
+
+                    return next;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    private boolean isEmpty() {
+        synchronized (lanes) {
+            for (ArrayDeque<Runnable> lane : lanes) {
+                if (!lane.isEmpty()) return false;
+            }
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.time.Duration;
+
+/**
+ * Derives a request timeout from observed round-trip times, the way TCP derives its retransmission timeout
+ * (RFC 6298).
+ * <p>
+ * Each response updates a smoothed round-trip time and its mean deviation; the timeout is the smoothed round-trip time
+ * plus four deviations, clamped between a minimum and a maximum. Until the first response the timeout is the initial
+ * timeout. Each timeout doubles the timeout, up to the maximum, until the next response.
+ */
+public class RoundTripTimeEstimator {
+
+    private static final int MaxBackoffShift = 16;
+
+    private final long minNanos;
+    private final long maxNanos;
+    private final long initialNanos;
+
+    private long smoothedNanos = -1L;
+    private long varianceNanos;
+    private int backoffShift;
+
+    /**
+     * @param min     the shortest timeout.
+     * @param max     the longest timeout, including any backoff.
+     * @param initial the timeout before any round-trip time has been observed.
+     */
+    public RoundTripTimeEstimator(Duration min, Duration max, Duration initial) {
+        this.minNanos = min.toNanos();
+        this.maxNanos = Math.max(max.toNanos(), minNanos);
+        this.initialNanos = initial.toNanos();
+    }
+
+    /**
+     * Update the estimate with the round-trip time of a request that was answered.
+     */
+    public synchronized void onResponse(long rttNanos) {
+        if (smoothedNanos < 0) {
+            smoothedNanos = rttNanos;
+            varianceNanos = rttNanos / 2;
+        } else {
+            varianceNanos = (3 * varianceNanos + Math.abs(smoothedNanos - rttNanos)) / 4;
+            smoothedNanos = (7 * smoothedNanos + rttNanos) / 8;
+        }
+
+        backoffShift = 0;
+    }
+
+    /**
+     * Back off after a request timed out.
+     */
+    public synchronized void onTimeout() {
+        if (backoffShift < MaxBackoffShift) backoffShift++;
+    }
+
+    /**
+     * @return {@code true} once a round-trip time has been observed.
+     */
+    public synchronized boolean hasSamples() {
+        return smoothedNanos >= 0;
+    }
+
+    /**
+     * @return the smoothed round-trip time, or {@link Duration#ZERO} before the first response.
+     */
+    public synchronized Duration getSmoothedRtt() {
+        return Duration.ofNanos(Math.max(smoothedNanos, 0L));
+    }
+
+    /**
+     * @return the mean deviation of the round-trip time, or {@link Duration#ZERO} before the first response.
+     */
+    public synchronized Duration getRttVariance() {
+        return Duration.ofNanos(varianceNanos);
+    }
+
+    /**
+     * @return the timeout for the next request.
+     */
+    public Duration getTimeout() {
+        return Duration.ofNanos(getTimeoutNanos());
+    }
+
+    synchronized long getTimeoutNanos() {
+        long timeout = smoothedNanos < 0 ? initialNanos : smoothedNanos + 4 * varianceNanos;
+        timeout = Math.min(Math.max(timeout, minNanos), maxNanos);
+
+        // Doubling from at most maxNanos, so one check per step is enough to stop an overflow.
+        for (int i = 0; i < backoffShift && timeout < maxNanos; i++) {
+            timeout *= 2;
+        }
+
+        return Math.min(timeout, maxNanos);
+    }
+
+}
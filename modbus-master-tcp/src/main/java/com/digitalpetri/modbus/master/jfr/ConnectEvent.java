@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master.jfr;
+
+import java.net.SocketAddress;
+
+import com.digitalpetri.modbus.codec.jfr.Jfr;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A master connecting to its slave, successfully or not.
+ * <p>
+ * Only use after checking {@link Jfr#Available}.
+ */
+@Name("com.digitalpetri.modbus.Connect")
+@Label("Modbus Connect")
+@Category({"Modbus", "Master"})
+@Description("A master connecting to its slave")
+@StackTrace(false)
+public class ConnectEvent extends jdk.jfr.Event {
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Local Address")
+    public String localAddress;
+
+    @Label("Success")
+    public boolean success;
+
+    @Label("Error")
+    public String error;
+
+    /**
+     * Asked only whether the event is enabled, which doesn't depend on the instance, so a disabled event costs no
+     * allocation.
+     */
+    private static final ConnectEvent Probe = new ConnectEvent();
+
+    /**
+     * @return a begun event, or {@code null} if the event isn't enabled.
+     */
+    public static ConnectEvent begin(String host, int port) {
+        if (!Probe.isEnabled()) return null;
+
+        ConnectEvent event = new ConnectEvent();
+
+        event.remoteAddress = host + ":" + port;
+        event.begin();
+
+        return event;
+    }
+
+    public void succeeded(SocketAddress localAddress) {
+        end();
+
+        if (shouldCommit()) {
+            this.success = true;
+            this.localAddress = String.valueOf(localAddress);
+            commit();
+        }
+    }
+
+    public void failed(Throwable ex) {
+        end();
+
+        if (shouldCommit()) {
+            this.error = String.valueOf(ex);
+            commit();
+        }
+    }
+
+}
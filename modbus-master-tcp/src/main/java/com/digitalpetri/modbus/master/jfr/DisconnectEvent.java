@@ -0,0 +1,70 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master.jfr;
+
+import java.net.SocketAddress;
+
+import com.digitalpetri.modbus.codec.jfr.Jfr;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A master's connection closing, either because {@code disconnect()} was called or because it was closed otherwise,
+ * e.g. by the slave, a reset, or an invalid frame.
+ * <p>
+ * Only use after checking {@link Jfr#Available}.
+ */
+@Name("com.digitalpetri.modbus.Disconnect")
+@Label("Modbus Disconnect")
+@Category({"Modbus", "Master"})
+@Description("A master's connection closing")
+@StackTrace(false)
+public class DisconnectEvent extends jdk.jfr.Event {
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Local Address")
+    public String localAddress;
+
+    @Label("Reason")
+    @Description("Requested, if disconnect() was called, or Closed")
+    public String reason;
+
+    /**
+     * Asked only whether the event is enabled, which doesn't depend on the instance, so a disabled event costs no
+     * allocation.
+     */
+    private static final DisconnectEvent Probe = new DisconnectEvent();
+
+    public static void record(SocketAddress remoteAddress, SocketAddress localAddress, String reason) {
+        if (!Probe.isEnabled()) return;
+
+        DisconnectEvent event = new DisconnectEvent();
+
+        if (event.shouldCommit()) {
+            event.remoteAddress = String.valueOf(remoteAddress);
+            event.localAddress = String.valueOf(localAddress);
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master.jfr;
+
+import java.net.SocketAddress;
+import java.util.concurrent.CancellationException;
+
+import com.digitalpetri.modbus.ModbusResponseException;
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.codec.jfr.Jfr;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * A request sent by a master, from {@code sendRequest()} until its future completed.
+ * <p>
+ * The duration is split into the queue time, spent waiting for a connection or, with RTU framing, for the previous
+ * request to complete, and the wire time, from the write to the response. Only requests that take at least the
+ * threshold, 10 ms by default, are recorded. Only use after checking {@link Jfr#Available}.
+ */
+@Name("com.digitalpetri.modbus.MasterRequest")
+@Label("Modbus Master Request")
+@Category({"Modbus", "Master"})
+@Description("A request sent by a master, from sendRequest() until its future completed")
+@StackTrace(false)
+@Threshold("10 ms")
+public class MasterRequestEvent extends jdk.jfr.Event {
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Transaction Id")
+    public int transactionId;
+
+    @Label("Unit Id")
+    public int unitId;
+
+    @Label("Function Code")
+    public int functionCode;
+
+    @Label("Queue Time")
+    @Description("From sendRequest() to the write")
+    @Timespan
+    public long queueTime;
+
+    @Label("Wire Time")
+    @Description("From the write to the response, timeout or failure")
+    @Timespan
+    public long wireTime;
+
+    @Label("Outcome")
+    @Description("Response, ExceptionResponse, Timeout, Cancelled or Failed")
+    public String outcome;
+
+    /**
+     * Asked only whether the event is enabled, which doesn't depend on the instance, so a disabled event costs no
+     * allocation.
+     */
+    private static final MasterRequestEvent Probe = new MasterRequestEvent();
+
+    private transient long beginNanos;
+    private transient long writtenNanos;
+    private transient SocketAddress remote;
+
+    /**
+     * @return a begun event for {@code request}, or {@code null} if the event isn't enabled.
+     */
+    public static MasterRequestEvent begin(ModbusRequest request, int unitId) {
+        if (!Probe.isEnabled()) return null;
+
+        MasterRequestEvent event = new MasterRequestEvent();
+
+        event.functionCode = request.getFunctionCode().getCode();
+        event.unitId = unitId;
+        event.beginNanos = System.nanoTime();
+        event.begin();
+
+        return event;
+    }
+
+    /**
+     * The request is about to be written to a connection to {@code remoteAddress}.
+     */
+    public void written(short transactionId, SocketAddress remoteAddress) {
+        this.writtenNanos = System.nanoTime();
+        this.transactionId = transactionId & 0xFFFF;
+        this.remote = remoteAddress;
+        this.queueTime = writtenNanos - beginNanos;
+    }
+
+    /**
+     * The request's future completed with {@code response} or {@code ex}.
+     */
+    public void complete(Object response, Throwable ex) {
+        long now = System.nanoTime();
+
+        if (writtenNanos != 0) {
+            wireTime = now - writtenNanos;
+        } else {
+            queueTime = now - beginNanos;
+        }
+
+        end();
+
+        if (shouldCommit()) {
+            this.remoteAddress = String.valueOf(remote);
+            this.outcome = outcome(ex);
+            commit();
+        }
+    }
+
+    private static String outcome(Throwable ex) {
+        if (ex == null) return "Response";
+        else if (ex instanceof ModbusResponseException) return "ExceptionResponse";
+        else if (ex instanceof ModbusTimeoutException) return "Timeout";
+        else if (ex instanceof CancellationException) return "Cancelled";
+        else return "Failed";
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+import com.digitalpetri.modbus.slave.ServiceRequestHandler;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class AdaptiveTimeoutTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(31700);
+
+    private int port;
+    private ModbusTcpSlave slave;
+    private ModbusTcpMaster master;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        port = NextPort.getAndIncrement();
+
+        slave = new ModbusTcpSlave(new ModbusTcpSlaveConfig.Builder().build()).bind("localhost", port).get();
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(0, 0, 10, 0)));
+
+        // Unit 2 never answers.
+        slave.setRequestHandler(2, new ServiceRequestHandler() {
+            @Override
+            public void onReadHoldingRegisters(
+                ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+
+                ReferenceCountUtil.release(service.getRequest());
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (master != null) master.disconnect().get();
+        if (slave != null) slave.shutdown();
+        master = null;
+        slave = null;
+    }
+
+    @Test
+    public void testEstimate() {
+        RoundTripTimeEstimator estimator =
+            new RoundTripTimeEstimator(Duration.ofMillis(10), Duration.ofSeconds(2), Duration.ofSeconds(1));
+
+        assertFalse(estimator.hasSamples());
+        assertEquals(estimator.getTimeout(), Duration.ofSeconds(1));
+
+        estimator.onResponse(Duration.ofMillis(100).toNanos());
+        assertEquals(estimator.getSmoothedRtt(), Duration.ofMillis(100));
+        assertEquals(estimator.getRttVariance(), Duration.ofMillis(50));
+        assertEquals(estimator.getTimeout(), Duration.ofMillis(300));
+
+        estimator.onResponse(Duration.ofMillis(20).toNanos());
+        assertEquals(estimator.getSmoothedRtt(), Duration.ofMillis(90));
+        assertEquals(estimator.getRttVariance(), Duration.ofMillis(57).plusNanos(500_000));
+        assertEquals(estimator.getTimeout(), Duration.ofMillis(320));
+
+        for (int i = 0; i < 100; i++) estimator.onResponse(Duration.ofMillis(1).toNanos());
+        assertEquals(estimator.getTimeout(), Duration.ofMillis(10));
+    }
+
+    @Test
+    public void testBackoff() {
+        RoundTripTimeEstimator estimator =
+            new RoundTripTimeEstimator(Duration.ofMillis(10), Duration.ofSeconds(1), Duration.ofMillis(100));
+
+        estimator.onTimeout();
+        assertEquals(estimator.getTimeout(), Duration.ofMillis(200));
+        estimator.onTimeout();
+        assertEquals(estimator.getTimeout(), Duration.ofMillis(400));
+
+        for (int i = 0; i < 100; i++) estimator.onTimeout();
+        assertEquals(estimator.getTimeout(), Duration.ofSeconds(1));
+
+        estimator.onResponse(Duration.ofMillis(2).toNanos());
+        assertEquals(estimator.getTimeout(), Duration.ofMillis(10));
+    }
+
+    @Test
+    public void testFixedTimeoutBelowOneSecond() throws Exception {
+        master = master(new ModbusTcpMasterConfig.Builder("localhost").setTimeout(Duration.ofMillis(300)));
+
+        long start = System.nanoTime();
+        assertTimesOut(2);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis >= 300, "timed out after " + elapsedMillis + "ms");
+        assertFalse(master.getRoundTripTimeEstimator().isPresent());
+    }
+
+    @Test
+    public void testAdaptsPerUnit() throws Exception {
+        master = master(new ModbusTcpMasterConfig.Builder("localhost")
+            .setTimeout(Duration.ofSeconds(5))
+            .setAdaptiveTimeout(true)
+            .setMinTimeout(Duration.ofMillis(200))
+            .setMaxTimeout(Duration.ofSeconds(10)));
+
+        for (int i = 0; i < 50; i++) {
+            ReadHoldingRegistersResponse response =
+                master.<ReadHoldingRegistersResponse>sendRequest(new ReadHoldingRegistersRequest(0, 1), 1).get();
+            ReferenceCountUtil.release(response);
+        }
+
+        RoundTripTimeEstimator unit1 = master.getRoundTripTimeEstimator(1).get();
+        assertTrue(unit1.hasSamples());
+        assertEquals(unit1.getTimeout(), Duration.ofMillis(200));
+
+        // Unit 2 has no estimate of its own yet, so it gets the master's, instead of the 5s initial timeout.
+        long start = System.nanoTime();
+        assertTimesOut(2);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+        assertFalse(master.getRoundTripTimeEstimator(2).get().hasSamples());
+        assertEquals(master.getRoundTripTimeEstimator().get().getTimeout(), Duration.ofMillis(400));
+        assertEquals(unit1.getTimeout(), Duration.ofMillis(200));
+
+        String prefix = ModbusTcpMaster.class.getName() + ".";
+        assertTrue(master.getMetricSet().getMetrics().containsKey(prefix + "smoothed-rtt"));
+        assertTrue(master.getMetricSet().getMetrics().containsKey(prefix + "adaptive-timeout.unit-1"));
+        assertTrue(master.getMetricSet().getMetrics().containsKey(prefix + "rtt-variance.unit-2"));
+    }
+
+    private ModbusTcpMaster master(ModbusTcpMasterConfig.Builder builder) {
+        return new ModbusTcpMaster(builder.setPort(port).build());
+    }
+
+    private void assertTimesOut(int unitId) throws Exception {
+        try {
+            master.sendRequest(new ReadHoldingRegistersRequest(0, 1), unitId).get(10, TimeUnit.SECONDS);
+            fail("expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusTimeoutException);
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.requests.MaskWriteRegisterRequest;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.requests.ReadCoilsRequest;
+import com.digitalpetri.modbus.requests.ReadDiscreteInputsRequest;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.ReadInputRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleCoilsRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleCoilRequest;
+import com.digitalpetri.modbus.requests.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.SkipException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Measures the bytes allocated per request round trip on the master and on the slave, and fails if either exceeds its
+ * budget in {@code allocation-budget.properties}.
+ * <p>
+ * Master and slave each run on their own named threads, so the allocations of every thread whose name starts with
+ * {@code master-} (plus the calling thread) are charged to the master and those starting with {@code slave-} to the
+ * slave. When a change legitimately adds allocations, update the budget along with it; the failure message shows what
+ * was measured.
+ */
+public class AllocationBudgetTest {
+
+    private static final int WarmupRoundTrips = 20_000;
+    private static final int MeasuredRoundTrips = 10_000;
+
+    private static final AtomicInteger NextPort = new AtomicInteger(32300);
+
+    private final Properties budget = new Properties();
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    private ExecutorService masterExecutor;
+    private EventLoopGroup masterEventLoop;
+    private HashedWheelTimer masterWheelTimer;
+    private ExecutorService slaveExecutor;
+    private EventLoopGroup slaveEventLoop;
+
+    private ModbusTcpSlave slave;
+    private ModbusTcpMaster master;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean) ||
+            !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            throw new SkipException("thread allocation counters not supported");
+        }
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        try (InputStream input = getClass().getResourceAsStream("/allocation-budget.properties")) {
+            budget.load(input);
+        }
+
+        masterExecutor = Executors.newSingleThreadExecutor(named("master-executor"));
+        masterEventLoop = new NioEventLoopGroup(1, named("master-event-loop"));
+        masterWheelTimer = new HashedWheelTimer(named("master-wheel-timer"));
+        slaveExecutor = Executors.newSingleThreadExecutor(named("slave-executor"));
+        slaveEventLoop = new NioEventLoopGroup(1, named("slave-event-loop"));
+
+        ModbusTcpSlaveConfig slaveConfig = new ModbusTcpSlaveConfig.Builder()
+            .setExecutor(slaveExecutor)
+            .setEventLoop(slaveEventLoop)
+            .build();
+
+        int port = NextPort.getAndIncrement();
+
+        slave = new ModbusTcpSlave(slaveConfig).bind("localhost", port).get();
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(100, 100, 100, 100)));
+
+        ModbusTcpMasterConfig masterConfig = new ModbusTcpMasterConfig.Builder("localhost")
+            .setPort(port)
+            .setExecutor(masterExecutor)
+            .setEventLoop(masterEventLoop)
+            .setWheelTimer(masterWheelTimer)
+            .build();
+
+        master = new ModbusTcpMaster(masterConfig).connect().get();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws Exception {
+        if (master != null) master.disconnect().get();
+        if (slave != null) slave.shutdown();
+
+        if (masterWheelTimer != null) masterWheelTimer.stop();
+        if (masterEventLoop != null) masterEventLoop.shutdownGracefully().await(5, TimeUnit.SECONDS);
+        if (slaveEventLoop != null) slaveEventLoop.shutdownGracefully().await(5, TimeUnit.SECONDS);
+        if (masterExecutor != null) masterExecutor.shutdown();
+        if (slaveExecutor != null) slaveExecutor.shutdown();
+    }
+
+    @DataProvider
+    public Object[][] requests() {
+        return new Object[][]{
+            {FunctionCode.ReadCoils, (Supplier<ModbusRequest>) () -> new ReadCoilsRequest(0, 16)},
+            {FunctionCode.ReadDiscreteInputs, (Supplier<ModbusRequest>) () -> new ReadDiscreteInputsRequest(0, 16)},
+            {FunctionCode.ReadHoldingRegisters, (Supplier<ModbusRequest>) () -> new ReadHoldingRegistersRequest(0, 10)},
+            {FunctionCode.ReadInputRegisters, (Supplier<ModbusRequest>) () -> new ReadInputRegistersRequest(0, 10)},
+            {FunctionCode.WriteSingleCoil, (Supplier<ModbusRequest>) () -> new WriteSingleCoilRequest(0, true)},
+            {FunctionCode.WriteSingleRegister, (Supplier<ModbusRequest>) () -> new WriteSingleRegisterRequest(0, 1)},
+            {FunctionCode.WriteMultipleCoils,
+                (Supplier<ModbusRequest>) () -> new WriteMultipleCoilsRequest(0, 16, new byte[2])},
+            {FunctionCode.WriteMultipleRegisters,
+                (Supplier<ModbusRequest>) () -> new WriteMultipleRegistersRequest(0, 10, new byte[20])},
+            {FunctionCode.MaskWriteRegister, (Supplier<ModbusRequest>) () -> new MaskWriteRegisterRequest(0, 0xFF, 0)}
+        };
+    }
+
+    @Test(dataProvider = "requests")
+    public void testAllocationsPerRoundTrip(FunctionCode functionCode, Supplier<ModbusRequest> request)
+        throws Exception {
+
+        roundTrips(request, WarmupRoundTrips);
+
+        // Requests are built up front so constructing them isn't charged to the master.
+        ModbusRequest[] requests = new ModbusRequest[MeasuredRoundTrips];
+        for (int i = 0; i < requests.length; i++) {
+            requests[i] = request.get();
+        }
+
+        long[] masterThreads = threadIds("master-", true);
+        long[] slaveThreads = threadIds("slave-", false);
+
+        long masterBefore = allocatedBytes(masterThreads);
+        long slaveBefore = allocatedBytes(slaveThreads);
+
+        for (ModbusRequest r : requests) {
+            roundTrip(r);
+        }
+
+        long masterBytes = (allocatedBytes(masterThreads) - masterBefore) / MeasuredRoundTrips;
+        long slaveBytes = (allocatedBytes(slaveThreads) - slaveBefore) / MeasuredRoundTrips;
+
+        assertWithinBudget("master." + functionCode, masterBytes);
+        assertWithinBudget("slave." + functionCode, slaveBytes);
+    }
+
+    private void assertWithinBudget(String key, long bytes) {
+        String value = budget.getProperty(key);
+        assertTrue(value != null, "no allocation budget for " + key);
+
+        long limit = Long.parseLong(value);
+        assertTrue(bytes <= limit,
+            String.format("%s allocated %d bytes per round trip, budget is %d", key, bytes, limit));
+    }
+
+    private void roundTrips(Supplier<ModbusRequest> request, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            roundTrip(request.get());
+        }
+    }
+
+    private void roundTrip(ModbusRequest request) throws Exception {
+        ModbusResponse response = master.<ModbusResponse>sendRequest(request, 1).get(5, TimeUnit.SECONDS);
+        ReferenceCountUtil.release(response);
+    }
+
+    private long allocatedBytes(long[] threadIds) {
+        long total = 0L;
+        for (long bytes : threadBean.getThreadAllocatedBytes(threadIds)) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static long[] threadIds(String prefix, boolean includeCurrent) {
+        List<Long> ids = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(prefix)) ids.add(thread.getId());
+        }
+        if (includeCurrent) ids.add(Thread.currentThread().getId());
+
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static ThreadFactory named(String prefix) {
+        AtomicInteger count = new AtomicInteger(0);
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.codahale.metrics.Counter;
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+import com.digitalpetri.modbus.slave.ServiceRequestHandler;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class CancellationTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(31900);
+
+    private final AtomicReference<ServiceRequestHandler.ServiceRequest<?, ?>> held = new AtomicReference<>();
+
+    private int port;
+    private ModbusTcpSlave slave;
+    private ModbusTcpMaster master;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        port = NextPort.getAndIncrement();
+        held.set(null);
+
+        slave = new ModbusTcpSlave(new ModbusTcpSlaveConfig.Builder().build()).bind("localhost", port).get();
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(0, 0, 10, 0)));
+
+        // Unit 2 holds its request until the test answers it.
+        slave.setRequestHandler(2, new ServiceRequestHandler() {
+            @Override
+            public void onReadHoldingRegisters(
+                ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+
+                ReferenceCountUtil.release(service.getRequest());
+                held.set(service);
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (master != null) master.disconnect().get();
+        if (slave != null) slave.shutdown();
+        master = null;
+        slave = null;
+    }
+
+    @Test
+    public void testCancelWaitingRequest() throws Exception {
+        master = master(new ModbusTcpMasterConfig.Builder("localhost").setMaxInFlight(1));
+
+        CompletableFuture<ModbusResponse> blocker = master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 2);
+        awaitHeld();
+
+        ByteBuf values = Unpooled.buffer(2).writeShort(42);
+        CompletableFuture<ModbusResponse> waiting =
+            master.sendRequest(new WriteMultipleRegistersRequest(0, 1, values), 1);
+        assertEquals(master.getQueuedRequestCount(RequestPriority.Normal), 1);
+
+        assertTrue(waiting.cancel(false));
+
+        assertEquals(master.getQueuedRequestCount(RequestPriority.Normal), 0);
+        assertEquals(values.refCnt(), 0);
+        assertEquals(master.getCancelledCounter().getCount(), 1);
+
+        held.get().sendException(ExceptionCode.SlaveDeviceBusy);
+        blocker.handle((r, ex) -> null).get(5, TimeUnit.SECONDS);
+
+        readRegister();
+
+        assertEquals(slave.getRequestCounter(FunctionCode.WriteMultipleRegisters).getCount(), 0);
+    }
+
+    @Test
+    public void testCancelInFlightRequest() throws Exception {
+        master = master(new ModbusTcpMasterConfig.Builder("localhost").setTimeout(Duration.ofMillis(300)));
+
+        CompletableFuture<ModbusResponse> inFlight = master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 2);
+        awaitHeld();
+
+        assertTrue(inFlight.cancel(false));
+        assertEquals(master.getCancelledCounter().getCount(), 1);
+
+        // The timeout was cancelled along with the request.
+        Thread.sleep(600);
+        assertEquals(master.getTimeoutCounter().getCount(), 0);
+
+        held.get().sendException(ExceptionCode.SlaveDeviceBusy);
+
+        awaitCount(master.getLateResponseCounter(), 1);
+        assertEquals(master.getResponseCounter().getCount(), 0);
+
+        readRegister();
+        assertEquals(master.getResponseCounter().getCount(), 1);
+    }
+
+    private void readRegister() throws Exception {
+        ModbusResponse response =
+            master.<ModbusResponse>sendRequest(new ReadHoldingRegistersRequest(0, 1), 1).get(5, TimeUnit.SECONDS);
+        ReferenceCountUtil.release(response);
+    }
+
+    private ModbusTcpMaster master(ModbusTcpMasterConfig.Builder builder) {
+        return new ModbusTcpMaster(builder.setPort(port).build());
+    }
+
+    private void awaitHeld() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (held.get() == null && System.nanoTime() < deadline) Thread.sleep(10);
+        assertTrue(held.get() != null);
+    }
+
+    private static void awaitCount(Counter counter, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (counter.getCount() != expected && System.nanoTime() < deadline) Thread.sleep(10);
+        assertEquals(counter.getCount(), expected);
+    }
+
+}
@@ -1,11 +1,34 @@
 package com.digitalpetri.modbus.master;
 
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+import io.netty.channel.Channel;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
 
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
 public class ChannelManagerTest {
 
+    private static final AtomicInteger NextPort = new AtomicInteger(50580);
+
+    private ModbusTcpSlave slave;
+
+    @AfterMethod
+    public void tearDown() {
+        if (slave != null) slave.shutdown();
+        slave = null;
+    }
+
     @Test
     public void testDisconnectWhenIdle() throws Exception {
         ChannelManager channelManager = new ChannelManager(null);
@@ -13,4 +36,67 @@ public class ChannelManagerTest {
         channelManager.disconnect().get(1, TimeUnit.SECONDS);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testChannelIsShared() throws Exception {
+        int port = NextPort.getAndIncrement();
+        slave = bind(port);
+
+        ChannelManager channelManager = new ChannelManager(master(port));
+
+        Channel channel = channelManager.getChannel().get(5, TimeUnit.SECONDS);
+        assertSame(channelManager.getChannel().get(5, TimeUnit.SECONDS), channel);
+
+        channelManager.disconnect().get(5, TimeUnit.SECONDS);
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void testReconnectsAfterChannelCloses() throws Exception {
+        int port = NextPort.getAndIncrement();
+        slave = bind(port);
+
+        ChannelManager channelManager = new ChannelManager(master(port));
+
+        Channel first = channelManager.getChannel().get(5, TimeUnit.SECONDS);
+        first.close().sync();
+
+        // Whether or not channelInactive() has transitioned to Idle yet, the closed channel isn't handed out again.
+        Channel second = channelManager.getChannel().get(5, TimeUnit.SECONDS);
+        assertNotSame(second, first);
+        assertTrue(second.isActive());
+
+        channelManager.disconnect().get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testConnectsAfterConnectFailure() throws Exception {
+        int port = NextPort.getAndIncrement();
+
+        ChannelManager channelManager = new ChannelManager(master(port));
+
+        try {
+            channelManager.getChannel().get(5, TimeUnit.SECONDS);
+            fail("expected the connect to fail");
+        } catch (ExecutionException expected) {
+            // nothing listening yet
+        }
+
+        slave = bind(port);
+
+        assertTrue(channelManager.getChannel().get(5, TimeUnit.SECONDS).isActive());
+
+        channelManager.disconnect().get(5, TimeUnit.SECONDS);
+    }
+
+    private static ModbusTcpSlave bind(int port) throws Exception {
+        return new ModbusTcpSlave(new ModbusTcpSlaveConfig.Builder().build()).bind("localhost", port).get();
+    }
+
+    private static ModbusTcpMaster master(int port) {
+        return new ModbusTcpMaster(new ModbusTcpMasterConfig.Builder("localhost")
+            .setPort(port)
+            .setTimeout(Duration.ofSeconds(1))
+            .build());
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import com.digitalpetri.modbus.ModbusResponseException;
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.codec.jfr.Jfr;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+import com.digitalpetri.modbus.slave.ServiceRequestHandler;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import io.netty.util.ReferenceCountUtil;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.testng.SkipException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class FlightRecorderEventsTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(31600);
+
+    private static final String[] EventNames = {
+        "com.digitalpetri.modbus.MasterRequest",
+        "com.digitalpetri.modbus.SlaveRequest",
+        "com.digitalpetri.modbus.Connect",
+        "com.digitalpetri.modbus.Disconnect",
+        "com.digitalpetri.modbus.CodecError"
+    };
+
+    private int port;
+    private ModbusTcpSlave slave;
+    private Recording recording;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        if (!Jfr.Available) throw new SkipException("JFR not available");
+
+        port = NextPort.getAndIncrement();
+
+        slave = new ModbusTcpSlave(new ModbusTcpSlaveConfig.Builder().build()).bind("localhost", port).get();
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(0, 0, 10, 0)));
+
+        // Unit 2 never answers.
+        slave.setRequestHandler(2, new ServiceRequestHandler() {
+            @Override
+            public void onReadHoldingRegisters(
+                ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+
+                ReferenceCountUtil.release(service.getRequest());
+            }
+        });
+
+        recording = new Recording();
+        for (String name : EventNames) {
+            recording.enable(name).withThreshold(Duration.ZERO);
+        }
+        recording.start();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (recording != null) recording.close();
+        if (slave != null) slave.shutdown();
+        recording = null;
+        slave = null;
+    }
+
+    @Test
+    public void testMasterAndSlaveEvents() throws Exception {
+        ModbusTcpMaster master = new ModbusTcpMaster(new ModbusTcpMasterConfig.Builder("localhost")
+            .setPort(port)
+            .setTimeout(Duration.ofSeconds(1))
+            .build());
+
+        ReadHoldingRegistersResponse response =
+            master.<ReadHoldingRegistersResponse>sendRequest(new ReadHoldingRegistersRequest(0, 1), 1).get();
+        ReferenceCountUtil.release(response);
+
+        try {
+            master.sendRequest(new ReadHoldingRegistersRequest(50, 1), 1).get();
+            fail("expected an exception response");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusResponseException);
+        }
+
+        try {
+            master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 2).get();
+            fail("expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusTimeoutException);
+        }
+
+        master.disconnect().get();
+
+        List<RecordedEvent> events = stop();
+
+        List<RecordedEvent> requests = named(events, "MasterRequest");
+        assertEquals(requests.size(), 3);
+        assertEquals(requests.stream().map(e -> e.getString("outcome")).collect(Collectors.toList()),
+            Arrays.asList("Response", "ExceptionResponse", "Timeout"));
+
+        for (RecordedEvent request : requests) {
+            assertEquals(request.getInt("functionCode"), 0x03);
+            assertTrue(request.getLong("wireTime") > 0);
+            assertTrue(request.getString("remoteAddress").endsWith(":" + port));
+        }
+        assertTrue(requests.get(2).getDuration().toMillis() >= 1000);
+
+        List<RecordedEvent> handled = named(events, "SlaveRequest");
+        assertEquals(handled.stream().map(e -> e.getString("outcome")).collect(Collectors.toList()),
+            Arrays.asList("Response", "IllegalDataAddress"));
+        assertEquals(handled.get(0).getInt("transactionId"), requests.get(0).getInt("transactionId"));
+
+        List<RecordedEvent> connects = named(events, "Connect");
+        assertEquals(connects.size(), 1);
+        assertTrue(connects.get(0).getBoolean("success"));
+
+        List<RecordedEvent> disconnects = named(events, "Disconnect");
+        assertEquals(disconnects.size(), 1);
+        assertEquals(disconnects.get(0).getString("reason"), "Requested");
+    }
+
+    @Test
+    public void testConnectFailureAndCodecErrorEvents() throws Exception {
+        ModbusTcpMaster master = new ModbusTcpMaster(new ModbusTcpMasterConfig.Builder("localhost")
+            .setPort(NextPort.getAndIncrement())
+            .setTimeout(Duration.ofSeconds(1))
+            .build());
+
+        try {
+            master.connect().get();
+            fail("expected the connect to fail");
+        } catch (ExecutionException expected) {
+            // nothing listening
+        }
+
+        // An MBAP header with protocol id 1; the slave closes the connection.
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[]{0, 1, 0, 1, 0, 6, 1, 3, 0, 0, 0, 1});
+            out.flush();
+
+            assertEquals(socket.getInputStream().read(), -1);
+        }
+
+        List<RecordedEvent> events = stop();
+
+        List<RecordedEvent> connects = named(events, "Connect");
+        assertEquals(connects.size(), 1);
+        assertTrue(!connects.get(0).getBoolean("success"));
+        assertTrue(connects.get(0).getString("error") != null);
+
+        List<RecordedEvent> errors = named(events, "CodecError");
+        assertEquals(errors.size(), 1);
+        assertEquals(errors.get(0).getString("codec"), "ModbusTcpCodec");
+        assertEquals(errors.get(0).getString("error"), "protocolId=1");
+        assertEquals(errors.get(0).getString("action"), "connection closed");
+    }
+
+    private List<RecordedEvent> stop() throws Exception {
+        recording.stop();
+
+        Path file = Files.createTempFile("modbus", ".jfr");
+        try {
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> named(List<RecordedEvent> events, String name) {
+        return events.stream()
+            .filter(e -> e.getEventType().getName().equals("com.digitalpetri.modbus." + name))
+            .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+            .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.ModbusResponseException;
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.requests.ByteBufModbusRequest;
+import com.digitalpetri.modbus.requests.MaskWriteRegisterRequest;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.requests.ReadCoilsRequest;
+import com.digitalpetri.modbus.requests.ReadDiscreteInputsRequest;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.ReadInputRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleCoilsRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleCoilRequest;
+import com.digitalpetri.modbus.requests.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+import com.digitalpetri.modbus.slave.ServiceRequestHandler;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.EncoderException;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ResourceLeakDetector;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+/**
+ * Runs master-slave exchanges down every path that hands off or releases a buffer and checks that none leak.
+ * <p>
+ * Master and slave channels, and the requests and responses built here, all allocate from one pooled allocator that
+ * keeps track of the buffers it hands out; every one of them must be released once an exchange is over.
+ * {@link ResourceLeakDetector} runs at {@code PARANOID} alongside, so a leak also comes with a record of where the
+ * buffer was last touched.
+ */
+public class LeakDetectionTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(50520);
+
+    private final TrackingAllocator allocator = new TrackingAllocator();
+
+    private ResourceLeakDetector.Level previousLevel;
+
+    private int port;
+
+    private ModbusTcpSlave slave;
+    private ModbusTcpMaster master;
+
+    @BeforeClass
+    public void setUpLeakDetection() {
+        previousLevel = ResourceLeakDetector.getLevel();
+        ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+    }
+
+    @AfterClass
+    public void tearDownLeakDetection() {
+        ResourceLeakDetector.setLevel(previousLevel);
+    }
+
+    @BeforeMethod
+    public void setUp() {
+        // So a leak fails only the test that leaked.
+        allocator.forget();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (master != null) master.disconnect().get();
+        if (slave != null) slave.shutdown();
+        master = null;
+        slave = null;
+    }
+
+    @Test
+    public void testRoundTrips() throws Exception {
+        slave = bind();
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(100, 100, 100, 100)));
+        master = connect(Duration.ofSeconds(5));
+
+        for (int i = 0; i < 100; i++) {
+            List<ModbusRequest> requests = new ArrayList<>();
+            requests.add(new ReadCoilsRequest(0, 16));
+            requests.add(new ReadDiscreteInputsRequest(0, 16));
+            requests.add(new ReadHoldingRegistersRequest(0, 10));
+            requests.add(new ReadInputRegistersRequest(0, 10));
+            requests.add(new WriteSingleCoilRequest(0, true));
+            requests.add(new WriteSingleRegisterRequest(0, 1));
+            requests.add(new WriteMultipleCoilsRequest(0, 16, allocator.buffer(2).writeZero(2)));
+            requests.add(new WriteMultipleRegistersRequest(0, 10, allocator.buffer(20).writeZero(20)));
+            requests.add(new MaskWriteRegisterRequest(0, 0xFF, 0));
+
+            for (ModbusRequest request : requests) {
+                ModbusResponse response = master.<ModbusResponse>sendRequest(request, 1).get(5, TimeUnit.SECONDS);
+                ReferenceCountUtil.release(response);
+            }
+        }
+
+        assertNoActiveAllocations();
+    }
+
+    @Test
+    public void testExceptionResponses() throws Exception {
+        slave = bind();
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(10, 10, 10, 10)));
+        master = connect(Duration.ofSeconds(5));
+
+        assertExceptionResponse(new ReadHoldingRegistersRequest(50, 10), ExceptionCode.IllegalDataAddress);
+        assertExceptionResponse(
+            new WriteMultipleRegistersRequest(50, 10, allocator.buffer(20).writeZero(20)),
+            ExceptionCode.IllegalDataAddress);
+
+        // The ServiceRequestHandler defaults answer IllegalFunction and release the request.
+        slave.setRequestHandler(new ServiceRequestHandler() {});
+        assertExceptionResponse(
+            new WriteMultipleRegistersRequest(0, 10, allocator.buffer(20).writeZero(20)),
+            ExceptionCode.IllegalFunction);
+
+        assertNoActiveAllocations();
+    }
+
+    @Test
+    public void testTimeoutAndLateResponse() throws Exception {
+        BlockingQueue<ServiceRequestHandler.ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse>>
+            held = new LinkedBlockingQueue<>();
+
+        slave = bind();
+        slave.setRequestHandler(new ServiceRequestHandler() {
+            @Override
+            public void onReadHoldingRegisters(
+                ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+                held.add(service);
+            }
+        });
+        master = connect(Duration.ofSeconds(1));
+
+        CompletableFuture<ModbusResponse> future = master.sendRequest(new ReadHoldingRegistersRequest(0, 10), 1);
+        assertFailsWith(future, ModbusTimeoutException.class);
+
+        ServiceRequestHandler.ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service =
+            held.poll(5, TimeUnit.SECONDS);
+        service.sendResponse(new ReadHoldingRegistersResponse(allocator.buffer(20).writeZero(20)));
+        ReferenceCountUtil.release(service.getRequest());
+
+        awaitCount(master.getLateResponseCounter()::getCount, 1);
+
+        assertNoActiveAllocations();
+    }
+
+    @Test
+    public void testConnectionClosedWithRequestsOutstanding() throws Exception {
+        BlockingQueue<ServiceRequestHandler.ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse>>
+            held = new LinkedBlockingQueue<>();
+
+        slave = bind();
+        slave.setRequestHandler(new ServiceRequestHandler() {
+            @Override
+            public void onReadHoldingRegisters(
+                ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+                held.add(service);
+            }
+        });
+        master = connect(Duration.ofSeconds(1));
+
+        List<CompletableFuture<ModbusResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(master.sendRequest(new ReadHoldingRegistersRequest(0, 10), 1));
+        }
+
+        List<ServiceRequestHandler.ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse>>
+            services = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            services.add(held.poll(5, TimeUnit.SECONDS));
+        }
+
+        // The slave drops the connection, then answers anyway; its responses must be released unsent.
+        services.get(0).getChannel().close().sync();
+        for (ServiceRequestHandler.ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service :
+            services) {
+
+            service.sendResponse(new ReadHoldingRegistersResponse(allocator.buffer(20).writeZero(20)));
+            ReferenceCountUtil.release(service.getRequest());
+        }
+
+        for (CompletableFuture<ModbusResponse> future : futures) {
+            assertFailsWith(future, ModbusTimeoutException.class);
+        }
+
+        assertNoActiveAllocations();
+    }
+
+    @Test
+    public void testConnectFailure() throws Exception {
+        // Nothing is bound to this port.
+        port = NextPort.getAndIncrement();
+        master = new ModbusTcpMaster(masterConfig(Duration.ofSeconds(1)));
+
+        CompletableFuture<ModbusResponse> future = master.sendRequest(
+            new WriteMultipleRegistersRequest(0, 10, allocator.buffer(20).writeZero(20)), 1);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("expected connect failure");
+        } catch (ExecutionException expected) {
+            // connection refused
+        }
+
+        assertNoActiveAllocations();
+    }
+
+    @Test
+    public void testEncoderErrors() throws Exception {
+        slave = bind();
+        slave.setRequestHandler(new ServiceRequestHandler() {
+            @Override
+            public void onReadHoldingRegisters(
+                ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+                service.sendResponse(new UnsupportedResponse(allocator.buffer(20).writeZero(20)));
+                ReferenceCountUtil.release(service.getRequest());
+            }
+        });
+        master = connect(Duration.ofSeconds(1));
+
+        // The master can't encode this request...
+        assertFailsWith(master.sendRequest(new UnsupportedRequest(allocator.buffer(4).writeZero(4)), 1),
+            EncoderException.class);
+
+        // ...and the slave can't encode its response to this one.
+        assertFailsWith(master.sendRequest(new ReadHoldingRegistersRequest(0, 10), 1),
+            ModbusTimeoutException.class);
+
+        assertNoActiveAllocations();
+    }
+
+    private ModbusTcpSlave bind() throws Exception {
+        port = NextPort.getAndIncrement();
+
+        ModbusTcpSlaveConfig config = new ModbusTcpSlaveConfig.Builder()
+            .setBootstrapConsumer(b -> b.childOption(ChannelOption.ALLOCATOR, allocator))
+            .build();
+
+        return new ModbusTcpSlave(config).bind("localhost", port).get();
+    }
+
+    private ModbusTcpMaster connect(Duration timeout) throws Exception {
+        return new ModbusTcpMaster(masterConfig(timeout)).connect().get();
+    }
+
+    private ModbusTcpMasterConfig masterConfig(Duration timeout) {
+        return new ModbusTcpMasterConfig.Builder("localhost")
+            .setPort(port)
+            .setTimeout(timeout)
+            .setBootstrapConsumer(b -> b.option(ChannelOption.ALLOCATOR, allocator))
+            .build();
+    }
+
+    private void assertExceptionResponse(ModbusRequest request, ExceptionCode exceptionCode) throws Exception {
+        try {
+            master.sendRequest(request, 1).get(5, TimeUnit.SECONDS);
+            fail("expected exception response");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusResponseException, String.valueOf(e.getCause()));
+            assertEquals(((ModbusResponseException) e.getCause()).getResponse().getExceptionCode(), exceptionCode);
+        }
+    }
+
+    /**
+     * Disconnect the master, so any buffer held by a decoder is released too, then wait for the arenas to drain.
+     */
+    private void assertNoActiveAllocations() throws Exception {
+        if (master != null) master.disconnect().get();
+
+        awaitCount(this::activeAllocations, 0);
+    }
+
+    private long activeAllocations() {
+        return allocator.active();
+    }
+
+    private static void assertFailsWith(CompletableFuture<?> future, Class<? extends Throwable> cause)
+        throws Exception {
+
+        try {
+            ReferenceCountUtil.release(future.get(5, TimeUnit.SECONDS));
+            fail("expected " + cause.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(cause.isInstance(e.getCause()), String.valueOf(e.getCause()));
+        }
+    }
+
+    private static void awaitCount(LongSupplier count, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (count.getAsLong() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count.getAsLong(), expected);
+    }
+
+    /**
+     * A {@link PooledByteBufAllocator} that remembers every buffer it allocates.
+     * <p>
+     * Netty 4.0's arena metrics don't account for every allocation, so they can't be relied on to prove the pool drained.
+     * Pooled buffers are recycled, so one instance may be tracked more than once; that's harmless, since a buffer in use
+     * again is active again.
+     */
+    private static class TrackingAllocator extends PooledByteBufAllocator {
+
+        private final Queue<ByteBuf> allocated = new ConcurrentLinkedQueue<>();
+
+        private TrackingAllocator() {
+            super(false);
+        }
+
+        @Override
+        protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity) {
+            return track(super.newHeapBuffer(initialCapacity, maxCapacity));
+        }
+
+        @Override
+        protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity) {
+            return track(super.newDirectBuffer(initialCapacity, maxCapacity));
+        }
+
+        private ByteBuf track(ByteBuf buffer) {
+            allocated.add(buffer);
+            return buffer;
+        }
+
+        private void forget() {
+            allocated.clear();
+        }
+
+        /**
+         * @return the number of buffers allocated and not yet released.
+         */
+        private long active() {
+            allocated.removeIf(b -> b.refCnt() == 0);
+            return allocated.size();
+        }
+
+    }
+
+    private static class UnsupportedRequest extends ByteBufModbusRequest {
+        private UnsupportedRequest(ByteBuf data) {
+            super(data, FunctionCode.ReadFifoQueue);
+        }
+    }
+
+    private static class UnsupportedResponse extends ReadHoldingRegistersResponse {
+        private UnsupportedResponse(ByteBuf registers) {
+            super(registers);
+        }
+
+        @Override
+        public FunctionCode getFunctionCode() {
+            return FunctionCode.ReadFifoQueue;
+        }
+    }
+
+}
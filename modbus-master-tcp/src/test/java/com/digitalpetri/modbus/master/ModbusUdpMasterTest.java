@@ -0,0 +1,260 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteSingleRegisterResponse;
+import com.digitalpetri.modbus.slave.ModbusUdpSlave;
+import com.digitalpetri.modbus.slave.ModbusUdpSlaveConfig;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ModbusUdpMasterTest {
+
+    private static final String Localhost = "127.0.0.1";
+
+    private static final AtomicInteger NextPort = new AtomicInteger(32100);
+
+    private ModbusUdpMaster master;
+    private ModbusUdpSlave slave;
+    private DatagramSocket device;
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (master != null) master.disconnect().get();
+        if (slave != null) slave.shutdown();
+        if (device != null) device.close();
+        master = null;
+        slave = null;
+        device = null;
+    }
+
+    @Test
+    public void testReadAndWrite() throws Exception {
+        int port = NextPort.getAndIncrement();
+
+        HeapProcessImage image = new HeapProcessImage(0, 0, 10, 0);
+        image.setHoldingRegister(3, 1234);
+
+        slave = new ModbusUdpSlave(new ModbusUdpSlaveConfig.Builder().build()).bind(Localhost, port).get();
+        slave.setRequestHandler(new ProcessImageRequestHandler(image));
+
+        master = master(new ModbusUdpMasterConfig.Builder());
+        InetSocketAddress remote = new InetSocketAddress(Localhost, port);
+
+        ReadHoldingRegistersResponse read = master.<ReadHoldingRegistersResponse>sendRequest(
+            new ReadHoldingRegistersRequest(3, 1), 1, remote).get(5, TimeUnit.SECONDS);
+
+        try {
+            assertEquals(read.getRegisters().getUnsignedShort(0), 1234);
+        } finally {
+            ReferenceCountUtil.release(read);
+        }
+
+        WriteSingleRegisterResponse write = master.<WriteSingleRegisterResponse>sendRequest(
+            new WriteSingleRegisterRequest(4, 4321), 1, remote).get(5, TimeUnit.SECONDS);
+
+        assertEquals(write.getValue(), 4321);
+        assertEquals(image.getHoldingRegister(4), 4321);
+        assertEquals(master.getRequestCounter().getCount(), 2);
+        assertEquals(master.getResponseCounter().getCount(), 2);
+    }
+
+    @Test
+    public void testReadIsRetransmitted() throws Exception {
+        device = bindDevice();
+        AtomicInteger received = new AtomicInteger();
+
+        // Drops the first copy of every request and answers the retransmission.
+        startDevice(device, (request, sender) -> {
+            if (received.incrementAndGet() % 2 == 1) return;
+            reply(device, sender, request, 99);
+        });
+
+        master = master(new ModbusUdpMasterConfig.Builder().setTimeout(Duration.ofMillis(200)).setRetries(1));
+
+        ReadHoldingRegistersResponse response = master.<ReadHoldingRegistersResponse>sendRequest(
+            new ReadHoldingRegistersRequest(0, 1), 1, address(device)).get(5, TimeUnit.SECONDS);
+
+        try {
+            assertEquals(response.getRegisters().getUnsignedShort(0), 99);
+            assertEquals(received.get(), 2);
+            assertEquals(master.getRetransmitCounter().getCount(), 1);
+            assertEquals(master.getTimeoutCounter().getCount(), 0);
+        } finally {
+            ReferenceCountUtil.release(response);
+        }
+    }
+
+    @Test
+    public void testWriteIsNotRetransmitted() throws Exception {
+        device = bindDevice();
+        AtomicInteger received = new AtomicInteger();
+
+        startDevice(device, (request, sender) -> received.incrementAndGet());
+
+        master = master(new ModbusUdpMasterConfig.Builder().setTimeout(Duration.ofMillis(200)).setRetries(2));
+
+        try {
+            master.sendRequest(new WriteSingleRegisterRequest(0, 1), 1, address(device)).get(5, TimeUnit.SECONDS);
+            fail("expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusTimeoutException);
+        }
+
+        assertEquals(received.get(), 1);
+        assertEquals(master.getRetransmitCounter().getCount(), 0);
+        assertEquals(master.getTimeoutCounter().getCount(), 1);
+    }
+
+    @Test
+    public void testResponseFromOtherPeerIsIgnored() throws Exception {
+        device = bindDevice();
+
+        try (DatagramSocket impostor = bindDevice()) {
+            // The impostor answers first with the right transaction id, then the real device answers.
+            startDevice(device, (request, sender) -> {
+                reply(impostor, sender, request, 1);
+                sleep(100);
+                reply(device, sender, request, 2);
+            });
+
+            master = master(new ModbusUdpMasterConfig.Builder());
+
+            ReadHoldingRegistersResponse response = master.<ReadHoldingRegistersResponse>sendRequest(
+                new ReadHoldingRegistersRequest(0, 1), 1, address(device)).get(5, TimeUnit.SECONDS);
+
+            try {
+                assertEquals(response.getRegisters().getUnsignedShort(0), 2);
+                assertEquals(master.getLateResponseCounter().getCount(), 1);
+            } finally {
+                ReferenceCountUtil.release(response);
+            }
+        }
+    }
+
+    @Test
+    public void testFailedWriteReleasesRequest() throws Exception {
+        // Replaces the master's handlers with one that fails every write before the encoder can release the request.
+        master = master(new ModbusUdpMasterConfig.Builder().setBootstrapConsumer(b -> b.handler(
+            new ChannelOutboundHandlerAdapter() {
+                @Override
+                public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+                    promise.setFailure(new IOException("write failed"));
+                }
+            })));
+
+        WriteMultipleRegistersRequest request = new WriteMultipleRegistersRequest(0, 1, new byte[]{0, 1});
+
+        try {
+            master.sendRequest(request, 1, new InetSocketAddress(Localhost, NextPort.getAndIncrement()))
+                .get(5, TimeUnit.SECONDS);
+            fail("expected the write to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        assertEquals(request.refCnt(), 0);
+    }
+
+    private ModbusUdpMaster master(ModbusUdpMasterConfig.Builder builder) {
+        return new ModbusUdpMaster(builder.setLocalAddress(Localhost).setLocalPort(NextPort.getAndIncrement()).build());
+    }
+
+    private static DatagramSocket bindDevice() throws Exception {
+        return new DatagramSocket(NextPort.getAndIncrement(), InetAddress.getByName(Localhost));
+    }
+
+    private static InetSocketAddress address(DatagramSocket socket) {
+        return new InetSocketAddress(Localhost, socket.getLocalPort());
+    }
+
+    private static void startDevice(DatagramSocket socket, DeviceHandler handler) {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[260];
+
+            try {
+                while (true) {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(packet);
+
+                    byte[] request = new byte[packet.getLength()];
+                    System.arraycopy(buffer, 0, request, 0, request.length);
+
+                    handler.onRequest(request, packet.getSocketAddress());
+                }
+            } catch (Exception ignored) {
+                // Closed by tearDown().
+            }
+        }, "udp-device");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Answer a Read Holding Registers request with a single register holding {@code value}.
+     */
+    private static void reply(DatagramSocket socket,
+                              SocketAddress recipient,
+                              byte[] request,
+                              int value) throws Exception {
+
+        byte[] response = new byte[]{
+            request[0], request[1], 0, 0, 0, 5, request[6], 0x03, 2, (byte) (value >>> 8), (byte) value
+        };
+
+        socket.send(new DatagramPacket(response, response.length, recipient));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private interface DeviceHandler {
+        void onRequest(byte[] request, SocketAddress sender) throws Exception;
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.ModbusResponseException;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+import com.digitalpetri.modbus.slave.ServiceRequestHandler;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RequestQueueTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(31800);
+
+    @Test
+    public void testHigherPriorityFirst() {
+        RequestQueue queue = new RequestQueue(1, Integer.MAX_VALUE);
+        List<String> dispatched = new ArrayList<>();
+
+        queue.submit(() -> dispatched.add("first"), RequestPriority.Low);
+        queue.submit(() -> dispatched.add("low"), RequestPriority.Low);
+        queue.submit(() -> dispatched.add("normal"), RequestPriority.Normal);
+        queue.submit(() -> dispatched.add("high"), RequestPriority.High);
+
+        assertEquals(queue.getQueuedCount(RequestPriority.Low), 1);
+
+        for (int i = 0; i < 4; i++) queue.release();
+
+        assertEquals(dispatched, Arrays.asList("first", "high", "normal", "low"));
+    }
+
+    @Test
+    public void testStarvationLimit() {
+        RequestQueue queue = new RequestQueue(1, 3);
+        List<String> dispatched = new ArrayList<>();
+
+        queue.submit(() -> dispatched.add("first"), RequestPriority.High);
+        for (int i = 0; i < 2; i++) {
+            String name = "low" + i;
+            queue.submit(() -> dispatched.add(name), RequestPriority.Low);
+        }
+        for (int i = 0; i < 8; i++) {
+            String name = "high" + i;
+            queue.submit(() -> dispatched.add(name), RequestPriority.High);
+        }
+
+        for (int i = 0; i < 11; i++) queue.release();
+
+        assertEquals(dispatched, Arrays.asList(
+            "first", "high0", "high1", "high2", "low0", "high3", "high4", "high5", "low1", "high6", "high7"));
+    }
+
+    @Test
+    public void testConcurrentSubmitAndRelease() throws Exception {
+        RequestQueue queue = new RequestQueue(4, 8);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            RequestPriority priority = RequestPriority.values()[t % 3];
+
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    queue.submit(() -> {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        inFlight.decrementAndGet();
+                        completed.incrementAndGet();
+                        queue.release();
+                    }, priority);
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(completed.get(), 40_000);
+        assertTrue(maxInFlight.get() <= 4);
+        for (RequestPriority priority : RequestPriority.values()) {
+            assertEquals(queue.getQueuedCount(priority), 0);
+        }
+    }
+
+    @Test
+    public void testHighPriorityOvertakesQueuedPolls() throws Exception {
+        int port = NextPort.getAndIncrement();
+
+        AtomicReference<ServiceRequestHandler.ServiceRequest<?, ?>> held = new AtomicReference<>();
+
+        ModbusTcpSlave slave = new ModbusTcpSlave(new ModbusTcpSlaveConfig.Builder().build())
+            .bind("localhost", port).get();
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(0, 0, 10, 0)));
+
+        // Unit 2 holds its request until the test answers it, keeping the only slot occupied.
+        slave.setRequestHandler(2, new ServiceRequestHandler() {
+            @Override
+            public void onReadHoldingRegisters(
+                ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+
+                ReferenceCountUtil.release(service.getRequest());
+                held.set(service);
+            }
+        });
+
+        ModbusTcpMaster master = new ModbusTcpMaster(new ModbusTcpMasterConfig.Builder("localhost")
+            .setPort(port)
+            .setMaxInFlight(1)
+            .build());
+
+        try {
+            CompletableFuture<ModbusResponse> blocker = master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 2);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (held.get() == null && System.nanoTime() < deadline) Thread.sleep(10);
+
+            ConcurrentLinkedQueue<String> completed = new ConcurrentLinkedQueue<>();
+            List<CompletableFuture<?>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 5; i++) {
+                String name = "poll" + i;
+                CompletableFuture<ModbusResponse> poll =
+                    master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1, RequestPriority.Low);
+                futures.add(poll.thenAccept(r -> {
+                    ReferenceCountUtil.release(r);
+                    completed.add(name);
+                }));
+            }
+
+            CompletableFuture<ModbusResponse> write =
+                master.sendRequest(new WriteSingleRegisterRequest(0, 1), 1, RequestPriority.High);
+            futures.add(write.thenAccept(r -> {
+                ReferenceCountUtil.release(r);
+                completed.add("write");
+            }));
+
+            assertEquals(master.getQueuedRequestCount(RequestPriority.Low), 5);
+            assertEquals(master.getQueuedRequestCount(RequestPriority.High), 1);
+
+            held.get().sendException(ExceptionCode.SlaveDeviceBusy);
+
+            try {
+                blocker.get(5, TimeUnit.SECONDS);
+                fail("expected an exception response");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof ModbusResponseException);
+            }
+
+            for (CompletableFuture<?> future : futures) future.get(5, TimeUnit.SECONDS);
+
+            assertEquals(new ArrayList<>(completed),
+                Arrays.asList("write", "poll0", "poll1", "poll2", "poll3", "poll4"));
+        } finally {
+            master.disconnect().get();
+            slave.shutdown();
+        }
+    }
+
+}
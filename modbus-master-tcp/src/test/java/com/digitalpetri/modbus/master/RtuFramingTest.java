@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.master;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.codec.Crc16;
+import com.digitalpetri.modbus.codec.Modbus;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class RtuFramingTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(32000);
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private ServerSocket serverSocket;
+    private ModbusTcpMaster master;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket(NextPort.getAndIncrement(), 50, InetAddress.getByName("localhost"));
+
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    connections.incrementAndGet();
+
+                    Thread device = new Thread(() -> serve(socket), "rtu-device");
+                    device.setDaemon(true);
+                    device.start();
+                }
+            } catch (IOException ignored) {
+                // Closed by tearDown().
+            }
+        }, "rtu-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (master != null) master.disconnect().get();
+        serverSocket.close();
+        master = null;
+    }
+
+    @Test
+    public void testLateReplyAfterTimeout() throws Exception {
+        master = new ModbusTcpMaster(
+            new ModbusTcpMasterConfig.Builder("localhost")
+                .setPort(serverSocket.getLocalPort())
+                .setRtuFraming(true)
+                .setTimeout(Duration.ofMillis(300))
+                .build());
+
+        // The device answers address 0 after 600 ms, well after the request has timed out.
+        CompletableFuture<ReadHoldingRegistersResponse> slow =
+            master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1);
+
+        try {
+            slow.get(5, TimeUnit.SECONDS);
+            fail("expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusTimeoutException);
+        }
+
+        ReadHoldingRegistersResponse response = master.<ReadHoldingRegistersResponse>sendRequest(
+            new ReadHoldingRegistersRequest(7, 1), 1).get(5, TimeUnit.SECONDS);
+
+        try {
+            // The late reply to the first request wasn't taken for this one's.
+            assertEquals(response.getRegisters().getUnsignedShort(0), 7);
+            assertEquals(connections.get(), 2);
+        } finally {
+            ReferenceCountUtil.release(response);
+        }
+    }
+
+    @Test
+    public void testOneRequestOutstandingWithoutLimit() throws Exception {
+        // No in-flight limit, as a config made without the Builder can have.
+        master = new ModbusTcpMaster(new ModbusTcpMasterConfig(
+            "localhost", serverSocket.getLocalPort(), Duration.ofSeconds(5), true, Optional.empty(),
+            Modbus.sharedExecutor(), Modbus.sharedEventLoop(), Modbus.sharedWheelTimer(), b -> {},
+            true, Optional.empty(), false, Duration.ofMillis(100), Duration.ofSeconds(5), 0, 8));
+
+        CompletableFuture<ReadHoldingRegistersResponse> first =
+            master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1);
+        CompletableFuture<ReadHoldingRegistersResponse> second =
+            master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1);
+
+        // The device answers address 0 after 600 ms, so the second request is still waiting for the first.
+        assertEquals(master.getQueuedRequestCount(RequestPriority.Normal), 1);
+
+        ReferenceCountUtil.release(first.get(5, TimeUnit.SECONDS));
+        ReferenceCountUtil.release(second.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Answer each Read Holding Registers request with the register's own address as its value.
+     */
+    private static void serve(Socket socket) {
+        try (Socket s = socket) {
+            DataInputStream in = new DataInputStream(s.getInputStream());
+            OutputStream out = s.getOutputStream();
+
+            byte[] request = new byte[8];
+
+            while (true) {
+                in.readFully(request);
+
+                int address = ((request[2] & 0xFF) << 8) | (request[3] & 0xFF);
+                if (address == 0) Thread.sleep(600);
+
+                byte[] reply = new byte[7];
+                reply[0] = request[0];
+                reply[1] = request[1];
+                reply[2] = 2;
+                reply[3] = (byte) (address >>> 8);
+                reply[4] = (byte) address;
+
+                int crc = Crc16.calculate(Unpooled.wrappedBuffer(reply), 0, 5);
+                reply[5] = (byte) crc;
+                reply[6] = (byte) (crc >>> 8);
+
+                out.write(reply);
+                out.flush();
+            }
+        } catch (IOException | InterruptedException ignored) {
+            // Closed by the master, or by tearDown().
+        }
+    }
+
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.simulator;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.digitalpetri.modbus.codec.Modbus;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A TCP proxy that sits between a master and a slave and misbehaves on demand, so the master's timeout, reconnect and
+ * late-response handling can be tested and benchmarked without a real network.
+ * <p>
+ * Every accepted connection gets its own connection to the target. The {@link NetworkFaults} for each direction can be
+ * changed at any time and apply to every connection from the next read on; {@link #resetConnections()} aborts every
+ * connection with a TCP reset.
+ * <pre>{@code
+ * FaultInjectionProxy proxy = new FaultInjectionProxy("localhost", 502);
+ * proxy.bind("localhost", 0).get();
+ *
+ * // point the master at proxy.getPort(), then:
+ * proxy.setFaults(new NetworkFaults.Builder().setBlackHole(true).build());
+ * }</pre>
+ */
+public class FaultInjectionProxy {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Set<Channel> clientChannels = ConcurrentHashMap.newKeySet();
+    private final Set<Channel> targetChannels = ConcurrentHashMap.newKeySet();
+
+    private final String targetHost;
+    private final int targetPort;
+    private final EventLoopGroup eventLoop;
+
+    private volatile NetworkFaults toTargetFaults = NetworkFaults.none();
+    private volatile NetworkFaults toClientFaults = NetworkFaults.none();
+
+    private volatile Channel serverChannel;
+
+    /**
+     * Proxy to {@code targetHost:targetPort} using {@link Modbus#sharedEventLoop()}.
+     */
+    public FaultInjectionProxy(String targetHost, int targetPort) {
+        this(targetHost, targetPort, Modbus.sharedEventLoop());
+    }
+
+    public FaultInjectionProxy(String targetHost, int targetPort, EventLoopGroup eventLoop) {
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Start accepting connections.
+     *
+     * @param host the address to listen on.
+     * @param port the port to listen on, or 0 for any free port; see {@link #getPort()}.
+     * @return a future that completes when the proxy is listening.
+     */
+    public CompletableFuture<FaultInjectionProxy> bind(String host, int port) {
+        CompletableFuture<FaultInjectionProxy> bindFuture = new CompletableFuture<>();
+
+        ServerBootstrap bootstrap = new ServerBootstrap()
+            .group(eventLoop)
+            .channel(NioServerSocketChannel.class)
+            .childOption(ChannelOption.AUTO_READ, false)
+            .childOption(ChannelOption.TCP_NODELAY, true)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel channel) throws Exception {
+                    clientChannels.add(channel);
+                    channel.closeFuture().addListener(f -> clientChannels.remove(channel));
+
+                    Forwarder toTarget = new Forwarder(() -> toTargetFaults);
+                    channel.pipeline().addLast(toTarget);
+
+                    connectTarget(channel, toTarget);
+                }
+            });
+
+        bootstrap.bind(host, port).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                serverChannel = future.channel();
+                bindFuture.complete(FaultInjectionProxy.this);
+            } else {
+                bindFuture.completeExceptionally(future.cause());
+            }
+        });
+
+        return bindFuture;
+    }
+
+    /**
+     * @return the port the proxy is listening on, or -1 if it isn't.
+     */
+    public int getPort() {
+        Channel channel = serverChannel;
+
+        return channel != null ? ((InetSocketAddress) channel.localAddress()).getPort() : -1;
+    }
+
+    /**
+     * Apply {@code faults} in both directions.
+     */
+    public void setFaults(NetworkFaults faults) {
+        setFaults(faults, faults);
+    }
+
+    /**
+     * @param toTarget the faults applied to bytes sent by clients, e.g. requests from a master.
+     * @param toClient the faults applied to bytes sent by the target, e.g. responses from a slave.
+     */
+    public void setFaults(NetworkFaults toTarget, NetworkFaults toClient) {
+        this.toTargetFaults = toTarget;
+        this.toClientFaults = toClient;
+    }
+
+    public NetworkFaults getToTargetFaults() {
+        return toTargetFaults;
+    }
+
+    public NetworkFaults getToClientFaults() {
+        return toClientFaults;
+    }
+
+    /**
+     * @return the number of client connections currently open.
+     */
+    public int getConnectionCount() {
+        return clientChannels.size();
+    }
+
+    /**
+     * Abort every connection, on both sides, with a TCP reset. New connections are still accepted.
+     *
+     * @return the number of client connections reset.
+     */
+    public int resetConnections() {
+        int count = clientChannels.size();
+
+        clientChannels.forEach(FaultInjectionProxy::reset);
+        targetChannels.forEach(FaultInjectionProxy::reset);
+
+        return count;
+    }
+
+    /**
+     * Stop accepting connections and close every open one.
+     */
+    public void shutdown() {
+        Channel channel = serverChannel;
+        if (channel != null) channel.close().awaitUninterruptibly();
+        serverChannel = null;
+
+        clientChannels.forEach(c -> c.close().awaitUninterruptibly());
+        targetChannels.forEach(c -> c.close().awaitUninterruptibly());
+    }
+
+    private void connectTarget(Channel client, Forwarder toTarget) {
+        Forwarder toClient = new Forwarder(() -> toClientFaults);
+
+        Bootstrap bootstrap = new Bootstrap()
+            .group(client.eventLoop())
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.AUTO_READ, false)
+            .option(ChannelOption.TCP_NODELAY, true)
+            .handler(toClient);
+
+        bootstrap.connect(targetHost, targetPort).addListener((ChannelFutureListener) future -> {
+            if (future.isSuccess()) {
+                Channel target = future.channel();
+                targetChannels.add(target);
+                target.closeFuture().addListener(f -> targetChannels.remove(target));
+
+                toTarget.peer = target;
+                toClient.peer = client;
+
+                if (client.isActive()) {
+                    client.config().setAutoRead(true);
+                    target.config().setAutoRead(true);
+                } else {
+                    target.close();
+                }
+            } else {
+                logger.debug("Connect to {}:{} failed: {}", targetHost, targetPort, future.cause().getMessage());
+
+                client.close();
+            }
+        });
+    }
+
+    private static void reset(Channel channel) {
+        channel.eventLoop().execute(() -> {
+            if (channel.isOpen()) {
+                channel.config().setOption(ChannelOption.SO_LINGER, 0);
+                channel.close();
+            }
+        });
+    }
+
+    /**
+     * Forwards the bytes read from one channel to its peer, applying the faults for that direction. Runs entirely on
+     * the event loop both channels share.
+     */
+    private static class Forwarder extends ChannelInboundHandlerAdapter {
+
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+        private final Supplier<NetworkFaults> faults;
+
+        private volatile Channel peer;
+
+        private long lastDueNanos = Long.MIN_VALUE;
+        private boolean drainScheduled;
+        private boolean inactive;
+
+        private Forwarder(Supplier<NetworkFaults> faults) {
+            this.faults = faults;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            NetworkFaults f = faults.get();
+
+            if (f.isBlackHole() || peer == null || !(msg instanceof ByteBuf)) {
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+
+            ByteBuf buffer = (ByteBuf) msg;
+
+            long dueNanos = System.nanoTime() + f.getLatency().nextNanos();
+
+            // TCP never reorders bytes; a short delay after a long one waits for it.
+            if (dueNanos - lastDueNanos < 0 && lastDueNanos != Long.MIN_VALUE) {
+                dueNanos = lastDueNanos;
+            }
+            if (f.getBandwidth() > 0) {
+                dueNanos += buffer.readableBytes() * TimeUnit.SECONDS.toNanos(1) / f.getBandwidth();
+            }
+            lastDueNanos = dueNanos;
+
+            pending.add(new Pending(dueNanos, buffer));
+
+            if (!drainScheduled) scheduleDrain(ctx, f);
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            // Stop reading from the peer while this channel can't keep up with what's forwarded to it.
+            Channel p = peer;
+            if (p != null) p.config().setAutoRead(ctx.channel().isWritable());
+
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            inactive = true;
+
+            if (pending.isEmpty()) closePeer();
+
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            ctx.close();
+        }
+
+        private void scheduleDrain(ChannelHandlerContext ctx, NetworkFaults f) {
+            long delayNanos = pending.peek().dueNanos - System.nanoTime() + f.getCoalesceDelay().toNanos();
+
+            if (delayNanos <= 0) {
+                drain(ctx);
+            } else {
+                drainScheduled = true;
+                ctx.executor().schedule(() -> drain(ctx), delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void drain(ChannelHandlerContext ctx) {
+            drainScheduled = false;
+
+            Channel p = peer;
+            if (!p.isActive()) {
+                pending.forEach(pb -> pb.buffer.release());
+                pending.clear();
+                return;
+            }
+
+            NetworkFaults f = faults.get();
+            long now = System.nanoTime();
+
+            ByteBuf due = null;
+            while (!pending.isEmpty() && pending.peek().dueNanos - now <= 0) {
+                ByteBuf next = pending.poll().buffer;
+
+                if (due == null) {
+                    due = next;
+                } else {
+                    ByteBuf merged = ctx.alloc().buffer(due.readableBytes() + next.readableBytes());
+                    merged.writeBytes(due).writeBytes(next);
+                    due.release();
+                    next.release();
+                    due = merged;
+                }
+            }
+
+            if (due != null) forward(p, due, f.getMaxSegmentSize());
+
+            if (!pending.isEmpty()) {
+                scheduleDrain(ctx, f);
+            } else if (inactive) {
+                closePeer();
+            }
+        }
+
+        private void forward(Channel p, ByteBuf buffer, int maxSegmentSize) {
+            if (maxSegmentSize > 0) {
+                while (buffer.readableBytes() > maxSegmentSize) {
+                    p.writeAndFlush(buffer.readSlice(maxSegmentSize).retain());
+                }
+            }
+
+            p.writeAndFlush(buffer);
+        }
+
+        private void closePeer() {
+            Channel p = peer;
+            if (p != null && p.isOpen()) p.close();
+        }
+
+    }
+
+    private static class Pending {
+        private final long dueNanos;
+        private final ByteBuf buffer;
+
+        private Pending(long dueNanos, ByteBuf buffer) {
+            this.dueNanos = dueNanos;
+            this.buffer = buffer;
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.ModbusTcpSlaveConfig;
+import com.digitalpetri.modbus.slave.image.ProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+
+/**
+ * Simulates many Modbus TCP devices, each with its own address and port, register map, latency, faults and connection
+ * limits, all served by one {@link io.netty.channel.EventLoopGroup}. Use it as a local stand-in for a plant when
+ * benchmarking or testing masters.
+ */
+public class ModbusSimulator {
+
+    private final List<SimulatedDevice> devices;
+    private final ModbusSimulatorConfig config;
+
+    public ModbusSimulator(ModbusSimulatorConfig config) {
+        this.config = config;
+
+        List<SimulatedDevice> devices = new ArrayList<>(config.getDeviceCount());
+
+        int index = 0;
+        for (String address : config.getAddresses()) {
+            for (int i = 0; i < config.getDevicesPerAddress(); i++) {
+                devices.add(createDevice(index++, address, config.getFirstPort() + i));
+            }
+        }
+
+        this.devices = Collections.unmodifiableList(devices);
+    }
+
+    public ModbusSimulatorConfig getConfig() {
+        return config;
+    }
+
+    public List<SimulatedDevice> getDevices() {
+        return devices;
+    }
+
+    /**
+     * Bind every device.
+     *
+     * @return a future that completes when every device is listening, or fails if any device couldn't bind.
+     */
+    public CompletableFuture<ModbusSimulator> start() {
+        CompletableFuture<?>[] futures = devices.stream()
+                .map(d -> d.getSlave().bind(d.getAddress(), d.getPort()))
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(futures).thenApply(v -> this);
+    }
+
+    public void shutdown() {
+        devices.forEach(d -> d.getSlave().shutdown());
+    }
+
+    private SimulatedDevice createDevice(int index, String address, int port) {
+        SimulatedDeviceConfig deviceConfig = config.getDeviceConfig().apply(index);
+
+        ModbusTcpSlaveConfig slaveConfig = new ModbusTcpSlaveConfig.Builder()
+                .setInstanceId("device-" + index)
+                .setExecutor(config.getExecutor())
+                .setEventLoop(config.getEventLoop())
+                .setWheelTimer(config.getWheelTimer())
+                .setMaxConnections(deviceConfig.getMaxConnections())
+                .setConnectionLimitPolicy(deviceConfig.getConnectionLimitPolicy())
+                .build();
+
+        ProcessImage processImage = deviceConfig.getProcessImage().get();
+
+        SimulatedRequestHandler requestHandler = new SimulatedRequestHandler(
+                new ProcessImageRequestHandler(processImage), deviceConfig);
+
+        ModbusTcpSlave slave = new ModbusTcpSlave(slaveConfig);
+        slave.setRequestHandler(requestHandler);
+
+        return new SimulatedDevice(index, address, port, slave, processImage, requestHandler);
+    }
+
+}
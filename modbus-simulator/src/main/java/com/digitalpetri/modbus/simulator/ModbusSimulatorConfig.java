@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.simulator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.function.IntFunction;
+
+import com.digitalpetri.modbus.codec.Modbus;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.HashedWheelTimer;
+
+public class ModbusSimulatorConfig {
+
+    private final List<String> addresses;
+    private final int firstPort;
+    private final int devicesPerAddress;
+    private final IntFunction<SimulatedDeviceConfig> deviceConfig;
+    private final ExecutorService executor;
+    private final EventLoopGroup eventLoop;
+    private final HashedWheelTimer wheelTimer;
+
+    public ModbusSimulatorConfig(List<String> addresses,
+                                 int firstPort,
+                                 int devicesPerAddress,
+                                 IntFunction<SimulatedDeviceConfig> deviceConfig,
+                                 ExecutorService executor,
+                                 EventLoopGroup eventLoop,
+                                 HashedWheelTimer wheelTimer) {
+
+        this.addresses = addresses;
+        this.firstPort = firstPort;
+        this.devicesPerAddress = devicesPerAddress;
+        this.deviceConfig = deviceConfig;
+        this.executor = executor;
+        this.eventLoop = eventLoop;
+        this.wheelTimer = wheelTimer;
+    }
+
+    /**
+     * @return the local addresses devices listen on; on Linux every address in 127.0.0.0/8 can be used without
+     * further setup.
+     */
+    public List<String> getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * @return the port of the first device on each address; the others follow consecutively.
+     */
+    public int getFirstPort() {
+        return firstPort;
+    }
+
+    public int getDevicesPerAddress() {
+        return devicesPerAddress;
+    }
+
+    public int getDeviceCount() {
+        return addresses.size() * devicesPerAddress;
+    }
+
+    /**
+     * @return the {@link SimulatedDeviceConfig} for each device index, so devices can differ from each other.
+     */
+    public IntFunction<SimulatedDeviceConfig> getDeviceConfig() {
+        return deviceConfig;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the {@link EventLoopGroup} shared by every device.
+     */
+    public EventLoopGroup getEventLoop() {
+        return eventLoop;
+    }
+
+    public HashedWheelTimer getWheelTimer() {
+        return wheelTimer;
+    }
+
+    public static class Builder {
+
+        private final List<String> addresses = new ArrayList<>();
+
+        private int firstPort = 20000;
+        private int devicesPerAddress = 1;
+        private IntFunction<SimulatedDeviceConfig> deviceConfig;
+        private ExecutorService executor;
+        private EventLoopGroup eventLoop;
+        private HashedWheelTimer wheelTimer;
+
+        public Builder addAddress(String address) {
+            addresses.add(address);
+            return this;
+        }
+
+        public Builder setFirstPort(int firstPort) {
+            this.firstPort = firstPort;
+            return this;
+        }
+
+        public Builder setDevicesPerAddress(int devicesPerAddress) {
+            this.devicesPerAddress = devicesPerAddress;
+            return this;
+        }
+
+        /**
+         * Use the same {@link SimulatedDeviceConfig} for every device.
+         */
+        public Builder setDeviceConfig(SimulatedDeviceConfig deviceConfig) {
+            this.deviceConfig = index -> deviceConfig;
+            return this;
+        }
+
+        /**
+         * Use a {@link SimulatedDeviceConfig} chosen by device index.
+         */
+        public Builder setDeviceConfig(IntFunction<SimulatedDeviceConfig> deviceConfig) {
+            this.deviceConfig = deviceConfig;
+            return this;
+        }
+
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder setEventLoop(EventLoopGroup eventLoop) {
+            this.eventLoop = eventLoop;
+            return this;
+        }
+
+        public Builder setWheelTimer(HashedWheelTimer wheelTimer) {
+            this.wheelTimer = wheelTimer;
+            return this;
+        }
+
+        public ModbusSimulatorConfig build() {
+            if (deviceConfig == null) {
+                SimulatedDeviceConfig defaultConfig = new SimulatedDeviceConfig.Builder().build();
+                deviceConfig = index -> defaultConfig;
+            }
+
+            return new ModbusSimulatorConfig(
+                    addresses.isEmpty() ? Collections.singletonList("127.0.0.1") : new ArrayList<>(addresses),
+                    firstPort,
+                    devicesPerAddress,
+                    deviceConfig,
+                    executor != null ? executor : Modbus.sharedExecutor(),
+                    eventLoop != null ? eventLoop : Modbus.sharedEventLoop(),
+                    wheelTimer != null ? wheelTimer : Modbus.sharedWheelTimer());
+        }
+
+    }
+
+}
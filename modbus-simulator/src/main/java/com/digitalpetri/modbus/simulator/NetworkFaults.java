@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.simulator;
+
+import java.time.Duration;
+
+/**
+ * The faults a {@link FaultInjectionProxy} applies to the bytes traveling in one direction.
+ */
+public class NetworkFaults {
+
+    private static final NetworkFaults None = new Builder().build();
+
+    private final LatencyDistribution latency;
+    private final long bandwidth;
+    private final int maxSegmentSize;
+    private final Duration coalesceDelay;
+    private final boolean blackHole;
+
+    public NetworkFaults(LatencyDistribution latency,
+                         long bandwidth,
+                         int maxSegmentSize,
+                         Duration coalesceDelay,
+                         boolean blackHole) {
+
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+        this.maxSegmentSize = maxSegmentSize;
+        this.coalesceDelay = coalesceDelay;
+        this.blackHole = blackHole;
+    }
+
+    /**
+     * @return faults that forward every byte as soon as it's read.
+     */
+    public static NetworkFaults none() {
+        return None;
+    }
+
+    /**
+     * @return the delay added to each read before it's forwarded. Bytes are never reordered, so a read drawing a short
+     * delay after one drawing a long delay waits for it.
+     */
+    public LatencyDistribution getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the bandwidth in bytes per second, or 0 if unlimited.
+     */
+    public long getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * @return the largest chunk bytes are forwarded in, each written and flushed separately, or 0 to forward each read
+     * whole.
+     */
+    public int getMaxSegmentSize() {
+        return maxSegmentSize;
+    }
+
+    /**
+     * @return how long bytes are held back so they're forwarded together with any that follow, or
+     * {@link Duration#ZERO} to forward them as they're due.
+     */
+    public Duration getCoalesceDelay() {
+        return coalesceDelay;
+    }
+
+    /**
+     * @return {@code true} if every byte is silently discarded while the connections stay open.
+     */
+    public boolean isBlackHole() {
+        return blackHole;
+    }
+
+    public static class Builder {
+        private LatencyDistribution latency = LatencyDistribution.none();
+        private long bandwidth = 0L;
+        private int maxSegmentSize = 0;
+        private Duration coalesceDelay = Duration.ZERO;
+        private boolean blackHole = false;
+
+        /**
+         * Delay each read by a latency drawn from {@code latency}; e.g. {@link LatencyDistribution#uniform} for a
+         * fixed latency with jitter.
+         */
+        public Builder setLatency(LatencyDistribution latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * @param bandwidth the bandwidth in bytes per second, or 0 for unlimited (the default).
+         */
+        public Builder setBandwidth(long bandwidth) {
+            this.bandwidth = bandwidth;
+            return this;
+        }
+
+        /**
+         * @param maxSegmentSize split forwarded bytes into chunks of at most this many bytes, each flushed
+         *                       separately, to exercise a peer's handling of frames spanning reads. 0 to disable
+         *                       (the default).
+         */
+        public Builder setMaxSegmentSize(int maxSegmentSize) {
+            this.maxSegmentSize = maxSegmentSize;
+            return this;
+        }
+
+        /**
+         * @param coalesceDelay hold bytes back for this long and forward them together with any that arrive in the
+         *                      meantime, to exercise a peer's handling of several frames in one read.
+         */
+        public Builder setCoalesceDelay(Duration coalesceDelay) {
+            this.coalesceDelay = coalesceDelay;
+            return this;
+        }
+
+        /**
+         * @param blackHole discard every byte while keeping the connections open, as a dead link or a hung peer
+         *                  would.
+         */
+        public Builder setBlackHole(boolean blackHole) {
+            this.blackHole = blackHole;
+            return this;
+        }
+
+        public NetworkFaults build() {
+            return new NetworkFaults(latency, bandwidth, maxSegmentSize, coalesceDelay, blackHole);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.simulator;
+
+import com.digitalpetri.modbus.slave.ModbusTcpSlave;
+import com.digitalpetri.modbus.slave.image.ProcessImage;
+
+/**
+ * One simulated device: a {@link ModbusTcpSlave} listening on its own address and port.
+ */
+public class SimulatedDevice {
+
+    private final int index;
+    private final String address;
+    private final int port;
+    private final ModbusTcpSlave slave;
+    private final ProcessImage processImage;
+    private final SimulatedRequestHandler requestHandler;
+
+    SimulatedDevice(int index,
+                    String address,
+                    int port,
+                    ModbusTcpSlave slave,
+                    ProcessImage processImage,
+                    SimulatedRequestHandler requestHandler) {
+
+        this.index = index;
+        this.address = address;
+        this.port = port;
+        this.slave = slave;
+        this.processImage = processImage;
+        this.requestHandler = requestHandler;
+    }
+
+    /**
+     * @return the index of this device, 0 to {@link ModbusSimulatorConfig#getDeviceCount()} - 1.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ModbusTcpSlave getSlave() {
+        return slave;
+    }
+
+    /**
+     * @return the register map of this device; it can be changed while the simulator runs.
+     */
+    public ProcessImage getProcessImage() {
+        return processImage;
+    }
+
+    public SimulatedRequestHandler getRequestHandler() {
+        return requestHandler;
+    }
+
+}
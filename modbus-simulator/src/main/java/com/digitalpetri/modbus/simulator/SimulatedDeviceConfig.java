@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.simulator;
+
+import java.util.function.Supplier;
+
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.slave.ConnectionLimitPolicy;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImage;
+
+public class SimulatedDeviceConfig {
+
+    private final Supplier<? extends ProcessImage> processImage;
+    private final LatencyDistribution latency;
+    private final double exceptionRate;
+    private final ExceptionCode exceptionCode;
+    private final double timeoutRate;
+    private final int maxConnections;
+    private final ConnectionLimitPolicy connectionLimitPolicy;
+
+    public SimulatedDeviceConfig(Supplier<? extends ProcessImage> processImage,
+                                 LatencyDistribution latency,
+                                 double exceptionRate,
+                                 ExceptionCode exceptionCode,
+                                 double timeoutRate,
+                                 int maxConnections,
+                                 ConnectionLimitPolicy connectionLimitPolicy) {
+
+        this.processImage = processImage;
+        this.latency = latency;
+        this.exceptionRate = exceptionRate;
+        this.exceptionCode = exceptionCode;
+        this.timeoutRate = timeoutRate;
+        this.maxConnections = maxConnections;
+        this.connectionLimitPolicy = connectionLimitPolicy;
+    }
+
+    /**
+     * @return creates the register map of each device built from this config.
+     */
+    public Supplier<? extends ProcessImage> getProcessImage() {
+        return processImage;
+    }
+
+    public LatencyDistribution getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the fraction of requests, 0.0 to 1.0, answered with {@link #getExceptionCode()} instead of a response.
+     */
+    public double getExceptionRate() {
+        return exceptionRate;
+    }
+
+    public ExceptionCode getExceptionCode() {
+        return exceptionCode;
+    }
+
+    /**
+     * @return the fraction of requests, 0.0 to 1.0, that are never answered.
+     */
+    public double getTimeoutRate() {
+        return timeoutRate;
+    }
+
+    /**
+     * @return the maximum number of connections the device accepts, or 0 for no limit.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public ConnectionLimitPolicy getConnectionLimitPolicy() {
+        return connectionLimitPolicy;
+    }
+
+    public static class Builder {
+
+        private Supplier<? extends ProcessImage> processImage = () -> new HeapProcessImage(2000, 2000, 1000, 1000);
+        private LatencyDistribution latency = LatencyDistribution.none();
+        private double exceptionRate = 0.0;
+        private ExceptionCode exceptionCode = ExceptionCode.SlaveDeviceBusy;
+        private double timeoutRate = 0.0;
+        private int maxConnections = 0;
+        private ConnectionLimitPolicy connectionLimitPolicy = ConnectionLimitPolicy.Reject;
+
+        public Builder setProcessImage(Supplier<? extends ProcessImage> processImage) {
+            this.processImage = processImage;
+            return this;
+        }
+
+        public Builder setLatency(LatencyDistribution latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * @param exceptionRate the fraction of requests, 0.0 to 1.0, answered with an exception response.
+         * @param exceptionCode the {@link ExceptionCode} of the exception responses.
+         */
+        public Builder setExceptionRate(double exceptionRate, ExceptionCode exceptionCode) {
+            this.exceptionRate = exceptionRate;
+            this.exceptionCode = exceptionCode;
+            return this;
+        }
+
+        /**
+         * @param timeoutRate the fraction of requests, 0.0 to 1.0, that are never answered.
+         */
+        public Builder setTimeoutRate(double timeoutRate) {
+            this.timeoutRate = timeoutRate;
+            return this;
+        }
+
+        /**
+         * Many devices only accept one or two connections; 0, the default, means no limit.
+         */
+        public Builder setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder setConnectionLimitPolicy(ConnectionLimitPolicy connectionLimitPolicy) {
+            this.connectionLimitPolicy = connectionLimitPolicy;
+            return this;
+        }
+
+        public SimulatedDeviceConfig build() {
+            return new SimulatedDeviceConfig(
+                    processImage,
+                    latency,
+                    exceptionRate,
+                    exceptionCode,
+                    timeoutRate,
+                    maxConnections,
+                    connectionLimitPolicy);
+        }
+
+    }
+
+}
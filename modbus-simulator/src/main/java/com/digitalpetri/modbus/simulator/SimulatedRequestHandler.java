@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.simulator;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.digitalpetri.modbus.requests.MaskWriteRegisterRequest;
+import com.digitalpetri.modbus.requests.ReadCoilsRequest;
+import com.digitalpetri.modbus.requests.ReadDiscreteInputsRequest;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.ReadInputRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleCoilsRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleCoilRequest;
+import com.digitalpetri.modbus.requests.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.responses.MaskWriteRegisterResponse;
+import com.digitalpetri.modbus.responses.ReadCoilsResponse;
+import com.digitalpetri.modbus.responses.ReadDiscreteInputsResponse;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.responses.ReadInputRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteMultipleCoilsResponse;
+import com.digitalpetri.modbus.responses.WriteMultipleRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteSingleCoilResponse;
+import com.digitalpetri.modbus.responses.WriteSingleRegisterResponse;
+import com.digitalpetri.modbus.slave.ServiceRequestHandler;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * Wraps a {@link ServiceRequestHandler} with the latency, exception responses and timeouts of a
+ * {@link SimulatedDeviceConfig}.
+ * <p>
+ * Latency is simulated by scheduling the delegate on the request's event loop, so no thread is held while a request
+ * waits and a single event loop group can serve thousands of slow devices.
+ */
+public class SimulatedRequestHandler implements ServiceRequestHandler {
+
+    private final Counter injectedExceptionCounter = new Counter();
+    private final Counter injectedTimeoutCounter = new Counter();
+
+    private final ServiceRequestHandler delegate;
+    private final SimulatedDeviceConfig config;
+
+    public SimulatedRequestHandler(ServiceRequestHandler delegate, SimulatedDeviceConfig config) {
+        this.delegate = delegate;
+        this.config = config;
+    }
+
+    /**
+     * @return a {@link Counter} of requests answered with an injected exception response.
+     */
+    public Counter getInjectedExceptionCounter() {
+        return injectedExceptionCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of requests deliberately left unanswered.
+     */
+    public Counter getInjectedTimeoutCounter() {
+        return injectedTimeoutCounter;
+    }
+
+    @Override
+    public void onReadHoldingRegisters(ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+        simulate(service, () -> delegate.onReadHoldingRegisters(service));
+    }
+
+    @Override
+    public void onReadInputRegisters(ServiceRequest<ReadInputRegistersRequest, ReadInputRegistersResponse> service) {
+        simulate(service, () -> delegate.onReadInputRegisters(service));
+    }
+
+    @Override
+    public void onReadCoils(ServiceRequest<ReadCoilsRequest, ReadCoilsResponse> service) {
+        simulate(service, () -> delegate.onReadCoils(service));
+    }
+
+    @Override
+    public void onReadDiscreteInputs(ServiceRequest<ReadDiscreteInputsRequest, ReadDiscreteInputsResponse> service) {
+        simulate(service, () -> delegate.onReadDiscreteInputs(service));
+    }
+
+    @Override
+    public void onWriteSingleCoil(ServiceRequest<WriteSingleCoilRequest, WriteSingleCoilResponse> service) {
+        simulate(service, () -> delegate.onWriteSingleCoil(service));
+    }
+
+    @Override
+    public void onWriteSingleRegister(ServiceRequest<WriteSingleRegisterRequest, WriteSingleRegisterResponse> service) {
+        simulate(service, () -> delegate.onWriteSingleRegister(service));
+    }
+
+    @Override
+    public void onWriteMultipleCoils(ServiceRequest<WriteMultipleCoilsRequest, WriteMultipleCoilsResponse> service) {
+        simulate(service, () -> delegate.onWriteMultipleCoils(service));
+    }
+
+    @Override
+    public void onWriteMultipleRegisters(ServiceRequest<WriteMultipleRegistersRequest, WriteMultipleRegistersResponse> service) {
+        simulate(service, () -> delegate.onWriteMultipleRegisters(service));
+    }
+
+    @Override
+    public void onMaskWriteRegister(ServiceRequest<MaskWriteRegisterRequest, MaskWriteRegisterResponse> service) {
+        simulate(service, () -> delegate.onMaskWriteRegister(service));
+    }
+
+    private void simulate(ServiceRequest<?, ?> service, Runnable handler) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if (config.getTimeoutRate() > 0.0 && random.nextDouble() < config.getTimeoutRate()) {
+            injectedTimeoutCounter.inc();
+            ReferenceCountUtil.release(service.getRequest());
+            return;
+        }
+
+        Runnable action;
+
+        if (config.getExceptionRate() > 0.0 && random.nextDouble() < config.getExceptionRate()) {
+            injectedExceptionCounter.inc();
+
+            action = () -> {
+                service.sendException(config.getExceptionCode());
+                ReferenceCountUtil.release(service.getRequest());
+            };
+        } else {
+            action = handler;
+        }
+
+        long delay = config.getLatency().nextNanos();
+
+        if (delay > 0) {
+            service.getChannel().eventLoop().schedule(action, delay, TimeUnit.NANOSECONDS);
+        } else {
+            action.run();
+        }
+    }
+
+}
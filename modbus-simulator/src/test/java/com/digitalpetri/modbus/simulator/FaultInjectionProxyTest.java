@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.simulator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.master.ModbusTcpMaster;
+import com.digitalpetri.modbus.master.ModbusTcpMasterConfig;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class FaultInjectionProxyTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(31300);
+
+    private ModbusSimulator simulator;
+    private FaultInjectionProxy proxy;
+    private ModbusTcpMaster master;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        int port = NextPort.getAndAdd(2);
+
+        ModbusSimulatorConfig config = new ModbusSimulatorConfig.Builder()
+            .setFirstPort(port)
+            .setDeviceConfig(index -> new SimulatedDeviceConfig.Builder()
+                .setProcessImage(() -> {
+                    HeapProcessImage image = new HeapProcessImage(0, 0, 100, 0);
+                    for (int i = 0; i < 100; i++) image.setHoldingRegister(i, i);
+                    return image;
+                })
+                .build())
+            .build();
+
+        simulator = new ModbusSimulator(config).start().get();
+
+        SimulatedDevice device = simulator.getDevices().get(0);
+        proxy = new FaultInjectionProxy(device.getAddress(), device.getPort()).bind("localhost", port + 1).get();
+
+        master = new ModbusTcpMaster(new ModbusTcpMasterConfig.Builder("localhost")
+            .setPort(proxy.getPort())
+            .setTimeout(Duration.ofSeconds(1))
+            .build());
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        master.disconnect().get();
+        proxy.shutdown();
+        simulator.shutdown();
+    }
+
+    @Test
+    public void testForwardsWithoutFaults() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(readRegister(i), i);
+        }
+        assertEquals(proxy.getConnectionCount(), 1);
+    }
+
+    @Test
+    public void testLatencyAndJitter() throws Exception {
+        readRegister(0);
+
+        proxy.setFaults(NetworkFaults.none(), new NetworkFaults.Builder()
+            .setLatency(LatencyDistribution.uniform(Duration.ofMillis(100), Duration.ofMillis(150)))
+            .build());
+
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            assertEquals(readRegister(i), i);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        }
+    }
+
+    @Test
+    public void testSplitSegments() throws Exception {
+        proxy.setFaults(new NetworkFaults.Builder().setMaxSegmentSize(1).build());
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(readRegister(i), i);
+        }
+    }
+
+    @Test
+    public void testCoalescedFrames() throws Exception {
+        readRegister(0);
+
+        proxy.setFaults(new NetworkFaults.Builder().setCoalesceDelay(Duration.ofMillis(20)).build());
+
+        List<CompletableFuture<ReadHoldingRegistersResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(master.sendRequest(new ReadHoldingRegistersRequest(i, 1), 1));
+        }
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals(registerValue(futures.get(i)), i);
+        }
+    }
+
+    @Test
+    public void testBandwidthLimit() throws Exception {
+        readRegister(0);
+
+        // 100 registers is a 209 byte response frame; at 1000 bytes/s it takes over 200ms.
+        proxy.setFaults(NetworkFaults.none(), new NetworkFaults.Builder().setBandwidth(1000).build());
+
+        long start = System.nanoTime();
+        ReadHoldingRegistersResponse response =
+            master.<ReadHoldingRegistersResponse>sendRequest(new ReadHoldingRegistersRequest(0, 100), 1).get();
+        ReferenceCountUtil.release(response);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void testRecoversFromReset() throws Exception {
+        readRegister(0);
+
+        proxy.setFaults(NetworkFaults.none(), new NetworkFaults.Builder()
+            .setLatency(LatencyDistribution.fixed(Duration.ofMillis(500)))
+            .build());
+
+        CompletableFuture<ReadHoldingRegistersResponse> inFlight =
+            master.sendRequest(new ReadHoldingRegistersRequest(1, 1), 1);
+
+        Thread.sleep(100);
+        assertEquals(proxy.resetConnections(), 1);
+
+        try {
+            inFlight.get(500, TimeUnit.MILLISECONDS);
+            fail("expected the reset to fail the request");
+        } catch (ExecutionException e) {
+            assertTrue(!(e.getCause() instanceof ModbusTimeoutException), "failed by: " + e.getCause());
+        }
+
+        proxy.setFaults(NetworkFaults.none());
+
+        assertEquals(readRegister(2), 2);
+    }
+
+    @Test
+    public void testBlackHoleTimesOut() throws Exception {
+        readRegister(0);
+
+        proxy.setFaults(new NetworkFaults.Builder().setBlackHole(true).build());
+
+        try {
+            readRegister(1);
+            fail("expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusTimeoutException);
+        }
+
+        proxy.setFaults(NetworkFaults.none());
+
+        assertEquals(readRegister(2), 2);
+        assertEquals(master.getTimeoutCounter().getCount(), 1);
+    }
+
+    @Test
+    public void testLateResponseIsDiscarded() throws Exception {
+        readRegister(0);
+
+        proxy.setFaults(NetworkFaults.none(), new NetworkFaults.Builder()
+            .setLatency(LatencyDistribution.fixed(Duration.ofMillis(1500)))
+            .build());
+
+        try {
+            readRegister(1);
+            fail("expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusTimeoutException);
+        }
+
+        proxy.setFaults(NetworkFaults.none());
+
+        // The late response arrives while this request is outstanding and mustn't complete it.
+        assertEquals(readRegister(2), 2);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (master.getLateResponseCounter().getCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(master.getLateResponseCounter().getCount(), 1);
+        assertEquals(readRegister(3), 3);
+    }
+
+    private int readRegister(int address) throws Exception {
+        return registerValue(master.sendRequest(new ReadHoldingRegistersRequest(address, 1), 1));
+    }
+
+    private static int registerValue(CompletableFuture<ReadHoldingRegistersResponse> future) throws Exception {
+        ReadHoldingRegistersResponse response = future.get(5, TimeUnit.SECONDS);
+        try {
+            return response.getRegisters().getUnsignedShort(0);
+        } finally {
+            ReferenceCountUtil.release(response);
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.simulator;
+
+import java.net.Socket;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.ModbusResponseException;
+import com.digitalpetri.modbus.ModbusTimeoutException;
+import com.digitalpetri.modbus.master.ModbusTcpMaster;
+import com.digitalpetri.modbus.master.ModbusTcpMasterConfig;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import io.netty.util.ReferenceCountUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ModbusSimulatorTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(31000);
+
+    private ModbusSimulator simulator;
+    private ModbusTcpMaster master;
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        if (master != null) master.disconnect().get();
+        if (simulator != null) simulator.shutdown();
+        master = null;
+    }
+
+    @Test
+    public void testDevicesHaveTheirOwnRegisterMaps() throws Exception {
+        simulator = start(200, index -> new SimulatedDeviceConfig.Builder()
+            .setProcessImage(() -> {
+                HeapProcessImage image = new HeapProcessImage(0, 0, 1, 0);
+                image.setHoldingRegister(0, index);
+                return image;
+            })
+            .build());
+
+        for (int index = 0; index < 200; index += 37) {
+            SimulatedDevice device = simulator.getDevices().get(index);
+            master = connect(device, Duration.ofSeconds(5));
+
+            assertEquals(readRegister(master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1)), index);
+
+            master.disconnect().get();
+        }
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        simulator = start(1, index -> new SimulatedDeviceConfig.Builder()
+            .setLatency(LatencyDistribution.fixed(Duration.ofMillis(100)))
+            .build());
+
+        master = connect(simulator.getDevices().get(0), Duration.ofSeconds(5));
+
+        long start = System.nanoTime();
+        readRegister(master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1));
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(100).toNanos());
+    }
+
+    @Test
+    public void testInjectedExceptions() throws Exception {
+        simulator = start(1, index -> new SimulatedDeviceConfig.Builder()
+            .setExceptionRate(1.0, ExceptionCode.SlaveDeviceBusy)
+            .build());
+
+        master = connect(simulator.getDevices().get(0), Duration.ofSeconds(5));
+
+        try {
+            master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1).get();
+            fail("expected an exception response");
+        } catch (ExecutionException e) {
+            ModbusResponseException cause = (ModbusResponseException) e.getCause();
+            assertEquals(cause.getResponse().getExceptionCode(), ExceptionCode.SlaveDeviceBusy);
+        }
+
+        assertEquals(simulator.getDevices().get(0).getRequestHandler().getInjectedExceptionCounter().getCount(), 1);
+    }
+
+    @Test
+    public void testInjectedTimeouts() throws Exception {
+        simulator = start(1, index -> new SimulatedDeviceConfig.Builder().setTimeoutRate(1.0).build());
+
+        master = connect(simulator.getDevices().get(0), Duration.ofSeconds(1));
+
+        try {
+            master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1).get();
+            fail("expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ModbusTimeoutException);
+        }
+
+        assertEquals(simulator.getDevices().get(0).getRequestHandler().getInjectedTimeoutCounter().getCount(), 1);
+    }
+
+    @Test
+    public void testConnectionLimit() throws Exception {
+        simulator = start(1, index -> new SimulatedDeviceConfig.Builder().setMaxConnections(1).build());
+
+        SimulatedDevice device = simulator.getDevices().get(0);
+        master = connect(device, Duration.ofSeconds(5));
+        readRegister(master.sendRequest(new ReadHoldingRegistersRequest(0, 1), 1));
+
+        try (Socket socket = new Socket(device.getAddress(), device.getPort())) {
+            socket.setSoTimeout(5000);
+            assertEquals(socket.getInputStream().read(), -1);
+        }
+
+        assertEquals(device.getSlave().getRejectedConnectionCounter().getCount(), 1);
+    }
+
+    private static ModbusSimulator start(int devices, IntFunction<SimulatedDeviceConfig> deviceConfig) throws Exception {
+        int firstPort = NextPort.getAndAdd(devices);
+
+        ModbusSimulatorConfig config = new ModbusSimulatorConfig.Builder()
+            .setFirstPort(firstPort)
+            .setDevicesPerAddress(devices)
+            .setDeviceConfig(deviceConfig)
+            .build();
+
+        return new ModbusSimulator(config).start().get();
+    }
+
+    private static ModbusTcpMaster connect(SimulatedDevice device, Duration timeout) throws Exception {
+        ModbusTcpMasterConfig config = new ModbusTcpMasterConfig.Builder(device.getAddress())
+            .setPort(device.getPort())
+            .setTimeout(timeout)
+            .build();
+
+        return new ModbusTcpMaster(config).connect().get();
+    }
+
+    private static int readRegister(CompletableFuture<ReadHoldingRegistersResponse> future) throws Exception {
+        ReadHoldingRegistersResponse response = future.get();
+        try {
+            return response.getRegisters().getUnsignedShort(0);
+        } finally {
+            ReferenceCountUtil.release(response);
+        }
+    }
+
+}
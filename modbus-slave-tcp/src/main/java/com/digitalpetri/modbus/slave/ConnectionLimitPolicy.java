@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave;
+
+/**
+ * What a {@link ModbusTcpSlave} does with a new connection that would exceed a connection limit.
+ */
+public enum ConnectionLimitPolicy {
+
+    /**
+     * Close the new connection.
+     */
+    Reject,
+
+    /**
+     * Close the connection, among those counted against the limit, that has gone longest without sending a request,
+     * and accept the new one.
+     */
+    EvictOldestIdle
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave;
+
+/**
+ * Where a {@link ModbusTcpSlave} invokes its {@link ServiceRequestHandler}.
+ */
+public enum DispatchMode {
+
+    /**
+     * Call the handler directly on the channel's event loop. Cheapest, but a handler that blocks stalls every
+     * connection served by that event loop.
+     */
+    Inline,
+
+    /**
+     * Call the handler on the slave's executor. Requests from the same connection may be handled concurrently and
+     * their responses may be sent in any order.
+     */
+    Offload,
+
+    /**
+     * Call the handler on the slave's executor, one request at a time per connection, in the order the requests were
+     * received. Handlers that respond before returning therefore respond in request order.
+     */
+    SerialOffload
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * Coalesces flushes so a batch of responses goes out in as few writes to the socket as possible.
+ * <p>
+ * Flushes requested while a read is in progress, i.e. by responses produced synchronously while handling pipelined
+ * requests, are deferred until {@code channelReadComplete}. Flushes requested outside a read, i.e. by responses
+ * completed asynchronously, are deferred until the event loop has run the tasks already queued, or until
+ * {@code flushDelay} has elapsed if it's greater than zero.
+ * <p>
+ * Must be placed before the codec, so it sees the start of every read.
+ */
+class FlushCoalescingHandler extends ChannelDuplexHandler {
+
+    private final long flushDelayNanos;
+
+    private boolean readInProgress = false;
+    private boolean flushPending = false;
+    private boolean flushScheduled = false;
+
+    private Runnable flushTask;
+
+    /**
+     * @param flushDelayNanos how long to hold flushes requested outside a read; 0 to flush once the currently queued
+     *                        event loop tasks have run.
+     */
+    FlushCoalescingHandler(long flushDelayNanos) {
+        this.flushDelayNanos = flushDelayNanos;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        flushTask = () -> {
+            flushScheduled = false;
+
+            if (flushPending) flushNow(ctx);
+        };
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        readInProgress = true;
+
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        readInProgress = false;
+
+        if (flushPending) flushNow(ctx);
+
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        flushPending = true;
+
+        if (readInProgress || flushScheduled) return;
+
+        flushScheduled = true;
+
+        if (flushDelayNanos > 0) {
+            ctx.executor().schedule(flushTask, flushDelayNanos, TimeUnit.NANOSECONDS);
+        } else {
+            ctx.executor().execute(flushTask);
+        }
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        if (flushPending) flushNow(ctx);
+
+        ctx.close(promise);
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        if (flushPending) flushNow(ctx);
+
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (flushPending) flushNow(ctx);
+    }
+
+    private void flushNow(ChannelHandlerContext ctx) {
+        flushPending = false;
+
+        ctx.flush();
+    }
+
+}
@@ -16,50 +16,135 @@
 
 package com.digitalpetri.modbus.slave;
 
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Timer;
 import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.ModbusPdu;
 import com.digitalpetri.modbus.codec.ModbusRequestDecoder;
 import com.digitalpetri.modbus.codec.ModbusResponseEncoder;
 import com.digitalpetri.modbus.codec.ModbusTcpCodec;
 import com.digitalpetri.modbus.codec.ModbusTcpPayload;
+import com.digitalpetri.modbus.codec.capture.FrameCaptureHandler;
+import com.digitalpetri.modbus.codec.jfr.Jfr;
 import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleCoilsRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
 import com.digitalpetri.modbus.responses.ExceptionResponse;
 import com.digitalpetri.modbus.responses.ModbusResponse;
+import com.digitalpetri.modbus.slave.jfr.SlaveRequestEvent;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPromise;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.logging.LogLevel;
-import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.ReferenceCounted;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ModbusTcpSlave {
 
+    /**
+     * Number of most recent samples kept by each service time {@link Timer}. A sliding window reservoir is updated in
+     * place, unlike the default exponentially decaying one, so recording a sample doesn't allocate.
+     */
+    private static final int TimerWindowSize = 1024;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private final AtomicReference<ServiceRequestHandler> requestHandler =
             new AtomicReference<>(new ServiceRequestHandler() {});
 
+    private final AtomicReferenceArray<ServiceRequestHandler> routes = new AtomicReferenceArray<>(256);
+
     private final Map<SocketAddress, Channel> serverChannels = new ConcurrentHashMap<>();
 
+    /**
+     * Accepted connections, guarded by synchronizing on the map itself; only touched when connections open or close.
+     */
+    private final Map<Channel, ModbusTcpSlaveHandler> connections = new HashMap<>();
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    private final Counter[] requestCounters = new Counter[FunctionCode.values().length];
+    private final Counter[] exceptionCounters = new Counter[ExceptionCode.values().length];
+    private final Timer[] serviceTimers = new Timer[FunctionCode.values().length];
+
     private final Counter channelCounter = new Counter();
+    private final Counter bytesReceivedCounter = new Counter();
+    private final Counter bytesSentCounter = new Counter();
+    private final Counter outstandingRequestCounter = new Counter();
+    private final Counter unansweredRequestCounter = new Counter();
+    private final Counter rejectedConnectionCounter = new Counter();
+    private final Counter evictedConnectionCounter = new Counter();
+    private final Counter idleConnectionCounter = new Counter();
+    private final Counter invalidFrameCounter = new Counter();
+    private final Counter queuedRequestCounter = new Counter();
+    private final Timer handlerTimer = new Timer(new SlidingWindowReservoir(TimerWindowSize));
+
+    private final ByteCountingHandler byteCountingHandler = new ByteCountingHandler();
+
     private final ModbusTcpSlaveConfig config;
 
     public ModbusTcpSlave(ModbusTcpSlaveConfig config) {
         this.config = config;
+
+        for (FunctionCode functionCode : FunctionCode.values()) {
+            requestCounters[functionCode.ordinal()] = new Counter();
+            serviceTimers[functionCode.ordinal()] = new Timer(new SlidingWindowReservoir(TimerWindowSize));
+
+            metrics.put(metricName("request-counter", functionCode.name()), requestCounters[functionCode.ordinal()]);
+            metrics.put(metricName("service-timer", functionCode.name()), serviceTimers[functionCode.ordinal()]);
+        }
+
+        for (ExceptionCode exceptionCode : ExceptionCode.values()) {
+            exceptionCounters[exceptionCode.ordinal()] = new Counter();
+
+            metrics.put(metricName("exception-counter", exceptionCode.name()), exceptionCounters[exceptionCode.ordinal()]);
+        }
+
+        metrics.put(metricName("connection-counter"), channelCounter);
+        metrics.put(metricName("bytes-received-counter"), bytesReceivedCounter);
+        metrics.put(metricName("bytes-sent-counter"), bytesSentCounter);
+        metrics.put(metricName("outstanding-request-counter"), outstandingRequestCounter);
+        metrics.put(metricName("unanswered-request-counter"), unansweredRequestCounter);
+        metrics.put(metricName("rejected-connection-counter"), rejectedConnectionCounter);
+        metrics.put(metricName("evicted-connection-counter"), evictedConnectionCounter);
+        metrics.put(metricName("idle-connection-counter"), idleConnectionCounter);
+        metrics.put(metricName("invalid-frame-counter"), invalidFrameCounter);
+        metrics.put(metricName("queued-request-counter"), queuedRequestCounter);
+        metrics.put(metricName("handler-timer"), handlerTimer);
     }
 
     public CompletableFuture<ModbusTcpSlave> bind(String host, int port) {
@@ -70,25 +155,64 @@ public class ModbusTcpSlave {
         ChannelInitializer<SocketChannel> initializer = new ChannelInitializer<SocketChannel>() {
             @Override
             protected void initChannel(SocketChannel channel) throws Exception {
+                ModbusTcpSlaveHandler slaveHandler = new ModbusTcpSlaveHandler(ModbusTcpSlave.this);
+
+                if (!admit(channel, slaveHandler)) {
+                    rejectedConnectionCounter.inc();
+                    logger.warn("Connection limit reached, rejecting: {}", channel);
+                    channel.close();
+                    return;
+                }
+
                 channelCounter.inc();
                 logger.info("channel initialized: {}", channel);
 
-                channel.pipeline().addLast(new LoggingHandler(LogLevel.TRACE));
-                channel.pipeline().addLast(new ModbusTcpCodec(new ModbusResponseEncoder(), new ModbusRequestDecoder()));
-                channel.pipeline().addLast(new ModbusTcpSlaveHandler(ModbusTcpSlave.this));
-
-                channel.closeFuture().addListener(future -> channelCounter.dec());
+                if (config.isByteCounting()) {
+                    channel.pipeline().addLast(byteCountingHandler);
+                }
+
+                long idleTimeoutNanos = config.getIdleTimeout().toNanos();
+                if (idleTimeoutNanos > 0) {
+                    channel.pipeline().addLast(new IdleStateHandler(idleTimeoutNanos, 0, 0, TimeUnit.NANOSECONDS));
+                }
+                if (config.isFlushCoalescing()) {
+                    channel.pipeline().addLast(new FlushCoalescingHandler(config.getFlushDelay().toNanos()));
+                }
+                config.getCaptureWriter().ifPresent(w -> channel.pipeline().addLast(new FrameCaptureHandler(w)));
+                channel.pipeline().addLast(new ModbusTcpCodec(
+                        new ModbusResponseEncoder(),
+                        new ModbusRequestDecoder(),
+                        config.getInvalidFrameAction(),
+                        invalidFrameCounter::inc));
+                for (Supplier<? extends ChannelHandler> handler : config.getChannelHandlers()) {
+                    channel.pipeline().addLast(handler.get());
+                }
+                channel.pipeline().addLast(slaveHandler);
+
+                channel.closeFuture().addListener(future -> {
+                    channelCounter.dec();
+
+                    int unanswered = slaveHandler.closeOutstanding();
+                    if (unanswered > 0) {
+                        outstandingRequestCounter.dec(unanswered);
+                        unansweredRequestCounter.inc(unanswered);
+                    }
+
+                    synchronized (connections) {
+                        connections.remove(channel);
+                    }
+                });
             }
         };
 
-        config.getBootstrapConsumer().accept(bootstrap);
-
         bootstrap.group(config.getEventLoop())
                 .channel(NioServerSocketChannel.class)
-                .handler(new LoggingHandler(LogLevel.DEBUG))
                 .childHandler(initializer)
                 .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
 
+        // Applied last, so the consumer can override any of the options above.
+        config.getBootstrapConsumer().accept(bootstrap);
+
         bootstrap.bind(host, port).addListener((ChannelFuture future) -> {
             if (future.isSuccess()) {
                 Channel channel = future.channel();
@@ -102,67 +226,440 @@ public class ModbusTcpSlave {
         return bindFuture;
     }
 
+    /**
+     * Set the default route: the handler for requests to unit ids without a route of their own.
+     * <p>
+     * With no default route, requests to unrouted unit ids are dropped, or answered with
+     * {@link ExceptionCode#GatewayTargetDeviceFailedToResponse} if
+     * {@link ModbusTcpSlaveConfig#isRespondToUnmappedUnits()}.
+     *
+     * @param requestHandler the default {@link ServiceRequestHandler}; may be null.
+     */
     public void setRequestHandler(ServiceRequestHandler requestHandler) {
         this.requestHandler.set(requestHandler);
     }
 
+    /**
+     * Route requests for {@code unitId} to {@code requestHandler}. Routes can be changed at any time, including while
+     * requests are being served; a request uses whichever route was set when it was dispatched.
+     *
+     * @param unitId         the unit id, 0 to 255.
+     * @param requestHandler the {@link ServiceRequestHandler} for {@code unitId}, or null to remove the route.
+     */
+    public void setRequestHandler(int unitId, ServiceRequestHandler requestHandler) {
+        routes.set(unitId, requestHandler);
+    }
+
+    /**
+     * @return the {@link ServiceRequestHandler} routed to {@code unitId}, or null if there is no route.
+     */
+    public ServiceRequestHandler getRequestHandler(int unitId) {
+        return routes.get(unitId);
+    }
+
+    /**
+     * @return a {@link MetricSet} of every metric this slave records, named with the configured instance id. The
+     * bytes received and sent counters stay at zero unless {@link ModbusTcpSlaveConfig#isByteCounting()}.
+     */
+    public MetricSet getMetricSet() {
+        return () -> metrics;
+    }
+
+    /**
+     * @return a {@link Counter} of requests received with {@code functionCode}.
+     */
+    public Counter getRequestCounter(FunctionCode functionCode) {
+        return requestCounters[functionCode.ordinal()];
+    }
+
+    /**
+     * @return a {@link Counter} of exception responses sent with {@code exceptionCode}.
+     */
+    public Counter getExceptionCounter(ExceptionCode exceptionCode) {
+        return exceptionCounters[exceptionCode.ordinal()];
+    }
+
+    /**
+     * @return a {@link Timer} of the time from receiving a {@code functionCode} request to answering it, including any
+     * time spent queued for the executor.
+     */
+    public Timer getServiceTimer(FunctionCode functionCode) {
+        return serviceTimers[functionCode.ordinal()];
+    }
+
+    /**
+     * @return a {@link Counter} of open connections.
+     */
+    public Counter getConnectionCounter() {
+        return channelCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of bytes received from all connections, if
+     * {@link ModbusTcpSlaveConfig#isByteCounting()}.
+     */
+    public Counter getBytesReceivedCounter() {
+        return bytesReceivedCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of bytes written to all connections, if {@link ModbusTcpSlaveConfig#isByteCounting()}.
+     */
+    public Counter getBytesSentCounter() {
+        return bytesSentCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of requests handed to a {@link ServiceRequestHandler} and not answered yet.
+     */
+    public Counter getOutstandingRequestCounter() {
+        return outstandingRequestCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of requests still unanswered when their connection closed.
+     */
+    public Counter getUnansweredRequestCounter() {
+        return unansweredRequestCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of frames received that failed validation.
+     */
+    public Counter getInvalidFrameCounter() {
+        return invalidFrameCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of requests waiting for the executor, in {@link DispatchMode#Offload} and
+     * {@link DispatchMode#SerialOffload} modes.
+     */
+    public Counter getQueuedRequestCounter() {
+        return queuedRequestCounter;
+    }
+
+    /**
+     * @return a {@link Timer} of the time spent in {@link ServiceRequestHandler} callbacks.
+     */
+    public Timer getHandlerTimer() {
+        return handlerTimer;
+    }
+
+    /**
+     * @return a {@link Counter} of connections closed on accept because a connection limit was reached.
+     */
+    public Counter getRejectedConnectionCounter() {
+        return rejectedConnectionCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of idle connections closed to make room for a new one.
+     */
+    public Counter getEvictedConnectionCounter() {
+        return evictedConnectionCounter;
+    }
+
+    /**
+     * @return a {@link Counter} of connections closed after exceeding the idle timeout.
+     */
+    public Counter getIdleConnectionCounter() {
+        return idleConnectionCounter;
+    }
+
     public void shutdown() {
         serverChannels.values().forEach(Channel::close);
         serverChannels.clear();
     }
 
-    private void onChannelRead(ChannelHandlerContext ctx, ModbusTcpPayload payload) {
-        ServiceRequestHandler handler = requestHandler.get();
-        if (handler == null) return;
+    private void onChannelRead(ChannelHandlerContext ctx, ModbusTcpPayload payload, Executor serialExecutor) {
+        long receivedTime = System.nanoTime();
+        FunctionCode functionCode = payload.getModbusPdu().getFunctionCode();
+
+        requestCounters[functionCode.ordinal()].inc();
+
+        switch (config.getDispatchMode(functionCode)) {
+            case Offload:
+                offload(ctx, payload, config.getExecutor(), receivedTime);
+                break;
+
+            case SerialOffload:
+                offload(ctx, payload, serialExecutor, receivedTime);
+                break;
+
+            default:
+                dispatch(ctx, payload, receivedTime);
+                break;
+        }
+    }
+
+    private void offload(ChannelHandlerContext ctx, ModbusTcpPayload payload, Executor executor, long receivedTime) {
+        queuedRequestCounter.inc();
+
+        try {
+            executor.execute(() -> {
+                queuedRequestCounter.dec();
+
+                try {
+                    dispatch(ctx, payload, receivedTime);
+                } catch (Throwable t) {
+                    onExceptionCaught(ctx, t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queuedRequestCounter.dec();
+
+            logger.warn("Request rejected by executor: {}", ctx.channel(), e);
+
+            sendException(ctx, payload, ExceptionCode.SlaveDeviceBusy);
+
+            ReferenceCountUtil.release(payload.getModbusPdu());
+        }
+    }
+
+    private void dispatch(ChannelHandlerContext ctx, ModbusTcpPayload payload, long receivedTime) {
+        long startTime = System.nanoTime();
+
+        try {
+            int unitId = payload.getUnitId() & 0xFF;
+
+            if (unitId == 0 && config.isBroadcastEnabled() && isWrite(payload.getModbusPdu().getFunctionCode())) {
+                broadcast(ctx, payload);
+                return;
+            }
+
+            ServiceRequestHandler handler = routes.get(unitId);
+            if (handler == null) handler = requestHandler.get();
+
+            if (handler != null) {
+                dispatch(ctx, payload, handler, true, receivedTime);
+            } else {
+                if (config.isRespondToUnmappedUnits()) {
+                    sendException(ctx, payload, ExceptionCode.GatewayTargetDeviceFailedToResponse);
+                }
+
+                ReferenceCountUtil.release(payload.getModbusPdu());
+            }
+        } finally {
+            handlerTimer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Deliver a unit 0 write to every routed unit, then to the default handler, without sending any response.
+     * <p>
+     * Each handler releases the request it's given, so requests holding a buffer are duplicated for each handler.
+     */
+    private void broadcast(ChannelHandlerContext ctx, ModbusTcpPayload payload) {
+        ModbusPdu request = payload.getModbusPdu();
+
+        try {
+            for (int unitId = 1; unitId < routes.length(); unitId++) {
+                ServiceRequestHandler handler = routes.get(unitId);
+
+                if (handler != null) {
+                    ModbusTcpPayload unitPayload = new ModbusTcpPayload(
+                            payload.getTransactionId(), (short) unitId, duplicate(request));
+
+                    dispatch(ctx, unitPayload, handler, false, 0L);
+                }
+            }
+
+            ServiceRequestHandler handler = requestHandler.get();
+
+            if (handler != null) {
+                ModbusTcpPayload defaultPayload = new ModbusTcpPayload(
+                        payload.getTransactionId(), payload.getUnitId(), duplicate(request));
+
+                dispatch(ctx, defaultPayload, handler, false, 0L);
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    private void dispatch(ChannelHandlerContext ctx,
+                          ModbusTcpPayload payload,
+                          ServiceRequestHandler handler,
+                          boolean respond,
+                          long receivedTime) {
 
         switch (payload.getModbusPdu().getFunctionCode()) {
             case ReadCoils:
-                handler.onReadCoils(ModbusTcpServiceRequest.of(payload, ctx.channel()));
+                handler.onReadCoils(ModbusTcpServiceRequest.of(payload, ctx, respond, receivedTime));
                 break;
 
             case ReadDiscreteInputs:
-                handler.onReadDiscreteInputs(ModbusTcpServiceRequest.of(payload, ctx.channel()));
+                handler.onReadDiscreteInputs(ModbusTcpServiceRequest.of(payload, ctx, respond, receivedTime));
                 break;
 
             case ReadHoldingRegisters:
-                handler.onReadHoldingRegisters(ModbusTcpServiceRequest.of(payload, ctx.channel()));
+                handler.onReadHoldingRegisters(ModbusTcpServiceRequest.of(payload, ctx, respond, receivedTime));
                 break;
 
             case ReadInputRegisters:
-                handler.onReadInputRegisters(ModbusTcpServiceRequest.of(payload, ctx.channel()));
+                handler.onReadInputRegisters(ModbusTcpServiceRequest.of(payload, ctx, respond, receivedTime));
                 break;
 
             case WriteSingleCoil:
-                handler.onWriteSingleCoil(ModbusTcpServiceRequest.of(payload, ctx.channel()));
+                handler.onWriteSingleCoil(ModbusTcpServiceRequest.of(payload, ctx, respond, receivedTime));
                 break;
 
             case WriteSingleRegister:
-                handler.onWriteSingleRegister(ModbusTcpServiceRequest.of(payload, ctx.channel()));
+                handler.onWriteSingleRegister(ModbusTcpServiceRequest.of(payload, ctx, respond, receivedTime));
                 break;
 
             case WriteMultipleCoils:
-                handler.onWriteMultipleCoils(ModbusTcpServiceRequest.of(payload, ctx.channel()));
+                handler.onWriteMultipleCoils(ModbusTcpServiceRequest.of(payload, ctx, respond, receivedTime));
                 break;
 
             case WriteMultipleRegisters:
-                handler.onWriteMultipleRegisters(ModbusTcpServiceRequest.of(payload, ctx.channel()));
+                handler.onWriteMultipleRegisters(ModbusTcpServiceRequest.of(payload, ctx, respond, receivedTime));
                 break;
 
             case MaskWriteRegister:
-                handler.onMaskWriteRegister(ModbusTcpServiceRequest.of(payload, ctx.channel()));
+                handler.onMaskWriteRegister(ModbusTcpServiceRequest.of(payload, ctx, respond, receivedTime));
                 break;
 
             default:
                 /* Function code not currently supported */
-                ExceptionResponse response = new ExceptionResponse(
-                        payload.getModbusPdu().getFunctionCode(),
-                        ExceptionCode.IllegalFunction);
-
-                ctx.writeAndFlush(new ModbusTcpPayload(payload.getTransactionId(), payload.getUnitId(), response));
+                if (respond) {
+                    sendException(ctx, payload, ExceptionCode.IllegalFunction);
+                }
+                ReferenceCountUtil.release(payload.getModbusPdu());
                 break;
         }
     }
 
+    private void sendException(ChannelHandlerContext ctx, ModbusTcpPayload payload, ExceptionCode exceptionCode) {
+        exceptionCounters[exceptionCode.ordinal()].inc();
+
+        ExceptionResponse response = new ExceptionResponse(payload.getModbusPdu().getFunctionCode(), exceptionCode);
+
+        ctx.writeAndFlush(new ModbusTcpPayload(payload.getTransactionId(), payload.getUnitId(), response));
+    }
+
+    /**
+     * Release a response whose write failed, unless the encoder already did.
+     * <p>
+     * The encoder releases every response it encodes, but a response written to a channel that has closed never
+     * reaches it, e.g. when the master disconnects while its request is being serviced.
+     */
+    private static void releaseUnsent(ReferenceCounted response) {
+        if (response.refCnt() > 0) {
+            ReferenceCountUtil.release(response);
+        }
+    }
+
+    private void onServiceRequestAnswered(FunctionCode functionCode, long receivedTime) {
+        serviceTimers[functionCode.ordinal()].update(System.nanoTime() - receivedTime, TimeUnit.NANOSECONDS);
+    }
+
+    private static boolean isWrite(FunctionCode functionCode) {
+        switch (functionCode) {
+            case WriteSingleCoil:
+            case WriteSingleRegister:
+            case WriteMultipleCoils:
+            case WriteMultipleRegisters:
+            case MaskWriteRegister:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return a copy of {@code request} that can be released independently of it, sharing any content buffer.
+     */
+    private static ModbusPdu duplicate(ModbusPdu request) {
+        if (request instanceof WriteMultipleCoilsRequest) {
+            WriteMultipleCoilsRequest r = (WriteMultipleCoilsRequest) request;
+
+            return new WriteMultipleCoilsRequest(r.getAddress(), r.getQuantity(), r.getValues().duplicate().retain());
+        } else if (request instanceof WriteMultipleRegistersRequest) {
+            WriteMultipleRegistersRequest r = (WriteMultipleRegistersRequest) request;
+
+            return new WriteMultipleRegistersRequest(r.getAddress(), r.getQuantity(), r.getValues().duplicate().retain());
+        } else {
+            return request;
+        }
+    }
+
+    /**
+     * Apply the connection limits to a new connection, evicting an idle connection to make room for it if the
+     * {@link ConnectionLimitPolicy} allows.
+     *
+     * @return {@code true} if the connection was admitted.
+     */
+    private boolean admit(SocketChannel channel, ModbusTcpSlaveHandler slaveHandler) {
+        InetAddress address = channel.remoteAddress().getAddress();
+
+        synchronized (connections) {
+            int maxPerAddress = config.getMaxConnectionsPerAddress();
+            if (maxPerAddress > 0 && countConnections(address) >= maxPerAddress && !evictOldestIdle(address)) {
+                return false;
+            }
+
+            int max = config.getMaxConnections();
+            if (max > 0 && connections.size() >= max && !evictOldestIdle(null)) {
+                return false;
+            }
+
+            connections.put(channel, slaveHandler);
+        }
+
+        return true;
+    }
+
+    private int countConnections(InetAddress address) {
+        int count = 0;
+        for (Channel channel : connections.keySet()) {
+            if (address.equals(((InetSocketAddress) channel.remoteAddress()).getAddress())) count++;
+        }
+        return count;
+    }
+
+    /**
+     * Close the connection, from {@code address} or from anywhere if null, that has gone longest without a request.
+     *
+     * @return {@code true} if a connection was evicted.
+     */
+    private boolean evictOldestIdle(InetAddress address) {
+        if (config.getConnectionLimitPolicy() != ConnectionLimitPolicy.EvictOldestIdle) return false;
+
+        Channel oldest = null;
+        long oldestTime = 0L;
+
+        for (Map.Entry<Channel, ModbusTcpSlaveHandler> entry : connections.entrySet()) {
+            Channel channel = entry.getKey();
+            long lastRequestTime = entry.getValue().lastRequestTime;
+
+            if (address != null && !address.equals(((InetSocketAddress) channel.remoteAddress()).getAddress())) {
+                continue;
+            }
+
+            if (oldest == null || lastRequestTime - oldestTime < 0) {
+                oldest = channel;
+                oldestTime = lastRequestTime;
+            }
+        }
+
+        if (oldest == null) return false;
+
+        connections.remove(oldest);
+        evictedConnectionCounter.inc();
+        logger.info("Connection limit reached, evicting idle connection: {}", oldest);
+        oldest.close();
+
+        return true;
+    }
+
+    private void onIdle(ChannelHandlerContext ctx) {
+        idleConnectionCounter.inc();
+        logger.info("Closing idle connection: {}", ctx.channel());
+        ctx.close();
+    }
+
     private void onChannelInactive(ChannelHandlerContext ctx) {
         logger.debug("Master/client channel closed: {}", ctx.channel());
     }
@@ -172,17 +669,73 @@ public class ModbusTcpSlave {
         ctx.close();
     }
 
+    private String metricName(String name) {
+        String instanceId = config.getInstanceId().orElse(null);
+        return MetricRegistry.name(ModbusTcpSlave.class, instanceId, name);
+    }
+
+    private String metricName(String name, String qualifier) {
+        String instanceId = config.getInstanceId().orElse(null);
+        return MetricRegistry.name(ModbusTcpSlave.class, instanceId, name, qualifier);
+    }
+
+    /**
+     * Counts bytes in both directions. Added first in every pipeline when byte counting is enabled, so it sees raw
+     * frames before decoding and after encoding.
+     */
+    @ChannelHandler.Sharable
+    private class ByteCountingHandler extends ChannelDuplexHandler {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof ByteBuf) {
+                bytesReceivedCounter.inc(((ByteBuf) msg).readableBytes());
+            }
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof ByteBuf) {
+                bytesSentCounter.inc(((ByteBuf) msg).readableBytes());
+            }
+            super.write(ctx, msg, promise);
+        }
+
+    }
+
     private static class ModbusTcpSlaveHandler extends SimpleChannelInboundHandler<ModbusTcpPayload> {
 
         private final ModbusTcpSlave slave;
+        private final SerialExecutor serialExecutor;
+
+        private volatile long lastRequestTime = System.nanoTime();
+
+        /**
+         * Requests handed to a {@link ServiceRequestHandler} and not answered yet, or {@link Integer#MIN_VALUE} once
+         * the channel has closed.
+         */
+        private final AtomicInteger outstanding = new AtomicInteger();
 
         private ModbusTcpSlaveHandler(ModbusTcpSlave slave) {
             this.slave = slave;
+            this.serialExecutor = new SerialExecutor(slave.config.getExecutor());
         }
 
         @Override
         protected void channelRead0(ChannelHandlerContext ctx, ModbusTcpPayload msg) throws Exception {
-            slave.onChannelRead(ctx, msg);
+            lastRequestTime = System.nanoTime();
+
+            slave.onChannelRead(ctx, msg, serialExecutor);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                slave.onIdle(ctx);
+            } else {
+                super.userEventTriggered(ctx, evt);
+            }
         }
 
         @Override
@@ -195,6 +748,39 @@ public class ModbusTcpSlave {
             slave.onExceptionCaught(ctx, cause);
         }
 
+        /**
+         * @return {@code true} if the request was counted; requests dispatched after the channel closed are not.
+         */
+        private boolean incrementOutstanding() {
+            while (true) {
+                int current = outstanding.get();
+                if (current < 0) return false;
+                if (outstanding.compareAndSet(current, current + 1)) return true;
+            }
+        }
+
+        /**
+         * @return {@code true} if the request was counted; requests answered after the channel closed were already
+         * counted as unanswered.
+         */
+        private boolean decrementOutstanding() {
+            while (true) {
+                int current = outstanding.get();
+                if (current <= 0) return false;
+                if (outstanding.compareAndSet(current, current - 1)) return true;
+            }
+        }
+
+        /**
+         * Stop counting requests for this connection.
+         *
+         * @return the number of requests still outstanding.
+         */
+        private int closeOutstanding() {
+            int current = outstanding.getAndSet(Integer.MIN_VALUE);
+            return Math.max(current, 0);
+        }
+
     }
 
     private static class ModbusTcpServiceRequest<Request extends ModbusRequest, Response extends ModbusResponse>
@@ -204,12 +790,53 @@ public class ModbusTcpSlave {
         private final short unitId;
         private final Request request;
         private final Channel channel;
+        private final ModbusTcpSlave slave;
+        private final ModbusTcpSlaveHandler connection;
+        private final boolean respond;
+        private final long receivedTime;
+        private final boolean outstanding;
+
+        /**
+         * Recorded when answered, or {@code null} if it isn't being recorded.
+         */
+        private final SlaveRequestEvent event;
+
+        /**
+         * Set by the first response, so a handler responding more than once only counts once.
+         */
+        private boolean answered;
+
+        private ModbusTcpServiceRequest(short transactionId,
+                                        short unitId,
+                                        Request request,
+                                        Channel channel,
+                                        ModbusTcpSlave slave,
+                                        ModbusTcpSlaveHandler connection,
+                                        boolean respond,
+                                        long receivedTime) {
 
-        private ModbusTcpServiceRequest(short transactionId, short unitId, Request request, Channel channel) {
             this.transactionId = transactionId;
             this.unitId = unitId;
             this.request = request;
             this.channel = channel;
+            this.slave = slave;
+            this.connection = connection;
+            this.respond = respond;
+            this.receivedTime = receivedTime;
+
+            this.outstanding = respond && connection.incrementOutstanding();
+
+            if (outstanding) {
+                slave.outstandingRequestCounter.inc();
+            }
+
+            if (respond && Jfr.Available) {
+                int functionCode = request.getFunctionCode().getCode();
+                this.event = SlaveRequestEvent.begin(
+                    transactionId, unitId, functionCode, channel.remoteAddress(), receivedTime);
+            } else {
+                this.event = null;
+            }
         }
 
         @Override
@@ -234,29 +861,68 @@ public class ModbusTcpSlave {
 
         @Override
         public void sendResponse(Response response) {
-            channel.writeAndFlush(new ModbusTcpPayload(transactionId, unitId, response));
+            if (respond) {
+                onAnswered("Response");
+
+                ChannelFuture future = channel.writeAndFlush(new ModbusTcpPayload(transactionId, unitId, response));
+
+                if (response instanceof ReferenceCounted) {
+                    future.addListener(f -> {
+                        if (!f.isSuccess()) releaseUnsent((ReferenceCounted) response);
+                    });
+                }
+            } else {
+                ReferenceCountUtil.release(response);
+            }
         }
 
         @Override
         public void sendException(ExceptionCode exceptionCode) {
-            ExceptionResponse response = new ExceptionResponse(request.getFunctionCode(), exceptionCode);
+            if (respond) {
+                onAnswered(exceptionCode.name());
+
+                slave.exceptionCounters[exceptionCode.ordinal()].inc();
+
+                ExceptionResponse response = new ExceptionResponse(request.getFunctionCode(), exceptionCode);
+
+                channel.writeAndFlush(new ModbusTcpPayload(transactionId, unitId, response));
+            }
+        }
 
-            channel.writeAndFlush(new ModbusTcpPayload(transactionId, unitId, response));
+        private void onAnswered(String outcome) {
+            if (answered) return;
+            answered = true;
+
+            if (event != null) event.answered(outcome);
+
+            if (outstanding && connection.decrementOutstanding()) {
+                slave.outstandingRequestCounter.dec();
+            }
+
+            slave.onServiceRequestAnswered(request.getFunctionCode(), receivedTime);
         }
 
         @SuppressWarnings("unchecked")
         public static <Request extends ModbusRequest, Response extends ModbusResponse>
-        ModbusTcpServiceRequest<Request, Response> of(ModbusTcpPayload payload, Channel channel) {
+        ModbusTcpServiceRequest<Request, Response> of(ModbusTcpPayload payload,
+                                                      ChannelHandlerContext ctx,
+                                                      boolean respond,
+                                                      long receivedTime) {
+
+            ModbusTcpSlaveHandler connection = (ModbusTcpSlaveHandler) ctx.handler();
 
             return new ModbusTcpServiceRequest<>(
                     payload.getTransactionId(),
                     payload.getUnitId(),
                     (Request) payload.getModbusPdu(),
-                    channel
+                    ctx.channel(),
+                    connection.slave,
+                    connection,
+                    respond,
+                    receivedTime
             );
         }
 
     }
 
 }
-
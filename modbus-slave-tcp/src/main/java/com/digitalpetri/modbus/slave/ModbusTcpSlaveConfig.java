@@ -16,13 +16,22 @@
 
 package com.digitalpetri.modbus.slave;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.codec.InvalidFrameAction;
 import com.digitalpetri.modbus.codec.Modbus;
-import io.netty.bootstrap.Bootstrap;
+import com.digitalpetri.modbus.codec.capture.CaptureWriter;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.EventLoopGroup;
 import io.netty.util.HashedWheelTimer;
 
@@ -33,18 +42,76 @@ public class ModbusTcpSlaveConfig {
     private final EventLoopGroup eventLoop;
     private final HashedWheelTimer wheelTimer;
     private final Consumer<ServerBootstrap> bootstrapConsumer;
+    private final InvalidFrameAction invalidFrameAction;
+    private final List<Supplier<? extends ChannelHandler>> channelHandlers;
+    private final DispatchMode dispatchMode;
+    private final EnumMap<FunctionCode, DispatchMode> dispatchModes;
+    private final boolean broadcastEnabled;
+    private final boolean respondToUnmappedUnits;
+    private final boolean flushCoalescing;
+    private final Duration flushDelay;
+    private final int maxConnections;
+    private final int maxConnectionsPerAddress;
+    private final ConnectionLimitPolicy connectionLimitPolicy;
+    private final Duration idleTimeout;
+    private final Optional<CaptureWriter> captureWriter;
+    private final boolean byteCounting;
 
+    /**
+     * Create a config with the {@link Builder}'s defaults for every option this constructor has no parameter for.
+     * Prefer the {@link Builder}, which is where new options are added.
+     */
     public ModbusTcpSlaveConfig(Optional<String> instanceId,
                                 ExecutorService executor,
                                 EventLoopGroup eventLoop,
                                 HashedWheelTimer wheelTimer,
                                 Consumer<ServerBootstrap> bootstrapConsumer) {
 
+        this(instanceId, executor, eventLoop, wheelTimer, bootstrapConsumer,
+            InvalidFrameAction.CloseConnection, Collections.emptyList(), DispatchMode.Inline,
+            new EnumMap<>(FunctionCode.class), false, false, true, Duration.ZERO, 0, 0, ConnectionLimitPolicy.Reject,
+            Duration.ZERO, Optional.empty(), false);
+    }
+
+    public ModbusTcpSlaveConfig(Optional<String> instanceId,
+                                ExecutorService executor,
+                                EventLoopGroup eventLoop,
+                                HashedWheelTimer wheelTimer,
+                                Consumer<ServerBootstrap> bootstrapConsumer,
+                                InvalidFrameAction invalidFrameAction,
+                                List<Supplier<? extends ChannelHandler>> channelHandlers,
+                                DispatchMode dispatchMode,
+                                EnumMap<FunctionCode, DispatchMode> dispatchModes,
+                                boolean broadcastEnabled,
+                                boolean respondToUnmappedUnits,
+                                boolean flushCoalescing,
+                                Duration flushDelay,
+                                int maxConnections,
+                                int maxConnectionsPerAddress,
+                                ConnectionLimitPolicy connectionLimitPolicy,
+                                Duration idleTimeout,
+                                Optional<CaptureWriter> captureWriter,
+                                boolean byteCounting) {
+
         this.instanceId = instanceId;
         this.executor = executor;
         this.eventLoop = eventLoop;
         this.wheelTimer = wheelTimer;
         this.bootstrapConsumer = bootstrapConsumer;
+        this.invalidFrameAction = invalidFrameAction;
+        this.channelHandlers = Collections.unmodifiableList(new ArrayList<>(channelHandlers));
+        this.dispatchMode = dispatchMode;
+        this.dispatchModes = dispatchModes.clone();
+        this.broadcastEnabled = broadcastEnabled;
+        this.respondToUnmappedUnits = respondToUnmappedUnits;
+        this.flushCoalescing = flushCoalescing;
+        this.flushDelay = flushDelay;
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        this.connectionLimitPolicy = connectionLimitPolicy;
+        this.idleTimeout = idleTimeout;
+        this.captureWriter = captureWriter;
+        this.byteCounting = byteCounting;
     }
 
     public Optional<String> getInstanceId() {
@@ -67,12 +134,140 @@ public class ModbusTcpSlaveConfig {
         return bootstrapConsumer;
     }
 
+    /**
+     * @return what to do when a client sends a frame that fails validation.
+     */
+    public InvalidFrameAction getInvalidFrameAction() {
+        return invalidFrameAction;
+    }
+
+    /**
+     * Suppliers of the extra handlers added to each child channel pipeline, in order, between the codec and the
+     * slave's own handler. The handlers see decoded {@code ModbusTcpPayload}s in both directions.
+     * <p>
+     * Empty by default. Only the handlers added with {@link Builder#addChannelHandler(Supplier)} are in this list; the
+     * handlers the slave adds on its own, such as the one that coalesces flushes while {@link #isFlushCoalescing()},
+     * aren't.
+     *
+     * @return the child channel handler suppliers.
+     */
+    public List<Supplier<? extends ChannelHandler>> getChannelHandlers() {
+        return channelHandlers;
+    }
+
+    /**
+     * @return the {@link DispatchMode} for function codes without a mode of their own.
+     */
+    public DispatchMode getDispatchMode() {
+        return dispatchMode;
+    }
+
+    /**
+     * @return the {@link DispatchMode} used for requests with {@code functionCode}.
+     */
+    public DispatchMode getDispatchMode(FunctionCode functionCode) {
+        DispatchMode mode = dispatchModes.get(functionCode);
+
+        return mode != null ? mode : dispatchMode;
+    }
+
+    /**
+     * @return {@code true} if writes to unit id 0 are broadcast to every route, without a response.
+     */
+    public boolean isBroadcastEnabled() {
+        return broadcastEnabled;
+    }
+
+    /**
+     * @return {@code true} if requests to unit ids with no route and no default route are answered with
+     * {@code GatewayTargetDeviceFailedToResponse} rather than dropped.
+     */
+    public boolean isRespondToUnmappedUnits() {
+        return respondToUnmappedUnits;
+    }
+
+    /**
+     * @return {@code true} if responses are flushed once per read batch rather than once each, by a
+     * {@code FlushCoalescingHandler} the slave adds in front of the codec of every connection.
+     */
+    public boolean isFlushCoalescing() {
+        return flushCoalescing;
+    }
+
+    /**
+     * @return how long a flush requested outside a read, by an asynchronously completed response, may be held back
+     * so it can be coalesced with others.
+     */
+    public Duration getFlushDelay() {
+        return flushDelay;
+    }
+
+    /**
+     * @return the maximum number of connections accepted at once, or 0 for no limit.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return the maximum number of connections accepted at once from a single remote IP address, or 0 for no limit.
+     */
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    /**
+     * @return what to do with a new connection that would exceed {@link #getMaxConnections()} or
+     * {@link #getMaxConnectionsPerAddress()}.
+     */
+    public ConnectionLimitPolicy getConnectionLimitPolicy() {
+        return connectionLimitPolicy;
+    }
+
+    /**
+     * @return how long a connection may go without receiving any data before it's closed; {@link Duration#ZERO} if
+     * connections are never closed for being idle.
+     */
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @return the {@link CaptureWriter} that records every frame received and sent, each connection as its own stream,
+     * if capturing is enabled.
+     */
+    public Optional<CaptureWriter> getCaptureWriter() {
+        return captureWriter;
+    }
+
+    /**
+     * @return {@code true} if the bytes received and sent are counted, by a handler the slave adds at the head of
+     * every connection's pipeline.
+     */
+    public boolean isByteCounting() {
+        return byteCounting;
+    }
+
     public static class Builder {
         private Optional<String> instanceId = Optional.empty();
         private ExecutorService executor;
         private EventLoopGroup eventLoop;
         private HashedWheelTimer wheelTimer;
         private Consumer<ServerBootstrap> bootstrapConsumer = (b) -> {};
+        private InvalidFrameAction invalidFrameAction = InvalidFrameAction.CloseConnection;
+        private final List<Supplier<? extends ChannelHandler>> channelHandlers = new ArrayList<>();
+        private DispatchMode dispatchMode = DispatchMode.Inline;
+        private final EnumMap<FunctionCode, DispatchMode> dispatchModes = new EnumMap<>(FunctionCode.class);
+        private boolean broadcastEnabled = false;
+        private boolean respondToUnmappedUnits = false;
+        private boolean flushCoalescing = true;
+        private Duration flushDelay = Duration.ZERO;
+        private int maxConnections = 0;
+        private int maxConnectionsPerAddress = 0;
+        private ConnectionLimitPolicy connectionLimitPolicy = ConnectionLimitPolicy.Reject;
+        private Duration idleTimeout = Duration.ZERO;
+        private Optional<CaptureWriter> captureWriter = Optional.empty();
+        private boolean byteCounting = false;
 
         public Builder setInstanceId(String instanceId) {
             this.instanceId = Optional.of(instanceId);
@@ -99,13 +294,157 @@ public class ModbusTcpSlaveConfig {
             return this;
         }
 
+        public Builder setInvalidFrameAction(InvalidFrameAction invalidFrameAction) {
+            this.invalidFrameAction = invalidFrameAction;
+            return this;
+        }
+
+        /**
+         * Add a handler to the end of the list of handlers installed in each child channel pipeline.
+         * <p>
+         * The supplier is invoked once per accepted connection, so handlers that aren't
+         * {@link ChannelHandler.Sharable} must return a new instance each time.
+         *
+         * @param channelHandler supplies the handler for each new connection.
+         * @return this {@link Builder}.
+         */
+        public Builder addChannelHandler(Supplier<? extends ChannelHandler> channelHandler) {
+            this.channelHandlers.add(channelHandler);
+            return this;
+        }
+
+        /**
+         * Set the {@link DispatchMode} for all function codes without a mode of their own. Defaults to
+         * {@link DispatchMode#Inline}.
+         */
+        public Builder setDispatchMode(DispatchMode dispatchMode) {
+            this.dispatchMode = dispatchMode;
+            return this;
+        }
+
+        /**
+         * Set the {@link DispatchMode} for requests with {@code functionCode}, e.g. to offload only the writes that
+         * reach a slow backend while reads stay on the event loop.
+         */
+        public Builder setDispatchMode(FunctionCode functionCode, DispatchMode dispatchMode) {
+            this.dispatchModes.put(functionCode, dispatchMode);
+            return this;
+        }
+
+        /**
+         * Broadcast writes to unit id 0: deliver them to the handler of every routed unit and to the default route,
+         * and send no response. Off by default, because many Modbus/TCP masters address a single device as unit 0 and
+         * expect an answer.
+         */
+        public Builder setBroadcastEnabled(boolean broadcastEnabled) {
+            this.broadcastEnabled = broadcastEnabled;
+            return this;
+        }
+
+        /**
+         * Answer requests to unit ids with no route and no default route with
+         * {@code GatewayTargetDeviceFailedToResponse}, as a gateway would, instead of dropping them and leaving the
+         * master to time out.
+         */
+        public Builder setRespondToUnmappedUnits(boolean respondToUnmappedUnits) {
+            this.respondToUnmappedUnits = respondToUnmappedUnits;
+            return this;
+        }
+
+        /**
+         * Flush the responses to a batch of pipelined requests once, when the read completes, rather than after each
+         * response. Enabled by default, which adds a {@code FlushCoalescingHandler} to every connection's pipeline.
+         */
+        public Builder setFlushCoalescing(boolean flushCoalescing) {
+            this.flushCoalescing = flushCoalescing;
+            return this;
+        }
+
+        /**
+         * Set how long a response completed outside a read, e.g. by an offloaded handler, may wait for others before
+         * being flushed. With the default of zero, responses are flushed as soon as the event loop has run the tasks
+         * already queued, which coalesces responses completed together without adding latency.
+         * <p>
+         * Only used with flush coalescing, which is enabled by default; see {@link #setFlushCoalescing(boolean)}.
+         */
+        public Builder setFlushDelay(Duration flushDelay) {
+            this.flushDelay = flushDelay;
+            return this;
+        }
+
+        /**
+         * @param maxConnections the maximum number of connections accepted at once, or 0 for no limit (the default).
+         */
+        public Builder setMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * @param maxConnectionsPerAddress the maximum number of connections accepted at once from a single remote IP
+         *                                 address, or 0 for no limit (the default).
+         */
+        public Builder setMaxConnectionsPerAddress(int maxConnectionsPerAddress) {
+            this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+            return this;
+        }
+
+        /**
+         * @param connectionLimitPolicy what to do when a connection limit is reached. Defaults to
+         *                              {@link ConnectionLimitPolicy#Reject}.
+         */
+        public Builder setConnectionLimitPolicy(ConnectionLimitPolicy connectionLimitPolicy) {
+            this.connectionLimitPolicy = connectionLimitPolicy;
+            return this;
+        }
+
+        /**
+         * @param idleTimeout close connections that receive no data for this long; {@link Duration#ZERO} (the
+         *                    default) to never close idle connections.
+         */
+        public Builder setIdleTimeout(Duration idleTimeout) {
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        /**
+         * @param captureWriter record every frame received and sent with this writer.
+         */
+        public Builder setCaptureWriter(CaptureWriter captureWriter) {
+            this.captureWriter = Optional.of(captureWriter);
+            return this;
+        }
+
+        /**
+         * @param byteCounting count the bytes received and sent, for the slave's bytes received and sent counters.
+         *                     Disabled by default, so connections don't pay for a counting handler nobody reads.
+         */
+        public Builder setByteCounting(boolean byteCounting) {
+            this.byteCounting = byteCounting;
+            return this;
+        }
+
         public ModbusTcpSlaveConfig build() {
             return new ModbusTcpSlaveConfig(
                     instanceId,
                     executor != null ? executor : Modbus.sharedExecutor(),
                     eventLoop != null ? eventLoop : Modbus.sharedEventLoop(),
                     wheelTimer != null ? wheelTimer : Modbus.sharedWheelTimer(),
-                    bootstrapConsumer);
+                    bootstrapConsumer,
+                    invalidFrameAction,
+                    channelHandlers,
+                    dispatchMode,
+                    dispatchModes,
+                    broadcastEnabled,
+                    respondToUnmappedUnits,
+                    flushCoalescing,
+                    flushDelay,
+                    maxConnections,
+                    maxConnectionsPerAddress,
+                    connectionLimitPolicy,
+                    idleTimeout,
+                    captureWriter,
+                    byteCounting);
         }
     }
 }
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.codec.ModbusRequestDecoder;
+import com.digitalpetri.modbus.codec.ModbusResponseEncoder;
+import com.digitalpetri.modbus.codec.ModbusTcpPayload;
+import com.digitalpetri.modbus.codec.ModbusUdpCodec;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.responses.ExceptionResponse;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.AddressedEnvelope;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.DefaultAddressedEnvelope;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Modbus/UDP slave. All clients are served from a single datagram channel per bound address; responses are sent
+ * back to the address each request came from.
+ */
+public class ModbusUdpSlave {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final AtomicReference<ServiceRequestHandler> requestHandler =
+            new AtomicReference<>(new ServiceRequestHandler() {});
+
+    private final Map<SocketAddress, Channel> serverChannels = new ConcurrentHashMap<>();
+
+    private final ModbusUdpSlaveConfig config;
+
+    public ModbusUdpSlave(ModbusUdpSlaveConfig config) {
+        this.config = config;
+    }
+
+    public CompletableFuture<ModbusUdpSlave> bind(String host, int port) {
+        CompletableFuture<ModbusUdpSlave> bindFuture = new CompletableFuture<>();
+
+        Bootstrap bootstrap = new Bootstrap();
+
+        bootstrap.group(config.getEventLoop())
+                .channel(NioDatagramChannel.class)
+                .handler(new ChannelInitializer<DatagramChannel>() {
+                    @Override
+                    protected void initChannel(DatagramChannel channel) throws Exception {
+                        channel.pipeline().addLast(new ModbusUdpCodec(new ModbusResponseEncoder(), new ModbusRequestDecoder()));
+                        channel.pipeline().addLast(new ModbusUdpSlaveHandler(ModbusUdpSlave.this));
+                    }
+                })
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+
+        // Applied last, so the consumer can override any of the options above.
+        config.getBootstrapConsumer().accept(bootstrap);
+
+        bootstrap.bind(host, port).addListener((ChannelFuture future) -> {
+            if (future.isSuccess()) {
+                Channel channel = future.channel();
+                serverChannels.put(channel.localAddress(), channel);
+                bindFuture.complete(ModbusUdpSlave.this);
+            } else {
+                bindFuture.completeExceptionally(future.cause());
+            }
+        });
+
+        return bindFuture;
+    }
+
+    public void setRequestHandler(ServiceRequestHandler requestHandler) {
+        this.requestHandler.set(requestHandler);
+    }
+
+    public void shutdown() {
+        serverChannels.values().forEach(Channel::close);
+        serverChannels.clear();
+    }
+
+    private void onChannelRead(ChannelHandlerContext ctx, AddressedEnvelope<ModbusTcpPayload, InetSocketAddress> envelope) {
+        ServiceRequestHandler handler = requestHandler.get();
+        if (handler == null) return;
+
+        ModbusTcpPayload payload = envelope.content();
+        InetSocketAddress sender = envelope.sender();
+
+        switch (payload.getModbusPdu().getFunctionCode()) {
+            case ReadCoils:
+                handler.onReadCoils(ModbusUdpServiceRequest.of(payload, sender, ctx.channel()));
+                break;
+
+            case ReadDiscreteInputs:
+                handler.onReadDiscreteInputs(ModbusUdpServiceRequest.of(payload, sender, ctx.channel()));
+                break;
+
+            case ReadHoldingRegisters:
+                handler.onReadHoldingRegisters(ModbusUdpServiceRequest.of(payload, sender, ctx.channel()));
+                break;
+
+            case ReadInputRegisters:
+                handler.onReadInputRegisters(ModbusUdpServiceRequest.of(payload, sender, ctx.channel()));
+                break;
+
+            case WriteSingleCoil:
+                handler.onWriteSingleCoil(ModbusUdpServiceRequest.of(payload, sender, ctx.channel()));
+                break;
+
+            case WriteSingleRegister:
+                handler.onWriteSingleRegister(ModbusUdpServiceRequest.of(payload, sender, ctx.channel()));
+                break;
+
+            case WriteMultipleCoils:
+                handler.onWriteMultipleCoils(ModbusUdpServiceRequest.of(payload, sender, ctx.channel()));
+                break;
+
+            case WriteMultipleRegisters:
+                handler.onWriteMultipleRegisters(ModbusUdpServiceRequest.of(payload, sender, ctx.channel()));
+                break;
+
+            case MaskWriteRegister:
+                handler.onMaskWriteRegister(ModbusUdpServiceRequest.of(payload, sender, ctx.channel()));
+                break;
+
+            default:
+                /* Function code not currently supported */
+                ExceptionResponse response = new ExceptionResponse(
+                        payload.getModbusPdu().getFunctionCode(),
+                        ExceptionCode.IllegalFunction);
+
+                ctx.writeAndFlush(new DefaultAddressedEnvelope<>(
+                        new ModbusTcpPayload(payload.getTransactionId(), payload.getUnitId(), response), sender));
+                ReferenceCountUtil.release(payload.getModbusPdu());
+                break;
+        }
+    }
+
+    private void onExceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // A bad datagram from one client must not take down the channel shared by all of them.
+        logger.error("Exception caught on channel: {}", ctx.channel(), cause);
+    }
+
+    private static class ModbusUdpSlaveHandler
+            extends SimpleChannelInboundHandler<AddressedEnvelope<ModbusTcpPayload, InetSocketAddress>> {
+
+        private final ModbusUdpSlave slave;
+
+        private ModbusUdpSlaveHandler(ModbusUdpSlave slave) {
+            this.slave = slave;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx,
+                                    AddressedEnvelope<ModbusTcpPayload, InetSocketAddress> msg) throws Exception {
+            slave.onChannelRead(ctx, msg);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+            slave.onExceptionCaught(ctx, cause);
+        }
+
+    }
+
+    private static class ModbusUdpServiceRequest<Request extends ModbusRequest, Response extends ModbusResponse>
+            implements ServiceRequestHandler.ServiceRequest<Request, Response> {
+
+        private final short transactionId;
+        private final short unitId;
+        private final Request request;
+        private final InetSocketAddress sender;
+        private final Channel channel;
+
+        private ModbusUdpServiceRequest(short transactionId,
+                                        short unitId,
+                                        Request request,
+                                        InetSocketAddress sender,
+                                        Channel channel) {
+
+            this.transactionId = transactionId;
+            this.unitId = unitId;
+            this.request = request;
+            this.sender = sender;
+            this.channel = channel;
+        }
+
+        @Override
+        public short getTransactionId() {
+            return transactionId;
+        }
+
+        @Override
+        public short getUnitId() {
+            return unitId;
+        }
+
+        @Override
+        public Request getRequest() {
+            return request;
+        }
+
+        /**
+         * @return the datagram {@link Channel} shared by all clients; see {@link #getSender()} for the client address.
+         */
+        @Override
+        public Channel getChannel() {
+            return channel;
+        }
+
+        public InetSocketAddress getSender() {
+            return sender;
+        }
+
+        @Override
+        public void sendResponse(Response response) {
+            channel.writeAndFlush(new DefaultAddressedEnvelope<>(
+                    new ModbusTcpPayload(transactionId, unitId, response), sender));
+        }
+
+        @Override
+        public void sendException(ExceptionCode exceptionCode) {
+            ExceptionResponse response = new ExceptionResponse(request.getFunctionCode(), exceptionCode);
+
+            channel.writeAndFlush(new DefaultAddressedEnvelope<>(
+                    new ModbusTcpPayload(transactionId, unitId, response), sender));
+        }
+
+        @SuppressWarnings("unchecked")
+        public static <Request extends ModbusRequest, Response extends ModbusResponse>
+        ModbusUdpServiceRequest<Request, Response> of(ModbusTcpPayload payload,
+                                                      InetSocketAddress sender,
+                                                      Channel channel) {
+
+            return new ModbusUdpServiceRequest<>(
+                    payload.getTransactionId(),
+                    payload.getUnitId(),
+                    (Request) payload.getModbusPdu(),
+                    sender,
+                    channel
+            );
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs submitted tasks on a delegate {@link Executor} one at a time, in submission order.
+ * <p>
+ * A single delegate task drains the queue, so a burst of requests costs one executor hand-off rather than one each.
+ */
+class SerialExecutor implements Executor {
+
+    private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private final Executor delegate;
+
+    SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the delegate rejects the task that would run {@code task}, in which case
+     *                                    {@code task} is not queued.
+     */
+    @Override
+    public void execute(Runnable task) {
+        queue.add(task);
+
+        try {
+            schedule();
+        } catch (RejectedExecutionException e) {
+            queue.remove(task);
+            throw e;
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                delegate.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Nothing is draining, so let the next task try again.
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = queue.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            scheduled.set(false);
+
+            // A task may have been queued after the last poll but before the flag was cleared.
+            if (!queue.isEmpty()) schedule();
+        }
+    }
+
+}
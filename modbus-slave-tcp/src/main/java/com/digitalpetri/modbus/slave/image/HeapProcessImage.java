@@ -0,0 +1,345 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.image;
+
+import java.util.concurrent.locks.StampedLock;
+
+import com.digitalpetri.modbus.Coils;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * A {@link ProcessImage} held on the heap.
+ * <p>
+ * Coils and discrete inputs are stored as {@code long[]} bit images (see {@link Coils}), registers as big-endian
+ * {@code byte[]}, so a read is a single bulk copy into the response buffer. Each of the four tables is guarded by its
+ * own {@link StampedLock}: writers take the write lock, readers copy under an optimistic stamp and only retry (and
+ * eventually fall back to the read lock) if a write overlapped the copy. Readers on different event loop threads
+ * therefore don't contend with each other, and don't block writers.
+ */
+public class HeapProcessImage implements ProcessImage {
+
+    /**
+     * Optimistic attempts made before a reader falls back to the read lock.
+     */
+    private static final int OptimisticReadAttempts = 4;
+
+    private final BitTable coils;
+    private final BitTable discreteInputs;
+    private final RegisterTable holdingRegisters;
+    private final RegisterTable inputRegisters;
+
+    /**
+     * Create a process image covering the full 0..65535 address range of every table.
+     */
+    public HeapProcessImage() {
+        this(65536, 65536, 65536, 65536);
+    }
+
+    public HeapProcessImage(int coilCount, int discreteInputCount, int holdingRegisterCount, int inputRegisterCount) {
+        this.coils = new BitTable(coilCount);
+        this.discreteInputs = new BitTable(discreteInputCount);
+        this.holdingRegisters = new RegisterTable(holdingRegisterCount);
+        this.inputRegisters = new RegisterTable(inputRegisterCount);
+    }
+
+    @Override
+    public int getCoilCount() {
+        return coils.count;
+    }
+
+    @Override
+    public int getDiscreteInputCount() {
+        return discreteInputs.count;
+    }
+
+    @Override
+    public int getHoldingRegisterCount() {
+        return holdingRegisters.count;
+    }
+
+    @Override
+    public int getInputRegisterCount() {
+        return inputRegisters.count;
+    }
+
+    @Override
+    public void readCoils(int address, int quantity, ByteBuf buffer) {
+        coils.read(address, quantity, buffer);
+    }
+
+    @Override
+    public void readDiscreteInputs(int address, int quantity, ByteBuf buffer) {
+        discreteInputs.read(address, quantity, buffer);
+    }
+
+    @Override
+    public void readHoldingRegisters(int address, int quantity, ByteBuf buffer) {
+        holdingRegisters.read(address, quantity, buffer);
+    }
+
+    @Override
+    public void readInputRegisters(int address, int quantity, ByteBuf buffer) {
+        inputRegisters.read(address, quantity, buffer);
+    }
+
+    @Override
+    public void writeCoils(int address, int quantity, ByteBuf values) {
+        coils.write(address, quantity, values);
+    }
+
+    @Override
+    public void writeDiscreteInputs(int address, int quantity, ByteBuf values) {
+        discreteInputs.write(address, quantity, values);
+    }
+
+    @Override
+    public void writeHoldingRegisters(int address, int quantity, ByteBuf values) {
+        holdingRegisters.write(address, quantity, values);
+    }
+
+    @Override
+    public void writeInputRegisters(int address, int quantity, ByteBuf values) {
+        inputRegisters.write(address, quantity, values);
+    }
+
+    @Override
+    public int maskWriteHoldingRegister(int address, int andMask, int orMask) {
+        return holdingRegisters.maskWrite(address, andMask, orMask);
+    }
+
+    @Override
+    public boolean getCoil(int address) {
+        return coils.get(address);
+    }
+
+    @Override
+    public void setCoil(int address, boolean value) {
+        coils.set(address, value);
+    }
+
+    @Override
+    public boolean getDiscreteInput(int address) {
+        return discreteInputs.get(address);
+    }
+
+    @Override
+    public void setDiscreteInput(int address, boolean value) {
+        discreteInputs.set(address, value);
+    }
+
+    @Override
+    public int getHoldingRegister(int address) {
+        return holdingRegisters.get(address);
+    }
+
+    @Override
+    public void setHoldingRegister(int address, int value) {
+        holdingRegisters.set(address, value);
+    }
+
+    @Override
+    public int getInputRegister(int address) {
+        return inputRegisters.get(address);
+    }
+
+    @Override
+    public void setInputRegister(int address, int value) {
+        inputRegisters.set(address, value);
+    }
+
+    static void checkRange(int address, int quantity, int count) {
+        if (address < 0 || quantity < 0 || address + quantity > count) {
+            throw new IndexOutOfBoundsException(
+                String.format("address=%d, quantity=%d, count=%d", address, quantity, count));
+        }
+    }
+
+    private static final class BitTable {
+
+        private final StampedLock lock = new StampedLock();
+
+        private final int count;
+        private final long[] words;
+
+        private BitTable(int count) {
+            this.count = count;
+            this.words = new long[Coils.wordCount(count)];
+        }
+
+        void read(int address, int quantity, ByteBuf buffer) {
+            checkRange(address, quantity, count);
+
+            buffer.ensureWritable(Coils.byteCount(quantity));
+            int writerIndex = buffer.writerIndex();
+
+            for (int i = 0; i < OptimisticReadAttempts; i++) {
+                long stamp = lock.tryOptimisticRead();
+                if (stamp != 0L) {
+                    Coils.pack(words, address, quantity, buffer);
+                    if (lock.validate(stamp)) return;
+                    buffer.writerIndex(writerIndex);
+                }
+            }
+
+            long stamp = lock.readLock();
+            try {
+                Coils.pack(words, address, quantity, buffer);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void write(int address, int quantity, ByteBuf values) {
+            checkRange(address, quantity, count);
+
+            long stamp = lock.writeLock();
+            try {
+                Coils.unpack(values, quantity, words, address);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        boolean get(int address) {
+            checkRange(address, 1, count);
+
+            long stamp = lock.tryOptimisticRead();
+            long word = words[address >>> 6];
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    word = words[address >>> 6];
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+
+            return ((word >>> (address & 63)) & 1L) != 0;
+        }
+
+        void set(int address, boolean value) {
+            checkRange(address, 1, count);
+
+            long stamp = lock.writeLock();
+            try {
+                Coils.setBits(words, address, value ? 1L : 0L, 1);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+    }
+
+    private static final class RegisterTable {
+
+        private final StampedLock lock = new StampedLock();
+
+        private final int count;
+        private final byte[] bytes;
+
+        private RegisterTable(int count) {
+            this.count = count;
+            this.bytes = new byte[count * 2];
+        }
+
+        void read(int address, int quantity, ByteBuf buffer) {
+            checkRange(address, quantity, count);
+
+            buffer.ensureWritable(quantity * 2);
+            int writerIndex = buffer.writerIndex();
+
+            for (int i = 0; i < OptimisticReadAttempts; i++) {
+                long stamp = lock.tryOptimisticRead();
+                if (stamp != 0L) {
+                    buffer.writeBytes(bytes, address * 2, quantity * 2);
+                    if (lock.validate(stamp)) return;
+                    buffer.writerIndex(writerIndex);
+                }
+            }
+
+            long stamp = lock.readLock();
+            try {
+                buffer.writeBytes(bytes, address * 2, quantity * 2);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        void write(int address, int quantity, ByteBuf values) {
+            checkRange(address, quantity, count);
+
+            long stamp = lock.writeLock();
+            try {
+                values.getBytes(values.readerIndex(), bytes, address * 2, quantity * 2);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int maskWrite(int address, int andMask, int orMask) {
+            checkRange(address, 1, count);
+
+            long stamp = lock.writeLock();
+            try {
+                int value = (getShort(address) & andMask) | (orMask & ~andMask);
+                setShort(address, value);
+                return value & 0xFFFF;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int get(int address) {
+            checkRange(address, 1, count);
+
+            long stamp = lock.tryOptimisticRead();
+            int value = getShort(address);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    value = getShort(address);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+
+            return value;
+        }
+
+        void set(int address, int value) {
+            checkRange(address, 1, count);
+
+            long stamp = lock.writeLock();
+            try {
+                setShort(address, value);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private int getShort(int address) {
+            return ((bytes[address * 2] & 0xFF) << 8) | (bytes[address * 2 + 1] & 0xFF);
+        }
+
+        private void setShort(int address, int value) {
+            bytes[address * 2] = (byte) (value >>> 8);
+            bytes[address * 2 + 1] = (byte) value;
+        }
+
+    }
+
+}
@@ -0,0 +1,661 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+import com.digitalpetri.modbus.Coils;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.Timeout;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ProcessImage} stored in a memory-mapped file, so its contents survive restarts and can be shared with
+ * other processes.
+ * <p>
+ * Reads copy straight from the mapping into the response buffer and writes go straight from the request buffer into
+ * the mapping; nothing is staged on the heap. Changes made by another process mapping the same file are visible to
+ * the next read without any polling.
+ * <p>
+ * File layout; all header fields are big-endian:
+ * <pre>
+ *  offset  size  field
+ *       0     4  magic, 0x4D425049 ("MBPI")
+ *       4     4  layout version, currently 1
+ *       8     4  coil count
+ *      12     4  discrete input count
+ *      16     4  holding register count
+ *      20     4  input register count
+ *      24     4  coil table offset
+ *      28     4  discrete input table offset
+ *      32     4  holding register table offset
+ *      36     4  input register table offset
+ *      40     8  write sequence
+ *      48    16  reserved
+ * </pre>
+ * Coil and discrete input tables are packed LSB first, as on the wire, and followed by 8 bytes of padding. Register
+ * tables are big-endian. Every table starts on an 8 byte boundary.
+ * <p>
+ * The write sequence is a seqlock shared with other processes: a writer increments it to an odd value before changing
+ * any table and to the next even value afterwards, and a reader that sees an odd or changed sequence around its copy
+ * retries. Writers within this process are serialized by a lock; writers in other processes must follow the same
+ * sequence protocol and must not write concurrently with each other.
+ * <p>
+ * A reader that can't get a consistent copy within a few attempts, e.g. because a writer in another process died
+ * mid-write, fails with {@link ProcessImageBusyException} rather than hold up the thread serving it.
+ * <p>
+ * An optional force interval periodically flushes dirty pages to the storage device with
+ * {@link MappedByteBuffer#force()}; without it the operating system decides when pages are written back. See
+ * {@link MappedProcessImageConfig}.
+ */
+public class MappedProcessImage implements ProcessImage, Closeable {
+
+    public static final int Magic = 0x4D425049;
+    public static final int Version = 1;
+    public static final int HeaderLength = 64;
+
+    private static final int MagicIndex = 0;
+    private static final int VersionIndex = 4;
+    private static final int CountsIndex = 8;
+    private static final int OffsetsIndex = 24;
+    private static final int SequenceIndex = 40;
+
+    /**
+     * Every address in a table is addressable by a 16-bit Modbus address.
+     */
+    private static final int MaxCount = 0x10000;
+
+    private static final int OptimisticReadAttempts = 4;
+
+    /**
+     * Attempts a reader makes before giving up on a sequence left odd or changing. A write copies at most a few hundred
+     * bytes, so only a writer descheduled or dead mid-write holds a reader up for longer; reads run on the event loop.
+     */
+    private static final int MaxReadAttempts = 64;
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedProcessImage.class);
+
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Written only for its ordering effect on the surrounding stores to the mapping; see {@link #fence()}.
+     */
+    private volatile int fence;
+
+    private volatile boolean dirty = false;
+    private volatile boolean closed = false;
+    private volatile Timeout forceTimeout;
+
+    private final Table coils;
+    private final Table discreteInputs;
+    private final Table holdingRegisters;
+    private final Table inputRegisters;
+
+    private final Path path;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedBuffer;
+    private final ByteBuf mapped;
+
+    private final MappedProcessImageConfig config;
+
+    private MappedProcessImage(Path path,
+                               FileChannel fileChannel,
+                               MappedByteBuffer mappedBuffer,
+                               MappedProcessImageConfig config) {
+
+        this.path = path;
+        this.fileChannel = fileChannel;
+        this.mappedBuffer = mappedBuffer;
+        this.mapped = Unpooled.wrappedBuffer(mappedBuffer);
+        this.config = config;
+
+        coils = new Table(true, mapped.getInt(CountsIndex), mapped.getInt(OffsetsIndex));
+        discreteInputs = new Table(true, mapped.getInt(CountsIndex + 4), mapped.getInt(OffsetsIndex + 4));
+        holdingRegisters = new Table(false, mapped.getInt(CountsIndex + 8), mapped.getInt(OffsetsIndex + 8));
+        inputRegisters = new Table(false, mapped.getInt(CountsIndex + 12), mapped.getInt(OffsetsIndex + 12));
+
+        config.getForceInterval().ifPresent(this::scheduleForce);
+    }
+
+    /**
+     * Open an existing process image file, taking its layout from the header.
+     *
+     * @param path the file to open.
+     * @return a {@link MappedProcessImage} backed by {@code path}.
+     * @throws IOException if the file can't be mapped or doesn't hold a process image.
+     */
+    public static MappedProcessImage open(Path path) throws IOException {
+        return open(path, new MappedProcessImageConfig.Builder().build());
+    }
+
+    /**
+     * Open an existing process image file, taking its layout from the header.
+     *
+     * @param path   the file to open.
+     * @param config the {@link MappedProcessImageConfig}.
+     * @return a {@link MappedProcessImage} backed by {@code path}.
+     * @throws IOException if the file can't be mapped or doesn't hold a process image.
+     */
+    public static MappedProcessImage open(Path path, MappedProcessImageConfig config) throws IOException {
+        return open(path, null, config);
+    }
+
+    /**
+     * Open the process image file at {@code path}, creating it with the given layout if it doesn't exist.
+     *
+     * @throws IOException if the file can't be mapped, doesn't hold a process image, or holds one with a different
+     *                     layout.
+     */
+    public static MappedProcessImage open(Path path,
+                                          int coilCount,
+                                          int discreteInputCount,
+                                          int holdingRegisterCount,
+                                          int inputRegisterCount) throws IOException {
+
+        MappedProcessImageConfig config = new MappedProcessImageConfig.Builder().build();
+
+        return open(path, config, coilCount, discreteInputCount, holdingRegisterCount, inputRegisterCount);
+    }
+
+    /**
+     * Open the process image file at {@code path}, creating it with the given layout if it doesn't exist.
+     *
+     * @param forceInterval how often to force dirty pages to the storage device, or null to leave it to the operating
+     *                      system.
+     * @throws IOException if the file can't be mapped, doesn't hold a process image, or holds one with a different
+     *                     layout.
+     */
+    public static MappedProcessImage open(Path path,
+                                          int coilCount,
+                                          int discreteInputCount,
+                                          int holdingRegisterCount,
+                                          int inputRegisterCount,
+                                          Duration forceInterval) throws IOException {
+
+        MappedProcessImageConfig.Builder builder = new MappedProcessImageConfig.Builder();
+        if (forceInterval != null) builder.setForceInterval(forceInterval);
+
+        return open(path, builder.build(), coilCount, discreteInputCount, holdingRegisterCount, inputRegisterCount);
+    }
+
+    /**
+     * Open the process image file at {@code path}, creating it with the given layout if it doesn't exist.
+     *
+     * @param config the {@link MappedProcessImageConfig}.
+     * @throws IOException if the file can't be mapped, doesn't hold a process image, or holds one with a different
+     *                     layout.
+     */
+    public static MappedProcessImage open(Path path,
+                                          MappedProcessImageConfig config,
+                                          int coilCount,
+                                          int discreteInputCount,
+                                          int holdingRegisterCount,
+                                          int inputRegisterCount) throws IOException {
+
+        int[] counts = {coilCount, discreteInputCount, holdingRegisterCount, inputRegisterCount};
+
+        return open(path, counts, config);
+    }
+
+    private static MappedProcessImage open(Path path,
+                                           int[] counts,
+                                           MappedProcessImageConfig config) throws IOException {
+        FileChannel fileChannel = counts != null ?
+            FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE) :
+            FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            MappedByteBuffer mappedBuffer;
+
+            if (fileChannel.size() == 0L && counts != null) {
+                int[] offsets = offsets(counts);
+                mappedBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, offsets[4]);
+
+                mappedBuffer.putInt(MagicIndex, Magic);
+                mappedBuffer.putInt(VersionIndex, Version);
+                for (int i = 0; i < 4; i++) {
+                    mappedBuffer.putInt(CountsIndex + i * 4, counts[i]);
+                    mappedBuffer.putInt(OffsetsIndex + i * 4, offsets[i]);
+                }
+                mappedBuffer.putLong(SequenceIndex, 0L);
+                mappedBuffer.force();
+            } else {
+                if (fileChannel.size() < HeaderLength) {
+                    throw new IOException("not a process image: " + path);
+                }
+
+                mappedBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, HeaderLength);
+
+                if (mappedBuffer.getInt(MagicIndex) != Magic) {
+                    throw new IOException("not a process image: " + path);
+                }
+                if (mappedBuffer.getInt(VersionIndex) != Version) {
+                    throw new IOException(String.format("unsupported process image version %d: %s",
+                        mappedBuffer.getInt(VersionIndex), path));
+                }
+
+                int[] fileCounts = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    fileCounts[i] = mappedBuffer.getInt(CountsIndex + i * 4);
+
+                    if (fileCounts[i] < 0 || fileCounts[i] > MaxCount) {
+                        throw new IOException("process image header corrupt: " + path);
+                    }
+                    if (counts != null && counts[i] != fileCounts[i]) {
+                        throw new IOException("process image layout doesn't match: " + path);
+                    }
+                }
+
+                // Tables are found through these offsets, so they must be exactly where the counts put them.
+                int[] offsets = offsets(fileCounts);
+                for (int i = 0; i < 4; i++) {
+                    if (mappedBuffer.getInt(OffsetsIndex + i * 4) != offsets[i]) {
+                        throw new IOException("process image header corrupt: " + path);
+                    }
+                }
+
+                int length = offsets[4];
+                if (fileChannel.size() < length) {
+                    throw new IOException("process image truncated: " + path);
+                }
+
+                mappedBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            }
+
+            return new MappedProcessImage(path, fileChannel, mappedBuffer, config);
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the offsets of the four tables followed by the total file length.
+     */
+    private static int[] offsets(int[] counts) {
+        int[] offsets = new int[5];
+        int offset = HeaderLength;
+
+        for (int i = 0; i < 4; i++) {
+            offsets[i] = offset;
+
+            int length = i < 2 ? Coils.byteCount(counts[i]) + 8 : counts[i] * 2;
+            offset += (length + 7) & ~7;
+        }
+
+        offsets[4] = offset;
+        return offsets;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the current value of the write sequence; even unless a write is in progress.
+     */
+    public long getSequence() {
+        return mapped.getLong(SequenceIndex);
+    }
+
+    @Override
+    public int getCoilCount() {
+        return coils.count;
+    }
+
+    @Override
+    public int getDiscreteInputCount() {
+        return discreteInputs.count;
+    }
+
+    @Override
+    public int getHoldingRegisterCount() {
+        return holdingRegisters.count;
+    }
+
+    @Override
+    public int getInputRegisterCount() {
+        return inputRegisters.count;
+    }
+
+    @Override
+    public void readCoils(int address, int quantity, ByteBuf buffer) {
+        read(coils, address, quantity, buffer);
+    }
+
+    @Override
+    public void readDiscreteInputs(int address, int quantity, ByteBuf buffer) {
+        read(discreteInputs, address, quantity, buffer);
+    }
+
+    @Override
+    public void readHoldingRegisters(int address, int quantity, ByteBuf buffer) {
+        read(holdingRegisters, address, quantity, buffer);
+    }
+
+    @Override
+    public void readInputRegisters(int address, int quantity, ByteBuf buffer) {
+        read(inputRegisters, address, quantity, buffer);
+    }
+
+    @Override
+    public void writeCoils(int address, int quantity, ByteBuf values) {
+        write(coils, address, quantity, values);
+    }
+
+    @Override
+    public void writeDiscreteInputs(int address, int quantity, ByteBuf values) {
+        write(discreteInputs, address, quantity, values);
+    }
+
+    @Override
+    public void writeHoldingRegisters(int address, int quantity, ByteBuf values) {
+        write(holdingRegisters, address, quantity, values);
+    }
+
+    @Override
+    public void writeInputRegisters(int address, int quantity, ByteBuf values) {
+        write(inputRegisters, address, quantity, values);
+    }
+
+    @Override
+    public int maskWriteHoldingRegister(int address, int andMask, int orMask) {
+        HeapProcessImage.checkRange(address, 1, holdingRegisters.count);
+
+        long stamp = beginWrite();
+        try {
+            int index = holdingRegisters.offset + address * 2;
+            int value = (mapped.getUnsignedShort(index) & andMask) | (orMask & ~andMask);
+            mapped.setShort(index, value);
+            return value & 0xFFFF;
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean getCoil(int address) {
+        return get(coils, address) != 0;
+    }
+
+    @Override
+    public void setCoil(int address, boolean value) {
+        set(coils, address, value ? 1 : 0);
+    }
+
+    @Override
+    public boolean getDiscreteInput(int address) {
+        return get(discreteInputs, address) != 0;
+    }
+
+    @Override
+    public void setDiscreteInput(int address, boolean value) {
+        set(discreteInputs, address, value ? 1 : 0);
+    }
+
+    @Override
+    public int getHoldingRegister(int address) {
+        return get(holdingRegisters, address);
+    }
+
+    @Override
+    public void setHoldingRegister(int address, int value) {
+        set(holdingRegisters, address, value);
+    }
+
+    @Override
+    public int getInputRegister(int address) {
+        return get(inputRegisters, address);
+    }
+
+    @Override
+    public void setInputRegister(int address, int value) {
+        set(inputRegisters, address, value);
+    }
+
+    /**
+     * Force any changes to the storage device now.
+     */
+    public void force() {
+        dirty = false;
+        mappedBuffer.force();
+    }
+
+    /**
+     * Stop the periodic force, force outstanding changes and close the file. The mapping itself is released when this
+     * object is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+
+        Timeout timeout = forceTimeout;
+        if (timeout != null) timeout.cancel();
+
+        if (dirty) force();
+
+        fileChannel.close();
+    }
+
+    private void read(Table table, int address, int quantity, ByteBuf buffer) {
+        HeapProcessImage.checkRange(address, quantity, table.count);
+
+        int length = table.bits ? Coils.byteCount(quantity) : quantity * 2;
+        buffer.ensureWritable(length);
+        int writerIndex = buffer.writerIndex();
+
+        for (int i = 0; i < OptimisticReadAttempts; i++) {
+            long stamp = lock.tryOptimisticRead();
+            long sequence = getSequence();
+
+            if (stamp != 0L && (sequence & 1L) == 0L) {
+                copy(table, address, quantity, buffer);
+
+                // validate() also orders the copy before the second sequence read.
+                if (lock.validate(stamp) && getSequence() == sequence) return;
+
+                buffer.writerIndex(writerIndex);
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            // Only writers in other processes can still interfere.
+            for (int i = 0; i < MaxReadAttempts; i++) {
+                long sequence = getSequence();
+
+                if ((sequence & 1L) == 0L) {
+                    copy(table, address, quantity, buffer);
+
+                    if (lock.validate(stamp) && getSequence() == sequence) return;
+
+                    buffer.writerIndex(writerIndex);
+                }
+
+                Thread.yield();
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+
+        throw new ProcessImageBusyException("write sequence not settling: " + path);
+    }
+
+    private void copy(Table table, int address, int quantity, ByteBuf buffer) {
+        if (table.bits) {
+            for (int bit = 0; bit < quantity; bit += 56) {
+                int count = Math.min(56, quantity - bit);
+                long value = getBits(table, address + bit, count);
+
+                for (int i = 0, n = Coils.byteCount(count); i < n; i++) {
+                    buffer.writeByte((int) (value >>> (i * 8)));
+                }
+            }
+        } else {
+            buffer.writeBytes(mapped, table.offset + address * 2, quantity * 2);
+        }
+    }
+
+    private void write(Table table, int address, int quantity, ByteBuf values) {
+        HeapProcessImage.checkRange(address, quantity, table.count);
+
+        long stamp = beginWrite();
+        try {
+            if (table.bits) {
+                int index = values.readerIndex();
+
+                for (int bit = 0; bit < quantity; bit += 56) {
+                    int count = Math.min(56, quantity - bit);
+                    long value = 0L;
+
+                    for (int i = 0, n = Coils.byteCount(count); i < n; i++) {
+                        value |= (long) values.getUnsignedByte(index + (bit >>> 3) + i) << (i * 8);
+                    }
+
+                    setBits(table, address + bit, value, count);
+                }
+            } else {
+                mapped.setBytes(table.offset + address * 2, values, values.readerIndex(), quantity * 2);
+            }
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    private int get(Table table, int address) {
+        HeapProcessImage.checkRange(address, 1, table.count);
+
+        for (int i = 0; i < MaxReadAttempts; i++) {
+            long stamp = lock.tryOptimisticRead();
+            long sequence = getSequence();
+
+            if (stamp != 0L && (sequence & 1L) == 0L) {
+                int value = table.bits ?
+                    (int) getBits(table, address, 1) :
+                    mapped.getUnsignedShort(table.offset + address * 2);
+
+                if (lock.validate(stamp) && getSequence() == sequence) return value;
+            }
+
+            Thread.yield();
+        }
+
+        throw new ProcessImageBusyException("write sequence not settling: " + path);
+    }
+
+    private void set(Table table, int address, int value) {
+        HeapProcessImage.checkRange(address, 1, table.count);
+
+        long stamp = beginWrite();
+        try {
+            if (table.bits) {
+                setBits(table, address, value, 1);
+            } else {
+                mapped.setShort(table.offset + address * 2, value);
+            }
+        } finally {
+            endWrite(stamp);
+        }
+    }
+
+    /**
+     * Read {@code count} (1 to 56) bits starting at {@code bit}. Bit tables are padded so the 8 byte read never
+     * leaves the table.
+     */
+    private long getBits(Table table, int bit, int count) {
+        long word = Long.reverseBytes(mapped.getLong(table.offset + (bit >>> 3)));
+
+        return (word >>> (bit & 7)) & ((1L << count) - 1);
+    }
+
+    private void setBits(Table table, int bit, long value, int count) {
+        int index = table.offset + (bit >>> 3);
+        int shift = bit & 7;
+        long mask = ((1L << count) - 1) << shift;
+
+        long word = Long.reverseBytes(mapped.getLong(index));
+        word = (word & ~mask) | ((value << shift) & mask);
+        mapped.setLong(index, Long.reverseBytes(word));
+    }
+
+    private long beginWrite() {
+        long stamp = lock.writeLock();
+
+        mapped.setLong(SequenceIndex, getSequence() + 1L);
+        fence();
+
+        return stamp;
+    }
+
+    private void endWrite(long stamp) {
+        fence();
+        mapped.setLong(SequenceIndex, getSequence() + 1L);
+
+        dirty = true;
+        lock.unlockWrite(stamp);
+    }
+
+    /**
+     * Keeps stores to the mapping on either side of it in program order, as seen by other processes. The Java memory
+     * model says nothing about other processes; this relies on a volatile store being a full fence on the platforms
+     * we run on.
+     */
+    private void fence() {
+        fence++;
+    }
+
+    private void scheduleForce(Duration forceInterval) {
+        forceTimeout = config.getWheelTimer().newTimeout(t -> config.getExecutor().execute(() -> {
+            if (closed) return;
+
+            if (dirty) {
+                try {
+                    force();
+                } catch (Throwable ex) {
+                    logger.warn("Failed to force process image: {}", path, ex);
+                }
+            }
+
+            if (!closed) scheduleForce(forceInterval);
+        }), forceInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static final class Table {
+
+        private final boolean bits;
+        private final int count;
+        private final int offset;
+
+        private Table(boolean bits, int count, int offset) {
+            this.bits = bits;
+            this.count = count;
+            this.offset = offset;
+        }
+
+    }
+
+}
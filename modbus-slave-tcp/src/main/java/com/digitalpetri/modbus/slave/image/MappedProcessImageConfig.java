@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.image;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import com.digitalpetri.modbus.codec.Modbus;
+import io.netty.util.HashedWheelTimer;
+
+public class MappedProcessImageConfig {
+
+    private final Optional<Duration> forceInterval;
+    private final HashedWheelTimer wheelTimer;
+    private final ExecutorService executor;
+
+    public MappedProcessImageConfig(Optional<Duration> forceInterval,
+                                    HashedWheelTimer wheelTimer,
+                                    ExecutorService executor) {
+
+        this.forceInterval = forceInterval;
+        this.wheelTimer = wheelTimer;
+        this.executor = executor;
+    }
+
+    /**
+     * @return how often dirty pages are forced to the storage device, if not left to the operating system.
+     */
+    public Optional<Duration> getForceInterval() {
+        return forceInterval;
+    }
+
+    /**
+     * @return the {@link HashedWheelTimer} that schedules each force.
+     */
+    public HashedWheelTimer getWheelTimer() {
+        return wheelTimer;
+    }
+
+    /**
+     * @return the {@link ExecutorService} each force runs on.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public static class Builder {
+
+        private Optional<Duration> forceInterval = Optional.empty();
+        private HashedWheelTimer wheelTimer;
+        private ExecutorService executor;
+
+        public Builder setForceInterval(Duration forceInterval) {
+            this.forceInterval = Optional.of(forceInterval);
+            return this;
+        }
+
+        public Builder setWheelTimer(HashedWheelTimer wheelTimer) {
+            this.wheelTimer = wheelTimer;
+            return this;
+        }
+
+        public Builder setExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public MappedProcessImageConfig build() {
+            return new MappedProcessImageConfig(
+                forceInterval,
+                wheelTimer != null ? wheelTimer : Modbus.sharedWheelTimer(),
+                executor != null ? executor : Modbus.sharedExecutor());
+        }
+
+    }
+
+}
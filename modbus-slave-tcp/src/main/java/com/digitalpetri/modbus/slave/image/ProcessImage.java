@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.image;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The coils, discrete inputs, holding registers and input registers of a single unit.
+ * <p>
+ * The bulk methods are shaped after the Modbus requests they serve: reads append the range to a buffer in wire format
+ * (coils packed LSB first, registers big-endian) and writes take the range in the same format, so
+ * {@link ProcessImageRequestHandler} can move data straight between a request or response buffer and the image.
+ * <p>
+ * Implementations must be safe for concurrent use and must apply each bulk write atomically, i.e. a concurrent read
+ * sees either none or all of a write. Addresses are 0-based; ranges outside the image throw
+ * {@link IndexOutOfBoundsException}.
+ */
+public interface ProcessImage {
+
+    int getCoilCount();
+
+    int getDiscreteInputCount();
+
+    int getHoldingRegisterCount();
+
+    int getInputRegisterCount();
+
+    /**
+     * Append {@code quantity} coils starting at {@code address}, packed, to {@code buffer}.
+     */
+    void readCoils(int address, int quantity, ByteBuf buffer);
+
+    /**
+     * Append {@code quantity} discrete inputs starting at {@code address}, packed, to {@code buffer}.
+     */
+    void readDiscreteInputs(int address, int quantity, ByteBuf buffer);
+
+    /**
+     * Append {@code quantity} holding registers starting at {@code address} to {@code buffer}.
+     */
+    void readHoldingRegisters(int address, int quantity, ByteBuf buffer);
+
+    /**
+     * Append {@code quantity} input registers starting at {@code address} to {@code buffer}.
+     */
+    void readInputRegisters(int address, int quantity, ByteBuf buffer);
+
+    /**
+     * Write {@code quantity} packed coils from {@code values}, starting at {@code address}. The reader index of
+     * {@code values} is not modified.
+     */
+    void writeCoils(int address, int quantity, ByteBuf values);
+
+    /**
+     * Write {@code quantity} packed discrete inputs from {@code values}, starting at {@code address}. The reader index
+     * of {@code values} is not modified.
+     */
+    void writeDiscreteInputs(int address, int quantity, ByteBuf values);
+
+    /**
+     * Write {@code quantity} holding registers from {@code values}, starting at {@code address}. The reader index of
+     * {@code values} is not modified.
+     */
+    void writeHoldingRegisters(int address, int quantity, ByteBuf values);
+
+    /**
+     * Write {@code quantity} input registers from {@code values}, starting at {@code address}. The reader index of
+     * {@code values} is not modified.
+     */
+    void writeInputRegisters(int address, int quantity, ByteBuf values);
+
+    /**
+     * Atomically replace the holding register at {@code address} with
+     * {@code (current & andMask) | (orMask & ~andMask)}.
+     *
+     * @return the new value of the register.
+     */
+    int maskWriteHoldingRegister(int address, int andMask, int orMask);
+
+    boolean getCoil(int address);
+
+    void setCoil(int address, boolean value);
+
+    boolean getDiscreteInput(int address);
+
+    void setDiscreteInput(int address, boolean value);
+
+    int getHoldingRegister(int address);
+
+    void setHoldingRegister(int address, int value);
+
+    int getInputRegister(int address);
+
+    void setInputRegister(int address, int value);
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.image;
+
+/**
+ * Thrown when a {@link ProcessImage} can't be read consistently right now, e.g. because a writer in another process
+ * is in the middle of a write, or died in the middle of one. {@link ProcessImageRequestHandler} answers the request
+ * with {@link com.digitalpetri.modbus.ExceptionCode#SlaveDeviceBusy}.
+ */
+public class ProcessImageBusyException extends IllegalStateException {
+
+    public ProcessImageBusyException(String message) {
+        super(message);
+    }
+
+}
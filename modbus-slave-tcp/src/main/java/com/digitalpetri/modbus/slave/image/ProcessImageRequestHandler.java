@@ -0,0 +1,320 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.image;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.ToIntFunction;
+
+import com.digitalpetri.modbus.Coils;
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.requests.MaskWriteRegisterRequest;
+import com.digitalpetri.modbus.requests.ReadCoilsRequest;
+import com.digitalpetri.modbus.requests.ReadDiscreteInputsRequest;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.ReadInputRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleCoilsRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleCoilRequest;
+import com.digitalpetri.modbus.requests.WriteSingleRegisterRequest;
+import com.digitalpetri.modbus.responses.MaskWriteRegisterResponse;
+import com.digitalpetri.modbus.responses.ReadCoilsResponse;
+import com.digitalpetri.modbus.responses.ReadDiscreteInputsResponse;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.responses.ReadInputRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteMultipleCoilsResponse;
+import com.digitalpetri.modbus.responses.WriteMultipleRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteSingleCoilResponse;
+import com.digitalpetri.modbus.responses.WriteSingleRegisterResponse;
+import com.digitalpetri.modbus.slave.ServiceRequestHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * A {@link ServiceRequestHandler} that serves every supported function code from a {@link ProcessImage} per unit id.
+ * <p>
+ * Reads are copied from the image directly into a buffer from the channel's allocator, which becomes the response and
+ * is released once encoded. Writes go from the request buffer straight into the image.
+ * <p>
+ * Requests for a unit id without a process image, and with no default image set, are answered with
+ * {@link ExceptionCode#GatewayPathUnavailable}.
+ */
+public class ProcessImageRequestHandler implements ServiceRequestHandler {
+
+    private static final int MaxReadBits = 2000;
+    private static final int MaxReadRegisters = 125;
+    private static final int MaxWriteBits = 1968;
+    private static final int MaxWriteRegisters = 123;
+
+    private final AtomicReferenceArray<ProcessImage> processImages = new AtomicReferenceArray<>(256);
+
+    private volatile ProcessImage defaultProcessImage;
+
+    public ProcessImageRequestHandler() {
+        this(null);
+    }
+
+    /**
+     * @param defaultProcessImage the {@link ProcessImage} serving unit ids without one of their own; may be null.
+     */
+    public ProcessImageRequestHandler(ProcessImage defaultProcessImage) {
+        this.defaultProcessImage = defaultProcessImage;
+    }
+
+    public ProcessImage getDefaultProcessImage() {
+        return defaultProcessImage;
+    }
+
+    public void setDefaultProcessImage(ProcessImage defaultProcessImage) {
+        this.defaultProcessImage = defaultProcessImage;
+    }
+
+    /**
+     * @param unitId       the unit id, 0 to 255.
+     * @param processImage the {@link ProcessImage} serving {@code unitId}, or null to fall back to the default.
+     */
+    public void setProcessImage(int unitId, ProcessImage processImage) {
+        processImages.set(unitId, processImage);
+    }
+
+    /**
+     * @return the {@link ProcessImage} serving {@code unitId}, or null if there is none.
+     */
+    public ProcessImage getProcessImage(int unitId) {
+        ProcessImage processImage = processImages.get(unitId & 0xFF);
+
+        return processImage != null ? processImage : defaultProcessImage;
+    }
+
+    @Override
+    public void onReadCoils(ServiceRequest<ReadCoilsRequest, ReadCoilsResponse> service) {
+        ReadCoilsRequest request = service.getRequest();
+        ProcessImage image = getProcessImage(service.getUnitId());
+        int address = request.getAddress();
+        int quantity = request.getQuantity();
+
+        try {
+            if (accept(service, image, address, quantity, MaxReadBits, ProcessImage::getCoilCount)) {
+                ByteBuf coils = service.getChannel().alloc().buffer(Coils.byteCount(quantity));
+                try {
+                    image.readCoils(address, quantity, coils);
+                } catch (ProcessImageBusyException e) {
+                    busy(service, coils);
+                    return;
+                }
+                service.sendResponse(new ReadCoilsResponse(coils));
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    @Override
+    public void onReadDiscreteInputs(ServiceRequest<ReadDiscreteInputsRequest, ReadDiscreteInputsResponse> service) {
+        ReadDiscreteInputsRequest request = service.getRequest();
+        ProcessImage image = getProcessImage(service.getUnitId());
+        int address = request.getAddress();
+        int quantity = request.getQuantity();
+
+        try {
+            if (accept(service, image, address, quantity, MaxReadBits, ProcessImage::getDiscreteInputCount)) {
+                ByteBuf inputs = service.getChannel().alloc().buffer(Coils.byteCount(quantity));
+                try {
+                    image.readDiscreteInputs(address, quantity, inputs);
+                } catch (ProcessImageBusyException e) {
+                    busy(service, inputs);
+                    return;
+                }
+                service.sendResponse(new ReadDiscreteInputsResponse(inputs));
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    @Override
+    public void onReadHoldingRegisters(ServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> service) {
+        ReadHoldingRegistersRequest request = service.getRequest();
+        ProcessImage image = getProcessImage(service.getUnitId());
+        int address = request.getAddress();
+        int quantity = request.getQuantity();
+
+        try {
+            if (accept(service, image, address, quantity, MaxReadRegisters, ProcessImage::getHoldingRegisterCount)) {
+                ByteBuf registers = service.getChannel().alloc().buffer(quantity * 2);
+                try {
+                    image.readHoldingRegisters(address, quantity, registers);
+                } catch (ProcessImageBusyException e) {
+                    busy(service, registers);
+                    return;
+                }
+                service.sendResponse(new ReadHoldingRegistersResponse(registers));
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    @Override
+    public void onReadInputRegisters(ServiceRequest<ReadInputRegistersRequest, ReadInputRegistersResponse> service) {
+        ReadInputRegistersRequest request = service.getRequest();
+        ProcessImage image = getProcessImage(service.getUnitId());
+        int address = request.getAddress();
+        int quantity = request.getQuantity();
+
+        try {
+            if (accept(service, image, address, quantity, MaxReadRegisters, ProcessImage::getInputRegisterCount)) {
+                ByteBuf registers = service.getChannel().alloc().buffer(quantity * 2);
+                try {
+                    image.readInputRegisters(address, quantity, registers);
+                } catch (ProcessImageBusyException e) {
+                    busy(service, registers);
+                    return;
+                }
+                service.sendResponse(new ReadInputRegistersResponse(registers));
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    @Override
+    public void onWriteSingleCoil(ServiceRequest<WriteSingleCoilRequest, WriteSingleCoilResponse> service) {
+        WriteSingleCoilRequest request = service.getRequest();
+        ProcessImage image = getProcessImage(service.getUnitId());
+        int address = request.getAddress();
+
+        int value = request.getValue();
+
+        try {
+            if (image != null && value != 0xFF00 && value != 0x0000) {
+                service.sendException(ExceptionCode.IllegalDataValue);
+            } else if (accept(service, image, address, 1, 1, ProcessImage::getCoilCount)) {
+                image.setCoil(address, value == 0xFF00);
+                service.sendResponse(new WriteSingleCoilResponse(address, value));
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    @Override
+    public void onWriteSingleRegister(ServiceRequest<WriteSingleRegisterRequest, WriteSingleRegisterResponse> service) {
+        WriteSingleRegisterRequest request = service.getRequest();
+        ProcessImage image = getProcessImage(service.getUnitId());
+        int address = request.getAddress();
+
+        try {
+            if (accept(service, image, address, 1, 1, ProcessImage::getHoldingRegisterCount)) {
+                image.setHoldingRegister(address, request.getValue());
+                service.sendResponse(new WriteSingleRegisterResponse(address, request.getValue()));
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    @Override
+    public void onWriteMultipleCoils(ServiceRequest<WriteMultipleCoilsRequest, WriteMultipleCoilsResponse> service) {
+        WriteMultipleCoilsRequest request = service.getRequest();
+        ProcessImage image = getProcessImage(service.getUnitId());
+        int address = request.getAddress();
+        int quantity = request.getQuantity();
+
+        try {
+            if (request.getValues().readableBytes() < Coils.byteCount(quantity)) {
+                service.sendException(ExceptionCode.IllegalDataValue);
+            } else if (accept(service, image, address, quantity, MaxWriteBits, ProcessImage::getCoilCount)) {
+                image.writeCoils(address, quantity, request.getValues());
+                service.sendResponse(new WriteMultipleCoilsResponse(address, quantity));
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    @Override
+    public void onWriteMultipleRegisters(ServiceRequest<WriteMultipleRegistersRequest, WriteMultipleRegistersResponse> service) {
+        WriteMultipleRegistersRequest request = service.getRequest();
+        ProcessImage image = getProcessImage(service.getUnitId());
+        int address = request.getAddress();
+        int quantity = request.getQuantity();
+
+        try {
+            if (request.getValues().readableBytes() < quantity * 2) {
+                service.sendException(ExceptionCode.IllegalDataValue);
+            } else if (accept(service, image, address, quantity, MaxWriteRegisters, ProcessImage::getHoldingRegisterCount)) {
+                image.writeHoldingRegisters(address, quantity, request.getValues());
+                service.sendResponse(new WriteMultipleRegistersResponse(address, quantity));
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    @Override
+    public void onMaskWriteRegister(ServiceRequest<MaskWriteRegisterRequest, MaskWriteRegisterResponse> service) {
+        MaskWriteRegisterRequest request = service.getRequest();
+        ProcessImage image = getProcessImage(service.getUnitId());
+        int address = request.getAddress();
+
+        try {
+            if (accept(service, image, address, 1, 1, ProcessImage::getHoldingRegisterCount)) {
+                image.maskWriteHoldingRegister(address, request.getAndMask(), request.getOrMask());
+                service.sendResponse(
+                    new MaskWriteRegisterResponse(address, request.getAndMask(), request.getOrMask()));
+            }
+        } finally {
+            ReferenceCountUtil.release(request);
+        }
+    }
+
+    /**
+     * Check a request against the Modbus quantity limits and the size of the addressed table, sending the appropriate
+     * exception response if it can't be served.
+     *
+     * @return {@code true} if the request can be served.
+     */
+    private static boolean accept(ServiceRequest<?, ?> service,
+                                  ProcessImage image,
+                                  int address,
+                                  int quantity,
+                                  int maxQuantity,
+                                  ToIntFunction<ProcessImage> count) {
+
+        if (image == null) {
+            service.sendException(ExceptionCode.GatewayPathUnavailable);
+            return false;
+        } else if (quantity < 1 || quantity > maxQuantity) {
+            service.sendException(ExceptionCode.IllegalDataValue);
+            return false;
+        } else if (address + quantity > count.applyAsInt(image)) {
+            service.sendException(ExceptionCode.IllegalDataAddress);
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    /**
+     * Answer a read the process image couldn't serve right now, releasing the buffer it was reading into.
+     */
+    private static void busy(ServiceRequest<?, ?> service, ByteBuf buffer) {
+        buffer.release();
+        service.sendException(ExceptionCode.SlaveDeviceBusy);
+    }
+
+}
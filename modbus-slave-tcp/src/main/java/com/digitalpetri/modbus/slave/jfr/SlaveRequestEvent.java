@@ -0,0 +1,109 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.jfr;
+
+import java.net.SocketAddress;
+
+import com.digitalpetri.modbus.codec.jfr.Jfr;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * A request handled by a slave, from its dispatch to a {@code ServiceRequestHandler} until the handler answered it.
+ * <p>
+ * The time the request spent queued for an executor before its dispatch is in the queue time, and isn't part of the
+ * duration the threshold, 10 ms by default, is compared with. Requests never answered, e.g. because the connection
+ * closed first, aren't recorded. Only use after checking {@link Jfr#Available}.
+ */
+@Name("com.digitalpetri.modbus.SlaveRequest")
+@Label("Modbus Slave Request")
+@Category({"Modbus", "Slave"})
+@Description("A request handled by a slave, from its dispatch until the handler answered it")
+@StackTrace(false)
+@Threshold("10 ms")
+public class SlaveRequestEvent extends jdk.jfr.Event {
+
+    @Label("Remote Address")
+    public String remoteAddress;
+
+    @Label("Transaction Id")
+    public int transactionId;
+
+    @Label("Unit Id")
+    public int unitId;
+
+    @Label("Function Code")
+    public int functionCode;
+
+    @Label("Queue Time")
+    @Description("From the request being read to its dispatch")
+    @Timespan
+    public long queueTime;
+
+    @Label("Outcome")
+    @Description("Response, or the exception code sent instead")
+    public String outcome;
+
+    /**
+     * Asked only whether the event is enabled, which doesn't depend on the instance, so a disabled event costs no
+     * allocation.
+     */
+    private static final SlaveRequestEvent Probe = new SlaveRequestEvent();
+
+    private transient SocketAddress remote;
+
+    /**
+     * @param receivedTime the {@link System#nanoTime()} at which the request was read.
+     * @return a begun event, or {@code null} if the event isn't enabled.
+     */
+    public static SlaveRequestEvent begin(short transactionId,
+                                          short unitId,
+                                          int functionCode,
+                                          SocketAddress remoteAddress,
+                                          long receivedTime) {
+
+        if (!Probe.isEnabled()) return null;
+
+        SlaveRequestEvent event = new SlaveRequestEvent();
+
+        event.queueTime = System.nanoTime() - receivedTime;
+        event.begin();
+
+        event.transactionId = transactionId & 0xFFFF;
+        event.unitId = unitId;
+        event.functionCode = functionCode;
+        event.remote = remoteAddress;
+
+        return event;
+    }
+
+    public void answered(String outcome) {
+        end();
+
+        if (shouldCommit()) {
+            this.remoteAddress = String.valueOf(remote);
+            this.outcome = outcome;
+            commit();
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class FlushCoalescingHandlerTest {
+
+    @Test
+    public void testFlushesOncePerReadBatch() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushCoalescingHandler(0), new Echo());
+
+        channel.pipeline().fireChannelRead("a");
+        channel.pipeline().fireChannelRead("b");
+        channel.pipeline().fireChannelRead("c");
+        assertEquals(counter.flushes, 0);
+
+        channel.pipeline().fireChannelReadComplete();
+        assertEquals(counter.flushes, 1);
+
+        assertEquals(channel.readOutbound(), "a");
+        assertEquals(channel.readOutbound(), "b");
+        assertEquals(channel.readOutbound(), "c");
+    }
+
+    @Test
+    public void testAsyncFlushesCoalesced() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushCoalescingHandler(0), new Echo());
+
+        channel.writeAndFlush("a");
+        channel.writeAndFlush("b");
+        assertEquals(counter.flushes, 0);
+
+        channel.runPendingTasks();
+        assertEquals(counter.flushes, 1);
+
+        channel.writeAndFlush("c");
+        channel.runPendingTasks();
+        assertEquals(counter.flushes, 2);
+    }
+
+    @Test
+    public void testPendingFlushOnClose() {
+        FlushCounter counter = new FlushCounter();
+        EmbeddedChannel channel = new EmbeddedChannel(counter, new FlushCoalescingHandler(0), new Echo());
+
+        channel.pipeline().fireChannelRead("a");
+        channel.close();
+
+        assertEquals(counter.flushes, 1);
+    }
+
+    private static class Echo extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            ctx.writeAndFlush(msg);
+        }
+    }
+
+    private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        private int flushes = 0;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            flushes++;
+            ctx.flush();
+        }
+    }
+
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.codahale.metrics.Counter;
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.FunctionCode;
+import com.digitalpetri.modbus.codec.capture.CaptureReader;
+import com.digitalpetri.modbus.codec.capture.CaptureWriter;
+import com.digitalpetri.modbus.codec.capture.CapturedFrame;
+import com.digitalpetri.modbus.codec.capture.FrameDirection;
+import com.digitalpetri.modbus.requests.ReadInputRegistersRequest;
+import com.digitalpetri.modbus.responses.ReadInputRegistersResponse;
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ModbusTcpSlaveTest {
+
+    private static final AtomicInteger NextPort = new AtomicInteger(50290);
+
+    private int port;
+
+    private ModbusTcpSlave slave;
+
+    @AfterMethod
+    public void tearDown() {
+        if (slave != null) slave.shutdown();
+    }
+
+    @Test
+    public void testUnitRouting() throws Exception {
+        HeapProcessImage image1 = new HeapProcessImage(0, 0, 10, 0);
+        HeapProcessImage image2 = new HeapProcessImage(0, 0, 10, 0);
+        image1.setHoldingRegister(0, 111);
+        image2.setHoldingRegister(0, 222);
+
+        slave = bind(new ModbusTcpSlaveConfig.Builder().setRespondToUnmappedUnits(true).build());
+        slave.setRequestHandler(null);
+        slave.setRequestHandler(1, new ProcessImageRequestHandler(image1));
+        slave.setRequestHandler(2, new ProcessImageRequestHandler(image2));
+
+        try (Socket socket = connect()) {
+            send(socket, 1, 1, 0x03, 0, 0, 0, 1);
+            assertEquals(receive(socket), new int[]{1, 1, 0x03, 2, 0, 111});
+
+            send(socket, 2, 2, 0x03, 0, 0, 0, 1);
+            assertEquals(receive(socket), new int[]{2, 2, 0x03, 2, 0, 222});
+
+            // Swap routes at runtime.
+            slave.setRequestHandler(1, slave.getRequestHandler(2));
+            send(socket, 3, 1, 0x03, 0, 0, 0, 1);
+            assertEquals(receive(socket), new int[]{3, 1, 0x03, 2, 0, 222});
+
+            send(socket, 4, 9, 0x03, 0, 0, 0, 1);
+            assertEquals(receive(socket),
+                new int[]{4, 9, 0x83, ExceptionCode.GatewayTargetDeviceFailedToResponse.getCode()});
+        }
+    }
+
+    @Test
+    public void testBroadcastWrite() throws Exception {
+        HeapProcessImage image1 = new HeapProcessImage(0, 0, 10, 0);
+        HeapProcessImage image2 = new HeapProcessImage(0, 0, 10, 0);
+
+        slave = bind(new ModbusTcpSlaveConfig.Builder().setBroadcastEnabled(true).build());
+        slave.setRequestHandler(null);
+        slave.setRequestHandler(1, new ProcessImageRequestHandler(image1));
+        slave.setRequestHandler(2, new ProcessImageRequestHandler(image2));
+
+        try (Socket socket = connect()) {
+            // Write Multiple Registers, 2 registers at address 4, to unit 0.
+            send(socket, 1, 0, 0x10, 0, 4, 0, 2, 4, 0, 5, 0, 6);
+
+            socket.setSoTimeout(250);
+            try {
+                receive(socket);
+                fail("broadcast must not be answered");
+            } catch (SocketTimeoutException expected) {
+                // no response
+            }
+
+            assertEquals(image1.getHoldingRegister(4), 5);
+            assertEquals(image1.getHoldingRegister(5), 6);
+            assertEquals(image2.getHoldingRegister(4), 5);
+            assertEquals(image2.getHoldingRegister(5), 6);
+        }
+    }
+
+    @Test
+    public void testConnectionLimitRejects() throws Exception {
+        slave = bind(new ModbusTcpSlaveConfig.Builder().setMaxConnectionsPerAddress(1).build());
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(0, 0, 1, 0)));
+
+        try (Socket first = connect()) {
+            // A round trip guarantees the first connection has been admitted.
+            send(first, 1, 1, 0x03, 0, 0, 0, 1);
+            assertEquals(receive(first), new int[]{1, 1, 0x03, 2, 0, 0});
+
+            try (Socket second = connect()) {
+                assertEquals(second.getInputStream().read(), -1);
+                assertEquals(slave.getRejectedConnectionCounter().getCount(), 1);
+            }
+
+            send(first, 2, 1, 0x03, 0, 0, 0, 1);
+            assertEquals(receive(first), new int[]{2, 1, 0x03, 2, 0, 0});
+        }
+    }
+
+    @Test
+    public void testConnectionLimitEvictsOldestIdle() throws Exception {
+        slave = bind(new ModbusTcpSlaveConfig.Builder()
+            .setMaxConnections(2)
+            .setConnectionLimitPolicy(ConnectionLimitPolicy.EvictOldestIdle)
+            .build());
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(0, 0, 1, 0)));
+
+        try (Socket idle = connect(); Socket active = connect()) {
+            send(idle, 1, 1, 0x03, 0, 0, 0, 1);
+            receive(idle);
+            send(active, 1, 1, 0x03, 0, 0, 0, 1);
+            receive(active);
+
+            try (Socket third = connect()) {
+                assertEquals(idle.getInputStream().read(), -1);
+                assertEquals(slave.getEvictedConnectionCounter().getCount(), 1);
+
+                send(third, 2, 1, 0x03, 0, 0, 0, 1);
+                assertEquals(receive(third)[0], 2);
+                send(active, 3, 1, 0x03, 0, 0, 0, 1);
+                assertEquals(receive(active)[0], 3);
+            }
+        }
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        slave = bind(new ModbusTcpSlaveConfig.Builder().setIdleTimeout(Duration.ofMillis(200)).build());
+
+        try (Socket socket = connect()) {
+            assertEquals(socket.getInputStream().read(), -1);
+            assertEquals(slave.getIdleConnectionCounter().getCount(), 1);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        slave = bind(new ModbusTcpSlaveConfig.Builder().setInstanceId("test").setByteCounting(true).build());
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(0, 0, 1, 0)));
+
+        try (Socket socket = connect()) {
+            send(socket, 1, 1, 0x03, 0, 0, 0, 1);
+            receive(socket);
+            send(socket, 2, 1, 0x03, 0, 5, 0, 1);
+            assertEquals(receive(socket)[2], 0x83);
+
+            assertEquals(slave.getConnectionCounter().getCount(), 1);
+            assertEquals(slave.getRequestCounter(FunctionCode.ReadHoldingRegisters).getCount(), 2);
+            assertEquals(slave.getExceptionCounter(ExceptionCode.IllegalDataAddress).getCount(), 1);
+            assertEquals(slave.getServiceTimer(FunctionCode.ReadHoldingRegisters).getCount(), 2);
+            assertEquals(slave.getOutstandingRequestCounter().getCount(), 0);
+
+            // MBAP header + unit id + 5 byte PDU in; 7 + 4 and 7 + 2 out.
+            assertEquals(slave.getBytesReceivedCounter().getCount(), 2 * 12);
+            assertEquals(slave.getBytesSentCounter().getCount(), 11 + 9);
+        }
+
+        String prefix = ModbusTcpSlave.class.getName() + ".test.";
+        assertTrue(slave.getMetricSet().getMetrics().containsKey(prefix + "request-counter.ReadHoldingRegisters"));
+        assertTrue(slave.getMetricSet().getMetrics().containsKey(prefix + "exception-counter.IllegalDataAddress"));
+        assertTrue(slave.getMetricSet().getMetrics().containsKey(prefix + "unanswered-request-counter"));
+    }
+
+    @Test
+    public void testByteCountingDisabledByDefault() throws Exception {
+        slave = bind(new ModbusTcpSlaveConfig.Builder().build());
+        slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(0, 0, 1, 0)));
+
+        try (Socket socket = connect()) {
+            send(socket, 1, 1, 0x03, 0, 0, 0, 1);
+            receive(socket);
+
+            assertEquals(slave.getBytesReceivedCounter().getCount(), 0);
+            assertEquals(slave.getBytesSentCounter().getCount(), 0);
+        }
+    }
+
+    @Test
+    public void testUnansweredRequestsCountedOnClose() throws Exception {
+        slave = bind(new ModbusTcpSlaveConfig.Builder().build());
+        slave.setRequestHandler(new ServiceRequestHandler() {
+            @Override
+            public void onReadInputRegisters(
+                ServiceRequest<ReadInputRegistersRequest, ReadInputRegistersResponse> service) {
+                // never answered
+            }
+        });
+
+        try (Socket socket = connect()) {
+            send(socket, 1, 1, 0x04, 0, 0, 0, 1);
+            send(socket, 2, 1, 0x04, 0, 0, 0, 1);
+
+            awaitCount(slave.getOutstandingRequestCounter(), 2);
+        }
+
+        awaitCount(slave.getUnansweredRequestCounter(), 2);
+        assertEquals(slave.getOutstandingRequestCounter().getCount(), 0);
+    }
+
+    @Test
+    public void testCaptureWriter() throws Exception {
+        Path path = Files.createTempFile("capture", ".mbcp");
+
+        try {
+            CaptureWriter writer = CaptureWriter.create(path, 4096, false);
+
+            slave = bind(new ModbusTcpSlaveConfig.Builder().setCaptureWriter(writer).build());
+            slave.setRequestHandler(new ProcessImageRequestHandler(new HeapProcessImage(0, 0, 1, 0)));
+
+            try (Socket socket = connect()) {
+                send(socket, 1, 1, 0x03, 0, 0, 0, 1);
+                receive(socket);
+            }
+
+            writer.close();
+
+            try (CaptureReader reader = CaptureReader.open(path)) {
+                List<CapturedFrame> frames = reader.readAll();
+
+                assertEquals(frames.size(), 2);
+                assertEquals(frames.get(0).getDirection(), FrameDirection.Inbound);
+                assertEquals(frames.get(1).getDirection(), FrameDirection.Outbound);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static void awaitCount(Counter counter, long expected) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (counter.getCount() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(counter.getCount(), expected);
+    }
+
+    private ModbusTcpSlave bind(ModbusTcpSlaveConfig config) throws Exception {
+        port = NextPort.getAndIncrement();
+
+        return new ModbusTcpSlave(config).bind("localhost", port).get();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, int transactionId, int unitId, int... pdu) throws IOException {
+        byte[] frame = new byte[7 + pdu.length];
+        frame[0] = (byte) (transactionId >> 8);
+        frame[1] = (byte) transactionId;
+        frame[4] = (byte) ((pdu.length + 1) >> 8);
+        frame[5] = (byte) (pdu.length + 1);
+        frame[6] = (byte) unitId;
+        for (int i = 0; i < pdu.length; i++) {
+            frame[7 + i] = (byte) pdu[i];
+        }
+
+        OutputStream output = socket.getOutputStream();
+        output.write(frame);
+        output.flush();
+    }
+
+    /**
+     * @return the transaction id, unit id and PDU bytes of the next frame.
+     */
+    private static int[] receive(Socket socket) throws IOException {
+        DataInputStream input = new DataInputStream(socket.getInputStream());
+
+        int transactionId = input.readUnsignedShort();
+        input.readUnsignedShort();
+        int length = input.readUnsignedShort();
+
+        int[] frame = new int[length + 1];
+        frame[0] = transactionId;
+        for (int i = 1; i <= length; i++) {
+            frame[i] = input.readUnsignedByte();
+        }
+        return frame;
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.digitalpetri.modbus.slave.image.HeapProcessImage;
+import com.digitalpetri.modbus.slave.image.ProcessImageRequestHandler;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class ModbusUdpSlaveTest {
+
+    private static final String Localhost = "127.0.0.1";
+
+    private static final AtomicInteger NextPort = new AtomicInteger(32200);
+
+    private final HeapProcessImage image = new HeapProcessImage(0, 0, 10, 0);
+
+    private int port;
+    private ModbusUdpSlave slave;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        port = NextPort.getAndIncrement();
+
+        slave = new ModbusUdpSlave(new ModbusUdpSlaveConfig.Builder().build()).bind(Localhost, port).get();
+        slave.setRequestHandler(new ProcessImageRequestHandler(image));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        if (slave != null) slave.shutdown();
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        image.setHoldingRegister(2, 222);
+
+        try (DatagramSocket socket = connect()) {
+            send(socket, 1, 1, 0x03, 0, 2, 0, 1);
+            assertEquals(receive(socket), new int[]{1, 1, 0x03, 2, 0, 222});
+
+            send(socket, 2, 1, 0x06, 0, 5, 0x01, 0x02);
+            assertEquals(receive(socket), new int[]{2, 1, 0x06, 0, 5, 0x01, 0x02});
+            assertEquals(image.getHoldingRegister(5), 0x0102);
+        }
+    }
+
+    @Test
+    public void testRepliesToEachSender() throws Exception {
+        image.setHoldingRegister(0, 7);
+
+        try (DatagramSocket first = connect(); DatagramSocket second = connect()) {
+            send(first, 10, 1, 0x03, 0, 0, 0, 1);
+            send(second, 20, 1, 0x03, 0, 0, 0, 1);
+
+            assertEquals(receive(second), new int[]{20, 1, 0x03, 2, 0, 7});
+            assertEquals(receive(first), new int[]{10, 1, 0x03, 2, 0, 7});
+        }
+    }
+
+    @Test
+    public void testUnsupportedFunction() throws Exception {
+        try (DatagramSocket socket = connect()) {
+            send(socket, 1, 1, 0x2B, 0x0E, 0x01, 0x00);
+            assertEquals(receive(socket), new int[]{1, 1, 0xAB, 0x01});
+
+            // Still serving afterwards.
+            send(socket, 2, 1, 0x03, 0, 0, 0, 1);
+            assertEquals(receive(socket)[0], 2);
+        }
+    }
+
+    @Test
+    public void testShortDatagramIsDropped() throws Exception {
+        try (DatagramSocket socket = connect()) {
+            byte[] runt = new byte[]{0, 1, 0, 0};
+            socket.send(new DatagramPacket(runt, runt.length));
+
+            send(socket, 2, 1, 0x03, 0, 0, 0, 1);
+            assertEquals(receive(socket)[0], 2);
+        }
+    }
+
+    private DatagramSocket connect() throws IOException {
+        DatagramSocket socket = new DatagramSocket(0, InetAddress.getByName(Localhost));
+        socket.connect(InetAddress.getByName(Localhost), port);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(DatagramSocket socket, int transactionId, int unitId, int... pdu) throws IOException {
+        byte[] frame = new byte[7 + pdu.length];
+        frame[0] = (byte) (transactionId >> 8);
+        frame[1] = (byte) transactionId;
+        frame[4] = (byte) ((pdu.length + 1) >> 8);
+        frame[5] = (byte) (pdu.length + 1);
+        frame[6] = (byte) unitId;
+        for (int i = 0; i < pdu.length; i++) {
+            frame[7 + i] = (byte) pdu[i];
+        }
+
+        socket.send(new DatagramPacket(frame, frame.length));
+    }
+
+    /**
+     * @return the transaction id, unit id and PDU bytes of the next datagram.
+     */
+    private static int[] receive(DatagramSocket socket) throws IOException {
+        byte[] buffer = new byte[260];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        socket.receive(packet);
+
+        int length = ((buffer[4] & 0xFF) << 8) | (buffer[5] & 0xFF);
+
+        int[] frame = new int[length + 1];
+        frame[0] = ((buffer[0] & 0xFF) << 8) | (buffer[1] & 0xFF);
+        for (int i = 1; i <= length; i++) {
+            frame[i] = buffer[5 + i] & 0xFF;
+        }
+        return frame;
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class SerialExecutorTest {
+
+    @Test
+    public void testRunsInOrderOneAtATime() throws InterruptedException {
+        ExecutorService delegate = Executors.newFixedThreadPool(4);
+
+        try {
+            SerialExecutor executor = new SerialExecutor(delegate);
+
+            int taskCount = 10000;
+            List<Integer> order = new ArrayList<>();
+            AtomicInteger running = new AtomicInteger(0);
+            AtomicInteger maxRunning = new AtomicInteger(0);
+            CountDownLatch latch = new CountDownLatch(taskCount);
+
+            for (int i = 0; i < taskCount; i++) {
+                int n = i;
+                executor.execute(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    order.add(n);
+                    running.decrementAndGet();
+                    latch.countDown();
+                });
+            }
+
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(maxRunning.get(), 1);
+
+            for (int i = 0; i < taskCount; i++) {
+                assertEquals(order.get(i).intValue(), i);
+            }
+        } finally {
+            delegate.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectedTaskIsNotQueued() throws InterruptedException {
+        AtomicBoolean rejecting = new AtomicBoolean(true);
+        ExecutorService delegate = Executors.newSingleThreadExecutor();
+
+        try {
+            SerialExecutor executor = new SerialExecutor(command -> {
+                if (rejecting.get()) throw new RejectedExecutionException("saturated");
+                delegate.execute(command);
+            });
+
+            AtomicInteger rejectedRuns = new AtomicInteger(0);
+
+            try {
+                executor.execute(rejectedRuns::incrementAndGet);
+                fail("expected RejectedExecutionException");
+            } catch (RejectedExecutionException expected) {
+                // The caller is told, and cleans up after the task itself.
+            }
+
+            // Once the delegate accepts again, later tasks run and the rejected one doesn't.
+            rejecting.set(false);
+
+            CountDownLatch latch = new CountDownLatch(1);
+            executor.execute(latch::countDown);
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(rejectedRuns.get(), 0);
+        } finally {
+            delegate.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutDownDelegate() {
+        ExecutorService delegate = Executors.newSingleThreadExecutor();
+        delegate.shutdown();
+
+        SerialExecutor executor = new SerialExecutor(delegate);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                executor.execute(() -> {});
+                fail("expected RejectedExecutionException");
+            } catch (RejectedExecutionException expected) {
+                // Rejected every time, not only the first.
+            }
+        }
+    }
+
+}
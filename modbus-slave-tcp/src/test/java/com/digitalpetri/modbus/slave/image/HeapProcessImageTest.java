@@ -0,0 +1,127 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.image;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class HeapProcessImageTest {
+
+    @Test
+    public void testRegisterRoundTrip() {
+        HeapProcessImage image = new HeapProcessImage(0, 0, 100, 100);
+
+        image.writeHoldingRegisters(10, 3, Unpooled.wrappedBuffer(new byte[]{0, 1, 0, 2, (byte) 0xFF, (byte) 0xFE}));
+        image.setInputRegister(99, 0xABCD);
+
+        ByteBuf buffer = Unpooled.buffer();
+        image.readHoldingRegisters(9, 5, buffer);
+        assertEquals(buffer, Unpooled.wrappedBuffer(new byte[]{0, 0, 0, 1, 0, 2, (byte) 0xFF, (byte) 0xFE, 0, 0}));
+
+        assertEquals(image.getHoldingRegister(12), 0xFFFE);
+        assertEquals(image.getInputRegister(99), 0xABCD);
+    }
+
+    @Test
+    public void testCoilRoundTrip() {
+        HeapProcessImage image = new HeapProcessImage(200, 200, 0, 0);
+
+        // 10 coils at address 61, straddling a word boundary: 1,0,1,1,0,0,0,0 1,1
+        image.writeCoils(61, 10, Unpooled.wrappedBuffer(new byte[]{0x0D, 0x03}));
+
+        assertTrue(image.getCoil(61));
+        assertFalse(image.getCoil(62));
+        assertTrue(image.getCoil(70));
+        assertFalse(image.getCoil(71));
+
+        ByteBuf buffer = Unpooled.buffer();
+        image.readCoils(61, 10, buffer);
+        assertEquals(buffer, Unpooled.wrappedBuffer(new byte[]{0x0D, 0x03}));
+
+        image.setDiscreteInput(199, true);
+        buffer.clear();
+        image.readDiscreteInputs(192, 8, buffer);
+        assertEquals(buffer.readUnsignedByte(), 0x80);
+    }
+
+    @Test
+    public void testMaskWrite() {
+        HeapProcessImage image = new HeapProcessImage(0, 0, 1, 0);
+        image.setHoldingRegister(0, 0x12);
+
+        // Example from the Modbus application protocol specification.
+        assertEquals(image.maskWriteHoldingRegister(0, 0xF2, 0x25), 0x17);
+        assertEquals(image.getHoldingRegister(0), 0x17);
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void testReadOutOfRange() {
+        new HeapProcessImage(0, 0, 10, 0).readHoldingRegisters(5, 6, Unpooled.buffer());
+    }
+
+    @Test
+    public void testReadsSeeWholeWrites() throws Exception {
+        HeapProcessImage image = new HeapProcessImage(0, 0, 125, 0);
+
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<String> failure = new AtomicReference<>();
+        CountDownLatch readerDone = new CountDownLatch(1);
+
+        Thread reader = new Thread(() -> {
+            ByteBuf buffer = Unpooled.buffer(250);
+            while (!done.get()) {
+                buffer.clear();
+                image.readHoldingRegisters(0, 125, buffer);
+
+                int first = buffer.getUnsignedShort(0);
+                for (int i = 1; i < 125; i++) {
+                    if (buffer.getUnsignedShort(i * 2) != first) {
+                        failure.set("torn read at register " + i);
+                        done.set(true);
+                    }
+                }
+            }
+            readerDone.countDown();
+        });
+        reader.start();
+
+        ByteBuf values = Unpooled.buffer(250);
+        for (int n = 0; n < 20000 && !done.get(); n++) {
+            values.clear();
+            for (int i = 0; i < 125; i++) {
+                values.writeShort(n);
+            }
+            image.writeHoldingRegisters(0, 125, values);
+        }
+
+        done.set(true);
+        readerDone.await();
+
+        assertNull(failure.get());
+    }
+
+}
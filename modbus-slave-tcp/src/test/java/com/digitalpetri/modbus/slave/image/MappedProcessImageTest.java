@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.HashedWheelTimer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class MappedProcessImageTest {
+
+    private Path path;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        path = Files.createTempFile("process-image", ".bin");
+        Files.delete(path);
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void testValuesSurviveReopen() throws IOException {
+        try (MappedProcessImage image = MappedProcessImage.open(path, 100, 100, 100, 100)) {
+            image.setHoldingRegister(42, 0x1234);
+            image.setCoil(99, true);
+            assertEquals(image.getSequence() % 2, 0L);
+        }
+
+        try (MappedProcessImage image = MappedProcessImage.open(path)) {
+            assertEquals(image.getHoldingRegisterCount(), 100);
+            assertEquals(image.getHoldingRegister(42), 0x1234);
+            assertTrue(image.getCoil(99));
+        }
+    }
+
+    @Test
+    public void testWritesVisibleThroughSecondMapping() throws IOException {
+        try (MappedProcessImage slave = MappedProcessImage.open(path, 0, 0, 10, 0);
+             MappedProcessImage external = MappedProcessImage.open(path)) {
+
+            external.writeHoldingRegisters(0, 2, Unpooled.wrappedBuffer(new byte[]{0, 1, 0, 2}));
+
+            ByteBuf buffer = Unpooled.buffer();
+            slave.readHoldingRegisters(0, 2, buffer);
+            assertEquals(buffer.readInt(), 0x00010002);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testLayoutMismatch() throws IOException {
+        MappedProcessImage.open(path, 0, 0, 10, 0).close();
+        MappedProcessImage.open(path, 0, 0, 20, 0).close();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testCorruptTableOffset() throws IOException {
+        MappedProcessImage.open(path, 0, 0, 10, 0).close();
+
+        // Point the holding register table back into the header.
+        putHeaderField(32, ByteBuffer.allocate(4).putInt(0, 8));
+
+        MappedProcessImage.open(path).close();
+    }
+
+    @Test
+    public void testSequenceLeftOddFailsRead() throws IOException {
+        try (MappedProcessImage image = MappedProcessImage.open(path, 0, 0, 10, 0)) {
+            // As if a writer in another process died mid-write.
+            putHeaderField(40, ByteBuffer.allocate(8).putLong(0, 1L));
+
+            try {
+                image.readHoldingRegisters(0, 1, Unpooled.buffer());
+                fail("expected ProcessImageBusyException");
+            } catch (ProcessImageBusyException expected) {
+                // Failed after a bounded number of attempts.
+            }
+
+            try {
+                image.getHoldingRegister(0);
+                fail("expected ProcessImageBusyException");
+            } catch (ProcessImageBusyException expected) {
+                // Likewise for single values.
+            }
+        }
+    }
+
+    @Test
+    public void testForceRunsOnConfiguredTimerAndExecutor() throws Exception {
+        HashedWheelTimer wheelTimer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+
+        MappedProcessImageConfig config = new MappedProcessImageConfig.Builder()
+            .setForceInterval(Duration.ofMillis(20))
+            .setWheelTimer(wheelTimer)
+            .setExecutor(executor)
+            .build();
+
+        try (MappedProcessImage image = MappedProcessImage.open(path, config, 0, 0, 10, 0)) {
+            image.setHoldingRegister(0, 1);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (executor.getCompletedTaskCount() == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+            assertTrue(executor.getCompletedTaskCount() > 0);
+        } finally {
+            wheelTimer.stop();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMatchesHeapProcessImage() throws IOException {
+        Random random = new Random(0);
+        HeapProcessImage heap = new HeapProcessImage(500, 500, 200, 200);
+
+        try (MappedProcessImage mapped = MappedProcessImage.open(path, 500, 500, 200, 200)) {
+            for (int n = 0; n < 500; n++) {
+                int quantity = 1 + random.nextInt(150);
+                int address = random.nextInt(500 - quantity);
+                byte[] values = new byte[(quantity + 7) / 8];
+                random.nextBytes(values);
+
+                heap.writeCoils(address, quantity, Unpooled.wrappedBuffer(values));
+                mapped.writeCoils(address, quantity, Unpooled.wrappedBuffer(values));
+
+                int readQuantity = 1 + random.nextInt(150);
+                int readAddress = random.nextInt(500 - readQuantity);
+                ByteBuf expected = Unpooled.buffer();
+                ByteBuf actual = Unpooled.buffer();
+                heap.readCoils(readAddress, readQuantity, expected);
+                mapped.readCoils(readAddress, readQuantity, actual);
+                assertEquals(actual, expected);
+
+                int register = random.nextInt(200);
+                int and = random.nextInt(0x10000);
+                int or = random.nextInt(0x10000);
+                assertEquals(
+                    mapped.maskWriteHoldingRegister(register, and, or),
+                    heap.maskWriteHoldingRegister(register, and, or));
+            }
+        }
+    }
+
+    private void putHeaderField(int index, ByteBuffer value) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(value, index);
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016 Kevin Herron
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.digitalpetri.modbus.slave.image;
+
+import com.digitalpetri.modbus.ExceptionCode;
+import com.digitalpetri.modbus.requests.ModbusRequest;
+import com.digitalpetri.modbus.requests.ReadCoilsRequest;
+import com.digitalpetri.modbus.requests.ReadHoldingRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteMultipleRegistersRequest;
+import com.digitalpetri.modbus.requests.WriteSingleCoilRequest;
+import com.digitalpetri.modbus.responses.ModbusResponse;
+import com.digitalpetri.modbus.responses.ReadCoilsResponse;
+import com.digitalpetri.modbus.responses.ReadHoldingRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteMultipleRegistersResponse;
+import com.digitalpetri.modbus.responses.WriteSingleCoilResponse;
+import com.digitalpetri.modbus.slave.ServiceRequestHandler.ServiceRequest;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class ProcessImageRequestHandlerTest {
+
+    @Test
+    public void testWriteThenRead() {
+        HeapProcessImage image = new HeapProcessImage(16, 0, 10, 0);
+        ProcessImageRequestHandler handler = new ProcessImageRequestHandler(image);
+
+        TestServiceRequest<WriteMultipleRegistersRequest, WriteMultipleRegistersResponse> write =
+            new TestServiceRequest<>(1, new WriteMultipleRegistersRequest(2, 2, new byte[]{0, 7, 0, 8}));
+        handler.onWriteMultipleRegisters(write);
+        assertEquals(write.response.getQuantity(), 2);
+
+        TestServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> read =
+            new TestServiceRequest<>(1, new ReadHoldingRegistersRequest(2, 2));
+        handler.onReadHoldingRegisters(read);
+        assertEquals(read.response.getRegisters().readInt(), 0x00070008);
+        read.response.release();
+
+        image.setCoil(3, true);
+        TestServiceRequest<ReadCoilsRequest, ReadCoilsResponse> coils =
+            new TestServiceRequest<>(1, new ReadCoilsRequest(0, 16));
+        handler.onReadCoils(coils);
+        assertEquals(coils.response.getCoilStatus().readUnsignedShort(), 0x0800);
+        coils.response.release();
+    }
+
+    @Test
+    public void testExceptions() {
+        ProcessImageRequestHandler handler = new ProcessImageRequestHandler();
+        handler.setProcessImage(5, new HeapProcessImage(0, 0, 10, 0));
+
+        TestServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> unmapped =
+            new TestServiceRequest<>(6, new ReadHoldingRegistersRequest(0, 1));
+        handler.onReadHoldingRegisters(unmapped);
+        assertEquals(unmapped.exceptionCode, ExceptionCode.GatewayPathUnavailable);
+
+        TestServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> outOfRange =
+            new TestServiceRequest<>(5, new ReadHoldingRegistersRequest(5, 6));
+        handler.onReadHoldingRegisters(outOfRange);
+        assertEquals(outOfRange.exceptionCode, ExceptionCode.IllegalDataAddress);
+        assertNull(outOfRange.response);
+
+        TestServiceRequest<ReadHoldingRegistersRequest, ReadHoldingRegistersResponse> tooMany =
+            new TestServiceRequest<>(5, new ReadHoldingRegistersRequest(0, 126));
+        handler.onReadHoldingRegisters(tooMany);
+        assertEquals(tooMany.exceptionCode, ExceptionCode.IllegalDataValue);
+    }
+
+    @Test
+    public void testWriteSingleCoilValues() {
+        HeapProcessImage image = new HeapProcessImage(8, 0, 0, 0);
+        ProcessImageRequestHandler handler = new ProcessImageRequestHandler(image);
+
+        TestServiceRequest<WriteSingleCoilRequest, WriteSingleCoilResponse> on =
+            new TestServiceRequest<>(1, new WriteSingleCoilRequest(2, 0xFF00));
+        handler.onWriteSingleCoil(on);
+        assertEquals(on.response.getValue(), 0xFF00);
+        assertTrue(image.getCoil(2));
+
+        TestServiceRequest<WriteSingleCoilRequest, WriteSingleCoilResponse> illegal =
+            new TestServiceRequest<>(1, new WriteSingleCoilRequest(2, 0x0001));
+        handler.onWriteSingleCoil(illegal);
+        assertEquals(illegal.exceptionCode, ExceptionCode.IllegalDataValue);
+        assertNull(illegal.response);
+        assertTrue(image.getCoil(2));
+
+        TestServiceRequest<WriteSingleCoilRequest, WriteSingleCoilResponse> off =
+            new TestServiceRequest<>(1, new WriteSingleCoilRequest(2, 0x0000));
+        handler.onWriteSingleCoil(off);
+        assertEquals(off.response.getValue(), 0x0000);
+        assertFalse(image.getCoil(2));
+    }
+
+    private static class TestServiceRequest<Request extends ModbusRequest, Response extends ModbusResponse>
+        implements ServiceRequest<Request, Response> {
+
+        private final EmbeddedChannel channel = new EmbeddedChannel();
+
+        private final short unitId;
+        private final Request request;
+
+        private Response response;
+        private ExceptionCode exceptionCode;
+
+        private TestServiceRequest(int unitId, Request request) {
+            this.unitId = (short) unitId;
+            this.request = request;
+        }
+
+        @Override
+        public short getTransactionId() {
+            return 0;
+        }
+
+        @Override
+        public short getUnitId() {
+            return unitId;
+        }
+
+        @Override
+        public Request getRequest() {
+            return request;
+        }
+
+        @Override
+        public Channel getChannel() {
+            return channel;
+        }
+
+        @Override
+        public void sendResponse(Response response) {
+            this.response = response;
+        }
+
+        @Override
+        public void sendException(ExceptionCode exceptionCode) {
+            this.exceptionCode = exceptionCode;
+        }
+
+    }
+
+}